@@ -0,0 +1,340 @@
+package sg.atom2d.datastructure.rtree;
+
+import gnu.trove.procedure.TIntProcedure;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import sg.atom2d.geo.Rectangle;
+
+/**
+ * <p>Read-only snapshot of an {@link RTree}, created by
+ * {@link RTree#freeze()}.</p>
+ *
+ * <p>Nodes are packed breadth first into flat primitive arrays, and the
+ * queries keep their traversal state on the stack instead of in member
+ * variables, so any number of threads can query the same snapshot.</p>
+ *
+ * <p>Batch queries answer many query rectangles or points in one call. The
+ * batch intersection descends the tree once, carrying down the subset of
+ * queries which still overlap each node. The parallel variants split the
+ * batch into ranges and run them on the given executor.</p>
+ */
+public final class FrozenRTree {
+
+    /**
+     * Receive the results of a batch query.
+     */
+    public interface BatchProcedure {
+
+        /**
+         * @param query index of the query in the batch arrays
+         * @param id id of the matching entry
+         * @return false to stop the whole batch
+         */
+        public boolean execute(int query, int id);
+    }
+    // per node
+    private final int[] nodeStart;
+    private final int[] nodeCount;
+    private final boolean[] nodeLeaf;
+    // per entry: bounds, and child node index (index nodes) or entry id (leaves)
+    private final float[] minX;
+    private final float[] minY;
+    private final float[] maxX;
+    private final float[] maxY;
+    private final int[] refs;
+    private final int height;
+    private final int size;
+
+    FrozenRTree(RTree tree) {
+        // breadth first numbering of the nodes, root is 0
+        List<RTreeNode> nodes = new ArrayList<RTreeNode>();
+        nodes.add(tree.getNode(tree.getRootNodeId()));
+        int entries = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            RTreeNode n = nodes.get(i);
+            entries += n.entryCount;
+            if (!n.isLeaf()) {
+                for (int e = 0; e < n.entryCount; e++) {
+                    nodes.add(tree.getNode(n.ids[e]));
+                }
+            }
+        }
+        nodeStart = new int[nodes.size()];
+        nodeCount = new int[nodes.size()];
+        nodeLeaf = new boolean[nodes.size()];
+        minX = new float[entries];
+        minY = new float[entries];
+        maxX = new float[entries];
+        maxY = new float[entries];
+        refs = new int[entries];
+        int pos = 0;
+        int nextChild = 1;
+        for (int i = 0; i < nodes.size(); i++) {
+            RTreeNode n = nodes.get(i);
+            nodeStart[i] = pos;
+            nodeCount[i] = n.entryCount;
+            nodeLeaf[i] = n.isLeaf();
+            for (int e = 0; e < n.entryCount; e++, pos++) {
+                minX[pos] = n.entriesMinX[e];
+                minY[pos] = n.entriesMinY[e];
+                maxX[pos] = n.entriesMaxX[e];
+                maxY[pos] = n.entriesMaxY[e];
+                refs[pos] = n.isLeaf() ? n.ids[e] : nextChild++;
+            }
+        }
+        height = tree.getTreeHeight();
+        size = tree.size();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //-------------------------------------------------------------------------
+    // Single queries
+    //-------------------------------------------------------------------------
+    public void intersects(Rectangle r, TIntProcedure v) {
+        intersects(0, r.minX, r.minY, r.maxX, r.maxY, v);
+    }
+
+    private boolean intersects(int node, float qMinX, float qMinY, float qMaxX, float qMaxY, TIntProcedure v) {
+        boolean leaf = nodeLeaf[node];
+        for (int e = nodeStart[node], end = e + nodeCount[node]; e < end; e++) {
+            if (Rectangle.intersects(qMinX, qMinY, qMaxX, qMaxY, minX[e], minY[e], maxX[e], maxY[e])) {
+                if (leaf) {
+                    if (!v.execute(refs[e])) {
+                        return false;
+                    }
+                } else if (!intersects(refs[e], qMinX, qMinY, qMaxX, qMaxY, v)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // Batch queries
+    //-------------------------------------------------------------------------
+    /**
+     * Find the entries intersecting each of the query rectangles
+     * <code>from</code> (inclusive) to <code>to</code> (exclusive), in one
+     * traversal of the tree.
+     */
+    public void intersects(float[] qMinX, float[] qMinY, float[] qMaxX, float[] qMaxY, int from, int to, BatchProcedure v) {
+        if (to <= from || size == 0) {
+            return;
+        }
+        int[] active = new int[to - from];
+        for (int q = from; q < to; q++) {
+            active[q - from] = q;
+        }
+        // one scratch list of surviving queries per level
+        int[][] scratch = new int[height][to - from];
+        intersects(0, 0, active, to - from, qMinX, qMinY, qMaxX, qMaxY, scratch, v);
+    }
+
+    private boolean intersects(int node, int depth, int[] active, int activeCount,
+            float[] qMinX, float[] qMinY, float[] qMaxX, float[] qMaxY, int[][] scratch, BatchProcedure v) {
+        boolean leaf = nodeLeaf[node];
+        int[] next = scratch[depth];
+        for (int e = nodeStart[node], end = e + nodeCount[node]; e < end; e++) {
+            float eMinX = minX[e];
+            float eMinY = minY[e];
+            float eMaxX = maxX[e];
+            float eMaxY = maxY[e];
+            int nextCount = 0;
+            for (int i = 0; i < activeCount; i++) {
+                int q = active[i];
+                if (Rectangle.intersects(qMinX[q], qMinY[q], qMaxX[q], qMaxY[q], eMinX, eMinY, eMaxX, eMaxY)) {
+                    next[nextCount++] = q;
+                }
+            }
+            if (nextCount == 0) {
+                continue;
+            }
+            if (leaf) {
+                for (int i = 0; i < nextCount; i++) {
+                    if (!v.execute(next[i], refs[e])) {
+                        return false;
+                    }
+                }
+            } else if (!intersects(refs[e], depth + 1, next, nextCount, qMinX, qMinY, qMaxX, qMaxY, scratch, v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the <code>n</code> nearest entries of each query point
+     * <code>from</code> (inclusive) to <code>to</code> (exclusive).
+     *
+     * <p>The results of query <code>q</code> are written sorted by distance
+     * at <code>outIds[(q - from) * n]</code> and
+     * <code>outDistanceSq[(q - from) * n]</code>; missing results are
+     * <code>-1</code>. Unlike {@link RTree#nearestN}, exactly n entries are
+     * returned when entries are at the same distance.</p>
+     *
+     * @param outDistanceSq may be null
+     */
+    public void nearestN(float[] px, float[] py, int from, int to, int n, float furthestDistance, int[] outIds, float[] outDistanceSq) {
+        if (n <= 0) {
+            return;
+        }
+        int[] heapIds = new int[n];
+        float[] heapDist = new float[n];
+        float furthestDistanceSq = furthestDistance * furthestDistance;
+        for (int q = from; q < to; q++) {
+            int found = size == 0 ? 0 : nearestN(0, px[q], py[q], n, furthestDistanceSq, heapIds, heapDist, 0);
+            // heap sort in place, largest distance goes last
+            for (int last = found - 1; last > 0; last--) {
+                swap(heapIds, heapDist, 0, last);
+                siftDown(heapIds, heapDist, 0, last);
+            }
+            int base = (q - from) * n;
+            for (int k = 0; k < n; k++) {
+                outIds[base + k] = k < found ? heapIds[k] : -1;
+                if (outDistanceSq != null) {
+                    outDistanceSq[base + k] = k < found ? heapDist[k] : -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Branch and bound search keeping a max-heap of the best candidates.
+     *
+     * @return the number of candidates in the heap
+     */
+    private int nearestN(int node, float x, float y, int n, float boundSq, int[] heapIds, float[] heapDist, int found) {
+        boolean leaf = nodeLeaf[node];
+        for (int e = nodeStart[node], end = e + nodeCount[node]; e < end; e++) {
+            float bound = found == n ? Math.min(boundSq, heapDist[0]) : boundSq;
+            float d = Rectangle.distanceSq(minX[e], minY[e], maxX[e], maxY[e], x, y);
+            if (d > bound) {
+                continue;
+            }
+            if (!leaf) {
+                found = nearestN(refs[e], x, y, n, boundSq, heapIds, heapDist, found);
+            } else if (found < n) {
+                // sift up
+                int i = found++;
+                heapIds[i] = refs[e];
+                heapDist[i] = d;
+                while (i > 0) {
+                    int parent = (i - 1) >> 1;
+                    if (heapDist[parent] >= heapDist[i]) {
+                        break;
+                    }
+                    swap(heapIds, heapDist, parent, i);
+                    i = parent;
+                }
+            } else if (d < heapDist[0]) {
+                heapIds[0] = refs[e];
+                heapDist[0] = d;
+                siftDown(heapIds, heapDist, 0, found);
+            }
+        }
+        return found;
+    }
+
+    private static void siftDown(int[] ids, float[] dist, int i, int count) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= count) {
+                return;
+            }
+            int largest = left;
+            if (left + 1 < count && dist[left + 1] > dist[left]) {
+                largest = left + 1;
+            }
+            if (dist[i] >= dist[largest]) {
+                return;
+            }
+            swap(ids, dist, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(int[] ids, float[] dist, int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        float d = dist[a];
+        dist[a] = dist[b];
+        dist[b] = d;
+    }
+
+    //-------------------------------------------------------------------------
+    // Parallel batch queries
+    //-------------------------------------------------------------------------
+    /**
+     * Parallel version of
+     * {@link #intersects(float[], float[], float[], float[], int, int, BatchProcedure)}
+     * over the queries 0 to count. The procedure is called from the executor
+     * threads and must be thread safe; returning false only stop its own
+     * range.
+     */
+    public void intersectsParallel(final float[] qMinX, final float[] qMinY, final float[] qMaxX, final float[] qMaxY,
+            int count, int rangeSize, ExecutorService executor, final BatchProcedure v) throws InterruptedException {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int start = 0; start < count; start += rangeSize) {
+            final int from = start;
+            final int to = Math.min(start + rangeSize, count);
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    intersects(qMinX, qMinY, qMaxX, qMaxY, from, to, v);
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, tasks);
+    }
+
+    /**
+     * Parallel version of
+     * {@link #nearestN(float[], float[], int, int, int, float, int[], float[])}
+     * over the queries 0 to count.
+     */
+    public void nearestNParallel(final float[] px, final float[] py, int count, final int n, final float furthestDistance,
+            final int[] outIds, final float[] outDistanceSq, int rangeSize, ExecutorService executor) throws InterruptedException {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int start = 0; start < count; start += rangeSize) {
+            final int from = start;
+            final int to = Math.min(start + rangeSize, count);
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    // every range writes its own slice of the output
+                    int[] ids = new int[(to - from) * n];
+                    float[] dist = outDistanceSq == null ? null : new float[ids.length];
+                    nearestN(px, py, from, to, n, furthestDistance, ids, dist);
+                    System.arraycopy(ids, 0, outIds, from * n, ids.length);
+                    if (dist != null) {
+                        System.arraycopy(dist, 0, outDistanceSq, from * n, dist.length);
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, tasks);
+    }
+
+    private static void invokeAll(ExecutorService executor, List<Callable<Object>> tasks) throws InterruptedException {
+        for (Future<Object> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+}
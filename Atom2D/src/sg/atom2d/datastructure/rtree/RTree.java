@@ -23,6 +23,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.procedure.TIntProcedure;
 import gnu.trove.stack.array.TIntArrayStack;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -617,6 +618,130 @@ public class RTree implements SpatialIndex2D, Serializable {
     // end of SpatialIndex methods
     //-------------------------------------------------------------------------
 
+    //-------------------------------------------------------------------------
+    // Bulk loading and read-only snapshots
+    //-------------------------------------------------------------------------
+    /**
+     * Build a packed tree from arrays of bounds with the Sort-Tile-Recursive
+     * algorithm, instead of inserting the entries one at a time. The tree
+     * must be initialized and empty. Nodes are filled to MaxNodeEntries,
+     * entries can still be added or deleted afterwards.
+     *
+     * <p>See: S. Leutenegger, M. Lopez, J. Edgington. STR: A Simple and
+     * Efficient Algorithm for R-Tree Packing. ICDE 1997.</p>
+     *
+     * @param count number of entries to read from the arrays
+     */
+    public void bulkLoad(float[] minX, float[] minY, float[] maxX, float[] maxY, int[] ids, int count) {
+        if (size > 0) {
+            throw new IllegalStateException("bulkLoad() requires an empty tree, size = " + size);
+        }
+        if (count <= 0) {
+            return;
+        }
+        nodeMap.clear();
+        deletedNodeIds.clear();
+        highestUsedNodeId = -1;
+
+        float[] levelMinX = minX;
+        float[] levelMinY = minY;
+        float[] levelMaxX = maxX;
+        float[] levelMaxY = maxY;
+        int[] levelIds = ids;
+        int levelCount = count;
+        int level = 1;
+        while (true) {
+            int[] order = strOrder(levelMinX, levelMinY, levelMaxX, levelMaxY, levelCount);
+            int nodeCount = (levelCount + maxNodeEntries - 1) / maxNodeEntries;
+            float[] nodeMinX = new float[nodeCount];
+            float[] nodeMinY = new float[nodeCount];
+            float[] nodeMaxX = new float[nodeCount];
+            float[] nodeMaxY = new float[nodeCount];
+            int[] nodeIds = new int[nodeCount];
+            RTreeNode n = null;
+            for (int k = 0; k < nodeCount; k++) {
+                n = new RTreeNode(getNextNodeId(), level, maxNodeEntries);
+                for (int i = k * maxNodeEntries, end = Math.min(i + maxNodeEntries, levelCount); i < end; i++) {
+                    int e = order[i];
+                    n.addEntry(levelMinX[e], levelMinY[e], levelMaxX[e], levelMaxY[e], levelIds[e]);
+                }
+                nodeMap.put(n.nodeId, n);
+                nodeMinX[k] = n.mbrMinX;
+                nodeMinY[k] = n.mbrMinY;
+                nodeMaxX[k] = n.mbrMaxX;
+                nodeMaxY[k] = n.mbrMaxY;
+                nodeIds[k] = n.nodeId;
+            }
+            if (nodeCount == 1) {
+                rootNodeId = n.nodeId;
+                treeHeight = level;
+                break;
+            }
+            levelMinX = nodeMinX;
+            levelMinY = nodeMinY;
+            levelMaxX = nodeMaxX;
+            levelMaxY = nodeMaxY;
+            levelIds = nodeIds;
+            levelCount = nodeCount;
+            level++;
+        }
+        size = count;
+
+        if (INTERNAL_CONSISTENCY_CHECKING) {
+            checkConsistency();
+        }
+    }
+
+    /**
+     * STR ordering: sort by center x, cut into vertical slices of
+     * sqrt(nodeCount) nodes, sort each slice by center y.
+     */
+    private int[] strOrder(float[] minX, float[] minY, float[] maxX, float[] maxY, int count) {
+        int nodeCount = (count + maxNodeEntries - 1) / maxNodeEntries;
+        int sliceSize = (int) Math.ceil(Math.sqrt(nodeCount)) * maxNodeEntries;
+        // sort (key, index) pairs packed in longs to avoid boxing
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = sortKey((minX[i] + maxX[i]) * 0.5f, i);
+        }
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) keys[i];
+        }
+        for (int start = 0; start < count; start += sliceSize) {
+            int end = Math.min(start + sliceSize, count);
+            for (int i = start; i < end; i++) {
+                int e = order[i];
+                keys[i] = sortKey((minY[e] + maxY[e]) * 0.5f, e);
+            }
+            Arrays.sort(keys, start, end);
+            for (int i = start; i < end; i++) {
+                order[i] = (int) keys[i];
+            }
+        }
+        return order;
+    }
+
+    private static long sortKey(float value, int index) {
+        int bits = Float.floatToIntBits(value);
+        bits ^= (bits >> 31) & 0x7FFFFFFF;
+        return ((long) bits << 32) | (index & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Copy the tree into an immutable, array packed snapshot which can be
+     * queried from many threads at once. Later changes to this tree are not
+     * reflected in the snapshot.
+     */
+    public FrozenRTree freeze() {
+        return new FrozenRTree(this);
+    }
+
+    int getTreeHeight() {
+        return treeHeight;
+    }
+
     /**
      * Get the next available node ID. Reuse deleted node IDs if possible
      */
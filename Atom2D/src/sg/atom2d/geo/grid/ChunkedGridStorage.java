@@ -0,0 +1,167 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom2d.geo.grid;
+
+/**
+ * Sparse GridStorage made of 32x32 chunks of cells, allocated when the first
+ * cell of the chunk is set and released when the last one is cleared.
+ *
+ * <p>Memory is proportional to the painted area of the map instead of its
+ * bounds, and region iteration skip the empty chunks entirely.
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class ChunkedGridStorage<T> implements GridStorage<T> {
+
+    public static final int CHUNK_SHIFT = 5;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private final int width;
+    private final int height;
+    private final int chunksX;
+    private final int chunksY;
+    private final Object[][] chunks;
+    private final int[] chunkCounts;
+    private int count;
+
+    public ChunkedGridStorage(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid grid size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunksY = (height + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunks = new Object[chunksX * chunksY][];
+        this.chunkCounts = new int[chunksX * chunksY];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public T get(int x, int y) {
+        checkBounds(x, y);
+        Object[] chunk = chunks[(y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT)];
+        if (chunk == null) {
+            return null;
+        }
+        return (T) chunk[((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)];
+    }
+
+    public T set(int x, int y, T value) {
+        checkBounds(x, y);
+        int c = (y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT);
+        Object[] chunk = chunks[c];
+        if (chunk == null) {
+            if (value == null) {
+                return null;
+            }
+            chunk = new Object[CHUNK_SIZE * CHUNK_SIZE];
+            chunks[c] = chunk;
+        }
+        int index = ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+        T old = (T) chunk[index];
+        chunk[index] = value;
+        if (old == null && value != null) {
+            chunkCounts[c]++;
+            count++;
+        } else if (old != null && value == null) {
+            count--;
+            if (--chunkCounts[c] == 0) {
+                chunks[c] = null;
+            }
+        }
+        return old;
+    }
+
+    public void clear() {
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = null;
+            chunkCounts[c] = 0;
+        }
+        count = 0;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Number of chunks currently allocated.
+     */
+    public int allocatedChunks() {
+        int allocated = 0;
+        for (int c = 0; c < chunks.length; c++) {
+            if (chunks[c] != null) {
+                allocated++;
+            }
+        }
+        return allocated;
+    }
+
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            return count < width * height;
+        }
+        for (int c = 0; c < chunks.length; c++) {
+            Object[] chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < chunk.length; i++) {
+                Object cell = chunk[i];
+                if (cell != null && cell.equals(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean visitRegion(int x, int y, int w, int h, GridCellVisitor<? super T> visitor) {
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + w, width);
+        int y1 = Math.min(y + h, height);
+        if (x0 >= x1 || y0 >= y1) {
+            return true;
+        }
+        for (int cy = y0 >> CHUNK_SHIFT, cyEnd = (y1 - 1) >> CHUNK_SHIFT; cy <= cyEnd; cy++) {
+            int baseY = cy << CHUNK_SHIFT;
+            int fromY = Math.max(y0, baseY);
+            int toY = Math.min(y1, baseY + CHUNK_SIZE);
+            for (int cx = x0 >> CHUNK_SHIFT, cxEnd = (x1 - 1) >> CHUNK_SHIFT; cx <= cxEnd; cx++) {
+                Object[] chunk = chunks[cy * chunksX + cx];
+                if (chunk == null) {
+                    continue;
+                }
+                int baseX = cx << CHUNK_SHIFT;
+                int fromX = Math.max(x0, baseX);
+                int toX = Math.min(x1, baseX + CHUNK_SIZE);
+                for (int py = fromY; py < toY; py++) {
+                    int row = (py - baseY) << CHUNK_SHIFT;
+                    for (int px = fromX; px < toX; px++) {
+                        Object cell = chunk[row + px - baseX];
+                        if (cell != null && !visitor.visit(px, py, (T) cell)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private void checkBounds(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + ") outside " + width + "x" + height);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom2d.geo.grid;
+
+import java.util.Arrays;
+
+/**
+ * GridStorage backed by one flat array of cells.
+ *
+ * <p>Cells are laid out in row-major order, or in Morton (Z) order to keep
+ * 2D neighbours close in memory. The Morton layout pads the grid to a square
+ * of power of two side.
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class FlatGridStorage<T> implements GridStorage<T> {
+
+    public static enum Layout {
+
+        RowMajor, Morton
+    }
+    private static final int EVEN_BITS = 0x55555555;
+    private static final int ODD_BITS = 0xAAAAAAAA;
+    private static final int MAX_MORTON_SIDE = 1 << 15;
+    private final int width;
+    private final int height;
+    private final Layout layout;
+    private final Object[] cells;
+    private int count;
+
+    public FlatGridStorage(int width, int height) {
+        this(width, height, Layout.RowMajor);
+    }
+
+    public FlatGridStorage(int width, int height, Layout layout) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid grid size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.layout = layout;
+        if (layout == Layout.Morton) {
+            int side = Integer.highestOneBit(Math.max(width, height) - 1) << 1;
+            if (side == 0) {
+                side = 1;
+            }
+            if (side > MAX_MORTON_SIDE) {
+                throw new IllegalArgumentException("Grid too large for Morton layout " + width + "x" + height);
+            }
+            this.cells = new Object[side * side];
+        } else {
+            this.cells = new Object[width * height];
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Index of the cell in the flat array. Coordinates are not checked.
+     */
+    public int indexOf(int x, int y) {
+        if (layout == Layout.Morton) {
+            return spread(x) | (spread(y) << 1);
+        }
+        return y * width + x;
+    }
+
+    public T get(int x, int y) {
+        checkBounds(x, y);
+        return (T) cells[indexOf(x, y)];
+    }
+
+    public T set(int x, int y, T value) {
+        checkBounds(x, y);
+        int index = indexOf(x, y);
+        T old = (T) cells[index];
+        cells[index] = value;
+        if (old == null && value != null) {
+            count++;
+        } else if (old != null && value == null) {
+            count--;
+        }
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(cells, null);
+        count = 0;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            return count < width * height;
+        }
+        if (count == 0) {
+            return false;
+        }
+        for (int i = 0; i < cells.length; i++) {
+            Object cell = cells[i];
+            if (cell != null && cell.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean visitRegion(int x, int y, int w, int h, GridCellVisitor<? super T> visitor) {
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + w, width);
+        int y1 = Math.min(y + h, height);
+        if (layout == Layout.Morton) {
+            int startX = spread(x0);
+            for (int cy = y0; cy < y1; cy++) {
+                int my = spread(cy) << 1;
+                int mx = startX;
+                for (int cx = x0; cx < x1; cx++) {
+                    Object cell = cells[mx | my];
+                    if (cell != null && !visitor.visit(cx, cy, (T) cell)) {
+                        return false;
+                    }
+                    // increment the interleaved x bits in place
+                    mx = ((mx | ODD_BITS) + 1) & EVEN_BITS;
+                }
+            }
+        } else {
+            for (int cy = y0; cy < y1; cy++) {
+                int row = cy * width;
+                for (int cx = x0; cx < x1; cx++) {
+                    Object cell = cells[row + cx];
+                    if (cell != null && !visitor.visit(cx, cy, (T) cell)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Direct access to the cells, laid out as described by
+     * {@link #indexOf(int, int)}.
+     */
+    public Object[] getRawCells() {
+        return cells;
+    }
+
+    private void checkBounds(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + ") outside " + width + "x" + height);
+        }
+    }
+
+    /**
+     * Spread the 16 low bits of n to the even bits.
+     */
+    private static int spread(int n) {
+        n &= 0x0000FFFF;
+        n = (n | (n << 8)) & 0x00FF00FF;
+        n = (n | (n << 4)) & 0x0F0F0F0F;
+        n = (n | (n << 2)) & 0x33333333;
+        n = (n | (n << 1)) & EVEN_BITS;
+        return n;
+    }
+}
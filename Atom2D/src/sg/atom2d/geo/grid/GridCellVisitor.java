@@ -0,0 +1,23 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom2d.geo.grid;
+
+/**
+ * Callback for bulk iteration over the cells of a {@link GridStorage}.
+ *
+ * <p>Unlike {@link GridTravel}, it doesn't produce a result per cell, so a
+ * region can be walked without any allocation.
+ *
+ * @author cuong.nguyenmanh2
+ */
+public interface GridCellVisitor<T> {
+
+    /**
+     * Visit a non empty cell.
+     *
+     * @return false to stop the iteration.
+     */
+    public boolean visit(int x, int y, T value);
+}
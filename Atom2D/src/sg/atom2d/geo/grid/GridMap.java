@@ -33,8 +33,13 @@ import sg.atom2d.geo.map.Map2D;
  *
  * <p>Under the curtain, it backed with a 2d array of Cell object if it's dense
  * or a Guava Table if it's spare. So there are two available constructors for
- * those purpose. This map can also be filled and painted like a bitmap,
- * generate a buffer on it, conver from and to bytes.
+ * those purpose. For big maps, the Flat, Morton and Chunked densities use a
+ * {@link GridStorage} instead: a flat array in row-major or Morton order, or
+ * lazily allocated 32x32 chunks for sparse maps. Those never box the
+ * coordinates and support bulk region iteration with
+ * {@link #visitRegion(int, int, int, int, GridCellVisitor)}. This map can also
+ * be filled and painted like a bitmap, generate a buffer on it, conver from and
+ * to bytes.
  *
  * <p>A GridMap can generate a RTree or QuadTree upon its stored data to speed
  * up internal query. </p>
@@ -65,7 +70,7 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
 
     public static enum MapDensity {
 
-        Full, Dense, Spare
+        Full, Dense, Spare, Flat, Morton, Chunked
     };
     public static int DEFAUL_MAP_SIZE = 100;
     public static int DEFAUL_MAP_SIZE_WIDTH = 100;
@@ -74,6 +79,7 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
     public MapDensity mapDensity;
     private T[][] mapArray;
     private Table<Integer, Integer, T> mapTable;
+    private GridStorage<T> mapStorage;
     private HashMap<T, Properties> mapProperties;
     public int width;
     public int height;
@@ -97,6 +103,12 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
             this.mapArray = (T[][]) Array.newInstance(clazz, width, height);
         } else if (density == MapDensity.Dense) {
             this.mapTable = ArrayTable.create(createRangeSet(width), createRangeSet(height));
+        } else if (density == MapDensity.Flat) {
+            this.mapStorage = new FlatGridStorage<T>(width, height, FlatGridStorage.Layout.RowMajor);
+        } else if (density == MapDensity.Morton) {
+            this.mapStorage = new FlatGridStorage<T>(width, height, FlatGridStorage.Layout.Morton);
+        } else if (density == MapDensity.Chunked) {
+            this.mapStorage = new ChunkedGridStorage<T>(width, height);
         } else {
             this.mapTable = HashBasedTable.create(width, height);
         }
@@ -126,6 +138,8 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
     public boolean isEmpty() {
         if (mapDensity.equals(MapDensity.Full)) {
             return false;
+        } else if (mapStorage != null) {
+            return mapStorage.count() == 0;
         } else {
             return mapTable.isEmpty();
         }
@@ -155,6 +169,8 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
                  */
                 return false;
             }
+        } else if (mapStorage != null) {
+            return mapStorage.containsValue(value);
         } else {
             return mapTable.containsValue(value);
         }
@@ -183,6 +199,8 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
     public void clear() {
         if (mapDensity == MapDensity.Full) {
             Arrays.fill(mapArray, null);
+        } else if (mapStorage != null) {
+            mapStorage.clear();
         } else {
             this.mapTable.clear();
         }
@@ -268,6 +286,29 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
 
     public void travelFloodFill(int x, int y) {
     }
+
+    /**
+     * Visit the non empty cells of a region without per cell allocation.
+     * Visiting order depends on the density of the map.
+     *
+     * @return false if the visitor stopped the iteration.
+     */
+    public boolean visitRegion(int x, int y, int w, int h, GridCellVisitor<? super T> visitor) {
+        if (mapStorage != null) {
+            return mapStorage.visitRegion(x, y, w, h, visitor);
+        }
+        int x1 = Math.min(x + w, width);
+        int y1 = Math.min(y + h, height);
+        for (int cy = Math.max(y, 0); cy < y1; cy++) {
+            for (int cx = Math.max(x, 0); cx < x1; cx++) {
+                T value = getAt(cx, cy);
+                if (value != null && !visitor.visit(cx, cy, value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
     //TRANSFORM
 
     // SETTER & GETTER
@@ -276,6 +317,10 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
         return mapArray;
     }
 
+    public GridStorage<T> getStorage() {
+        return mapStorage;
+    }
+
     public Table<Integer, Integer, T> getViewAsTable() {
         Table<Integer, Integer, T> table = HashBasedTable.create();
         return table;
@@ -285,6 +330,8 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
         if (this.mapDensity == MapDensity.Full) {
             mapArray[x][y] = tile;
             return tile;
+        } else if (mapStorage != null) {
+            return mapStorage.set(x, y, tile);
         } else {
             return mapTable.put(x, y, tile);
         }
@@ -301,6 +348,8 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
     public T getAt(int x, int y) {
         if (this.mapDensity == MapDensity.Full) {
             return mapArray[x][y];
+        } else if (mapStorage != null) {
+            return mapStorage.get(x, y);
         } else {
             return mapTable.get(x, y);
         }
@@ -309,6 +358,8 @@ public class GridMap<T> implements Map2D<T>, Map<Pair, T> {
     public T getAt(Object x, Object y) {
         if (this.mapDensity == MapDensity.Full) {
             return mapArray[((Integer) x).intValue()][((Integer) y).intValue()];
+        } else if (mapStorage != null) {
+            return mapStorage.get(((Integer) x).intValue(), ((Integer) y).intValue());
         } else {
             return mapTable.get(x, y);
         }
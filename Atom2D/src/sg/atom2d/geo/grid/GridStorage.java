@@ -0,0 +1,45 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom2d.geo.grid;
+
+/**
+ * Backing storage of a {@link GridMap}, working with primitive coordinates
+ * only.
+ *
+ * <p>Empty cells are <code>null</code>. Region iteration only visit the non
+ * empty cells, in the order which fit the memory layout of the storage best.
+ *
+ * @author cuong.nguyenmanh2
+ */
+public interface GridStorage<T> {
+
+    public int getWidth();
+
+    public int getHeight();
+
+    public T get(int x, int y);
+
+    /**
+     * @return the previous value of the cell.
+     */
+    public T set(int x, int y, T value);
+
+    public void clear();
+
+    /**
+     * Number of non empty cells.
+     */
+    public int count();
+
+    public boolean containsValue(Object value);
+
+    /**
+     * Visit the non empty cells of the region [x, x + w) x [y, y + h), clipped
+     * to the storage bounds.
+     *
+     * @return false if the visitor stopped the iteration.
+     */
+    public boolean visitRegion(int x, int y, int w, int h, GridCellVisitor<? super T> visitor);
+}
@@ -21,6 +21,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import sg.atom.core.actor.controller.Controller;
 import sg.atom.core.actor.controller.ControllerImplementation;
+import sg.atom.core.actor.controller.WorkStealingController;
 import sg.atom.core.actor.exceptions.ConfigurationException;
 import sg.atom.core.actor.exceptions.WrappedException;
 import sg.atom.core.actor.internal.AsyncResultImpl;
@@ -62,6 +63,15 @@ public class DefaultAgent implements Agent {
          * Java's logging system as INFO messages).
          */
         private boolean loggingActions;
+        /**
+         * If enabled, the Agent uses a {@link WorkStealingController}.
+         */
+        private boolean workStealing;
+        /**
+         * The maximum number of messages an actor executes per visit of a
+         * worker, with work stealing.
+         */
+        private int throughput = WorkStealingController.DEFAULT_THROUGHPUT;
 
         /**
          * Creates a new configuration with default values.
@@ -157,6 +167,48 @@ public class DefaultAgent implements Agent {
         public void setLoggingActions(boolean logActions) {
             this.loggingActions = logActions;
         }
+
+        /**
+         * Checks whether the agent runs its actors with work stealing.
+         *
+         * @return true for a {@link WorkStealingController}
+         */
+        public boolean isWorkStealing() {
+            return workStealing;
+        }
+
+        /**
+         * Sets whether the agent runs its actors with a
+         * {@link WorkStealingController}: maxEffectiveWorker workers with
+         * their own run queues, up to maxPhysicalWorker while some are
+         * blocked. Default: false.
+         *
+         * @param workStealing true for work stealing
+         */
+        public void setWorkStealing(boolean workStealing) {
+            this.workStealing = workStealing;
+        }
+
+        /**
+         * Returns the maximum number of messages an actor executes per visit
+         * of a worker, with work stealing.
+         *
+         * @return the throughput
+         */
+        public int getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * Sets the maximum number of messages an actor executes per visit of
+         * a worker, with work stealing. Default:
+         * {@link WorkStealingController#DEFAULT_THROUGHPUT}.
+         *
+         * @param throughput the throughput
+         */
+        public void setThroughput(int throughput) {
+            this.throughput = throughput;
+        }
     }
 
     /**
@@ -166,11 +218,20 @@ public class DefaultAgent implements Agent {
      * @param configuration the configuration to use
      */
     public DefaultAgent(Configuration configuration) {
-        controller = new ControllerImplementation(this,
-                configuration.getThreadFactory(),
-                configuration.getMaxPhysicalWorker(),
-                configuration.getMaxEffectiveWorker(),
-                configuration.isLoggingActions());
+        if (configuration.isWorkStealing()) {
+            controller = new WorkStealingController(this,
+                    configuration.getThreadFactory(),
+                    configuration.getMaxEffectiveWorker(),
+                    Math.max(configuration.getMaxEffectiveWorker(), configuration.getMaxPhysicalWorker()),
+                    configuration.getThroughput(),
+                    configuration.isLoggingActions());
+        } else {
+            controller = new ControllerImplementation(this,
+                    configuration.getThreadFactory(),
+                    configuration.getMaxPhysicalWorker(),
+                    configuration.getMaxEffectiveWorker(),
+                    configuration.isLoggingActions());
+        }
     }
 
     /**
@@ -150,7 +150,7 @@ public final class ControllerImplementation implements Controller {
 	private int getEffectiveThreadsUnsynchronized() {
 		return threadStatistics[WorkerState.Running.ordinal()] +
 			   threadStatistics[WorkerState.RunningIO.ordinal()] / 8 +
-			   threadStatistics[WorkerState.WaitingExternal.ordinal() / 128];
+			   threadStatistics[WorkerState.WaitingExternal.ordinal()] / 128;
 	}
 	
 	/**
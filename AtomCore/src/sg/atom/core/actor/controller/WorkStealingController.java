@@ -0,0 +1,443 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.core.actor.controller;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import sg.atom.core.actor.Agent;
+import sg.atom.core.actor.internal.ActorState;
+import sg.atom.core.actor.internal.KeepRunningInterface;
+import sg.atom.core.execution.workers.WorkerState;
+import sg.atom.utils.concurrent.ThreadState;
+import sg.atom.utils._commons.MultiThreadLogger;
+
+/**
+ * Controller running the actors on a fixed set of workers with their own run
+ * queues, as an alternative to {@link ControllerImplementation}.
+ *
+ * <p>An actor with work is pushed on the run queue of the worker that sent
+ * the message (or on a shared queue when the sender is not a worker). A
+ * worker takes from its own queue, then the shared one, then steals from the
+ * other workers. Each visit of an actor executes at most
+ * <code>throughput</code> messages of its mailbox before the actor goes back
+ * to the end of a queue, so a chatty actor does not starve the others.</p>
+ *
+ * <p>The number of workers stays at <code>parallelism</code>: enqueuing a
+ * message never takes a thread-statistics lock. Only when a worker blocks
+ * (waiting for a result, or in a {@link sg.atom.utils.concurrent.ThreadUsage#Waiting}
+ * message) is a compensating worker started, up to
+ * <code>maxWorkers</code>; the extra workers end after
+ * {@link #KEEP_ALIVE_MILLIS} without work.</p>
+ *
+ * <p>The mailboxes are still guarded by the actor lock, as required by
+ * {@link ActorState}. The threads come from the given ThreadFactory; on a
+ * runtime with virtual threads, a virtual thread factory makes the
+ * compensating workers cheap.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class WorkStealingController implements Controller {
+
+    private final static MultiThreadLogger log = new MultiThreadLogger(WorkStealingController.class);
+    /**
+     * Messages executed per visit of an actor by default.
+     */
+    public static final int DEFAULT_THROUGHPUT = 64;
+    /**
+     * Idle time after which a worker beyond the parallelism ends.
+     */
+    public static final long KEEP_ALIVE_MILLIS = 1000;
+    private final Agent agent;
+    private final ThreadFactory threadFactory;
+    private final int parallelism;
+    private final int maxWorkers;
+    private final int throughput;
+    private final boolean logActions;
+    private final ReentrantLock actorLock = new ReentrantLock();
+    /**
+     * Number of entries of each actor in the run queues.
+     *
+     * Locking policy: you must lock actorLock before accessing this map.
+     */
+    private final IdentityHashMap<ActorState, int[]> scheduled = new IdentityHashMap<ActorState, int[]>();
+    /**
+     * Run queue for the actors made ready by threads which are not workers.
+     */
+    private final ConcurrentLinkedQueue<ActorState> sharedQueue = new ConcurrentLinkedQueue<ActorState>();
+    private final CopyOnWriteArrayList<StealingWorker> workers = new CopyOnWriteArrayList<StealingWorker>();
+    private final ConcurrentLinkedQueue<StealingWorker> idleWorkers = new ConcurrentLinkedQueue<StealingWorker>();
+    private final ThreadLocal<StealingWorker> currentWorker = new ThreadLocal<StealingWorker>();
+    private final AtomicInteger workerCount = new AtomicInteger();
+    private final AtomicInteger blockedCount = new AtomicInteger();
+    private final AtomicLong steals = new AtomicLong();
+    private final AtomicLong visits = new AtomicLong();
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a new controller.
+     *
+     * @param agent the agent of the controller. Possible not initialized yet.
+     * @param threadFactory the ThreadFactory for the workers
+     * @param parallelism the number of workers running messages
+     * @param maxWorkers the maximum number of workers, including the ones
+     * started while others are blocked
+     * @param throughput the maximum number of messages executed per visit of
+     * an actor
+     * @param logActions if true, actions like messages will be logged
+     */
+    public WorkStealingController(Agent agent, ThreadFactory threadFactory, int parallelism, int maxWorkers,
+            int throughput, boolean logActions) {
+        if (parallelism < 1 || maxWorkers < parallelism || throughput < 1) {
+            throw new IllegalArgumentException("Need 1 <= parallelism <= maxWorkers and a positive throughput");
+        }
+        this.agent = agent;
+        this.threadFactory = threadFactory;
+        this.parallelism = parallelism;
+        this.maxWorkers = maxWorkers;
+        this.throughput = throughput;
+        this.logActions = logActions;
+    }
+
+    /**
+     * Returns an actor with work, taken from the run queues. For the classic
+     * {@link sg.atom.core.execution.workers.Worker}; the workers of this
+     * controller do not use it. You must lock actorLock before calling this!
+     */
+    public ActorState getNextFromQueueUnsynchronized() throws InterruptedException {
+        ActorState actorState = findWork(null);
+        if (actorState != null) {
+            unscheduleUnsynchronized(actorState);
+        }
+        return actorState;
+    }
+
+    /**
+     * Schedules the actor once per thread it can use, up to the parallelism.
+     * An actor without work stays in the queues until a worker finds it idle.
+     */
+    public void updateActorStateQueueUnsynchronized(ActorState actorState, int oldNumberOfOpenParallelTasks,
+            int newNumberOfOpenParallelTasks) {
+        if (newNumberOfOpenParallelTasks <= 0 || shutdown) {
+            return;
+        }
+        int wanted = Math.min(newNumberOfOpenParallelTasks, parallelism);
+        int[] entries = scheduled.get(actorState);
+        if (entries == null) {
+            entries = new int[1];
+            scheduled.put(actorState, entries);
+        }
+        while (entries[0] < wanted) {
+            entries[0]++;
+            push(actorState);
+        }
+    }
+
+    private void unscheduleUnsynchronized(ActorState actorState) {
+        int[] entries = scheduled.get(actorState);
+        if (entries != null && --entries[0] <= 0) {
+            scheduled.remove(actorState);
+        }
+    }
+
+    private void push(ActorState actorState) {
+        StealingWorker worker = currentWorker.get();
+        if (worker != null) {
+            worker.queue.offer(actorState);
+        } else {
+            sharedQueue.offer(actorState);
+        }
+        signalWork();
+    }
+
+    /**
+     * Wakes up an idle worker, or starts one if there are fewer running
+     * workers than the parallelism.
+     */
+    private void signalWork() {
+        StealingWorker idle = idleWorkers.poll();
+        if (idle != null) {
+            LockSupport.unpark(idle.thread);
+        } else if (workerCount.get() - blockedCount.get() < parallelism) {
+            tryStartWorker();
+        }
+    }
+
+    private boolean tryStartWorker() {
+        while (true) {
+            int n = workerCount.get();
+            if (n >= maxWorkers || shutdown) {
+                return false;
+            }
+            if (workerCount.compareAndSet(n, n + 1)) {
+                break;
+            }
+        }
+        StealingWorker worker = new StealingWorker();
+        try {
+            worker.thread = threadFactory.newThread(worker);
+            workers.add(worker);
+            worker.thread.start();
+            return true;
+        } catch (RuntimeException ex) {
+            workers.remove(worker);
+            workerCount.decrementAndGet();
+            throw ex;
+        } catch (Error ex) {
+            workers.remove(worker);
+            workerCount.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Own queue, shared queue, then the queues of the other workers.
+     */
+    private ActorState findWork(StealingWorker self) {
+        ActorState actorState;
+        if (self != null && (actorState = self.queue.poll()) != null) {
+            return actorState;
+        }
+        if ((actorState = sharedQueue.poll()) != null) {
+            return actorState;
+        }
+        int n = workers.size();
+        if (n == 0) {
+            return null;
+        }
+        int start = self != null ? self.nextVictim++ : 0;
+        for (int i = 0; i < n; i++) {
+            StealingWorker victim;
+            try {
+                victim = workers.get((start + i) % n);
+            } catch (IndexOutOfBoundsException ex) {
+                // a worker ended meanwhile
+                break;
+            }
+            if (victim != self && (actorState = victim.queue.poll()) != null) {
+                steals.incrementAndGet();
+                return actorState;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasQueuedWork() {
+        if (!sharedQueue.isEmpty()) {
+            return true;
+        }
+        for (StealingWorker worker : workers) {
+            if (!worker.queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlocked(WorkerState state) {
+        return state == WorkerState.WaitingInternal || state == WorkerState.WaitingExternal;
+    }
+
+    /**
+     * Counts the blocked workers; a worker blocking while actors wait in the
+     * queues is compensated by a new one.
+     */
+    public void changeWorkerThreadState(WorkerState oldState, WorkerState newState) {
+        if (isBlocked(oldState) == isBlocked(newState)) {
+            return;
+        }
+        if (isBlocked(newState)) {
+            blockedCount.incrementAndGet();
+            if (idleWorkers.isEmpty() && hasQueuedWork()) {
+                tryStartWorker();
+            }
+        } else {
+            blockedCount.decrementAndGet();
+        }
+    }
+
+    public void removeWorkerThreadState(WorkerState oldState) {
+        if (isBlocked(oldState)) {
+            blockedCount.decrementAndGet();
+        }
+    }
+
+    public Agent getAgent() {
+        return agent;
+    }
+
+    public KeepRunningInterface createKeepRunningInterface() {
+        return new KeepRunningInterface() {
+            public boolean shouldContinue() {
+                return !shutdown;
+            }
+        };
+    }
+
+    public boolean isLoggingActions() {
+        return logActions;
+    }
+
+    public ReentrantLock getActorLock() {
+        return actorLock;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Returns the number of workers currently started.
+     */
+    public int getWorkerCount() {
+        return workerCount.get();
+    }
+
+    /**
+     * Returns the number of actors taken from the queue of another worker.
+     */
+    public long getStealCount() {
+        return steals.get();
+    }
+
+    /**
+     * Returns the number of actor visits by the workers.
+     */
+    public long getVisitCount() {
+        return visits.get();
+    }
+
+    public void shutdown() {
+        actorLock.lock();
+        try {
+            shutdown = true;
+            scheduled.clear();
+            sharedQueue.clear();
+            for (StealingWorker worker : workers) {
+                worker.queue.clear();
+                LockSupport.unpark(worker.thread);
+            }
+        } finally {
+            actorLock.unlock();
+        }
+    }
+
+    /**
+     * A worker thread with its run queue.
+     */
+    private final class StealingWorker implements Runnable, KeepRunningInterface {
+
+        final ConcurrentLinkedQueue<ActorState> queue = new ConcurrentLinkedQueue<ActorState>();
+        volatile Thread thread;
+        int nextVictim;
+        // messages left in the current visit
+        private int quota;
+
+        public boolean shouldContinue() {
+            return quota-- > 0 && !shutdown;
+        }
+
+        public void run() {
+            ThreadState ts = ThreadState.get();
+            ts.initWorker(WorkStealingController.this);
+            currentWorker.set(this);
+            try {
+                while (!shutdown) {
+                    ActorState actorState = findWork(this);
+                    if (actorState == null) {
+                        if (!awaitWork()) {
+                            break;
+                        }
+                        continue;
+                    }
+                    visit(actorState, ts);
+                }
+            } catch (RuntimeException e) {
+                log.error("Unexpected exception in worker thread", e);
+                throw e;
+            } finally {
+                currentWorker.remove();
+                workers.remove(this);
+                idleWorkers.remove(this);
+                workerCount.decrementAndGet();
+                ts.uninitWorker();
+                // work pushed on this queue meanwhile goes to the others
+                ActorState left;
+                while ((left = queue.poll()) != null) {
+                    sharedQueue.offer(left);
+                }
+                if (!shutdown && !sharedQueue.isEmpty()) {
+                    signalWork();
+                }
+            }
+        }
+
+        private void visit(ActorState actorState, ThreadState ts) {
+            actorLock.lock();
+            try {
+                unscheduleUnsynchronized(actorState);
+                quota = throughput;
+                actorState.executeAllQueuedMessagesUnsynchronized(ts, this);
+            } finally {
+                actorLock.unlock();
+            }
+            visits.incrementAndGet();
+        }
+
+        /**
+         * Parks until work is signalled. Returns false if the worker should
+         * end: shutdown, or idle for too long while beyond the parallelism.
+         */
+        private boolean awaitWork() {
+            idleWorkers.offer(this);
+            // recheck, a push may have missed this worker
+            if (hasQueuedWork()) {
+                idleWorkers.remove(this);
+                return true;
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE_MILLIS);
+            while (!shutdown) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    if (idleWorkers.remove(this)) {
+                        if (workerCount.get() > parallelism) {
+                            return false;
+                        }
+                        idleWorkers.offer(this);
+                        if (hasQueuedWork()) {
+                            idleWorkers.remove(this);
+                            return true;
+                        }
+                        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE_MILLIS);
+                        continue;
+                    }
+                    // signalled just now
+                    return true;
+                }
+                LockSupport.parkNanos(this, left);
+                if (Thread.interrupted()) {
+                    idleWorkers.remove(this);
+                    return false;
+                }
+                if (!idleWorkers.contains(this)) {
+                    // taken from the idle list by signalWork()
+                    return true;
+                }
+            }
+            idleWorkers.remove(this);
+            return false;
+        }
+    }
+}
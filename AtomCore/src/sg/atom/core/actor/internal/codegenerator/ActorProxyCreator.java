@@ -37,13 +37,13 @@ import sg.atom.core.actor.internal.MultiThreadedActorState;
 import sg.atom.core.actor.internal.SingleThreadedActorState;
 import sg.atom.core.bean.BeanClassDescriptor;
 import sg.atom.core.bean.BeanFactory;
-import sg.atom.core.concurrent.AsyncResult;
-import sg.atom.core.event.message.MessageCaller;
-import sg.atom.core.event.message.MessageImplDescriptor;
+import sg.atom.utils.concurrent.AsyncResult;
 import sg.atom.utils.concurrent.ConcurrencyModel;
 import sg.atom.utils.concurrent.Shared;
 import sg.atom.utils.datastructure.collection.immutable.ImmutableHelper;
 import sg.atom.utils.datastructure.collection.immutable.SerializableFreezer;
+import sg.atom.utils.event.message.MessageCaller;
+import sg.atom.utils.event.message.MessageImplDescriptor;
 
 /**
  * ProxyCreator is a singleton that creates proxy classes for all Actor classes
@@ -164,7 +164,7 @@ public final class ActorProxyCreator {
 
         cw.visit(codeVersion, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL + Opcodes.ACC_SUPER + Opcodes.ACC_SYNTHETIC, classNameInternal,
                 "L" + classNameInternal + "<" + returnSignature + ">;",
-                "org/actorsguildframework/internal/MessageCaller", null);
+                "sg/atom/utils/event/message/MessageCaller", null);
         cw.visitSource(null, null);
 
         {
@@ -173,7 +173,7 @@ public final class ActorProxyCreator {
             Label l0 = new Label();
             mv.visitLabel(l0);
             mv.visitVarInsn(Opcodes.ALOAD, 0);
-            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "org/actorsguildframework/internal/MessageCaller", "<init>", "()V");
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "sg/atom/utils/event/message/MessageCaller", "<init>", "()V");
             mv.visitInsn(Opcodes.RETURN);
             Label l1 = new Label();
             mv.visitLabel(l1);
@@ -182,8 +182,8 @@ public final class ActorProxyCreator {
             mv.visitEnd();
         }
         {
-            mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "invoke", "(Lorg/actorsguildframework/Actor;[Ljava/lang/Object;)Lorg/actorsguildframework/AsyncResult;",
-                    "(Lorg/actorsguildframework/Actor;[Ljava/lang/Object;)Lorg/actorsguildframework/AsyncResult<" + returnSignature + ">;", null);
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "invoke", "(Lsg/atom/core/actor/Actor;[Ljava/lang/Object;)Lsg/atom/utils/concurrent/AsyncResult;",
+                    "(Lsg/atom/core/actor/Actor;[Ljava/lang/Object;)Lsg/atom/utils/concurrent/AsyncResult<" + returnSignature + ">;", null);
             mv.visitCode();
             Label l0 = new Label();
             mv.visitLabel(l0);
@@ -219,7 +219,7 @@ public final class ActorProxyCreator {
             Label l2 = new Label();
             mv.visitLabel(l2);
             mv.visitLocalVariable("this", "L" + classNameInternal + ";", null, l0, l2, 0);
-            mv.visitLocalVariable("instance", "Lorg/actorsguildframework/Actor;", null, l0, l2, 1);
+            mv.visitLocalVariable("instance", "Lsg/atom/core/actor/Actor;", null, l0, l2, 1);
             mv.visitLocalVariable("arguments", "[Ljava/lang/Object;", null, l0, l2, 2);
 
             mv.visitMaxs(0, 0);
@@ -255,6 +255,25 @@ public final class ActorProxyCreator {
         return BeanCreator.generateFactoryClass(actorClass, generatedBeanClassName, acd.getBeanClassDescriptor(), true);
     }
     private static final String MESSAGE_CALLER_NAME_FORMAT = "messageCaller_%d__ACTORPROXY";
+
+    /**
+     * Returns the local variable slots of the method's parameters, long and
+     * double taking two slots, followed by the first free slot.
+     *
+     * @param method the method
+     * @return the slots, one more than the parameters
+     */
+    private static int[] getParameterSlots(Method method) {
+        Class<?>[] types = method.getParameterTypes();
+        int[] slots = new int[types.length + 1];
+        int slot = 1;
+        for (int j = 0; j < types.length; j++) {
+            slots[j] = slot;
+            slot += Type.getType(types[j]).getSize();
+        }
+        slots[types.length] = slot;
+        return slots;
+    }
     private static final String SUPER_CALLER_NAME_FORMAT = "%s__ACTORPROXYMETHOD_original";
 
     /**
@@ -278,8 +297,9 @@ public final class ActorProxyCreator {
         Label l0 = new Label();
         mv.visitLabel(l0);
         mv.visitVarInsn(Opcodes.ALOAD, 0);
+        final int[] slots = getParameterSlots(method);
         for (int j = 0; j < method.getParameterTypes().length; j++) {
-            mv.visitVarInsn(Type.getType(method.getParameterTypes()[j]).getOpcode(Opcodes.ILOAD), j + 1);
+            mv.visitVarInsn(Type.getType(method.getParameterTypes()[j]).getOpcode(Opcodes.ILOAD), slots[j]);
         }
         mv.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(actorClass), method.getName(), simpleDescriptor);
         mv.visitInsn(Type.getType(method.getReturnType()).getOpcode(Opcodes.IRETURN));
@@ -287,7 +307,7 @@ public final class ActorProxyCreator {
         mv.visitLabel(l1);
         mv.visitLocalVariable("this", classNameDescriptor, null, l0, l1, 0);
         for (int j = 0; j < method.getParameterTypes().length; j++) {
-            mv.visitLocalVariable("arg" + j, Type.getDescriptor(method.getParameterTypes()[j]), GenericTypeHelper.getSignatureIfGeneric(method.getGenericParameterTypes()[j]), l0, l1, j + 1);
+            mv.visitLocalVariable("arg" + j, Type.getDescriptor(method.getParameterTypes()[j]), GenericTypeHelper.getSignatureIfGeneric(method.getGenericParameterTypes()[j]), l0, l1, slots[j]);
         }
         mv.visitMaxs(0, 0);
         mv.visitEnd();
@@ -314,13 +334,13 @@ public final class ActorProxyCreator {
 
         ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
         MethodVisitor mv;
-        cw.visit(codeVersion, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL + Opcodes.ACC_SUPER + Opcodes.ACC_SYNTHETIC, classNameInternal, null, Type.getInternalName(actorClass), new String[]{"org/actorsguildframework/internal/ActorProxy"});
+        cw.visit(codeVersion, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL + Opcodes.ACC_SUPER + Opcodes.ACC_SYNTHETIC, classNameInternal, null, Type.getInternalName(actorClass), new String[]{"sg/atom/core/actor/internal/ActorProxy"});
 
         cw.visitSource(null, null);
 
         {
             for (int i = 0; i < acd.getMessageCount(); i++) {
-                cw.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL + Opcodes.ACC_STATIC, String.format(MESSAGE_CALLER_NAME_FORMAT, i), "Lorg/actorsguildframework/internal/MessageCaller;", "Lorg/actorsguildframework/internal/MessageCaller<*>;", null)
+                cw.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL + Opcodes.ACC_STATIC, String.format(MESSAGE_CALLER_NAME_FORMAT, i), "Lsg/atom/utils/event/message/MessageCaller;", "Lsg/atom/utils/event/message/MessageCaller<*>;", null)
                         .visitEnd();
             }
 
@@ -340,7 +360,7 @@ public final class ActorProxyCreator {
                 mv.visitTypeInsn(Opcodes.NEW, mcName);
                 mv.visitInsn(Opcodes.DUP);
                 mv.visitMethodInsn(Opcodes.INVOKESPECIAL, mcName, "<init>", "()V");
-                mv.visitFieldInsn(Opcodes.PUTSTATIC, classNameInternal, String.format(MESSAGE_CALLER_NAME_FORMAT, i), "Lorg/actorsguildframework/internal/MessageCaller;");
+                mv.visitFieldInsn(Opcodes.PUTSTATIC, classNameInternal, String.format(MESSAGE_CALLER_NAME_FORMAT, i), "Lsg/atom/utils/event/message/MessageCaller;");
             }
             mv.visitInsn(Opcodes.RETURN);
             mv.visitMaxs(0, 0);
@@ -355,7 +375,7 @@ public final class ActorProxyCreator {
                 mv.visitInsn(Opcodes.DUP);
                 mv.visitVarInsn(Opcodes.ALOAD, 1);
                 mv.visitVarInsn(Opcodes.ALOAD, 0);
-                mv.visitMethodInsn(Opcodes.INVOKESPECIAL, actorState.getInternalName(), "<init>", "(Lorg/actorsguildframework/internal/Controller;Lorg/actorsguildframework/Actor;)V");
+                mv.visitMethodInsn(Opcodes.INVOKESPECIAL, actorState.getInternalName(), "<init>", "(Lsg/atom/core/actor/controller/Controller;Lsg/atom/core/actor/Actor;)V");
                 mv.visitFieldInsn(Opcodes.PUTFIELD, classNameInternal, "actorState__ACTORPROXY", actorState.getDescriptor());
             }
         });
@@ -363,7 +383,7 @@ public final class ActorProxyCreator {
         BeanCreator.writePropAccessors(bcd, classNameInternal, cw);
 
         {
-            mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "getState__ACTORPROXYMETHOD", "()Lorg/actorsguildframework/internal/ActorState;", null, null);
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "getState__ACTORPROXYMETHOD", "()Lsg/atom/core/actor/internal/ActorState;", null, null);
             mv.visitCode();
             Label l0 = new Label();
             mv.visitLabel(l0);
@@ -464,6 +484,8 @@ public final class ActorProxyCreator {
             mv.visitCode();
             Label l0 = new Label();
             mv.visitLabel(l0);
+            final int[] slots = getParameterSlots(method);
+            final int argsSlot = slots[slots.length - 1]; // 'args' local variable
             mv.visitIntInsn(Opcodes.BIPUSH, method.getParameterTypes().length);
             mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
             for (int j = 0; j < method.getParameterTypes().length; j++) {
@@ -473,15 +495,15 @@ public final class ActorProxyCreator {
                 if (paraType.isPrimitive()) {
                     String wrapperClass = GenerationUtils.getWrapperInternalName(paraType);
                     Type primType = Type.getType(paraType);
-                    mv.visitVarInsn(primType.getOpcode(Opcodes.ILOAD), j + 1);
+                    mv.visitVarInsn(primType.getOpcode(Opcodes.ILOAD), slots[j]);
                     mv.visitMethodInsn(Opcodes.INVOKESTATIC, wrapperClass, "valueOf", "(" + primType.getDescriptor() + ")" + "L" + wrapperClass + ";");
                 } else if (isArgumentFreezingRequired(method, j, paraType)) {
-                    mv.visitVarInsn(Opcodes.ALOAD, j + 1);
+                    mv.visitVarInsn(Opcodes.ALOAD, slots[j]);
                     mv.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(SerializableFreezer.class), "freeze", Type.getMethodDescriptor(SerializableFreezer.class.getMethod("freeze", Object.class)));
                 } else if (paraType.isInterface()) {
-                    mv.visitVarInsn(Opcodes.ALOAD, j + 1);
+                    mv.visitVarInsn(Opcodes.ALOAD, slots[j]);
                     mv.visitInsn(Opcodes.DUP);
-                    mv.visitTypeInsn(Opcodes.INSTANCEOF, "org/actorsguildframework/Actor");
+                    mv.visitTypeInsn(Opcodes.INSTANCEOF, "sg/atom/core/actor/Actor");
                     Label lEndif = new Label();
                     mv.visitJumpInsn(Opcodes.IFNE, lEndif);
                     mv.visitTypeInsn(Opcodes.NEW, Type.getInternalName(ActorRuntimeException.class));
@@ -491,28 +513,28 @@ public final class ActorProxyCreator {
                     mv.visitInsn(Opcodes.ATHROW);
                     mv.visitLabel(lEndif);
                 } else {
-                    mv.visitVarInsn(Opcodes.ALOAD, j + 1);
+                    mv.visitVarInsn(Opcodes.ALOAD, slots[j]);
                 }
 
                 mv.visitInsn(Opcodes.AASTORE);
             }
             Label l1 = new Label();
             mv.visitLabel(l1);
-            mv.visitVarInsn(Opcodes.ASTORE, method.getParameterTypes().length + 1); // method.getParameterTypes().length+1 ==> 'args' local variable
+            mv.visitVarInsn(Opcodes.ASTORE, argsSlot);
             mv.visitVarInsn(Opcodes.ALOAD, 0);
             mv.visitFieldInsn(Opcodes.GETFIELD, classNameInternal, "actorState__ACTORPROXY", actorState.getDescriptor());
-            mv.visitFieldInsn(Opcodes.GETSTATIC, classNameInternal, String.format(MESSAGE_CALLER_NAME_FORMAT, index), "Lorg/actorsguildframework/internal/MessageCaller;");
-            mv.visitFieldInsn(Opcodes.GETSTATIC, "org/actorsguildframework/annotations/ThreadUsage", messageDescriptor.getThreadUsage().name(), "Lorg/actorsguildframework/annotations/ThreadUsage;");
-            mv.visitVarInsn(Opcodes.ALOAD, method.getParameterTypes().length + 1);
-            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, actorState.getInternalName(), "queueMessage", "(Lorg/actorsguildframework/internal/MessageCaller;Lorg/actorsguildframework/annotations/ThreadUsage;[Ljava/lang/Object;)Lorg/actorsguildframework/internal/AsyncResultImpl;");
+            mv.visitFieldInsn(Opcodes.GETSTATIC, classNameInternal, String.format(MESSAGE_CALLER_NAME_FORMAT, index), "Lsg/atom/utils/event/message/MessageCaller;");
+            mv.visitFieldInsn(Opcodes.GETSTATIC, "sg/atom/utils/concurrent/ThreadUsage", messageDescriptor.getThreadUsage().name(), "Lsg/atom/utils/concurrent/ThreadUsage;");
+            mv.visitVarInsn(Opcodes.ALOAD, argsSlot);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, actorState.getInternalName(), "queueMessage", "(Lsg/atom/utils/event/message/MessageCaller;Lsg/atom/utils/concurrent/ThreadUsage;[Ljava/lang/Object;)Lsg/atom/core/actor/internal/AsyncResultImpl;");
             mv.visitInsn(Opcodes.ARETURN);
             Label l4 = new Label();
             mv.visitLabel(l4);
             mv.visitLocalVariable("this", classNameDescriptor, null, l0, l4, 0);
             for (int j = 0; j < method.getParameterTypes().length; j++) {
-                mv.visitLocalVariable("arg" + j, Type.getDescriptor(method.getParameterTypes()[j]), GenericTypeHelper.getSignatureIfGeneric(method.getGenericParameterTypes()[j]), l0, l4, j + 1);
+                mv.visitLocalVariable("arg" + j, Type.getDescriptor(method.getParameterTypes()[j]), GenericTypeHelper.getSignatureIfGeneric(method.getGenericParameterTypes()[j]), l0, l4, slots[j]);
             }
-            mv.visitLocalVariable("args", "[Ljava/lang/Object;", null, l1, l4, method.getParameterTypes().length + 1);
+            mv.visitLocalVariable("args", "[Ljava/lang/Object;", null, l1, l4, argsSlot);
             mv.visitMaxs(0, 0);
             mv.visitEnd();
         }
@@ -37,6 +37,11 @@ import sg.atom.utils._commons.BeanHelper;
 /**
  * BeanCreator is a singleton that creates bean implementation classes for all
  * {@link Bean} classes. It works system-wide, for all Controllers.
+ *
+ * The classes can be generated ahead of time by {@link ProxyPrecompiler} and
+ * packaged with the beans. BeanCreator then loads the precompiled factory
+ * from the bean's class loader, and generates classes with ASM only for the
+ * beans that were not precompiled.
  */
 public final class BeanCreator {
 
@@ -57,6 +62,12 @@ public final class BeanCreator {
      * Java version.
      */
     private final static int codeVersion = System.getProperty("java.version").startsWith("1.5") ? Opcodes.V1_5 : Opcodes.V1_6;
+    /**
+     * Whether to look for precompiled factories before generating them. Set
+     * the system property sg.atom.core.actor.precompiled to false to always
+     * generate the classes.
+     */
+    private final static boolean usePrecompiled = !"false".equals(System.getProperty("sg.atom.core.actor.precompiled"));
 
     /**
      * Private constructor.
@@ -97,17 +108,59 @@ public final class BeanCreator {
                 throw new ConfigurationException("The given class has no @Bean annotation (and is no actor, which are @Beans).");
             }
 
-            BeanFactory r;
-            if (Actor.class.isAssignableFrom(beanClass)) {
-                r = actorCreator.createFactory(beanClass);
-            } else {
-                r = createFactory(beanClass);
+            BeanFactory r = usePrecompiled ? loadPrecompiledFactory(beanClass) : null;
+            if (r == null) {
+                r = generateFactory(beanClass);
             }
             beanFactories.put(beanClass, r);
             return r;
         }
     }
 
+    /**
+     * Generates the classes of the given {@link Bean} class with ASM and
+     * returns its new factory, without looking for precompiled classes.
+     *
+     * @param beanClass the class of the Bean
+     * @return the new factory
+     * @throws ConfigurationException if the agent is not configured correctly
+     */
+    BeanFactory generateFactory(Class<?> beanClass) {
+        if (Actor.class.isAssignableFrom(beanClass)) {
+            return actorCreator.createFactory(beanClass);
+        }
+        return createFactory(beanClass);
+    }
+
+    /**
+     * Loads the factory written for the given class by
+     * {@link ProxyPrecompiler}, if it is on the bean's class path.
+     *
+     * @param beanClass the class of the Bean
+     * @return the factory, or null if the class was not precompiled
+     * @throws ConfigurationException if the precompiled classes can not be
+     * loaded, for example because they are older than the bean
+     */
+    private static BeanFactory loadPrecompiledFactory(Class<?> beanClass) {
+        String className = String.format("%s__BEANFACTORY", beanClass.getName());
+        ClassLoader loader = beanClass.getClassLoader();
+        Class<?> factoryClass;
+        try {
+            factoryClass = Class.forName(className, true, loader != null ? loader : ClassLoader.getSystemClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            throw new ConfigurationException("Failure loading precompiled " + className + ", precompile the beans again", e);
+        }
+        try {
+            return (BeanFactory) factoryClass.newInstance();
+        } catch (Exception e) {
+            throw new ConfigurationException("Failure loading precompiled " + className, e);
+        } catch (LinkageError e) {
+            throw new ConfigurationException("Failure loading precompiled " + className + ", precompile the beans again", e);
+        }
+    }
+
     /**
      * Creates a new factory.
      *
@@ -169,7 +222,7 @@ public final class BeanCreator {
             mv.visitEnd();
         }
         {
-            mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "createNewInstance", "(Lorg/actorsguildframework/internal/Controller;Lorg/actorsguildframework/Props;)Ljava/lang/Object;", null, null);
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "createNewInstance", "(Lsg/atom/core/actor/controller/Controller;Lsg/atom/utils/datastructure/collection/immutable/Props;)Ljava/lang/Object;", null, null);
             mv.visitCode();
             final int initCount = bcd.getInitializerCount();
             Label tryStart = new Label();
@@ -187,7 +240,7 @@ public final class BeanCreator {
             mv.visitInsn(Opcodes.DUP);
             mv.visitVarInsn(Opcodes.ALOAD, 1);
             mv.visitVarInsn(Opcodes.ALOAD, 2);
-            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, generatedBeanClassNameInternal, "<init>", "(Lorg/actorsguildframework/internal/Controller;Lorg/actorsguildframework/Props;)V");
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, generatedBeanClassNameInternal, "<init>", "(Lsg/atom/core/actor/controller/Controller;Lsg/atom/utils/datastructure/collection/immutable/Props;)V");
 
             if (synchronizeInitializers) {
                 mv.visitInsn(Opcodes.DUP);
@@ -218,8 +271,8 @@ public final class BeanCreator {
             Label l1 = new Label();
             mv.visitLabel(l1);
             mv.visitLocalVariable("this", "L" + classNameInternal + ";", null, l0, l1, 0);
-            mv.visitLocalVariable("controller", "Lorg/actorsguildframework/internal/Controller;", null, l0, l1, 1);
-            mv.visitLocalVariable("props", "Lorg/actorsguildframework/Props;", null, l0, l1, 2);
+            mv.visitLocalVariable("controller", "Lsg/atom/core/actor/controller/Controller;", null, l0, l1, 1);
+            mv.visitLocalVariable("props", "Lsg/atom/utils/datastructure/collection/immutable/Props;", null, l0, l1, 2);
             mv.visitLocalVariable("synchronizeInitializer", "Z", null, l0, l1, 3);
             mv.visitMaxs(4, 3);
             mv.visitEnd();
@@ -417,7 +470,7 @@ public final class BeanCreator {
         final int locVarK = 4 + localPropertySize;
         final int locVarV = 5 + localPropertySize;
 
-        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(Lorg/actorsguildframework/internal/Controller;Lorg/actorsguildframework/Props;)V", null, null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(Lsg/atom/core/actor/controller/Controller;Lsg/atom/utils/datastructure/collection/immutable/Props;)V", null, null);
         mv.visitCode();
         Label lTry = new Label();
         Label lCatch = new Label();
@@ -460,9 +513,9 @@ public final class BeanCreator {
 
         mv.visitVarInsn(Opcodes.ALOAD, locVarP);
         mv.visitInsn(Opcodes.DUP);
-        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "org/actorsguildframework/Props", "getKey", "()Ljava/lang/String;");
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "sg/atom/utils/datastructure/collection/immutable/Props", "getKey", "()Ljava/lang/String;");
         mv.visitVarInsn(Opcodes.ASTORE, locVarK);
-        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "org/actorsguildframework/Props", "getValue", "()Ljava/lang/Object;");
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "sg/atom/utils/datastructure/collection/immutable/Props", "getValue", "()Ljava/lang/Object;");
         mv.visitVarInsn(Opcodes.ASTORE, locVarV);
 
         mv.visitLabel(lTry);
@@ -551,7 +604,7 @@ public final class BeanCreator {
 
         mv.visitLabel(lEndIf);
         mv.visitVarInsn(Opcodes.ALOAD, locVarP);
-        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "org/actorsguildframework/Props", "tail", "()Lorg/actorsguildframework/Props;");
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "sg/atom/utils/datastructure/collection/immutable/Props", "tail", "()Lsg/atom/utils/datastructure/collection/immutable/Props;");
         mv.visitVarInsn(Opcodes.ASTORE, locVarP);
 
         mv.visitLabel(lEndWhile);
@@ -588,15 +641,15 @@ public final class BeanCreator {
         mv.visitLabel(lEnd);
 
         mv.visitLocalVariable("this", classNameDescriptor, null, lBegin, lEnd, locVarThis);
-        mv.visitLocalVariable("controller", "Lorg/actorsguildframework/internal/Controller;", null, lBegin, lEnd, locVarController);
-        mv.visitLocalVariable("props", "Lorg/actorsguildframework/Props;", null, lBegin, lEnd, locVarProps);
+        mv.visitLocalVariable("controller", "Lsg/atom/core/actor/controller/Controller;", null, lBegin, lEnd, locVarController);
+        mv.visitLocalVariable("props", "Lsg/atom/utils/datastructure/collection/immutable/Props;", null, lBegin, lEnd, locVarProps);
         varCount = 0;
         for (PropertyDescriptor pd : localVarProperties) {
             Type pt = Type.getType(pd.getPropertyClass());
             mv.visitLocalVariable("__" + pd.getName(), pt.getDescriptor(), GenericTypeHelper.getSignature(pd.getPropertyType()), lPropertyInit, lEnd, locVarPropertiesOffset + varCount);
             varCount += pt.getSize();
         }
-        mv.visitLocalVariable("p", "Lorg/actorsguildframework/Props;", null, lPropertyInit, lEnd, locVarP);
+        mv.visitLocalVariable("p", "Lsg/atom/utils/datastructure/collection/immutable/Props;", null, lPropertyInit, lEnd, locVarP);
         mv.visitLocalVariable("k", "Ljava/lang/String;", null, lWhile, lEndWhile, locVarK);
         mv.visitLocalVariable("v", "Ljava/lang/Object;", null, lWhile, lEndWhile, locVarV);
         mv.visitMaxs(0, 0);
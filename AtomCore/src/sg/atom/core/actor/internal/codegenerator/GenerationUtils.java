@@ -15,11 +15,15 @@
  */
 package sg.atom.core.actor.internal.codegenerator;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.lang.reflect.Modifier;
 
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import sg.atom.core.actor.exceptions.ConfigurationException;
 
 
 /**
@@ -27,6 +31,49 @@ import org.objectweb.asm.Type;
  */
 public class GenerationUtils {
 
+	/**
+	 * If not null, every generated class is also written there as a class file.
+	 * Set by {@link ProxyPrecompiler}.
+	 */
+	private static volatile File outputDirectory;
+
+	/**
+	 * Defines the classes written to the output directory.
+	 */
+	private static volatile OutputClassLoader outputLoader;
+
+	/**
+	 * Sets the directory to write the generated classes to, in addition to
+	 * loading them. Null (the default) to only load them.
+	 * @param directory the root of the class files, or null
+	 */
+	public static void setOutputDirectory(File directory) {
+		setOutputDirectory(directory, Thread.currentThread().getContextClassLoader());
+	}
+
+	/**
+	 * Sets the directory to write the generated classes to. While it is set,
+	 * the generated classes are defined by a private class loader with the
+	 * given parent, rather than by the system class loader, which needs
+	 * java.lang to be opened to reflection on current JVMs. The directory
+	 * should be on the class path of the parent, so that the generated classes
+	 * can refer to each other.
+	 * @param directory the root of the class files, or null
+	 * @param parent the class loader of the bean classes
+	 */
+	public static void setOutputDirectory(File directory, ClassLoader parent) {
+		outputLoader = directory == null ? null : new OutputClassLoader(parent);
+		outputDirectory = directory;
+	}
+
+	/**
+	 * Returns the directory the generated classes are written to.
+	 * @return the directory, or null
+	 */
+	public static File getOutputDirectory() {
+		return outputDirectory;
+	}
+
 	/**
 	 * Returns the internal name of the wrapper class for the given primitive.
 	 * @param clazz the primitive class (isPrimitive() true)
@@ -84,6 +131,13 @@ public class GenerationUtils {
 	 * @return the new class
 	 */
 	public static Class<?> loadClass (String className, byte[] classByteCode) {
+		File directory = outputDirectory;
+		OutputClassLoader output = outputLoader;
+		if (directory != null && output != null) {
+			writeClass(directory, className, classByteCode);
+			return output.define(className, classByteCode);
+		}
+
 		//override classDefine (as it is protected) and define the class.
 		Class<?> clazz = null;
 		try {
@@ -101,12 +155,50 @@ public class GenerationUtils {
 				method.setAccessible(false);
 			}
 		} catch (Exception e) {
-			e.printStackTrace();
-			System.exit(1);
+			throw new ConfigurationException("Can not define the generated class " + className, e);
 		}
 		return clazz;
 	}
 
+	/**
+	 * The class loader defining the generated classes written to the output
+	 * directory, without reflection.
+	 */
+	private static final class OutputClassLoader extends ClassLoader {
+
+		OutputClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] code) {
+			return defineClass(name, code, 0, code.length);
+		}
+	}
+
+	/**
+	 * Writes the class given as byte code into a class file below the given directory.
+	 * @param directory the root of the class files
+	 * @param className the name of the class (using '.' as package separator)
+	 * @param classByteCode the byte code
+	 * @throws ConfigurationException if the file can not be written
+	 */
+	public static void writeClass(File directory, String className, byte[] classByteCode) {
+		File file = new File(directory, className.replace('.', File.separatorChar) + ".class");
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+			throw new ConfigurationException("Can not create directory " + parent);
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(classByteCode);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new ConfigurationException("Can not write " + file, e);
+		}
+	}
+
 	/**
 	 * Converts the given reflection modifiers (e.g. Method.getModifier()) and translates them
 	 * into ASM modifiers ({@link Opcodes#ACC_PUBLIC} etc).
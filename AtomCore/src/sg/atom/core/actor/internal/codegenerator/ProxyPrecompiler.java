@@ -0,0 +1,166 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.core.actor.internal.codegenerator;
+
+import java.io.File;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import sg.atom.core.actor.Actor;
+import sg.atom.core.actor.exceptions.ActorException;
+import sg.atom.core.annotations.AgentBean;
+
+/**
+ * Generates the factories, actor proxies, bean implementations and message
+ * callers of {@link AgentBean} classes at build time, as class files.
+ *
+ * <p>Packaged next to the beans, the precompiled classes are loaded by
+ * {@link BeanCreator} like any other class, so an agent does not pay the ASM
+ * generation of every bean class at start-up. Run it after the compilation
+ * of the beans, the classes on the class path:</p>
+ *
+ * <pre>
+ * java sg.atom.core.actor.internal.codegenerator.ProxyPrecompiler -d build/classes build/classes
+ * </pre>
+ *
+ * <p>Each argument is either a directory of class files, searched for bean
+ * classes, or the name of a bean class. Classes of a directory that can not be
+ * loaded or are not valid beans are skipped with a warning, named classes
+ * must be valid. From Ant, the precompile-actors macro of
+ * AtomCore/precompile-actors.xml runs it on the compiled classes of a
+ * project.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class ProxyPrecompiler {
+
+    private final File outputDirectory;
+    private final List<Class<?>> beanClasses = new ArrayList<Class<?>>();
+    private final ClassLoader loader;
+
+    public ProxyPrecompiler(File outputDirectory, ClassLoader loader) {
+        this.outputDirectory = outputDirectory;
+        this.loader = loader;
+    }
+
+    /**
+     * Adds a bean class to precompile.
+     *
+     * @param beanClass the class, annotated with {@link AgentBean}
+     */
+    public void add(Class<?> beanClass) {
+        if (!isBean(beanClass)) {
+            throw new IllegalArgumentException(beanClass.getName() + " is not a public @AgentBean class");
+        }
+        beanClasses.add(beanClass);
+    }
+
+    /**
+     * Adds the bean classes found in a directory of class files.
+     *
+     * @param classesDirectory the root of the class files, on the class path
+     * @return the number of bean classes found
+     */
+    public int addDirectory(File classesDirectory) {
+        List<String> names = new ArrayList<String>();
+        findClasses(classesDirectory, "", names);
+        int found = 0;
+        for (String name : names) {
+            Class<?> c;
+            try {
+                c = Class.forName(name, false, loader);
+            } catch (ClassNotFoundException e) {
+                System.err.println("Skipping " + name + ": not on the class path");
+                continue;
+            } catch (LinkageError e) {
+                System.err.println("Skipping " + name + ": " + e);
+                continue;
+            }
+            if (isBean(c)) {
+                beanClasses.add(c);
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static void findClasses(File directory, String packagePrefix, List<String> names) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (f.isDirectory()) {
+                findClasses(f, packagePrefix + name + ".", names);
+            } else if (name.endsWith(".class") && !name.contains("__")) {
+                // names with __ are generated classes
+                names.add(packagePrefix + name.substring(0, name.length() - ".class".length()));
+            }
+        }
+    }
+
+    /**
+     * Checks whether a class gets generated classes: a concrete or abstract
+     * class annotated with {@link AgentBean}, except {@link Actor} itself.
+     */
+    static boolean isBean(Class<?> c) {
+        return !c.isInterface() && !c.isAnnotation() && !c.isEnum()
+                && c != Actor.class
+                && Modifier.isPublic(c.getModifiers())
+                && (c.getEnclosingClass() == null || Modifier.isStatic(c.getModifiers()))
+                && c.getAnnotation(AgentBean.class) != null;
+    }
+
+    /**
+     * Generates the classes of all added beans into the output directory.
+     *
+     * @param failOnError true to throw the first failure, false to report it
+     * and go on with the next bean
+     * @return the number of beans precompiled
+     */
+    public int precompile(boolean failOnError) {
+        int done = 0;
+        File previous = GenerationUtils.getOutputDirectory();
+        GenerationUtils.setOutputDirectory(outputDirectory, loader);
+        try {
+            for (Class<?> beanClass : beanClasses) {
+                try {
+                    BeanCreator.getInstance().generateFactory(beanClass);
+                    done++;
+                } catch (ActorException e) {
+                    if (failOnError) {
+                        throw e;
+                    }
+                    System.err.println("Skipping " + beanClass.getName() + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            GenerationUtils.setOutputDirectory(previous);
+        }
+        return done;
+    }
+
+    public static void main(String[] args) throws ClassNotFoundException {
+        if (args.length < 3 || !args[0].equals("-d")) {
+            System.err.println("Usage: ProxyPrecompiler -d <output directory> (<classes directory> | <bean class>)...");
+            System.exit(2);
+        }
+        ProxyPrecompiler precompiler = new ProxyPrecompiler(new File(args[1]), Thread.currentThread().getContextClassLoader());
+        boolean onlyNamed = true;
+        for (int i = 2; i < args.length; i++) {
+            File directory = new File(args[i]);
+            if (directory.isDirectory()) {
+                precompiler.addDirectory(directory);
+                onlyNamed = false;
+            } else {
+                precompiler.add(Class.forName(args[i], false, precompiler.loader));
+            }
+        }
+        long start = System.nanoTime();
+        int done = precompiler.precompile(onlyNamed);
+        System.out.printf("Precompiled %d bean classes into %s in %.1f ms%n", done, args[1], (System.nanoTime() - start) / 1e6);
+    }
+}
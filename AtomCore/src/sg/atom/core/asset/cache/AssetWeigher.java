@@ -0,0 +1,88 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.core.asset.cache;
+
+import com.google.common.cache.Weigher;
+import com.jme3.asset.AssetKey;
+import com.jme3.audio.AudioBuffer;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Estimate the memory of an asset in bytes, from its native buffers: vertex
+ * buffers of the meshes of a Spatial, image data of a Texture, data of an
+ * AudioBuffer. Other assets weight {@link #DEFAULT_WEIGHT}.
+ *
+ * <p>The estimation ignore the Java objects around the buffers, and count
+ * buffers shared by several geometries once per geometry.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class AssetWeigher implements Weigher<AssetKey, Object> {
+
+    public static final int DEFAULT_WEIGHT = 1024;
+
+    public int weigh(AssetKey key, Object asset) {
+        long bytes = estimate(asset);
+        return bytes > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(bytes, 1);
+    }
+
+    public static long estimate(Object asset) {
+        if (asset instanceof Spatial) {
+            return estimate((Spatial) asset);
+        } else if (asset instanceof Texture) {
+            Image image = ((Texture) asset).getImage();
+            return image != null ? estimate(image) : DEFAULT_WEIGHT;
+        } else if (asset instanceof Image) {
+            return estimate((Image) asset);
+        } else if (asset instanceof AudioBuffer) {
+            ByteBuffer data = ((AudioBuffer) asset).getData();
+            return data != null ? data.capacity() : DEFAULT_WEIGHT;
+        }
+        return DEFAULT_WEIGHT;
+    }
+
+    public static long estimate(Spatial spatial) {
+        final long[] bytes = {DEFAULT_WEIGHT};
+        spatial.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geom) {
+                Mesh mesh = geom.getMesh();
+                if (mesh != null) {
+                    bytes[0] += estimate(mesh);
+                }
+            }
+        });
+        return bytes[0];
+    }
+
+    public static long estimate(Mesh mesh) {
+        long bytes = 0;
+        for (VertexBuffer vb : mesh.getBufferList()) {
+            Buffer data = vb.getData();
+            if (data != null) {
+                bytes += (long) data.capacity() * vb.getFormat().getComponentSize();
+            }
+        }
+        return bytes;
+    }
+
+    public static long estimate(Image image) {
+        long bytes = 0;
+        for (ByteBuffer data : image.getData()) {
+            if (data != null) {
+                bytes += data.capacity();
+            }
+        }
+        return bytes > 0 ? bytes : DEFAULT_WEIGHT;
+    }
+}
@@ -5,8 +5,23 @@
 package sg.atom.core.asset.cache;
 
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetManager;
 import com.jme3.asset.cache.AssetCache;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Evict with remove policy Cache based in GuavaCache for chained/ linked
@@ -21,6 +36,18 @@ import com.jme3.asset.cache.AssetCache;
  * <p>http://code.google.com/p/guava-libraries/wiki/CachesExplained . GuavaCache
  * provide some feature like Size/Timed/Reference Evict, with Removal Listener.
  *
+ * <p>The cache is bounded by the estimated bytes of its assets (see
+ * {@link AssetWeigher}) and evict the least recently used ones first. Removal
+ * listeners are told of every removed asset, {@link NativeBufferReleaser} can
+ * free the direct buffers of the explicitly removed ones. Hit, miss and
+ * eviction counts are recorded.</p>
+ *
+ * <p>With an AssetManager set, {@link #load(AssetKey)} and
+ * {@link #loadAsync(AssetKey, ExecutorService)} load missing assets through
+ * the LoadingCache, so concurrent requests of the same key wait for one load.
+ * Like the AssetManager, they return a clone of the cached asset made by
+ * {@link AssetKey#createClonedInstance(Object)}.</p>
+ *
  * <p>AtomAssetCache can wrap around any Asset to make it semi-persistent.
  *
  * <p>Take a look at AtomCacheUtils also provide some functions just related to
@@ -30,37 +57,244 @@ import com.jme3.asset.cache.AssetCache;
  */
 public class AtomAssetCache implements AssetCache {
 
-    public CacheBuilder getCacheBuilder() {
+    public static final long DEFAULT_MAX_WEIGHT = 256L * 1024 * 1024;
+    private final long maxWeight;
+    private final LoadingCache<AssetKey, Object> cache;
+    private final CopyOnWriteArrayList<RemovalListener<AssetKey, Object>> removalListeners =
+            new CopyOnWriteArrayList<RemovalListener<AssetKey, Object>>();
+    private final AtomicLong weightedSize = new AtomicLong();
+    // weight of each cached entry when it was inserted
+    private final ConcurrentHashMap<Entry, Integer> weights = new ConcurrentHashMap<Entry, Integer>();
+    private volatile AssetManager assetManager;
+    // key being loaded by the current thread through the LoadingCache
+    private final ThreadLocal<AssetKey> loadingKey = new ThreadLocal<AssetKey>();
+
+    /**
+     * Cache of {@link #DEFAULT_MAX_WEIGHT} bytes. AssetManager create the
+     * caches of the AssetKey cache types with this constructor.
+     */
+    public AtomAssetCache() {
+        this(DEFAULT_MAX_WEIGHT, new AssetWeigher());
+    }
+
+    public AtomAssetCache(long maxWeight) {
+        this(maxWeight, new AssetWeigher());
+    }
+
+    public AtomAssetCache(long maxWeight, final Weigher<AssetKey, Object> weigher) {
+        this.maxWeight = maxWeight;
+        // maximumWeight is enforced per segment: one segment let an asset use
+        // the whole weight instead of maxWeight / concurrencyLevel
+        this.cache = getCacheBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxWeight)
+                .weigher(new Weigher<AssetKey, Object>() {
+                    public int weigh(AssetKey key, Object value) {
+                        int weight = weigher.weigh(key, value);
+                        Integer previous = weights.put(new Entry(key, value), weight);
+                        weightedSize.addAndGet(previous == null ? weight : weight - previous);
+                        return weight;
+                    }
+                })
+                .removalListener(new RemovalListener<AssetKey, Object>() {
+                    public void onRemoval(RemovalNotification<AssetKey, Object> notification) {
+                        if (notification.getValue() != null
+                                && cache.asMap().get(notification.getKey()) != notification.getValue()) {
+                            // still weighed when the same asset was put again
+                            Integer weight = weights.remove(new Entry(notification.getKey(), notification.getValue()));
+                            if (weight != null) {
+                                weightedSize.addAndGet(-weight);
+                            }
+                        }
+                        for (RemovalListener<AssetKey, Object> listener : removalListeners) {
+                            listener.onRemoval(notification);
+                        }
+                    }
+                })
+                .recordStats()
+                .build(new CacheLoader<AssetKey, Object>() {
+                    @Override
+                    public Object load(AssetKey key) {
+                        return loadAsset(key);
+                    }
+                });
+    }
+
+    public CacheBuilder<Object, Object> getCacheBuilder() {
         return CacheBuilder.newBuilder();
     }
 
+    /* AssetCache */
     @Override
     public <T> void addToCache(AssetKey<T> key, T obj) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        if (key.equals(loadingKey.get())) {
+            // The AssetManager is loading for us, the LoadingCache store the result
+            return;
+        }
+        cache.put(key, obj);
     }
 
     @Override
     public <T> void registerAssetClone(AssetKey<T> key, T clone) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        // Originals are kept strongly, nothing to track
     }
 
     @Override
     public void notifyNoAssetClone() {
-        throw new UnsupportedOperationException("Not supported yet.");
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T getFromCache(AssetKey<T> key) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return (T) cache.getIfPresent(key);
     }
 
     @Override
     public boolean deleteFromCache(AssetKey key) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return cache.asMap().remove(key) != null;
     }
 
     @Override
     public void clearCache() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        cache.invalidateAll();
+    }
+
+    /* Loading */
+    public void setAssetManager(AssetManager assetManager) {
+        this.assetManager = assetManager;
+    }
+
+    public AssetManager getAssetManager() {
+        return assetManager;
+    }
+
+    /**
+     * Get a clone of the asset from the cache, or load it with the
+     * AssetManager. Only one thread load a given key, the others wait for its
+     * result.
+     *
+     * @throws IllegalStateException if no AssetManager is set
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T load(AssetKey<T> key) {
+        try {
+            return key.createClonedInstance((T) cache.getUnchecked(key));
+        } catch (UncheckedExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Load the asset on the executor. Clones of cached assets are returned
+     * without using the executor.
+     */
+    public <T> Future<T> loadAsync(final AssetKey<T> key, ExecutorService executor) {
+        // only count a hit here, the load counts the miss
+        T cached = cache.asMap().containsKey(key) ? getFromCache(key) : null;
+        if (cached != null) {
+            return Futures.immediateFuture(key.createClonedInstance(cached));
+        }
+        return executor.submit(new Callable<T>() {
+            public T call() {
+                return load(key);
+            }
+        });
+    }
+
+    private Object loadAsset(AssetKey key) {
+        AssetManager manager = assetManager;
+        if (manager == null) {
+            throw new IllegalStateException("No AssetManager to load " + key);
+        }
+        AssetKey previous = loadingKey.get();
+        loadingKey.set(key);
+        try {
+            return manager.loadAsset(key);
+        } finally {
+            if (previous == null) {
+                loadingKey.remove();
+            } else {
+                loadingKey.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Direct access to the underlying LoadingCache.
+     */
+    public LoadingCache<AssetKey, Object> getCache() {
+        return cache;
+    }
+
+    /* Listeners */
+    public void addRemovalListener(RemovalListener<AssetKey, Object> listener) {
+        removalListeners.add(listener);
+    }
+
+    public void removeRemovalListener(RemovalListener<AssetKey, Object> listener) {
+        removalListeners.remove(listener);
+    }
+
+    /* Statistics */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * Estimated bytes of the cached assets.
+     */
+    public long getWeightedSize() {
+        return weightedSize.get();
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * A cached entry: the key and the identity of the asset.
+     */
+    private static final class Entry {
+
+        final AssetKey key;
+        final Object value;
+
+        Entry(AssetKey key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return value == other.value && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + System.identityHashCode(value);
+        }
     }
 }
@@ -0,0 +1,77 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.core.asset.cache;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.jme3.asset.AssetKey;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.util.BufferUtils;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Removal listener which free the direct buffers of the assets removed from an
+ * {@link AtomAssetCache} by deleteFromCache or clearCache, instead of waiting
+ * for the garbage collector to finalize them.
+ *
+ * <p>Only use it when the removed assets are not rendered anymore: clones of a
+ * model share the mesh buffers of the cached original. Evicted and replaced
+ * entries are not released, the clones handed out may still use them.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class NativeBufferReleaser implements RemovalListener<AssetKey, Object> {
+
+    public void onRemoval(RemovalNotification<AssetKey, Object> notification) {
+        if (notification.getCause() != RemovalCause.EXPLICIT) {
+            return;
+        }
+        Object asset = notification.getValue();
+        if (asset instanceof Spatial) {
+            release((Spatial) asset);
+        } else if (asset instanceof Texture) {
+            release(((Texture) asset).getImage());
+        } else if (asset instanceof Image) {
+            release((Image) asset);
+        }
+    }
+
+    public static void release(Spatial spatial) {
+        spatial.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geom) {
+                Mesh mesh = geom.getMesh();
+                if (mesh != null) {
+                    for (VertexBuffer vb : mesh.getBufferList()) {
+                        destroy(vb.getData());
+                    }
+                }
+            }
+        });
+    }
+
+    public static void release(Image image) {
+        if (image == null) {
+            return;
+        }
+        for (ByteBuffer data : image.getData()) {
+            destroy(data);
+        }
+    }
+
+    private static void destroy(Buffer buffer) {
+        if (buffer != null && buffer.isDirect()) {
+            BufferUtils.destroyDirectBuffer(buffer);
+        }
+    }
+}
@@ -1,30 +1,73 @@
 package sg.atom.core.event;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import sg.atom.utils.datastructure.disruptor.BatchEventProcessor;
+import sg.atom.utils.datastructure.disruptor.IgnoreExceptionHandler;
+import sg.atom.utils.datastructure.disruptor.RingBuffer;
+import sg.atom.utils.datastructure.disruptor.util.DaemonThreadFactory;
+import sg.atom.utils.datastructure.disruptor.wait.LiteBlockingWaitStrategy;
+import sg.atom.utils.event.EventFactory;
+import sg.atom.utils.event.EventHandler;
+import sg.atom.utils.event.EventTranslatorOneArg;
 
 /**
- * Simple dispatcher. Not thread safe! Replaced with eventbus.
+ * Simple dispatcher. Replaced with eventbus.
+ *
+ * <p>Listeners are kept in copy-on-write arrays: registering or muting a
+ * listener, even from inside a listener, never affect a dispatch in progress.
+ * The listeners of an event class and of all its super classes are flattened
+ * into a dispatch table entry the first time the class is notified, so
+ * {@link #notify(GameEvent)} is a lookup and a loop over an array.</p>
+ *
+ * <p>After {@link #startAsync(int)}, events given to {@link #post(GameEvent)}
+ * are published into a {@link RingBuffer} and dispatched by a single consumer
+ * thread, so the posting thread never run the listeners. An exception thrown
+ * by a listener on the consumer thread is logged and the next event is
+ * dispatched.</p>
  *
  * @author atomix
  */
 @Deprecated
 public final class GameEventDispatcher {
 
+    private static final Logger LOGGER = Logger.getLogger(GameEventDispatcher.class.getName());
+    private static final Object[] NO_LISTENERS = new Object[0];
+    /**
+     * mapping of class events to active listeners, arrays are never modified
+     */
+    private final ConcurrentHashMap<Class, Object[]> map = new ConcurrentHashMap<Class, Object[]>(10);
+    /**
+     * event class to listeners of the class and its super classes
+     */
+    private final ConcurrentHashMap<Class, Object[]> dispatchTable = new ConcurrentHashMap<Class, Object[]>(10);
+    // async mode
+    private volatile RingBuffer<EventSlot> ringBuffer;
+    private BatchEventProcessor<EventSlot> processor;
     /**
-     * mapping of class events to active listeners *
+     * posts in progress, waited for by stopAsync
      */
-    private final HashMap<Class, ArrayList> map = new HashMap<Class, ArrayList>(10);
+    private final AtomicInteger posting = new AtomicInteger();
 
     /**
      * Add a listener to an event class *
      */
     public <L> void listen(Class<? extends GameEvent<L>> evtClass, L listener) {
-        final ArrayList<L> listeners = listenersOf(evtClass);
-        synchronized (listeners) {
-            if (!listeners.contains(listener)) {
-                listeners.add(listener);
+        synchronized (map) {
+            Object[] listeners = listenersOf(evtClass);
+            for (Object existing : listeners) {
+                if (existing.equals(listener)) {
+                    return;
+                }
             }
+            Object[] updated = new Object[listeners.length + 1];
+            System.arraycopy(listeners, 0, updated, 0, listeners.length);
+            updated[listeners.length] = listener;
+            map.put(evtClass, updated);
+            dispatchTable.clear();
         }
     }
 
@@ -32,38 +75,169 @@ public final class GameEventDispatcher {
      * Stop sending an event class to a given listener *
      */
     public <L> void mute(Class<? extends GameEvent<L>> evtClass, L listener) {
-        final ArrayList<L> listeners = listenersOf(evtClass);
-        synchronized (listeners) {
-            listeners.remove(listener);
+        synchronized (map) {
+            Object[] listeners = listenersOf(evtClass);
+            for (int i = 0; i < listeners.length; i++) {
+                if (listeners[i].equals(listener)) {
+                    if (listeners.length == 1) {
+                        map.remove(evtClass);
+                    } else {
+                        Object[] updated = new Object[listeners.length - 1];
+                        System.arraycopy(listeners, 0, updated, 0, i);
+                        System.arraycopy(listeners, i + 1, updated, i, updated.length - i);
+                        map.put(evtClass, updated);
+                    }
+                    dispatchTable.clear();
+                    return;
+                }
+            }
         }
     }
 
     /**
      * Gets listeners for a given event class *
      */
-    private <L> ArrayList<L> listenersOf(Class<? extends GameEvent<L>> evtClass) {
+    private Object[] listenersOf(Class evtClass) {
+        Object[] existing = map.get(evtClass);
+        return existing != null ? existing : NO_LISTENERS;
+    }
+
+    /**
+     * Gets the listeners to notify for an event class: the ones of the class
+     * first, then the ones of its super classes.
+     */
+    private Object[] dispatchListenersOf(Class evtClass) {
+        Object[] listeners = dispatchTable.get(evtClass);
+        if (listeners != null) {
+            return listeners;
+        }
         synchronized (map) {
-            @SuppressWarnings("unchecked")
-            final ArrayList<L> existing = map.get(evtClass);
-            if (existing != null) {
-                return existing;
+            ArrayList<Object> all = new ArrayList<Object>();
+            for (Class c = evtClass; c != null && GameEvent.class.isAssignableFrom(c); c = c.getSuperclass()) {
+                for (Object listener : listenersOf(c)) {
+                    if (!all.contains(listener)) {
+                        all.add(listener);
+                    }
+                }
             }
-
-            final ArrayList<L> emptyList = new ArrayList<L>(5);
-            map.put(evtClass, emptyList);
-            return emptyList;
+            listeners = all.isEmpty() ? NO_LISTENERS : all.toArray();
+            // computed under the lock, so a concurrent listen or mute can't be lost
+            dispatchTable.put(evtClass, listeners);
+            return listeners;
         }
     }
 
     /**
-     * Notify a new event to registered listeners of this event class *
+     * Notify a new event to registered listeners of this event class, on the
+     * calling thread *
      */
+    @SuppressWarnings("unchecked")
     public <L> void notify(final GameEvent<L> evt) {
-        @SuppressWarnings("unchecked")
-        Class<GameEvent<L>> evtClass = (Class<GameEvent<L>>) evt.getClass();
+        Object[] listeners = dispatchListenersOf(evt.getClass());
+        for (int i = 0; i < listeners.length; i++) {
+            evt.notify((L) listeners[i]);
+        }
+    }
+
+    /* Async mode */
+    /**
+     * Start the consumer thread of the async mode, as a daemon thread.
+     *
+     * @param bufferSize size of the ring, a power of two
+     */
+    public void startAsync(int bufferSize) {
+        startAsync(bufferSize, DaemonThreadFactory.INSTANCE);
+    }
+
+    /**
+     * Start the consumer thread of the async mode.
+     *
+     * @param bufferSize size of the ring, a power of two
+     * @param threadFactory create the consumer thread
+     */
+    public synchronized void startAsync(int bufferSize, ThreadFactory threadFactory) {
+        if (ringBuffer != null) {
+            throw new IllegalStateException("Async mode already started");
+        }
+        RingBuffer<EventSlot> ring = RingBuffer.createMultiProducer(EventSlot.FACTORY, bufferSize, new LiteBlockingWaitStrategy());
+        processor = new BatchEventProcessor<EventSlot>(ring, ring.newBarrier(), new EventHandler<EventSlot>() {
+            public void onEvent(EventSlot slot, long sequence, boolean endOfBatch) {
+                GameEvent evt = slot.evt;
+                // don't keep the event reachable from the ring
+                slot.evt = null;
+                GameEventDispatcher.this.notify(evt);
+            }
+        });
+        processor.setExceptionHandler(new IgnoreExceptionHandler(LOGGER));
+        ring.addGatingSequences(processor.getSequence());
+        threadFactory.newThread(processor).start();
+        ringBuffer = ring;
+    }
 
-        for (L listener : listenersOf(evtClass)) {
-            evt.notify(listener);
+    /**
+     * Dispatch the events already posted, then stop the consumer thread.
+     * Events posted after this call are refused; an event posted during the
+     * call is either dispatched before it returns or refused.
+     */
+    public void stopAsync() {
+        RingBuffer<EventSlot> ring;
+        BatchEventProcessor<EventSlot> consumer;
+        synchronized (this) {
+            ring = ringBuffer;
+            consumer = processor;
+            ringBuffer = null;
+            processor = null;
         }
+        if (ring == null) {
+            return;
+        }
+        // a post which saw the ring before it was cleared is published now
+        while (posting.get() != 0) {
+            Thread.yield();
+        }
+        while (consumer.getSequence().get() < ring.getCursor()) {
+            Thread.yield();
+        }
+        consumer.halt();
+    }
+
+    public boolean isAsync() {
+        return ringBuffer != null;
+    }
+
+    /**
+     * Publish an event to be dispatched on the consumer thread. Never block:
+     * if the async mode is not started or stopped, or the ring is full, the
+     * event is not published.
+     *
+     * @return true if the event was published, and will be dispatched
+     */
+    public boolean post(GameEvent<?> evt) {
+        // counted before reading the ring, so stopAsync can wait for it
+        posting.incrementAndGet();
+        try {
+            RingBuffer<EventSlot> ring = ringBuffer;
+            return ring != null && ring.tryPublishEvent(EventSlot.TRANSLATOR, evt);
+        } finally {
+            posting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Pre-allocated entry of the ring.
+     */
+    private static final class EventSlot {
+
+        static final EventFactory<EventSlot> FACTORY = new EventFactory<EventSlot>() {
+            public EventSlot newInstance() {
+                return new EventSlot();
+            }
+        };
+        static final EventTranslatorOneArg<EventSlot, GameEvent> TRANSLATOR = new EventTranslatorOneArg<EventSlot, GameEvent>() {
+            public void translateTo(EventSlot slot, long sequence, GameEvent evt) {
+                slot.evt = evt;
+            }
+        };
+        GameEvent evt;
     }
 }
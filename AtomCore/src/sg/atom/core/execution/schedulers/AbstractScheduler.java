@@ -88,6 +88,10 @@ public abstract class AbstractScheduler extends AbstractExecutorService
             this.id = id;
         }
 
+        private AbstractScheduler owner() {
+            return AbstractScheduler.this;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -147,6 +151,23 @@ public abstract class AbstractScheduler extends AbstractExecutorService
         }
     }
 
+    /**
+     * Get the id of the calling thread if it is one of this scheduler's
+     * workers.
+     *
+     * @return worker id, or -1 if called from any other thread.
+     */
+    protected int currentWorkerId() {
+        Thread current = Thread.currentThread();
+        if (current instanceof WorkThread) {
+            WorkThread worker = (WorkThread) current;
+            if (worker.owner() == this) {
+                return worker.id;
+            }
+        }
+        return -1;
+    }
+
     /**
      * {@inheritDoc}
      */
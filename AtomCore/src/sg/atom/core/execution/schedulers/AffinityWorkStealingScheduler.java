@@ -0,0 +1,215 @@
+package sg.atom.core.execution.schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Work stealing scheduler with per-worker Chase-Lev deques.
+ *
+ * <p>Compare to {@link WorkStealingScheduler}:
+ *
+ * <ul>
+ *
+ * <li>Tasks submitted from a worker thread (fan-out of subtasks) are pushed on
+ * that worker's own deque and run LIFO by it, so they stay on the same core and
+ * cache lines.</li>
+ *
+ * <li>Tasks submitted from any other thread go to a shared submission queue.
+ * </li>
+ *
+ * <li>Idle workers steal FIFO from randomly chosen victims, backing off with
+ * yields between rounds, then park. Only one parked worker is woken per
+ * submitted task instead of notifyAll on a global monitor.</li>
+ *
+ * </ul></p>
+ *
+ * @author atomix
+ */
+public class AffinityWorkStealingScheduler extends AbstractScheduler {
+
+    private static final int STEAL_ROUNDS = 4;
+    private final ChaseLevDeque<Runnable>[] deques;
+    private final ConcurrentLinkedQueue<Runnable> submissions = new ConcurrentLinkedQueue<Runnable>();
+    private final Thread[] workerThreads;
+    private final AtomicIntegerArray parked;
+    private final AtomicInteger parkedCount = new AtomicInteger();
+    private final int[] seeds;
+
+    public AffinityWorkStealingScheduler() {
+        this(defaultNumberOfWorkers());
+    }
+
+    /**
+     *
+     * @param numWorkers number of worker threads to create.
+     */
+    @SuppressWarnings("unchecked")
+    public AffinityWorkStealingScheduler(int numWorkers) {
+        super(numWorkers);
+        deques = new ChaseLevDeque[numWorkers];
+        workerThreads = new Thread[numWorkers];
+        parked = new AtomicIntegerArray(numWorkers);
+        seeds = new int[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            deques[i] = new ChaseLevDeque<Runnable>();
+            seeds[i] = (i + 1) * 0x9E3779B9;
+        }
+        startWorkers();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void addWork(Runnable command) {
+        int id = currentWorkerId();
+        if (id >= 0) {
+            deques[id].push(command);
+        } else {
+            submissions.offer(command);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Runnable getWork(int id) {
+        Runnable r = deques[id].pop();
+        if (r != null) {
+            return r;
+        }
+        r = submissions.poll();
+        if (r != null) {
+            return r;
+        }
+        int nworkers = numWorkers();
+        if (nworkers == 1) {
+            return null;
+        }
+        for (int round = 0; round < STEAL_ROUNDS; round++) {
+            int start = nextRandom(id) % nworkers;
+            for (int i = 0; i < nworkers; i++) {
+                int victim = (start + i) % nworkers;
+                if (victim != id) {
+                    r = deques[victim].steal();
+                    if (r != null) {
+                        return r;
+                    }
+                }
+            }
+            r = submissions.poll();
+            if (r != null) {
+                return r;
+            }
+            Thread.yield();
+        }
+        return null;
+    }
+
+    /**
+     * Park the worker until new work is signaled. The worker publish itself as
+     * parked before re-checking the queues, so a concurrent submit either see
+     * it parked or the worker see the new task.
+     */
+    @Override
+    protected void waitNewWork(int id) {
+        workerThreads[id] = Thread.currentThread();
+        parked.set(id, 1);
+        parkedCount.incrementAndGet();
+        if (hasWork() || isShutdown()) {
+            if (parked.compareAndSet(id, 1, 0)) {
+                parkedCount.decrementAndGet();
+            }
+            return;
+        }
+        while (parked.get(id) == 1 && !isShutdown()) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                break;
+            }
+        }
+        if (parked.compareAndSet(id, 1, 0)) {
+            parkedCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wake up one parked worker, if any.
+     */
+    @Override
+    protected void signalNewWork() {
+        if (parkedCount.get() == 0) {
+            return;
+        }
+        int nworkers = numWorkers();
+        for (int i = 0; i < nworkers; i++) {
+            if (parked.get(i) == 1 && parked.compareAndSet(i, 1, 0)) {
+                parkedCount.decrementAndGet();
+                LockSupport.unpark(workerThreads[i]);
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        for (int i = 0; i < workerThreads.length; i++) {
+            Thread t = workerThreads[i];
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<Runnable> getOutstandingWork() {
+        List<Runnable> result = new ArrayList<Runnable>();
+        for (int i = 0; i < deques.length; i++) {
+            Runnable r;
+            while ((r = deques[i].steal()) != null) {
+                result.add(r);
+            }
+        }
+        Runnable r;
+        while ((r = submissions.poll()) != null) {
+            result.add(r);
+        }
+        return result;
+    }
+
+    private boolean hasWork() {
+        if (!submissions.isEmpty()) {
+            return true;
+        }
+        for (int i = 0; i < deques.length; i++) {
+            if (!deques[i].isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Xorshift random, only touched by the worker itself.
+     */
+    private int nextRandom(int id) {
+        int x = seeds[id];
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        seeds[id] = x;
+        return x & 0x7FFFFFFF;
+    }
+}
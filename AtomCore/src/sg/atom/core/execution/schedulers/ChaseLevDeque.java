@@ -0,0 +1,128 @@
+package sg.atom.core.execution.schedulers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Dynamic circular work-stealing deque of Chase and Lev.
+ *
+ * <p>Only the owner thread may call {@link #push(Object)} and {@link #pop()},
+ * which work at the bottom of the deque without any CAS in the common case.
+ * Any other thread may call {@link #steal()}, which take from the top with a
+ * single CAS. The buffer grows when full and never shrinks.</p>
+ *
+ * <p>See: D. Chase, Y. Lev. Dynamic Circular Work-Stealing Deque. SPAA 2005.</p>
+ *
+ * @param <E> type of elements
+ * @author atomix
+ */
+public class ChaseLevDeque<E> {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private final AtomicLong top = new AtomicLong(0);
+    private volatile long bottom = 0;
+    private volatile AtomicReferenceArray<E> array;
+
+    public ChaseLevDeque() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     *
+     * @param initialCapacity rounded up to a power of two.
+     */
+    public ChaseLevDeque(int initialCapacity) {
+        int capacity = 1;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        array = new AtomicReferenceArray<E>(capacity);
+    }
+
+    /**
+     * Push an element at the bottom. Owner thread only.
+     *
+     * @param e element to push
+     */
+    public void push(E e) {
+        long b = bottom;
+        long t = top.get();
+        AtomicReferenceArray<E> a = array;
+        if (b - t >= a.length() - 1) {
+            a = grow(a, b, t);
+        }
+        a.set((int) b & (a.length() - 1), e);
+        bottom = b + 1;
+    }
+
+    /**
+     * Pop an element from the bottom. Owner thread only.
+     *
+     * @return the last pushed element, or null if empty
+     */
+    public E pop() {
+        long b = bottom - 1;
+        AtomicReferenceArray<E> a = array;
+        bottom = b;
+        long t = top.get();
+        long size = b - t;
+        if (size < 0) {
+            bottom = t;
+            return null;
+        }
+        int index = (int) b & (a.length() - 1);
+        E e = a.get(index);
+        if (size > 0) {
+            a.lazySet(index, null);
+            return e;
+        }
+        // Last element, race against the thieves
+        if (!top.compareAndSet(t, t + 1)) {
+            e = null;
+        }
+        bottom = t + 1;
+        return e;
+    }
+
+    /**
+     * Take an element from the top. Any thread.
+     *
+     * @return the oldest element, or null if empty or lost a race
+     */
+    public E steal() {
+        long t = top.get();
+        long b = bottom;
+        if (b - t <= 0) {
+            return null;
+        }
+        AtomicReferenceArray<E> a = array;
+        E e = a.get((int) t & (a.length() - 1));
+        if (e == null || !top.compareAndSet(t, t + 1)) {
+            return null;
+        }
+        return e;
+    }
+
+    /**
+     * Approximated number of elements.
+     *
+     * @return size
+     */
+    public int size() {
+        long size = bottom - top.get();
+        return size < 0 ? 0 : (int) size;
+    }
+
+    public boolean isEmpty() {
+        return bottom - top.get() <= 0;
+    }
+
+    private AtomicReferenceArray<E> grow(AtomicReferenceArray<E> old, long b, long t) {
+        AtomicReferenceArray<E> a = new AtomicReferenceArray<E>(old.length() << 1);
+        for (long i = t; i < b; i++) {
+            a.set((int) i & (a.length() - 1), old.get((int) i & (old.length() - 1)));
+        }
+        array = a;
+        return a;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.core.timing;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel (Varghese and Lauck) of 4 levels of 64 slots.
+ *
+ * <p>Time is counted in integer ticks. Scheduling and cancelling are O(1), and
+ * advancing cost one step per elapsed tick plus the entries which expire or
+ * move down a level. Entries further than 64^4 ticks wait in an overflow list
+ * until they come in range.</p>
+ *
+ * <p>Entries live in parallel primitive arrays recycled through a free list,
+ * and are linked by index, so a steady flow of schedule and expiry make no
+ * garbage. The handle returned by {@link #schedule(Object, long)} carry a
+ * generation counter, so cancelling an entry which already expired (and whose
+ * storage was reused) does nothing.</p>
+ *
+ * <p>Not thread safe.</p>
+ *
+ * @param <T> type of the scheduled items
+ * @author cuong.nguyenmanh2
+ */
+public class TimingWheel<T> {
+
+    /**
+     * Receive the expired items.
+     */
+    public interface ExpiryHandler<T> {
+
+        public void expired(T item, long handle);
+    }
+    public static final long NO_HANDLE = -1;
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int OVERFLOW = LEVELS * SLOTS;
+    private static final int NIL = -1;
+    private static final int FREE = -2;
+    private long currentTick;
+    // slot heads, the last one is the overflow list
+    private final int[] heads = new int[OVERFLOW + 1];
+    // entries
+    private long[] deadlines;
+    private Object[] items;
+    private int[] next;
+    private int[] prev;
+    private int[] slots;
+    private int[] generations;
+    private int freeHead = NIL;
+    private int used;
+    private int size;
+
+    public TimingWheel() {
+        this(256, 0);
+    }
+
+    /**
+     * @param initialCapacity number of entries allocated up front
+     * @param startTick the current tick
+     */
+    public TimingWheel(int initialCapacity, long startTick) {
+        int capacity = Math.max(initialCapacity, 16);
+        deadlines = new long[capacity];
+        items = new Object[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        slots = new int[capacity];
+        generations = new int[capacity];
+        Arrays.fill(heads, NIL);
+        currentTick = startTick;
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Number of scheduled entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Schedule an item to expire at the given tick. A deadline not after the
+     * current tick expires on the next advance.
+     *
+     * @return the handle of the entry
+     */
+    public long schedule(T item, long deadlineTick) {
+        int e = allocate();
+        deadlines[e] = deadlineTick;
+        items[e] = item;
+        place(e, currentTick + 1);
+        size++;
+        return ((long) generations[e] << 32) | e;
+    }
+
+    /**
+     * Cancel a scheduled entry.
+     *
+     * @return false if the entry already expired or was cancelled
+     */
+    public boolean cancel(long handle) {
+        int e = (int) handle;
+        if (handle < 0 || e >= used || slots[e] == FREE || generations[e] != (int) (handle >>> 32)) {
+            return false;
+        }
+        unlink(e);
+        release(e);
+        size--;
+        return true;
+    }
+
+    /**
+     * Deadline of a scheduled entry, or -1.
+     */
+    public long getDeadline(long handle) {
+        int e = (int) handle;
+        if (handle < 0 || e >= used || slots[e] == FREE || generations[e] != (int) (handle >>> 32)) {
+            return -1;
+        }
+        return deadlines[e];
+    }
+
+    /**
+     * Advance the wheel up to the given tick, giving every expired item to the
+     * handler. The handler may schedule and cancel entries.
+     *
+     * @return the number of expired items
+     */
+    @SuppressWarnings("unchecked")
+    public int advance(long tick, ExpiryHandler<? super T> handler) {
+        int expired = 0;
+        while (currentTick < tick) {
+            currentTick++;
+            if (size == 0) {
+                // nothing to cascade, jump
+                currentTick = tick;
+                break;
+            }
+            cascade();
+            int slot = (int) currentTick & SLOT_MASK;
+            int e;
+            while ((e = heads[slot]) != NIL) {
+                unlink(e);
+                T item = (T) items[e];
+                long handle = ((long) generations[e] << 32) | e;
+                release(e);
+                size--;
+                expired++;
+                handler.expired(item, handle);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Remove all the entries.
+     */
+    public void clear() {
+        for (int e = 0; e < used; e++) {
+            if (slots[e] != FREE) {
+                release(e);
+            }
+        }
+        Arrays.fill(heads, NIL);
+        size = 0;
+    }
+
+    /**
+     * Move down the entries of the higher level slots which the current tick
+     * just reached.
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = SLOT_BITS * level;
+            if ((currentTick & ((1L << shift) - 1)) != 0) {
+                return;
+            }
+            replaceAll(level * SLOTS + ((int) (currentTick >>> shift) & SLOT_MASK));
+        }
+        if ((currentTick & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0) {
+            replaceAll(OVERFLOW);
+        }
+    }
+
+    private void replaceAll(int slot) {
+        int e = heads[slot];
+        heads[slot] = NIL;
+        while (e != NIL) {
+            int n = next[e];
+            // entries due now still run in this tick
+            place(e, currentTick);
+            e = n;
+        }
+    }
+
+    /**
+     * Link an entry in the slot of its deadline.
+     *
+     * @param dueTick tick to which an entry already due is placed
+     */
+    private void place(int e, long dueTick) {
+        long deadline = deadlines[e];
+        long delta = deadline - currentTick;
+        int slot;
+        if (deadline <= dueTick) {
+            slot = (int) dueTick & SLOT_MASK;
+        } else if (delta < SLOTS) {
+            slot = (int) deadline & SLOT_MASK;
+        } else {
+            slot = OVERFLOW;
+            for (int level = 1; level < LEVELS; level++) {
+                if (delta < 1L << (SLOT_BITS * (level + 1))) {
+                    slot = level * SLOTS + ((int) (deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+                    break;
+                }
+            }
+        }
+        slots[e] = slot;
+        prev[e] = NIL;
+        int head = heads[slot];
+        next[e] = head;
+        if (head != NIL) {
+            prev[head] = e;
+        }
+        heads[slot] = e;
+    }
+
+    private void unlink(int e) {
+        int p = prev[e];
+        int n = next[e];
+        if (p != NIL) {
+            next[p] = n;
+        } else {
+            heads[slots[e]] = n;
+        }
+        if (n != NIL) {
+            prev[n] = p;
+        }
+    }
+
+    private int allocate() {
+        int e = freeHead;
+        if (e != NIL) {
+            freeHead = next[e];
+            return e;
+        }
+        if (used == deadlines.length) {
+            int capacity = used << 1;
+            deadlines = Arrays.copyOf(deadlines, capacity);
+            items = Arrays.copyOf(items, capacity);
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+        }
+        return used++;
+    }
+
+    private void release(int e) {
+        items[e] = null;
+        slots[e] = FREE;
+        generations[e] = (generations[e] + 1) & 0x7FFFFFFF;
+        next[e] = freeHead;
+        freeHead = e;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.entity.framework.atomes;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * An Archetype is the unique combination of component types and group of a set
+ * of entities.
+ *
+ * <p>All entities of an Archetype are stored together in
+ * {@link ArchetypeChunk}s, so a system iterating over one component type only
+ * touch packed arrays instead of walking a map of entity objects.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class Archetype {
+
+    final int index;
+    final Class[] types;
+    final int[] typeIds;
+    final BitSet mask;
+    final String group;
+    final int chunkCapacity;
+    final ArrayList<ArchetypeChunk> chunks = new ArrayList<ArchetypeChunk>();
+    int size;
+
+    Archetype(int index, Class[] types, int[] typeIds, BitSet mask, String group, int chunkCapacity) {
+        this.index = index;
+        this.types = types;
+        this.typeIds = typeIds;
+        this.mask = mask;
+        this.group = group;
+        this.chunkCapacity = chunkCapacity;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    public ArchetypeChunk getChunk(int i) {
+        return chunks.get(i);
+    }
+
+    public Class[] getTypes() {
+        return types.clone();
+    }
+
+    /**
+     * Column of the given component type id in this archetype, or -1.
+     */
+    int columnOf(int typeId) {
+        // typeIds are sorted and archetypes rarely have more than a dozen
+        // components, a linear scan beat a hash lookup here.
+        for (int i = 0; i < typeIds.length; i++) {
+            if (typeIds[i] == typeId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Append a row and return its global slot (chunk * capacity + row).
+     */
+    int allocate(long id) {
+        ArchetypeChunk chunk;
+        if (chunks.isEmpty() || chunks.get(chunks.size() - 1).isFull()) {
+            chunk = new ArchetypeChunk(types.length, chunkCapacity);
+            chunks.add(chunk);
+        } else {
+            chunk = chunks.get(chunks.size() - 1);
+        }
+        int row = chunk.count++;
+        chunk.ids[row] = id;
+        size++;
+        return (chunks.size() - 1) * chunkCapacity + row;
+    }
+
+    Object get(int slot, int column) {
+        return chunks.get(slot / chunkCapacity).columns[column][slot % chunkCapacity];
+    }
+
+    void set(int slot, int column, Object value) {
+        chunks.get(slot / chunkCapacity).columns[column][slot % chunkCapacity] = value;
+    }
+
+    /**
+     * Swap-remove the row at the given slot with the last row of the archetype.
+     *
+     * @return the id of the entity which was moved into the slot, or
+     * <code>-1</code> if the removed row was the last one.
+     */
+    long remove(int slot) {
+        ArchetypeChunk last = chunks.get(chunks.size() - 1);
+        int lastRow = last.count - 1;
+        int lastSlot = (chunks.size() - 1) * chunkCapacity + lastRow;
+        long moved = -1;
+        if (slot != lastSlot) {
+            ArchetypeChunk chunk = chunks.get(slot / chunkCapacity);
+            int row = slot % chunkCapacity;
+            moved = last.ids[lastRow];
+            chunk.ids[row] = moved;
+            for (int c = 0; c < types.length; c++) {
+                chunk.columns[c][row] = last.columns[c][lastRow];
+            }
+        }
+        for (int c = 0; c < types.length; c++) {
+            last.columns[c][lastRow] = null;
+        }
+        last.count--;
+        size--;
+        if (last.count == 0) {
+            chunks.remove(chunks.size() - 1);
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.entity.framework.atomes;
+
+/**
+ * A fixed capacity block of entities which share the same {@link Archetype}.
+ *
+ * <p>The chunk is a struct-of-arrays: one primitive <code>long[]</code> of ids
+ * and one column per component type. Row <code>i</code> of every column belongs
+ * to the entity <code>getId(i)</code>. Rows are always packed from
+ * <code>0</code> to <code>size() - 1</code>.</p>
+ *
+ * <p>The columns are exposed directly to the systems for iteration. Do not keep
+ * a reference to a column after a structural change of the repository (create,
+ * destroy, add or remove component), rows can be moved by swap-remove.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class ArchetypeChunk {
+
+    final long[] ids;
+    final Object[][] columns;
+    int count;
+
+    ArchetypeChunk(int columnCount, int capacity) {
+        this.ids = new long[capacity];
+        this.columns = new Object[columnCount][capacity];
+        this.count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    boolean isFull() {
+        return count == ids.length;
+    }
+
+    public long getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Raw column of the component at the given column index of the archetype.
+     * Only the first {@link #size()} rows are valid.
+     *
+     * @param column
+     * @return
+     */
+    public Object[] getColumn(int column) {
+        return columns[column];
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.entity.framework.atomes;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import sg.atom.entity.general.EntityRepository;
+
+/**
+ * An EntityRepository which store components by archetype in columnar chunks.
+ *
+ * <p>Unlike the HashMap backed {@link sg.atom.entity.EntityManager}, entities
+ * here are only primitive <code>long</code> ids. Their components are kept in
+ * the {@link ArchetypeChunk}s of their {@link Archetype}: the unique combination
+ * of their component types and their group. Adding or removing a component (or
+ * changing the group) move the entity to another archetype.</p>
+ *
+ * <p>Queries by component set and by group are cached
+ * ({@link #query(Class[])}, {@link #queryGroup(String, Class[])}) and are
+ * maintained incrementally when new archetypes appear. Running a query cost the
+ * number of matching archetypes, not the number of entities.</p>
+ *
+ * <p>This implementation is not thread safe. As the EntityManager, it should be
+ * modified from the update thread only.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class ArchetypeEntityRepository implements EntityRepository {
+
+    public static final long NONE_ID = -1;
+    public static final String DEFAULT_GROUP = "";
+    public static final int DEFAULT_CHUNK_CAPACITY = 1024;
+    private final int chunkCapacity;
+    private long lastEntityId = -1;
+    // id -> (archetype index << 32 | slot)
+    private final TLongLongHashMap locations;
+    // Component types
+    private final HashMap<Class, Integer> typeIds = new HashMap<Class, Integer>();
+    private final ArrayList<Class> types = new ArrayList<Class>();
+    // Archetypes
+    private final ArrayList<Archetype> archetypes = new ArrayList<Archetype>();
+    private final HashMap<ArchetypeKey, Archetype> archetypeIndex = new HashMap<ArchetypeKey, Archetype>();
+    // Queries
+    private final HashMap<String, ArchetypeQuery> queries = new HashMap<String, ArchetypeQuery>();
+
+    public ArchetypeEntityRepository() {
+        this(DEFAULT_CHUNK_CAPACITY, 1024);
+    }
+
+    public ArchetypeEntityRepository(int chunkCapacity, int expectedEntities) {
+        if (chunkCapacity <= 0) {
+            throw new IllegalArgumentException("Chunk capacity must be positive " + chunkCapacity);
+        }
+        this.chunkCapacity = chunkCapacity;
+        this.locations = new TLongLongHashMap(expectedEntities, 0.5f, NONE_ID, NONE_ID);
+    }
+
+    /* Entities */
+    public long createEntity(Object... components) {
+        return createEntityInGroup(DEFAULT_GROUP, components);
+    }
+
+    public long createEntityInGroup(String group, Object... components) {
+        long id = ++lastEntityId;
+        BitSet mask = new BitSet();
+        for (Object component : components) {
+            int typeId = typeIdOf(component.getClass());
+            if (mask.get(typeId)) {
+                throw new IllegalArgumentException("Duplicated component type " + component.getClass().getName());
+            }
+            mask.set(typeId);
+        }
+        Archetype archetype = getArchetype(mask, group);
+        int slot = archetype.allocate(id);
+        for (Object component : components) {
+            archetype.set(slot, archetype.columnOf(typeIds.get(component.getClass())), component);
+        }
+        locations.put(id, pack(archetype.index, slot));
+        return id;
+    }
+
+    public void destroyEntity(long id) {
+        long location = locations.remove(id);
+        if (location == NONE_ID) {
+            return;
+        }
+        Archetype archetype = archetypes.get(archetypeOf(location));
+        removeSlot(archetype, slotOf(location));
+    }
+
+    public boolean isAlive(long id) {
+        return locations.containsKey(id);
+    }
+
+    public int getEntityCount() {
+        return locations.size();
+    }
+
+    /* Components */
+    public <T> T getComponent(long id, Class<T> type) {
+        long location = locations.get(id);
+        if (location == NONE_ID) {
+            return null;
+        }
+        Integer typeId = typeIds.get(type);
+        if (typeId == null) {
+            return null;
+        }
+        Archetype archetype = archetypes.get(archetypeOf(location));
+        int column = archetype.columnOf(typeId);
+        if (column < 0) {
+            return null;
+        }
+        return type.cast(archetype.get(slotOf(location), column));
+    }
+
+    public boolean hasComponent(long id, Class type) {
+        long location = locations.get(id);
+        Integer typeId = typeIds.get(type);
+        if (location == NONE_ID || typeId == null) {
+            return false;
+        }
+        return archetypes.get(archetypeOf(location)).mask.get(typeId);
+    }
+
+    /**
+     * Set a component to the entity. Replace the value in place if the entity
+     * already have a component of the same class, otherwise move the entity to
+     * the archetype with the additional component.
+     *
+     * @param id
+     * @param component
+     */
+    public void setComponent(long id, Object component) {
+        long location = checkLocation(id);
+        Archetype archetype = archetypes.get(archetypeOf(location));
+        int typeId = typeIdOf(component.getClass());
+        int column = archetype.columnOf(typeId);
+        if (column >= 0) {
+            archetype.set(slotOf(location), column, component);
+            return;
+        }
+        BitSet mask = (BitSet) archetype.mask.clone();
+        mask.set(typeId);
+        Archetype target = getArchetype(mask, archetype.group);
+        int slot = move(id, archetype, slotOf(location), target);
+        target.set(slot, target.columnOf(typeId), component);
+    }
+
+    public void removeComponent(long id, Class type) {
+        long location = checkLocation(id);
+        Integer typeId = typeIds.get(type);
+        Archetype archetype = archetypes.get(archetypeOf(location));
+        if (typeId == null || !archetype.mask.get(typeId)) {
+            return;
+        }
+        BitSet mask = (BitSet) archetype.mask.clone();
+        mask.clear(typeId);
+        move(id, archetype, slotOf(location), getArchetype(mask, archetype.group));
+    }
+
+    /* Groups */
+    public String getGroup(long id) {
+        return archetypes.get(archetypeOf(checkLocation(id))).group;
+    }
+
+    public void setGroup(long id, String group) {
+        long location = checkLocation(id);
+        Archetype archetype = archetypes.get(archetypeOf(location));
+        String newGroup = group == null ? DEFAULT_GROUP : group;
+        if (!archetype.group.equals(newGroup)) {
+            move(id, archetype, slotOf(location), getArchetype(archetype.mask, newGroup));
+        }
+    }
+
+    /* Queries */
+    /**
+     * Get the cached query of all entities having at least the given component
+     * types, in any group.
+     *
+     * @param required
+     * @return
+     */
+    public ArchetypeQuery query(Class... required) {
+        return getQuery(null, required);
+    }
+
+    /**
+     * Get the cached query of all entities of a group having at least the
+     * given component types.
+     *
+     * @param group
+     * @param required
+     * @return
+     */
+    public ArchetypeQuery queryGroup(String group, Class... required) {
+        return getQuery(group == null ? DEFAULT_GROUP : group, required);
+    }
+
+    private ArchetypeQuery getQuery(String group, Class[] required) {
+        int[] ids = new int[required.length];
+        BitSet mask = new BitSet();
+        for (int i = 0; i < required.length; i++) {
+            ids[i] = typeIdOf(required[i]);
+            mask.set(ids[i]);
+        }
+        String key = Arrays.toString(ids) + (group == null ? "*" : "@" + group);
+        ArchetypeQuery query = queries.get(key);
+        if (query == null) {
+            query = new ArchetypeQuery(required.clone(), ids, mask, group);
+            for (int i = 0, n = archetypes.size(); i < n; i++) {
+                query.offer(archetypes.get(i));
+            }
+            queries.put(key, query);
+        }
+        return query;
+    }
+
+    public int getArchetypeCount() {
+        return archetypes.size();
+    }
+
+    /* Internal */
+    private int typeIdOf(Class type) {
+        Integer typeId = typeIds.get(type);
+        if (typeId == null) {
+            typeId = types.size();
+            types.add(type);
+            typeIds.put(type, typeId);
+        }
+        return typeId;
+    }
+
+    private Archetype getArchetype(BitSet mask, String group) {
+        if (group == null) {
+            group = DEFAULT_GROUP;
+        }
+        ArchetypeKey key = new ArchetypeKey(mask, group);
+        Archetype archetype = archetypeIndex.get(key);
+        if (archetype == null) {
+            int[] ids = new int[mask.cardinality()];
+            Class[] archetypeTypes = new Class[ids.length];
+            for (int i = 0, bit = mask.nextSetBit(0); bit >= 0; i++, bit = mask.nextSetBit(bit + 1)) {
+                ids[i] = bit;
+                archetypeTypes[i] = types.get(bit);
+            }
+            archetype = new Archetype(archetypes.size(), archetypeTypes, ids, (BitSet) mask.clone(), group, chunkCapacity);
+            archetypes.add(archetype);
+            archetypeIndex.put(new ArchetypeKey(archetype.mask, group), archetype);
+            for (ArchetypeQuery query : queries.values()) {
+                query.offer(archetype);
+            }
+        }
+        return archetype;
+    }
+
+    private int move(long id, Archetype from, int fromSlot, Archetype to) {
+        int slot = to.allocate(id);
+        for (int c = 0; c < from.types.length; c++) {
+            int column = to.columnOf(from.typeIds[c]);
+            if (column >= 0) {
+                to.set(slot, column, from.get(fromSlot, c));
+            }
+        }
+        removeSlot(from, fromSlot);
+        locations.put(id, pack(to.index, slot));
+        return slot;
+    }
+
+    private void removeSlot(Archetype archetype, int slot) {
+        long moved = archetype.remove(slot);
+        if (moved != NONE_ID) {
+            locations.put(moved, pack(archetype.index, slot));
+        }
+    }
+
+    private long checkLocation(long id) {
+        long location = locations.get(id);
+        if (location == NONE_ID) {
+            throw new IllegalArgumentException("No such entity " + id);
+        }
+        return location;
+    }
+
+    private static long pack(int archetype, int slot) {
+        return ((long) archetype << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    private static int archetypeOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int slotOf(long location) {
+        return (int) location;
+    }
+
+    private static final class ArchetypeKey {
+
+        final BitSet mask;
+        final String group;
+
+        ArchetypeKey(BitSet mask, String group) {
+            this.mask = mask;
+            this.group = group;
+        }
+
+        @Override
+        public int hashCode() {
+            return mask.hashCode() * 31 + group.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ArchetypeKey)) {
+                return false;
+            }
+            ArchetypeKey other = (ArchetypeKey) obj;
+            return mask.equals(other.mask) && group.equals(other.group);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.entity.framework.atomes;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * A cached query over an {@link ArchetypeEntityRepository} by component set
+ * and (optional) group.
+ *
+ * <p>The query keep the list of matching archetypes and is updated by the
+ * repository when a new archetype is created, so running the query never scan
+ * the entities or check their classes. For each matching archetype the column
+ * indices of the requested component types are precomputed.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class ArchetypeQuery {
+
+    /**
+     * Visit every non empty chunk which match the query.
+     */
+    public interface ChunkVisitor {
+
+        /**
+         * @param chunk the chunk to process.
+         * @param columns column index in the chunk of each requested component
+         * type, in the order they were passed to the query.
+         */
+        public void visit(ArchetypeChunk chunk, int[] columns);
+    }
+    final Class[] types;
+    final BitSet required;
+    final String group;
+    final ArrayList<Archetype> archetypes = new ArrayList<Archetype>();
+    final ArrayList<int[]> columns = new ArrayList<int[]>();
+    private final int[] typeIds;
+
+    ArchetypeQuery(Class[] types, int[] typeIds, BitSet required, String group) {
+        this.types = types;
+        this.typeIds = typeIds;
+        this.required = required;
+        this.group = group;
+    }
+
+    boolean matches(Archetype archetype) {
+        if (group != null && !group.equals(archetype.group)) {
+            return false;
+        }
+        BitSet test = (BitSet) required.clone();
+        test.andNot(archetype.mask);
+        return test.isEmpty();
+    }
+
+    void offer(Archetype archetype) {
+        if (matches(archetype)) {
+            int[] map = new int[typeIds.length];
+            for (int i = 0; i < typeIds.length; i++) {
+                map[i] = archetype.columnOf(typeIds[i]);
+            }
+            archetypes.add(archetype);
+            columns.add(map);
+        }
+    }
+
+    /**
+     * Number of entities currently matching the query.
+     *
+     * @return
+     */
+    public int count() {
+        int total = 0;
+        for (int i = 0, n = archetypes.size(); i < n; i++) {
+            total += archetypes.get(i).size;
+        }
+        return total;
+    }
+
+    public void forEachChunk(ChunkVisitor visitor) {
+        for (int i = 0, n = archetypes.size(); i < n; i++) {
+            Archetype archetype = archetypes.get(i);
+            if (archetype.size == 0) {
+                continue;
+            }
+            int[] map = columns.get(i);
+            ArrayList<ArchetypeChunk> chunks = archetype.chunks;
+            for (int c = 0, m = chunks.size(); c < m; c++) {
+                visitor.visit(chunks.get(c), map);
+            }
+        }
+    }
+
+    /**
+     * Copy the ids of all matching entities into the given array, growing it
+     * if needed.
+     *
+     * @param out
+     * @return the filled array, <code>count()</code> ids are valid.
+     */
+    public long[] collectIds(long[] out) {
+        int total = count();
+        if (out == null || out.length < total) {
+            out = new long[total];
+        }
+        int pos = 0;
+        for (int i = 0, n = archetypes.size(); i < n; i++) {
+            ArrayList<ArchetypeChunk> chunks = archetypes.get(i).chunks;
+            for (int c = 0, m = chunks.size(); c < m; c++) {
+                ArchetypeChunk chunk = chunks.get(c);
+                System.arraycopy(chunk.ids, 0, out, pos, chunk.count);
+                pos += chunk.count;
+            }
+        }
+        return out;
+    }
+
+    public Class[] getTypes() {
+        return types.clone();
+    }
+
+    public String getGroup() {
+        return group;
+    }
+}
@@ -22,6 +22,7 @@ import com.jme3.renderer.queue.RenderQueue.Bucket;
 import com.jme3.renderer.queue.RenderQueue.ShadowMode;
 import com.jme3.util.TempVars;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 import sg.atom.fx.particle.AtomParticle;
 import sg.atom.fx.particle.AtomParticleControl;
 import sg.atom.fx.particle.AtomParticleGenerator;
@@ -42,6 +43,11 @@ import sg.atom.fx.particle.AtomParticleGenerator;
  * {@link AtomParticleEmitter#setParticleInfluencer(com.jme3.effect.influencers.ParticleInfluencer) }.
  * By default the implementation {@link DefaultParticleInfluencer} is used.
  *
+ * <p>With {@link #setStructOfArrays(boolean)} the particles are simulated in
+ * the float columns of a {@link ParticleColumns} instead of Particle objects;
+ * influencer and shape still spawn them. Large emitters can then update in
+ * slices over an executor, see {@link #setUpdateExecutor(Executor, int)}.
+ *
  * @author atomix
  */
 public class AtomParticleEmitter extends AtomParticle implements AtomParticleGenerator {
@@ -76,8 +82,13 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
     private float startSize = 0.2f;
     private float endSize = 2f;
     private boolean worldSpace = true;
+    // struct-of-arrays simulation, null when the Particle objects are used
+    private transient ParticleColumns columns;
+    private transient Executor updateExecutor;
+    private int updateParallelism = 1;
     //variable that helps with computations
     private transient Vector3f temp = new Vector3f();
+    private transient Particle spawned = new Particle();
 
     @Override
     public AtomParticleEmitter clone() {
@@ -90,6 +101,9 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
         clone.shape = shape.deepClone();
 
         // Reinitialize particle list
+        clone.columns = columns != null ? new ParticleColumns(particles.length) : null;
+        clone.temp = new Vector3f();
+        clone.spawned = new Particle();
         clone.setNumParticles(particles.length);
 
         clone.faceNormal = faceNormal.clone();
@@ -207,6 +221,9 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
      */
     public int getNumVisibleParticles() {
 //        return unusedIndices.size() + next;
+        if (columns != null) {
+            return columns.size();
+        }
         return lastUsed + 1;
     }
 
@@ -219,12 +236,18 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
      */
     public final void setNumParticles(int numParticles) {
         particles = new Particle[numParticles];
-        for (int i = 0; i < numParticles; i++) {
-            particles[i] = new Particle();
+        if (columns == null) {
+            for (int i = 0; i < numParticles; i++) {
+                particles[i] = new Particle();
+            }
         }
         //We have to reinit the mesh's buffers with the new size
         firstUnUsed = 0;
         lastUsed = -1;
+        if (columns != null) {
+            columns.clear();
+            columns.setCapacity(numParticles);
+        }
     }
 
     public int getMaxNumParticles() {
@@ -240,12 +263,74 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
      * }
      * method.
      *
+     * <p>With the struct-of-arrays simulation, the live particles are copied
+     * in the first entries of the array at each call, which allocates the
+     * Particle objects on the first call; changing them has no effect.
+     *
      * @return a list of all particles.
      */
     public Particle[] getParticles() {
+        if (columns != null) {
+            int live = columns.size();
+            for (int i = 0; i < particles.length; i++) {
+                if (particles[i] == null) {
+                    particles[i] = new Particle();
+                }
+                if (i < live) {
+                    columns.get(i, particles[i]);
+                } else {
+                    particles[i].life = 0;
+                }
+            }
+        }
         return particles;
     }
 
+    /**
+     * Check if the particles are simulated in columns.
+     *
+     * @see AtomParticleEmitter#setStructOfArrays(boolean)
+     */
+    public boolean isStructOfArrays() {
+        return columns != null;
+    }
+
+    /**
+     * Set to true to simulate the particles in the parallel float arrays of a
+     * {@link ParticleColumns}, rather than one Particle object each.
+     *
+     * <p>Recommended for large emitters: the update walks packed arrays and
+     * can write them straight into mesh buffers. The live particles are
+     * killed when switching.
+     *
+     * @param soa True to simulate the particles in columns
+     */
+    public void setStructOfArrays(boolean soa) {
+        if (soa != (columns != null)) {
+            columns = soa ? new ParticleColumns(particles.length) : null;
+            setNumParticles(particles.length);
+        }
+    }
+
+    /**
+     * The columns of the struct-of-arrays simulation, or null.
+     */
+    public ParticleColumns getColumns() {
+        return columns;
+    }
+
+    /**
+     * Update the struct-of-arrays simulation in up to
+     * <code>parallelism</code> slices over the executor. Only emitters with
+     * more than {@link ParticleColumns#MIN_SLICE} live particles are split.
+     *
+     * @param executor the executor, null to update on the calling thread
+     */
+    public void setUpdateExecutor(Executor executor, int parallelism) {
+        this.updateExecutor = executor;
+        this.updateParallelism = Math.max(1, parallelism);
+    }
+
     /**
      * Get the normal which particles are facing.
      *
@@ -683,6 +768,14 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
         }
 
         Particle p = particles[idx];
+        initParticle(p, min, max);
+
+        ++lastUsed;
+        firstUnUsed = idx + 1;
+        return p;
+    }
+
+    private void initParticle(Particle p, Vector3f min, Vector3f max) {
         if (selectRandomImage) {
             p.imageIndex = FastMath.nextRandomInt(0, imagesY - 1) * imagesX + FastMath.nextRandomInt(0, imagesX - 1);
         }
@@ -709,10 +802,6 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
         max.maxLocal(temp);
         temp.set(p.position).subtractLocal(p.size, p.size, p.size);
         min.minLocal(temp);
-
-        ++lastUsed;
-        firstUnUsed = idx + 1;
-        return p;
     }
 
     /**
@@ -732,6 +821,10 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
      * particles will be dead and no longer visible.
      */
     public void killAllParticles() {
+        if (columns != null) {
+            columns.clear();
+            return;
+        }
         for (int i = 0; i < particles.length; ++i) {
             if (particles[i].life > 0) {
                 this.freeParticle(i);
@@ -746,6 +839,10 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
      * @see #getParticles()
      */
     public void killParticle(int index) {
+        if (columns != null) {
+            columns.remove(index);
+            return;
+        }
         freeParticle(index);
     }
 
@@ -802,6 +899,10 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
     private void updateParticleState(float tpf) {
         // Force world transform to update
         this.getWorldTransform();
+        if (columns != null) {
+            updateColumns(tpf);
+            return;
+        }
 
         TempVars vars = TempVars.get();
 
@@ -852,6 +953,37 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
         vars.release();
     }
 
+    private void updateColumns(float tpf) {
+        TempVars vars = TempVars.get();
+
+        Vector3f min = vars.vect1;
+        Vector3f max = vars.vect2;
+
+        columns.configure(gravity, startColor, endColor, startSize, endSize, imagesX, imagesY, !selectRandomImage);
+        columns.update(tpf, updateExecutor, updateParallelism);
+        columns.getBounds(min, max);
+
+        // Spawns particles within the tpf timeslot with proper age, through
+        // the same influencer and shape as the Particle objects
+        float interval = 1f / particlesPerSec;
+        tpf += timeDifference;
+        while (tpf > interval) {
+            tpf -= interval;
+            if (columns.size() == columns.capacity()) {
+                continue;
+            }
+            Particle p = spawned;
+            initParticle(p, min, max);
+            p.life -= tpf;
+            if (p.life > 0) {
+                columns.advance(columns.add(p), tpf);
+            }
+        }
+        timeDifference = tpf;
+
+        vars.release();
+    }
+
     /**
      * Set to enable or disable the particle emitter
      *
@@ -935,6 +1067,7 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
         oc.write(selectRandomImage, "selectRandomImage", false);
         oc.write(randomAngle, "randomAngle", false);
         oc.write(rotateSpeed, "rotateSpeed", 0);
+        oc.write(columns != null, "structOfArrays", false);
 
         oc.write(particleInfluencer, "influencer", DEFAULT_INFLUENCER);
     }
@@ -972,6 +1105,9 @@ public class AtomParticleEmitter extends AtomParticle implements AtomParticleGen
         selectRandomImage = ic.readBoolean("selectRandomImage", false);
         randomAngle = ic.readBoolean("randomAngle", false);
         rotateSpeed = ic.readFloat("rotateSpeed", 0);
+        if (ic.readBoolean("structOfArrays", false)) {
+            columns = new ParticleColumns(numParticles);
+        }
 
         this.setNumParticles(numParticles);
 //        particleMesh.initParticleData(this, particles.length);
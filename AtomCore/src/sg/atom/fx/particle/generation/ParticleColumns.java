@@ -0,0 +1,475 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.fx.particle.generation;
+
+import com.jme3.effect.Particle;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector3f;
+import java.nio.FloatBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Struct-of-arrays storage and simulation of the particles of an emitter.
+ *
+ * <p>Position, velocity, color, size, life, angle and image of the particles
+ * are kept in parallel columns instead of one {@link Particle} object per
+ * particle. The live particles are packed in [0, {@link #size()}): a dead one
+ * is replaced by the last one (swap-remove), so updates and mesh writes only
+ * walk the live range, front to back.</p>
+ *
+ * <p>The spawning stays with the {@link com.jme3.effect.influencers.ParticleInfluencer}
+ * and {@link com.jme3.effect.shapes.EmitterShape} of the emitter: they fill a
+ * scratch Particle which is copied in the columns by {@link #add(Particle)};
+ * {@link #get(int, Particle)} does the opposite for the code still expecting
+ * Particle objects.</p>
+ *
+ * <p>Large emitters can be updated in slices over an executor. The columns
+ * are not thread-safe otherwise: one thread updates, spawns and writes them.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class ParticleColumns {
+
+    /**
+     * Particles per update slice, below it an update is not split.
+     */
+    public static final int MIN_SLICE = 4096;
+    private int capacity;
+    private int size;
+    float[] px, py, pz;
+    float[] vx, vy, vz;
+    float[] r, g, b, a;
+    float[] particleSize;
+    float[] life, startLife;
+    float[] angle, rotateSpeed;
+    int[] imageIndex;
+    // simulation parameters, from the emitter
+    private float gravityX, gravityY, gravityZ;
+    private float startR, startG, startB, startA;
+    private float endR, endG, endB, endA;
+    private float startSize, endSize;
+    private int images = 1;
+    private boolean animateImages = true;
+    // min x, y, z then max x, y, z of the live particles
+    private final float[] bounds = new float[6];
+    private Slice[] slices = new Slice[0];
+
+    public ParticleColumns(int capacity) {
+        setCapacity(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Resize the columns, keeping the first live particles which fit.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity " + capacity);
+        }
+        int keep = Math.min(size, capacity);
+        px = copy(px, capacity, keep);
+        py = copy(py, capacity, keep);
+        pz = copy(pz, capacity, keep);
+        vx = copy(vx, capacity, keep);
+        vy = copy(vy, capacity, keep);
+        vz = copy(vz, capacity, keep);
+        r = copy(r, capacity, keep);
+        g = copy(g, capacity, keep);
+        b = copy(b, capacity, keep);
+        a = copy(a, capacity, keep);
+        particleSize = copy(particleSize, capacity, keep);
+        life = copy(life, capacity, keep);
+        startLife = copy(startLife, capacity, keep);
+        angle = copy(angle, capacity, keep);
+        rotateSpeed = copy(rotateSpeed, capacity, keep);
+        int[] images = new int[capacity];
+        if (imageIndex != null) {
+            System.arraycopy(imageIndex, 0, images, 0, keep);
+        }
+        imageIndex = images;
+        this.capacity = capacity;
+        this.size = keep;
+    }
+
+    private static float[] copy(float[] column, int capacity, int keep) {
+        float[] resized = new float[capacity];
+        if (column != null) {
+            System.arraycopy(column, 0, resized, 0, keep);
+        }
+        return resized;
+    }
+
+    /**
+     * Set the parameters of the simulation.
+     *
+     * @param animateImages step through the images over the life of the
+     * particles, instead of keeping the image given at spawn
+     */
+    public void configure(Vector3f gravity, ColorRGBA startColor, ColorRGBA endColor,
+            float startSize, float endSize, int imagesX, int imagesY, boolean animateImages) {
+        gravityX = gravity.x;
+        gravityY = gravity.y;
+        gravityZ = gravity.z;
+        startR = startColor.r;
+        startG = startColor.g;
+        startB = startColor.b;
+        startA = startColor.a;
+        endR = endColor.r;
+        endG = endColor.g;
+        endB = endColor.b;
+        endA = endColor.a;
+        this.startSize = startSize;
+        this.endSize = endSize;
+        this.images = imagesX * imagesY;
+        this.animateImages = animateImages;
+    }
+
+    /**
+     * Append a particle, or return -1 if the columns are full.
+     *
+     * @return the index of the particle
+     */
+    public int add(Particle p) {
+        if (size == capacity) {
+            return -1;
+        }
+        int i = size++;
+        px[i] = p.position.x;
+        py[i] = p.position.y;
+        pz[i] = p.position.z;
+        vx[i] = p.velocity.x;
+        vy[i] = p.velocity.y;
+        vz[i] = p.velocity.z;
+        r[i] = p.color.r;
+        g[i] = p.color.g;
+        b[i] = p.color.b;
+        a[i] = p.color.a;
+        particleSize[i] = p.size;
+        life[i] = p.life;
+        startLife[i] = p.startlife;
+        angle[i] = p.angle;
+        rotateSpeed[i] = p.rotateSpeed;
+        imageIndex[i] = p.imageIndex;
+        return i;
+    }
+
+    /**
+     * Copy the particle at <code>index</code> in <code>out</code>.
+     */
+    public Particle get(int index, Particle out) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        out.position.set(px[index], py[index], pz[index]);
+        out.velocity.set(vx[index], vy[index], vz[index]);
+        out.color.set(r[index], g[index], b[index], a[index]);
+        out.size = particleSize[index];
+        out.life = life[index];
+        out.startlife = startLife[index];
+        out.angle = angle[index];
+        out.rotateSpeed = rotateSpeed[index];
+        out.imageIndex = imageIndex[index];
+        return out;
+    }
+
+    /**
+     * Kill a particle; the last particle takes its index.
+     */
+    public void remove(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        move(--size, index);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private void move(int from, int to) {
+        px[to] = px[from];
+        py[to] = py[from];
+        pz[to] = pz[from];
+        vx[to] = vx[from];
+        vy[to] = vy[from];
+        vz[to] = vz[from];
+        r[to] = r[from];
+        g[to] = g[from];
+        b[to] = b[from];
+        a[to] = a[from];
+        particleSize[to] = particleSize[from];
+        life[to] = life[from];
+        startLife[to] = startLife[from];
+        angle[to] = angle[from];
+        rotateSpeed[to] = rotateSpeed[from];
+        imageIndex[to] = imageIndex[from];
+    }
+
+    /**
+     * Age and move the live particles by <code>tpf</code> seconds, then pack
+     * the survivors.
+     */
+    public void update(float tpf) {
+        resetBounds(bounds);
+        integrate(0, size, tpf, bounds);
+        compact();
+    }
+
+    /**
+     * As {@link #update(float)}, the particles split in up to
+     * <code>parallelism</code> slices over the executor. The calling thread
+     * runs the first slice and returns when all are done.
+     */
+    public void update(float tpf, Executor executor, int parallelism) {
+        int nbSlices = Math.min(parallelism, size / MIN_SLICE);
+        if (executor == null || nbSlices <= 1) {
+            update(tpf);
+            return;
+        }
+        if (slices.length < nbSlices - 1) {
+            Slice[] grown = new Slice[nbSlices - 1];
+            System.arraycopy(slices, 0, grown, 0, slices.length);
+            for (int s = slices.length; s < grown.length; s++) {
+                grown[s] = new Slice();
+            }
+            slices = grown;
+        }
+        int perSlice = (size + nbSlices - 1) / nbSlices;
+        CountDownLatch done = new CountDownLatch(nbSlices - 1);
+        for (int s = 1; s < nbSlices; s++) {
+            Slice slice = slices[s - 1];
+            int start = s * perSlice;
+            slice.set(start, Math.min(size, start + perSlice), tpf, done);
+            try {
+                executor.execute(slice);
+            } catch (RejectedExecutionException ex) {
+                slice.run();
+            }
+        }
+        Throwable failure = null;
+        resetBounds(bounds);
+        try {
+            integrate(0, Math.min(size, perSlice), tpf, bounds);
+        } catch (RuntimeException ex) {
+            failure = ex;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (int s = 1; s < nbSlices; s++) {
+            Slice slice = slices[s - 1];
+            if (failure == null) {
+                failure = slice.failure;
+            }
+            mergeBounds(bounds, slice.bounds);
+            slice.done = null;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        compact();
+    }
+
+    /**
+     * Update the particles [from, to), without removing the dead ones.
+     */
+    void integrate(int from, int to, float tpf, float[] box) {
+        final float gx = gravityX * tpf, gy = gravityY * tpf, gz = gravityZ * tpf;
+        float minX = box[0], minY = box[1], minZ = box[2];
+        float maxX = box[3], maxY = box[4], maxZ = box[5];
+        for (int i = from; i < to; i++) {
+            float remaining = life[i] - tpf;
+            life[i] = remaining;
+            if (remaining <= 0) {
+                continue;
+            }
+            float x = px[i] + (vx[i] -= gx) * tpf;
+            float y = py[i] + (vy[i] -= gy) * tpf;
+            float z = pz[i] + (vz[i] -= gz) * tpf;
+            px[i] = x;
+            py[i] = y;
+            pz[i] = z;
+
+            float t = (startLife[i] - remaining) / startLife[i];
+            float s = 1 - t;
+            r[i] = s * startR + t * endR;
+            g[i] = s * startG + t * endG;
+            b[i] = s * startB + t * endB;
+            a[i] = s * startA + t * endA;
+            float extent = s * startSize + t * endSize;
+            particleSize[i] = extent;
+            angle[i] += rotateSpeed[i] * tpf;
+            if (animateImages) {
+                imageIndex[i] = (int) (t * images);
+            }
+
+            // plain compares, Math.min/max pay for NaN and -0 handling
+            minX = x - extent < minX ? x - extent : minX;
+            minY = y - extent < minY ? y - extent : minY;
+            minZ = z - extent < minZ ? z - extent : minZ;
+            maxX = x + extent > maxX ? x + extent : maxX;
+            maxY = y + extent > maxY ? y + extent : maxY;
+            maxZ = z + extent > maxZ ? z + extent : maxZ;
+        }
+        box[0] = minX;
+        box[1] = minY;
+        box[2] = minZ;
+        box[3] = maxX;
+        box[4] = maxY;
+        box[5] = maxZ;
+    }
+
+    /**
+     * Update a particle just added, for the part of the frame after its
+     * spawn. Return false, and drop it, if it died meanwhile.
+     */
+    boolean advance(int index, float tpf) {
+        integrate(index, index + 1, tpf, bounds);
+        if (life[index] <= 0) {
+            remove(index);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Swap-remove the dead particles.
+     */
+    private void compact() {
+        int i = 0;
+        while (i < size) {
+            if (life[i] <= 0) {
+                move(--size, i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private static void resetBounds(float[] box) {
+        box[0] = box[1] = box[2] = Float.POSITIVE_INFINITY;
+        box[3] = box[4] = box[5] = Float.NEGATIVE_INFINITY;
+    }
+
+    private static void mergeBounds(float[] box, float[] other) {
+        for (int k = 0; k < 3; k++) {
+            box[k] = Math.min(box[k], other[k]);
+            box[k + 3] = Math.max(box[k + 3], other[k + 3]);
+        }
+    }
+
+    /**
+     * Bounds of the particles updated by the last update, infinite when there
+     * are none.
+     */
+    public void getBounds(Vector3f min, Vector3f max) {
+        min.set(bounds[0], bounds[1], bounds[2]);
+        max.set(bounds[3], bounds[4], bounds[5]);
+    }
+
+    /* Mesh data, written from index 0 of the buffers */
+    /**
+     * Positions, 3 floats per live particle.
+     */
+    public void writePositions(FloatBuffer positions) {
+        positions.clear();
+        for (int i = 0; i < size; i++) {
+            positions.put(px[i]).put(py[i]).put(pz[i]);
+        }
+        positions.clear();
+    }
+
+    /**
+     * Colors, 4 floats per particle. The entries after the live particles are
+     * made transparent.
+     */
+    public void writeColors(FloatBuffer colors) {
+        colors.clear();
+        for (int i = 0; i < size; i++) {
+            colors.put(r[i]).put(g[i]).put(b[i]).put(a[i]);
+        }
+        while (colors.hasRemaining()) {
+            colors.put(0);
+        }
+        colors.clear();
+    }
+
+    /**
+     * Sizes, 1 float per particle. The entries after the live particles are
+     * zeroed.
+     */
+    public void writeSizes(FloatBuffer sizes) {
+        sizes.clear();
+        sizes.put(particleSize, 0, size);
+        while (sizes.hasRemaining()) {
+            sizes.put(0);
+        }
+        sizes.clear();
+    }
+
+    /**
+     * Texture coordinates of the image of the particles, as start x, y then
+     * end x, y (4 floats per live particle), as ParticlePointMesh.
+     */
+    public void writeTexCoords(FloatBuffer texCoords, int imagesX, int imagesY) {
+        float w = 1f / imagesX, h = 1f / imagesY;
+        texCoords.clear();
+        for (int i = 0; i < size; i++) {
+            int imgX = imageIndex[i] % imagesX;
+            int imgY = imageIndex[i] / imagesX;
+            float startX = w * imgX, startY = h * imgY;
+            texCoords.put(startX).put(startY).put(startX + w).put(startY + h);
+        }
+        texCoords.clear();
+    }
+
+    private final class Slice implements Runnable {
+
+        final float[] bounds = new float[6];
+        private int from, to;
+        private float tpf;
+        private CountDownLatch done;
+        private Throwable failure;
+
+        void set(int from, int to, float tpf, CountDownLatch done) {
+            this.from = from;
+            this.to = to;
+            this.tpf = tpf;
+            this.done = done;
+            this.failure = null;
+        }
+
+        public void run() {
+            try {
+                resetBounds(bounds);
+                integrate(from, to, tpf, bounds);
+            } catch (Throwable ex) {
+                failure = ex;
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
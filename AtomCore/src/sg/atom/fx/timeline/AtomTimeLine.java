@@ -44,6 +44,22 @@ public class AtomTimeLine implements Savable, List<AtomTimeLineTrack>,TimeProvid
 
     }
 
+    /**
+     * Pack the value tracks for playback, in the order of the tracks. The
+     * tracks without values are skipped.
+     */
+    public CompiledTimeLine compile() {
+        ArrayList<CompiledTrack> compiled = new ArrayList<CompiledTrack>();
+        if (tracks != null) {
+            for (AtomTimeLineTrack track : tracks) {
+                if (track.track != null) {
+                    compiled.add(track.track.compile());
+                }
+            }
+        }
+        return new CompiledTimeLine(compiled);
+    }
+
     @Override
     public int size() {
         throw new UnsupportedOperationException("Not supported yet.");
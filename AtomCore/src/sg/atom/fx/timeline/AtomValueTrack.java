@@ -90,6 +90,16 @@ public abstract class AtomValueTrack<V> implements Savable, List<AtomKeyframe<V>
         return values.get(values.size() - 1);
     }
 
+    /**
+     * Pack the keyframes for playback. The compiled track is a copy, it does
+     * not see later changes of this track.
+     *
+     * @see CompiledTrack#compile(java.util.List)
+     */
+    public CompiledTrack compile() {
+        return CompiledTrack.compile(values);
+    }
+
 
     @Override
     public void write(JmeExporter ex) throws IOException {
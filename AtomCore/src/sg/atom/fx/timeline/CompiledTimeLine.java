@@ -0,0 +1,96 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.fx.timeline;
+
+import java.util.List;
+
+/**
+ * A set of {@link CompiledTrack}s sampled together, as the tracks of a
+ * cinematic at each frame.
+ *
+ * <p>The values of all the tracks are written in one float array: track
+ * <code>i</code> at {@link #getOffset(int)}, with
+ * {@link CompiledTrack#getComponents()} floats. Allocate it once with
+ * {@link #newOutput()}; {@link #sampleAll(float, float[])} then does not
+ * allocate.</p>
+ *
+ * <p>Like its tracks, a compiled timeline keeps the play cursors and must be
+ * sampled by one thread at a time.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class CompiledTimeLine {
+
+    private final CompiledTrack[] tracks;
+    private final int[] offsets;
+    private final int outputSize;
+    private final float startTime, endTime;
+
+    public CompiledTimeLine(CompiledTrack... tracks) {
+        this.tracks = tracks.clone();
+        this.offsets = new int[tracks.length];
+        int size = 0;
+        float start = Float.POSITIVE_INFINITY, end = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < tracks.length; i++) {
+            offsets[i] = size;
+            size += tracks[i].getComponents();
+            start = Math.min(start, tracks[i].getStartTime());
+            end = Math.max(end, tracks[i].getEndTime());
+        }
+        this.outputSize = size;
+        this.startTime = tracks.length > 0 ? start : 0;
+        this.endTime = tracks.length > 0 ? end : 0;
+    }
+
+    public CompiledTimeLine(List<CompiledTrack> tracks) {
+        this(tracks.toArray(new CompiledTrack[tracks.size()]));
+    }
+
+    public int getTrackCount() {
+        return tracks.length;
+    }
+
+    public CompiledTrack getTrack(int index) {
+        return tracks[index];
+    }
+
+    /**
+     * Index of the first value of a track in the output.
+     */
+    public int getOffset(int track) {
+        return offsets[track];
+    }
+
+    /**
+     * Floats written by {@link #sampleAll(float, float[])}.
+     */
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    public float[] newOutput() {
+        return new float[outputSize];
+    }
+
+    public float getStartTime() {
+        return startTime;
+    }
+
+    public float getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Sample every track at <code>time</code> into <code>out</code>.
+     */
+    public void sampleAll(float time, float[] out) {
+        if (out.length < outputSize) {
+            throw new IllegalArgumentException("Output shorter than " + outputSize);
+        }
+        for (int i = 0; i < tracks.length; i++) {
+            tracks[i].sample(time, out, offsets[i]);
+        }
+    }
+}
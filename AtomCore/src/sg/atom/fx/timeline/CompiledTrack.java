@@ -0,0 +1,295 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.fx.timeline;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import java.util.List;
+
+/**
+ * Read-only, packed form of an {@link AtomValueTrack} for playback.
+ *
+ * <p>The key times are a sorted float array, the values are packed in one
+ * float array with 1 (float), 3 (vector) or 4 (quaternion) components per
+ * key. Floats and vectors are interpolated linearly, quaternions spherically.
+ * Before the first key and after the last one the track holds its end
+ * values.</p>
+ *
+ * <p>The track remembers the key interval of the last sample, so sampling at
+ * increasing (or slightly decreasing) times finds the interval in amortized
+ * constant time; a jump falls back to a binary search. For this reason a
+ * track must be sampled by one thread at a time; {@link #copy()} shares the
+ * keys with a fresh cursor for another thread.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class CompiledTrack {
+
+    public enum Kind {
+
+        FLOAT(1), VECTOR(3), QUATERNION(4);
+        public final int components;
+
+        private Kind(int components) {
+            this.components = components;
+        }
+    }
+    /**
+     * Intervals scanned forward from the cursor before a binary search.
+     */
+    static final int SCAN = 4;
+    private final Kind kind;
+    private final float[] times;
+    private final float[] values;
+    // key interval of the last sample: times[cursor] <= t < times[cursor + 1]
+    private int cursor;
+    private final float[] scratch = new float[4];
+
+    /**
+     * @param times key times, sorted
+     * @param values <code>kind.components</code> floats per key
+     */
+    public CompiledTrack(Kind kind, float[] times, float[] values) {
+        if (times.length == 0) {
+            throw new IllegalArgumentException("A track needs a key");
+        }
+        if (values.length != times.length * kind.components) {
+            throw new IllegalArgumentException("Expected " + times.length * kind.components + " values");
+        }
+        for (int i = 1; i < times.length; i++) {
+            if (times[i] < times[i - 1]) {
+                throw new IllegalArgumentException("Key times not sorted at " + i);
+            }
+        }
+        this.kind = kind;
+        this.times = times;
+        this.values = values;
+    }
+
+    private CompiledTrack(CompiledTrack other) {
+        this.kind = other.kind;
+        this.times = other.times;
+        this.values = other.values;
+    }
+
+    /**
+     * Pack keyframes holding Numbers, Vector3fs or Quaternions, sorted by
+     * time.
+     */
+    public static CompiledTrack compile(List<? extends AtomKeyframe<?>> keyframes) {
+        if (keyframes.isEmpty()) {
+            throw new IllegalArgumentException("A track needs a key");
+        }
+        Object first = keyframes.get(0).getValue();
+        Kind kind;
+        if (first instanceof Number) {
+            kind = Kind.FLOAT;
+        } else if (first instanceof Vector3f) {
+            kind = Kind.VECTOR;
+        } else if (first instanceof Quaternion) {
+            kind = Kind.QUATERNION;
+        } else {
+            throw new IllegalArgumentException("Can not pack keyframes of " + (first == null ? null : first.getClass()));
+        }
+        int n = keyframes.size();
+        float[] times = new float[n];
+        float[] values = new float[n * kind.components];
+        for (int i = 0; i < n; i++) {
+            AtomKeyframe<?> kf = keyframes.get(i);
+            times[i] = kf.getTime();
+            Object value = kf.getValue();
+            int v = i * kind.components;
+            try {
+                switch (kind) {
+                    case FLOAT:
+                        values[v] = ((Number) value).floatValue();
+                        break;
+                    case VECTOR:
+                        Vector3f vector = (Vector3f) value;
+                        values[v] = vector.x;
+                        values[v + 1] = vector.y;
+                        values[v + 2] = vector.z;
+                        break;
+                    default:
+                        Quaternion q = (Quaternion) value;
+                        values[v] = q.getX();
+                        values[v + 1] = q.getY();
+                        values[v + 2] = q.getZ();
+                        values[v + 3] = q.getW();
+                }
+            } catch (ClassCastException ex) {
+                throw new IllegalArgumentException("Keyframe " + i + " is not a " + kind, ex);
+            }
+        }
+        return new CompiledTrack(kind, times, values);
+    }
+
+    /**
+     * A track sharing the keys, with its own cursor.
+     */
+    public CompiledTrack copy() {
+        return new CompiledTrack(this);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getComponents() {
+        return kind.components;
+    }
+
+    public int getKeyCount() {
+        return times.length;
+    }
+
+    public float getKeyTime(int key) {
+        return times[key];
+    }
+
+    public float getStartTime() {
+        return times[0];
+    }
+
+    public float getEndTime() {
+        return times[times.length - 1];
+    }
+
+    /**
+     * Index of the last key at or before <code>time</code>, -1 before the
+     * first key.
+     */
+    int locate(float time) {
+        final float[] times = this.times;
+        final int last = times.length - 1;
+        int i = cursor;
+        if (time >= times[i]) {
+            // forward playback: the next few intervals
+            for (int step = 0; step < SCAN; step++) {
+                if (i == last || time < times[i + 1]) {
+                    cursor = i;
+                    return i;
+                }
+                i++;
+            }
+            i = search(time, i + 1, last);
+        } else if (i > 0 && time >= times[i - 1]) {
+            i--;
+        } else {
+            i = search(time, 0, i - 1);
+        }
+        cursor = Math.max(i, 0);
+        return i;
+    }
+
+    /**
+     * Last key in [from, to] at or before <code>time</code>, from - 1 if none.
+     */
+    private int search(float time, int from, int to) {
+        int low = from, high = to;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Write the value at <code>time</code> in <code>out</code>, from
+     * <code>offset</code>.
+     */
+    public void sample(float time, float[] out, int offset) {
+        final int c = kind.components;
+        int i = locate(time);
+        if (i < 0) {
+            System.arraycopy(values, 0, out, offset, c);
+            return;
+        }
+        if (i == times.length - 1) {
+            System.arraycopy(values, i * c, out, offset, c);
+            return;
+        }
+        float span = times[i + 1] - times[i];
+        float t = span > 0 ? (time - times[i]) / span : 1;
+        int v0 = i * c, v1 = v0 + c;
+        if (kind == Kind.QUATERNION) {
+            slerp(values, v0, v1, t, out, offset);
+        } else {
+            for (int k = 0; k < c; k++) {
+                float a = values[v0 + k];
+                out[offset + k] = a + (values[v1 + k] - a) * t;
+            }
+        }
+    }
+
+    public float sampleFloat(float time) {
+        if (kind != Kind.FLOAT) {
+            throw new IllegalStateException("Not a float track: " + kind);
+        }
+        sample(time, scratch, 0);
+        return scratch[0];
+    }
+
+    public Vector3f sample(float time, Vector3f store) {
+        if (kind != Kind.VECTOR) {
+            throw new IllegalStateException("Not a vector track: " + kind);
+        }
+        sample(time, scratch, 0);
+        return (store != null ? store : new Vector3f()).set(scratch[0], scratch[1], scratch[2]);
+    }
+
+    public Quaternion sample(float time, Quaternion store) {
+        if (kind != Kind.QUATERNION) {
+            throw new IllegalStateException("Not a quaternion track: " + kind);
+        }
+        sample(time, scratch, 0);
+        return (store != null ? store : new Quaternion()).set(scratch[0], scratch[1], scratch[2], scratch[3]);
+    }
+
+    /**
+     * Spherical interpolation along the shortest arc, linear then normalized
+     * when the keys are almost equal.
+     */
+    private static void slerp(float[] q, int i0, int i1, float t, float[] out, int o) {
+        float x0 = q[i0], y0 = q[i0 + 1], z0 = q[i0 + 2], w0 = q[i0 + 3];
+        float x1 = q[i1], y1 = q[i1 + 1], z1 = q[i1 + 2], w1 = q[i1 + 3];
+        float cos = x0 * x1 + y0 * y1 + z0 * z1 + w0 * w1;
+        if (cos < 0) {
+            cos = -cos;
+            x1 = -x1;
+            y1 = -y1;
+            z1 = -z1;
+            w1 = -w1;
+        }
+        float s0, s1;
+        boolean linear = cos >= 0.9995f;
+        if (!linear) {
+            float angle = (float) Math.acos(cos);
+            float invSin = 1f / (float) Math.sin(angle);
+            s0 = (float) Math.sin((1 - t) * angle) * invSin;
+            s1 = (float) Math.sin(t * angle) * invSin;
+        } else {
+            s0 = 1 - t;
+            s1 = t;
+        }
+        float x = s0 * x0 + s1 * x1, y = s0 * y0 + s1 * y1;
+        float z = s0 * z0 + s1 * z1, w = s0 * w0 + s1 * w1;
+        if (linear) {
+            float norm = 1f / (float) Math.sqrt(x * x + y * y + z * z + w * w);
+            x *= norm;
+            y *= norm;
+            z *= norm;
+            w *= norm;
+        }
+        out[o] = x;
+        out[o + 1] = y;
+        out[o + 2] = z;
+        out[o + 3] = w;
+    }
+}
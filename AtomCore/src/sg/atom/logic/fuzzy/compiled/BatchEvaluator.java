@@ -0,0 +1,177 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.logic.fuzzy.compiled;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Evaluate a {@link CompiledRuleSet} for batches of agents, on the calling
+ * thread or split in slices over an executor (a thread pool, or a fork/join
+ * pool where available).
+ *
+ * <p>The evaluator owns the work arrays, so a batch does not allocate once
+ * the evaluator is warm. One evaluator must not be used by several threads at
+ * once; create one per system that ticks its agents.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class BatchEvaluator {
+
+    /**
+     * Smallest number of agents worth a slice of their own.
+     */
+    public static final int MIN_SLICE = 4 * CompiledRuleSet.BLOCK;
+    private final CompiledRuleSet rules;
+    private final int parallelism;
+    private final CompiledRuleSet.Workspace local;
+    private final Slice[] slices;
+
+    public BatchEvaluator(CompiledRuleSet rules) {
+        this(rules, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchEvaluator(CompiledRuleSet rules, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.rules = rules;
+        this.parallelism = parallelism;
+        this.local = new CompiledRuleSet.Workspace(rules);
+        this.slices = new Slice[parallelism - 1];
+    }
+
+    public CompiledRuleSet getRules() {
+        return rules;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Evaluate <code>count</code> agents on the calling thread.
+     *
+     * @param inputs one column per input variable of the rule set
+     * @param outputs one column per output variable, written
+     */
+    public void evaluate(double[][] inputs, double[][] outputs, int count) {
+        check(inputs, outputs, count);
+        rules.evaluate(local, inputs, outputs, 0, count);
+    }
+
+    /**
+     * Evaluate <code>count</code> agents in up to <code>parallelism</code>
+     * slices, the calling thread running the first one. Return when all the
+     * slices are done; a failure in a slice is rethrown.
+     */
+    public void evaluate(double[][] inputs, double[][] outputs, int count, Executor executor) {
+        check(inputs, outputs, count);
+        int nbSlices = Math.min(parallelism, count / MIN_SLICE);
+        if (nbSlices <= 1) {
+            rules.evaluate(local, inputs, outputs, 0, count);
+            return;
+        }
+        // slices on block boundaries
+        int blocks = (count + CompiledRuleSet.BLOCK - 1) / CompiledRuleSet.BLOCK;
+        int perSlice = (blocks + nbSlices - 1) / nbSlices * CompiledRuleSet.BLOCK;
+        CountDownLatch done = new CountDownLatch(nbSlices - 1);
+        for (int s = 1; s < nbSlices; s++) {
+            if (slices[s - 1] == null) {
+                slices[s - 1] = new Slice(rules);
+            }
+            Slice slice = slices[s - 1];
+            int from = s * perSlice;
+            slice.set(inputs, outputs, from, Math.max(0, Math.min(count, from + perSlice) - from), done);
+            try {
+                executor.execute(slice);
+            } catch (RejectedExecutionException ex) {
+                slice.run();
+            }
+        }
+        Throwable failure = null;
+        try {
+            rules.evaluate(local, inputs, outputs, 0, Math.min(count, perSlice));
+        } catch (RuntimeException ex) {
+            failure = ex;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (int s = 1; s < nbSlices; s++) {
+            Slice slice = slices[s - 1];
+            if (failure == null) {
+                failure = slice.failure;
+            }
+            slice.set(null, null, 0, 0, null);
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    private void check(double[][] inputs, double[][] outputs, int count) {
+        if (inputs.length < rules.getInputCount() || outputs.length < rules.getOutputCount()) {
+            throw new IllegalArgumentException("Expected " + rules.getInputCount() + " input and "
+                    + rules.getOutputCount() + " output columns");
+        }
+        for (double[] column : inputs) {
+            if (column.length < count) {
+                throw new IllegalArgumentException("Input column shorter than " + count);
+            }
+        }
+        for (double[] column : outputs) {
+            if (column.length < count) {
+                throw new IllegalArgumentException("Output column shorter than " + count);
+            }
+        }
+    }
+
+    private static final class Slice implements Runnable {
+
+        private final CompiledRuleSet rules;
+        private final CompiledRuleSet.Workspace workspace;
+        private double[][] inputs, outputs;
+        private int from, count;
+        private CountDownLatch done;
+        private Throwable failure;
+
+        Slice(CompiledRuleSet rules) {
+            this.rules = rules;
+            this.workspace = new CompiledRuleSet.Workspace(rules);
+        }
+
+        void set(double[][] inputs, double[][] outputs, int from, int count, CountDownLatch done) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.from = from;
+            this.count = count;
+            this.done = done;
+            this.failure = null;
+        }
+
+        public void run() {
+            try {
+                rules.evaluate(workspace, inputs, outputs, from, count);
+            } catch (Throwable ex) {
+                failure = ex;
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.logic.fuzzy.compiled;
+
+import java.util.ArrayList;
+import java.util.List;
+import sg.atom.logic.fuzzy.rules.conflicts.ConflictHandler;
+import sg.atom.logic.fuzzy.rules.conflicts.ConflictHandlerKeepMax;
+import sg.atom.logic.fuzzy.variables.Variable;
+
+/**
+ * A fuzzy rule set compiled for batches of agents. Input and output values are
+ * primitive columns, one <code>double[]</code> per variable indexed by agent,
+ * and the rules run column by column over blocks of {@link #BLOCK} agents
+ * without allocating.
+ *
+ * <p>A rule is a conjunction (or disjunction) of clauses
+ * <code>variable is [not] literal</code>, optionally hedged by an exponent as
+ * {@link sg.atom.logic.fuzzy.rules.functions.FuzzyConditions#very()}, and
+ * assigns its confidence times its weight to one or more output literals.
+ * Confidences of the same output literal are combined by the accumulation
+ * handler, max by default. The outputs are defuzzified with a
+ * {@link DefuzzTable}.</p>
+ *
+ * <pre>
+ * CompiledRuleSet rules = CompiledRuleSet.builder()
+ *         .input(distance).input(health).output(speed)
+ *         .rule().is("distance", Range.NEAR).isNot("health", Level.LOW).then("speed", Pace.FAST)
+ *         .rule().is("distance", Range.FAR).then("speed", Pace.SLOW)
+ *         .build();
+ * </pre>
+ *
+ * <p>A compiled rule set is immutable and can be shared by threads; the
+ * evaluation state lives in a {@link BatchEvaluator}.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class CompiledRuleSet {
+
+    public static final int BLOCK = 256;
+
+    public enum Defuzzification {
+
+        /**
+         * Tabulated center of gravity with sum aggregation.
+         */
+        LOOKUP,
+        /**
+         * Sampled center of gravity with max aggregation.
+         */
+        SAMPLED
+    }
+    private final CompiledVariable[] inputs, outputs;
+    // first row of each variable in the degree / activation rows
+    private final int[] inputOffset, outputOffset;
+    private final int inputTerms, outputTerms;
+    // rule r has clauses [ruleClauses[r], ruleClauses[r + 1])
+    // and assigns the rows [ruleThens[r], ruleThens[r + 1])
+    private final int[] ruleClauses, ruleThens;
+    private final boolean[] ruleOr;
+    private final double[] ruleWeight;
+    private final int[] clauseRow;
+    private final boolean[] clauseNot;
+    private final double[] clauseExponent;
+    private final int[] thenRow;
+    // null for max
+    private final ConflictHandler accumulation;
+    private final DefuzzTable[] tables;
+    private final Defuzzification defuzzification;
+
+    private CompiledRuleSet(Builder b) {
+        inputs = b.inputs.toArray(new CompiledVariable[b.inputs.size()]);
+        outputs = b.outputs.toArray(new CompiledVariable[b.outputs.size()]);
+        inputOffset = new int[inputs.length];
+        int rows = 0;
+        for (int v = 0; v < inputs.length; v++) {
+            inputOffset[v] = rows;
+            rows += inputs[v].terms();
+        }
+        inputTerms = rows;
+        outputOffset = new int[outputs.length];
+        rows = 0;
+        for (int v = 0; v < outputs.length; v++) {
+            outputOffset[v] = rows;
+            rows += outputs[v].terms();
+        }
+        outputTerms = rows;
+
+        int nbRules = b.rules.size(), nbClauses = 0, nbThens = 0;
+        for (RuleBuilder r : b.rules) {
+            nbClauses += r.clauses.size();
+            nbThens += r.thens.size();
+        }
+        ruleClauses = new int[nbRules + 1];
+        ruleThens = new int[nbRules + 1];
+        ruleOr = new boolean[nbRules];
+        ruleWeight = new double[nbRules];
+        clauseRow = new int[nbClauses];
+        clauseNot = new boolean[nbClauses];
+        clauseExponent = new double[nbClauses];
+        thenRow = new int[nbThens];
+        int c = 0, t = 0;
+        for (int r = 0; r < nbRules; r++) {
+            RuleBuilder rule = b.rules.get(r);
+            ruleClauses[r] = c;
+            ruleThens[r] = t;
+            ruleOr[r] = rule.or;
+            ruleWeight[r] = rule.weight;
+            for (Clause clause : rule.clauses) {
+                clauseRow[c] = inputRow(clause.variable, clause.literal);
+                clauseNot[c] = clause.not;
+                clauseExponent[c] = clause.exponent;
+                c++;
+            }
+            for (Clause then : rule.thens) {
+                thenRow[t++] = outputRow(then.variable, then.literal);
+            }
+        }
+        ruleClauses[nbRules] = c;
+        ruleThens[nbRules] = t;
+
+        accumulation = b.accumulation instanceof ConflictHandlerKeepMax ? null : b.accumulation;
+        defuzzification = b.defuzzification;
+        tables = new DefuzzTable[outputs.length];
+        for (int v = 0; v < outputs.length; v++) {
+            tables[v] = new DefuzzTable(outputs[v], b.resolution, b.levels);
+        }
+    }
+
+    private int inputRow(String variable, Object literal) {
+        for (int v = 0; v < inputs.length; v++) {
+            if (inputs[v].name().equals(variable)) {
+                return inputOffset[v] + termOf(inputs[v], literal);
+            }
+        }
+        throw new IllegalArgumentException("Input variable " + variable + " is unknown");
+    }
+
+    private int outputRow(String variable, Object literal) {
+        for (int v = 0; v < outputs.length; v++) {
+            if (outputs[v].name().equals(variable)) {
+                return outputOffset[v] + termOf(outputs[v], literal);
+            }
+        }
+        throw new IllegalArgumentException("Output variable " + variable + " is unknown");
+    }
+
+    private static int termOf(CompiledVariable variable, Object literal) {
+        int term = variable.indexOf(literal);
+        if (term < 0) {
+            throw new IllegalArgumentException("Literal " + literal + " is invalid for variable " + variable.name());
+        }
+        return term;
+    }
+
+    public int getInputCount() {
+        return inputs.length;
+    }
+
+    public int getOutputCount() {
+        return outputs.length;
+    }
+
+    public CompiledVariable getInput(int index) {
+        return inputs[index];
+    }
+
+    public CompiledVariable getOutput(int index) {
+        return outputs[index];
+    }
+
+    public int getRuleCount() {
+        return ruleWeight.length;
+    }
+
+    public Defuzzification getDefuzzification() {
+        return defuzzification;
+    }
+
+    /**
+     * Per thread evaluation state.
+     */
+    static final class Workspace {
+
+        final double[][] degrees;
+        final double[][] activations;
+        final double[] confidence = new double[BLOCK];
+
+        Workspace(CompiledRuleSet rules) {
+            degrees = new double[rules.inputTerms][BLOCK];
+            activations = new double[rules.outputTerms][BLOCK];
+        }
+    }
+
+    /**
+     * Evaluate the agents [from, from + count): outputs[v][i] is the crisp
+     * value of output v for the inputs inputs[0..][i].
+     */
+    void evaluate(Workspace ws, double[][] in, double[][] out, int from, int count) {
+        for (int start = from, end = from + count; start < end; start += BLOCK) {
+            evaluateBlock(ws, in, out, start, Math.min(BLOCK, end - start));
+        }
+    }
+
+    private void evaluateBlock(Workspace ws, double[][] in, double[][] out, int from, int n) {
+        final double[][] degrees = ws.degrees;
+        final double[][] activations = ws.activations;
+        final double[] confidence = ws.confidence;
+        for (int v = 0; v < inputs.length; v++) {
+            inputs[v].fuzzify(in[v], from, n, degrees, inputOffset[v]);
+        }
+        // -1: not assigned by any rule yet
+        for (int row = 0; row < outputTerms; row++) {
+            double[] acc = activations[row];
+            for (int i = 0; i < n; i++) {
+                acc[i] = -1;
+            }
+        }
+        for (int r = 0; r < ruleWeight.length; r++) {
+            boolean or = ruleOr[r];
+            for (int c = ruleClauses[r]; c < ruleClauses[r + 1]; c++) {
+                double[] d = degrees[clauseRow[c]];
+                boolean not = clauseNot[c];
+                double e = clauseExponent[c];
+                boolean first = c == ruleClauses[r];
+                for (int i = 0; i < n; i++) {
+                    double y = not ? 1 - d[i] : d[i];
+                    if (e != 1) {
+                        y = Math.pow(y, e);
+                    }
+                    if (first) {
+                        confidence[i] = y;
+                    } else if (or) {
+                        confidence[i] = Math.max(confidence[i], y);
+                    } else {
+                        confidence[i] = Math.min(confidence[i], y);
+                    }
+                }
+            }
+            double w = ruleWeight[r];
+            for (int t = ruleThens[r]; t < ruleThens[r + 1]; t++) {
+                double[] acc = activations[thenRow[t]];
+                if (accumulation == null) {
+                    for (int i = 0; i < n; i++) {
+                        acc[i] = Math.max(acc[i], confidence[i] * w);
+                    }
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        double y = confidence[i] * w;
+                        if (y > 0) {
+                            acc[i] = acc[i] < 0 ? y : accumulation.handle(acc[i], y);
+                        }
+                    }
+                }
+            }
+        }
+        for (int v = 0; v < outputs.length; v++) {
+            DefuzzTable table = tables[v];
+            int offset = outputOffset[v];
+            double[] column = out[v];
+            if (defuzzification == Defuzzification.LOOKUP) {
+                for (int i = 0; i < n; i++) {
+                    column[from + i] = table.lookup(activations, offset, i);
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    column[from + i] = table.sampled(activations, offset, i);
+                }
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private final List<CompiledVariable> inputs = new ArrayList<CompiledVariable>();
+        private final List<CompiledVariable> outputs = new ArrayList<CompiledVariable>();
+        private final List<RuleBuilder> rules = new ArrayList<RuleBuilder>();
+        private ConflictHandler accumulation = new ConflictHandlerKeepMax();
+        private Defuzzification defuzzification = Defuzzification.LOOKUP;
+        private int resolution = 256;
+        private int levels = 64;
+
+        private Builder() {
+        }
+
+        public Builder input(Variable<?> variable) {
+            return input(CompiledVariable.compile(variable));
+        }
+
+        public Builder input(CompiledVariable variable) {
+            inputs.add(variable);
+            return this;
+        }
+
+        public Builder output(Variable<?> variable) {
+            return output(CompiledVariable.compile(variable));
+        }
+
+        public Builder output(CompiledVariable variable) {
+            outputs.add(variable);
+            return this;
+        }
+
+        /**
+         * Combine the confidences assigned to the same output literal, by
+         * default {@link ConflictHandlerKeepMax}.
+         */
+        public Builder accumulation(ConflictHandler handler) {
+            accumulation = handler;
+            return this;
+        }
+
+        public Builder defuzzification(Defuzzification mode) {
+            defuzzification = mode;
+            return this;
+        }
+
+        /**
+         * Size of the defuzzification tables: sample points over the output
+         * range, and activation levels of the lookup table.
+         */
+        public Builder resolution(int samples, int levels) {
+            this.resolution = samples;
+            this.levels = levels;
+            return this;
+        }
+
+        public RuleBuilder rule() {
+            RuleBuilder rule = new RuleBuilder(this);
+            rules.add(rule);
+            return rule;
+        }
+
+        public CompiledRuleSet build() {
+            for (RuleBuilder rule : rules) {
+                if (rule.clauses.isEmpty() || rule.thens.isEmpty()) {
+                    throw new IllegalStateException("A rule needs at least one condition and one assignment");
+                }
+            }
+            return new CompiledRuleSet(this);
+        }
+    }
+
+    public static final class RuleBuilder {
+
+        private final Builder builder;
+        private final List<Clause> clauses = new ArrayList<Clause>();
+        private final List<Clause> thens = new ArrayList<Clause>();
+        private boolean or;
+        private double weight = 1;
+
+        private RuleBuilder(Builder builder) {
+            this.builder = builder;
+        }
+
+        public RuleBuilder is(String variable, Object literal) {
+            return is(variable, literal, false, 1);
+        }
+
+        public RuleBuilder isNot(String variable, Object literal) {
+            return is(variable, literal, true, 1);
+        }
+
+        /**
+         * Hedged clause, the degree is raised to the exponent (2 for very,
+         * 0.5 for somewhat).
+         */
+        public RuleBuilder is(String variable, Object literal, double exponent) {
+            return is(variable, literal, false, exponent);
+        }
+
+        public RuleBuilder is(String variable, Object literal, boolean not, double exponent) {
+            clauses.add(new Clause(variable, literal, not, exponent));
+            return this;
+        }
+
+        /**
+         * Combine the clauses of this rule with max instead of min.
+         */
+        public RuleBuilder or() {
+            or = true;
+            return this;
+        }
+
+        public RuleBuilder weight(double weight) {
+            this.weight = weight;
+            return this;
+        }
+
+        public RuleBuilder then(String variable, Object literal) {
+            thens.add(new Clause(variable, literal, false, 1));
+            return this;
+        }
+
+        public RuleBuilder rule() {
+            return builder.rule();
+        }
+
+        public CompiledRuleSet build() {
+            return builder.build();
+        }
+    }
+
+    private static final class Clause {
+
+        final String variable;
+        final Object literal;
+        final boolean not;
+        final double exponent;
+
+        Clause(String variable, Object literal, boolean not, double exponent) {
+            this.variable = variable;
+            this.literal = literal;
+            this.not = not;
+            this.exponent = exponent;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.logic.fuzzy.compiled;
+
+import java.util.Arrays;
+import java.util.List;
+import sg.atom.logic.fuzzy.variables.IllegalRangeException;
+import sg.atom.logic.fuzzy.variables.Variable;
+import sg.atom.logic.fuzzy.variables.memberships.FuzzyMembership;
+import sg.atom.logic.fuzzy.variables.memberships.LineMembership;
+import sg.atom.logic.fuzzy.variables.memberships.Membership;
+import sg.atom.logic.fuzzy.variables.memberships.PointMembership;
+
+/**
+ * A {@link Variable} flattened into primitive arrays: each literal (term) is a
+ * piecewise linear membership given by its breakpoints.
+ *
+ * <p>Memberships made of points and lines are copied exactly, other
+ * {@link Membership} implementations are sampled at {@link #SAMPLES} points
+ * over the variable range. Inputs are clamped to the variable range; outside
+ * the breakpoints of a term its degree is the floor of the variable, as in
+ * {@link Variable#fuzzy(double)}.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class CompiledVariable {
+
+    public static final int SAMPLES = 64;
+    private final String name;
+    private final double min, max, floor;
+    private final Object[] literals;
+    // breakpoints of each term
+    private final double[][] xs, ys;
+
+    private CompiledVariable(String name, double min, double max, double floor,
+            Object[] literals, double[][] xs, double[][] ys) {
+        this.name = name;
+        this.min = min;
+        this.max = max;
+        this.floor = floor;
+        this.literals = literals;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    public static <L> CompiledVariable compile(Variable<L> variable) {
+        Object[] literals = variable.literals().toArray();
+        double[][] xs = new double[literals.length][];
+        double[][] ys = new double[literals.length][];
+        for (int t = 0; t < literals.length; t++) {
+            @SuppressWarnings("unchecked")
+            Membership m = variable.membership((L) literals[t]);
+            List<PointMembership> points = null;
+            if (m instanceof FuzzyMembership) {
+                points = ((FuzzyMembership) m).points();
+            } else if (m instanceof LineMembership) {
+                LineMembership line = (LineMembership) m;
+                points = Arrays.asList(line.a(), line.b());
+            } else if (m instanceof PointMembership) {
+                points = Arrays.asList((PointMembership) m);
+            }
+            if (points != null && !points.isEmpty()) {
+                xs[t] = new double[points.size()];
+                ys[t] = new double[points.size()];
+                for (int i = 0; i < xs[t].length; i++) {
+                    xs[t][i] = points.get(i).x();
+                    ys[t][i] = points.get(i).y();
+                }
+            } else {
+                sample(m, variable, xs, ys, t);
+            }
+        }
+        return new CompiledVariable(variable.name(), variable.min(), variable.max(),
+                variable.floor(), literals, xs, ys);
+    }
+
+    private static void sample(Membership m, Variable<?> variable, double[][] xs, double[][] ys, int t) {
+        xs[t] = new double[SAMPLES];
+        ys[t] = new double[SAMPLES];
+        double step = (variable.max() - variable.min()) / (SAMPLES - 1);
+        for (int i = 0; i < SAMPLES; i++) {
+            double x = variable.min() + i * step;
+            xs[t][i] = x;
+            try {
+                ys[t][i] = m.fuzzy(x);
+            } catch (IllegalRangeException e) {
+                ys[t][i] = variable.floor();
+            }
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public double min() {
+        return min;
+    }
+
+    public double max() {
+        return max;
+    }
+
+    public int terms() {
+        return literals.length;
+    }
+
+    public Object literal(int term) {
+        return literals[term];
+    }
+
+    /**
+     * Index of a literal, or -1.
+     */
+    public int indexOf(Object literal) {
+        for (int t = 0; t < literals.length; t++) {
+            if (literals[t].equals(literal)) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Degree of a term for a value.
+     */
+    public double degree(int term, double value) {
+        double x = value < min ? min : (value > max ? max : value);
+        double[] px = xs[term], py = ys[term];
+        int last = px.length - 1;
+        if (x < px[0] || x > px[last]) {
+            return floor;
+        }
+        if (last == 0) {
+            return py[0];
+        }
+        // first segment containing x, as FuzzyMembership
+        for (int k = 0; k < last; k++) {
+            if (x <= px[k + 1]) {
+                double dx = px[k + 1] - px[k];
+                if (dx == 0) {
+                    return Math.max(py[k], py[k + 1]);
+                }
+                return py[k] + (x - px[k]) * (py[k + 1] - py[k]) / dx;
+            }
+        }
+        return py[last];
+    }
+
+    /**
+     * Fuzzify a column of values: degrees[offset + t][i] is the degree of
+     * term t for values[from + i], for i in [0, count).
+     */
+    void fuzzify(double[] values, int from, int count, double[][] degrees, int offset) {
+        for (int t = 0; t < literals.length; t++) {
+            double[] column = degrees[offset + t];
+            for (int i = 0; i < count; i++) {
+                column[i] = degree(t, values[from + i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.logic.fuzzy.compiled;
+
+/**
+ * Precomputed center of gravity defuzzification of an output variable.
+ *
+ * <p>The terms are sampled once on a grid of <code>resolution</code> points.
+ * For <code>levels + 1</code> activation levels the area and first moment of
+ * each term clipped at that level are tabulated, so the lookup defuzzification
+ * of an agent costs a few array reads per term: the clipped terms are summed
+ * (sum aggregation) and the activations between two levels are interpolated.
+ * The sampled defuzzification uses the grid to compute the exact center of
+ * gravity of the max aggregation, at the cost of resolution * terms
+ * operations.</p>
+ *
+ * <p>When no term is activated both return the center of the range.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+final class DefuzzTable {
+
+    private final int terms, resolution, levels;
+    private final double[] x;
+    // mu[t][s]: degree of term t at x[s]
+    private final double[][] mu;
+    // area[t][k], moment[t][k]: term t clipped at k / levels
+    private final double[][] area, moment;
+    private final double center;
+
+    DefuzzTable(CompiledVariable variable, int resolution, int levels) {
+        if (resolution < 2 || levels < 1) {
+            throw new IllegalArgumentException("Resolution must be at least 2 and levels at least 1");
+        }
+        this.terms = variable.terms();
+        this.resolution = resolution;
+        this.levels = levels;
+        this.center = (variable.min() + variable.max()) / 2;
+        x = new double[resolution];
+        double step = (variable.max() - variable.min()) / (resolution - 1);
+        for (int s = 0; s < resolution; s++) {
+            x[s] = variable.min() + s * step;
+        }
+        mu = new double[terms][resolution];
+        area = new double[terms][levels + 1];
+        moment = new double[terms][levels + 1];
+        for (int t = 0; t < terms; t++) {
+            for (int s = 0; s < resolution; s++) {
+                mu[t][s] = variable.degree(t, x[s]);
+            }
+            for (int k = 0; k <= levels; k++) {
+                double level = (double) k / levels;
+                double a = 0, m = 0;
+                for (int s = 0; s < resolution; s++) {
+                    double y = Math.min(level, mu[t][s]);
+                    a += y;
+                    m += y * x[s];
+                }
+                area[t][k] = a;
+                moment[t][k] = m;
+            }
+        }
+    }
+
+    /**
+     * Defuzzify agent i from the activations activations[offset + t][i].
+     */
+    double lookup(double[][] activations, int offset, int i) {
+        double a = 0, m = 0;
+        for (int t = 0; t < terms; t++) {
+            double level = activations[offset + t][i];
+            if (level <= 0) {
+                continue;
+            }
+            double k = (level >= 1 ? 1 : level) * levels;
+            int lo = (int) k;
+            if (lo == levels) {
+                a += area[t][lo];
+                m += moment[t][lo];
+            } else {
+                double f = k - lo;
+                double[] at = area[t], mt = moment[t];
+                a += at[lo] + (at[lo + 1] - at[lo]) * f;
+                m += mt[lo] + (mt[lo + 1] - mt[lo]) * f;
+            }
+        }
+        return a > 0 ? m / a : center;
+    }
+
+    /**
+     * Defuzzify agent i by sampling the max aggregation of the clipped terms.
+     */
+    double sampled(double[][] activations, int offset, int i) {
+        double a = 0, m = 0;
+        for (int s = 0; s < resolution; s++) {
+            double y = 0;
+            for (int t = 0; t < terms; t++) {
+                double level = activations[offset + t][i];
+                if (level > 0) {
+                    y = Math.max(y, Math.min(level, mu[t][s]));
+                }
+            }
+            a += y;
+            m += y * x[s];
+        }
+        return a > 0 ? m / a : center;
+    }
+}
@@ -99,6 +99,14 @@ public class Variable<L> {
         return conflict;
     }
 
+    public Set<L> literals() {
+        return members.keySet();
+    }
+
+    public Membership membership(L key) {
+        return members.get(key);
+    }
+
     public Variable<L> add(L key, Membership value) {
         if (LOG && log.isLoggable(WARNING) && members.get(key) != null) {
             log.warning("A membership " + key
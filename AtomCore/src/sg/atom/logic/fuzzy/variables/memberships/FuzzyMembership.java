@@ -90,6 +90,19 @@ public class FuzzyMembership implements Membership {
         return set;
     }
 
+    /**
+     * Returns the ordered points joined by the lines of this membership.
+     */
+    public List<PointMembership> points() {
+        List<PointMembership> points = newArrayList();
+        for (LineMembership line : lines) {
+            if (points.isEmpty())
+                points.add(line.a());
+            points.add(line.b());
+        }
+        return points;
+    }
+
     public String toString() {
         return lines.toString();
     }
@@ -21,6 +21,7 @@ package sg.atom.logic.rule;
  * Contact: Carlos Figueira Filho (csff@cin.ufpe.br)
  */
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -212,6 +213,28 @@ public abstract class AbstractKnowledgeBase implements InternalConflictSetListen
 			}
 		}
 	}
+	/**
+	 * Inserts several objects in this knowledge base. The entry point
+	 * is looked up once per run of objects of the same class.
+	 *
+	 * @param objs the objects being inserted.
+	 */
+	public void assertObjects(Collection objs) {
+		Class lastClass = null;
+		ClassFilterReteNode entryNode = null;
+		for (Iterator i = objs.iterator(); i.hasNext(); ) {
+			Object obj = i.next();
+			if (objectBase.assertObject(obj)) {
+				if (obj.getClass() != lastClass) {
+					lastClass = obj.getClass();
+					entryNode = getEntryPoint(lastClass);
+				}
+				if (entryNode != null) {
+					entryNode.newObject(obj);
+				}
+			}
+		}
+	}
 	/**
 	 * Stores in the <code>entryPoints</code> field all the entry
 	 * points for a given rule.
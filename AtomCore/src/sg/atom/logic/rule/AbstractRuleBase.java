@@ -20,6 +20,7 @@ package sg.atom.logic.rule;
  *
  * Contact: Carlos Figueira Filho (csff@cin.ufpe.br)
  */
+import java.util.Collection;
 import java.util.Vector;
 import sg.atom.logic.rule.conflict.ConflictSet;
 
@@ -81,6 +82,22 @@ public abstract class AbstractRuleBase implements Cloneable {
         setObjects(ruleIndex, declarations);
     }
 
+    /**
+     * Adds several objects into this rule base. The state of this base is
+     * saved and restored only once for the whole batch.
+     *
+     * @param objects the objects to be inserted into this base.
+     */
+    public void assertObjects(Collection objects) {
+        // Saving the state of this base
+        Object[] declarations = getObjects(ruleIndex);
+
+        knowledgeBase.assertObjects(objects);
+
+        // Restoring the previous state.
+        setObjects(ruleIndex, declarations);
+    }
+
     /**
      * Checks whether all conditions of some rule that depend only on the given
      * object are satisfied, not counting the local declarations.
@@ -236,6 +253,55 @@ public abstract class AbstractRuleBase implements Cloneable {
      */
     public abstract Object[] getObjects(int ruleIndex);
 
+    /**
+     * Returns the key of a declaration on which it's joined with the previous
+     * ones of a rule, built from the objects bound to the previous
+     * declarations. The join nodes hash their memories on these keys, so
+     * that only the pairs with equal keys are checked by
+     * {@link #checkCondForDeclaration}; the keys must then be equal whenever
+     * the conditions of the declaration can be satisfied.
+     *
+     * @param ruleIndex the index of the rule
+     * @param declIndex the index of the declaration being joined
+     * @param left the objects bound to the declarations before
+     * <code>declIndex</code>.
+     * @return the join key of the previous declarations.
+     * @see #hasJoinKey
+     */
+    public Object getLeftJoinKey(int ruleIndex, int declIndex, Object[] left) {
+        return null;
+    }
+
+    /**
+     * Returns the key of a declaration on which it's joined with the previous
+     * ones of a rule, built from the object bound to the declaration.
+     *
+     * @param ruleIndex the index of the rule
+     * @param declIndex the index of the declaration being joined
+     * @param right the object bound to the declaration.
+     * @return the join key of the declaration.
+     * @see #getLeftJoinKey
+     */
+    public Object getRightJoinKey(int ruleIndex, int declIndex, Object right) {
+        return null;
+    }
+
+    /**
+     * Checks whether the conditions that join a declaration with the previous
+     * ones of a rule include an equality test, given as join keys by
+     * {@link #getLeftJoinKey} and {@link #getRightJoinKey}. The default
+     * implementation returns <code>false</code>, and every object of the
+     * declaration is checked against every tuple of the previous ones.
+     *
+     * @param ruleIndex the index of the rule
+     * @param declIndex the index of the declaration being joined
+     * @return <code>true</code> if the declaration has join keys;
+     * <code>false</code> otherwise.
+     */
+    public boolean hasJoinKey(int ruleIndex, int declIndex) {
+        return false;
+    }
+
     /**
      * Returns the index of the rule that has the focus. A rule is said to have
      * focus when it's ready to be fired, i.e., the variables are filled such as
@@ -20,8 +20,11 @@ package sg.atom.logic.rule;
  *
  * Contact: Carlos Figueira Filho (csff@cin.ufpe.br)
  */
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Vector;
 
@@ -40,6 +43,10 @@ import java.util.Vector;
  * intensively at the merging process anymore. The method assert now returns a
  * boolean indicating whether the object being inserted was already in this
  * base.
+ * @history 0.04 The objects of a class are kept in insertion ordered hash
+ * sets, so that inserting and removing an object don't scan the whole class.
+ * An object whose hash code changed while in the base is still found by
+ * comparing it with the others.
  */
 public class ObjectBase {
 
@@ -51,8 +58,8 @@ public class ObjectBase {
      */
     private Map subClasses;
     /**
-     * The class/objects mapping. Its elements will be Vectors, as there can be
-     * more than one element per class.
+     * The class/objects mapping. Its elements will be LinkedHashSets, as there
+     * can be more than one element per class.
      */
     private Map objects;
 
@@ -74,18 +81,15 @@ public class ObjectBase {
         String className = obj.getClass().getName();
         Object objectsOfClass = objects.get(className);
         boolean hierarchyAlreadyPresent = false;
-        Vector aux;
+        Collection aux;
         if (objectsOfClass == null) {
-            aux = new Vector();
+            aux = new LinkedHashSet();
             objects.put(className, aux);
         } else {
-            aux = (Vector) objectsOfClass;
+            aux = (Collection) objectsOfClass;
             hierarchyAlreadyPresent = true;
         }
-        boolean result = !aux.contains(obj);
-        if (result) {
-            aux.addElement(obj);
-        }
+        boolean result = aux.add(obj);
         if (!hierarchyAlreadyPresent) {
             Class classObject = null;
             try {
@@ -165,24 +169,17 @@ public class ObjectBase {
     public Vector objects(String className) {
         Object obj = objects.get(className);
         Vector v = new Vector();
-        Vector aux;
         if (obj != null) {
-            aux = (Vector) obj;
-            for (Enumeration e = aux.elements(); e.hasMoreElements();) {
-                v.addElement(e.nextElement());
-            }
+            v.addAll((Collection) obj);
         }
         obj = subClasses.get(className);
         if (obj != null) {
-            aux = (Vector) obj;
+            Vector aux = (Vector) obj;
             for (Enumeration e = aux.elements(); e.hasMoreElements();) {
                 String subClassName = (String) e.nextElement();
                 obj = objects.get(subClassName);
                 if (obj != null) {
-                    Vector aux2 = (Vector) obj;
-                    for (Enumeration e2 = aux2.elements(); e2.hasMoreElements();) {
-                        v.addElement(e2.nextElement());
-                    }
+                    v.addAll((Collection) obj);
                 }
             }
         }
@@ -201,8 +198,43 @@ public class ObjectBase {
         String className = obj.getClass().getName();
         Object objectsOfClass = objects.get(className);
         if (objectsOfClass != null) {
-            Vector v = (Vector) objectsOfClass;
-            result = v.removeElement(obj);
+            Collection c = (Collection) objectsOfClass;
+            result = c.remove(obj);
+            if (!result) {
+                // the hash code of the object may have changed since it was
+                // inserted (see AbstractKnowledgeBase.modified), so that the
+                // set can't find it anymore.
+                result = removeModified(className, c, obj);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes an object whose hash code changed from the objects of its
+     * class, comparing it with each object of the class. The set is rebuilt,
+     * as it may not be able to remove an object stored under an old hash.
+     *
+     * @param className the name of the class of the object.
+     * @param objectsOfClass the objects of the class.
+     * @param obj the object to be removed.
+     * @return <code>true</code> if the object belonged to this base;
+     * <code>false</code> otherwise.
+     */
+    private boolean removeModified(String className, Collection objectsOfClass,
+            Object obj) {
+        Collection aux = new LinkedHashSet();
+        boolean result = false;
+        for (Iterator i = objectsOfClass.iterator(); i.hasNext();) {
+            Object o = i.next();
+            if (!result && (o == obj || o.equals(obj))) {
+                result = true;
+            } else {
+                aux.add(o);
+            }
+        }
+        if (result) {
+            objects.put(className, aux);
         }
         return result;
     }
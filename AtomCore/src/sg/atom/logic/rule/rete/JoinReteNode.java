@@ -21,9 +21,11 @@ package sg.atom.logic.rule.rete;
  * Contact: Carlos Figueira Filho (csff@cin.ufpe.br)
  */
 
-import java.util.Iterator;
-import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
 import sg.atom.logic.rule.AbstractRuleBase;
 
 /**
@@ -31,19 +33,59 @@ import sg.atom.logic.rule.AbstractRuleBase;
  * objects coming from distinct parts of the network are joined
  * together in instances of this class.
  *
+ * <p>The first inputs of the node receive, one object per input, the
+ * tuples matched by the previous join node (the left memory); the last
+ * input receives the objects of the declaration being joined (the right
+ * memory). If the rule base gives join keys for the declaration (see
+ * {@link AbstractRuleBase#hasJoinKey}), both memories are hashed on them
+ * and an incoming object is only tested against the other memory's
+ * entries of the same key. Every object also knows the entries it
+ * appears in, so that it's retracted without scanning the memories.</p>
+ *
  * @author Carlos Figueira Filho (<a href="mailto:csff@cin.ufpe.br">csff@cin.ufpe.br</a>)
- * @version 1.0   14 Jul 2000
+ * @version 1.1   hashed memories and retraction by identity.
+ * @history 1.0   14 Jul 2000
  */
 public class JoinReteNode extends ReteNode {
 
 	/**
-	 * The objects that are "waiting" at some inputs of this node for
-	 * the arrival of objects in other inputs, in order to be
-	 * propagated at this node. It's actually a list of lists, where
-	 * for every input of this node there is a list of the objects
-	 * entered by that input.
+	 * The key of all the entries when the memories aren't indexed, and
+	 * of the entries whose join key is <code>null</code>.
+	 */
+	private static final Object NO_KEY = new Object();
+
+	/**
+	 * The tuples of the previous declarations "waiting" at the first
+	 * inputs for the arrival of objects at the last input, by join
+	 * key.
+	 */
+	private Map leftMemory = new HashMap();
+
+	/**
+	 * The objects "waiting" at the last input for the arrival of
+	 * tuples at the first ones, by join key.
+	 */
+	private Map rightMemory = new HashMap();
+
+	/**
+	 * The entries each object appears in, by identity.
+	 */
+	private Map occurrences = new IdentityHashMap();
+
+	/**
+	 * The tuple being received at the first inputs.
 	 */
-	private List[] waitingObjects;
+	private final Object[] pending;
+
+	/**
+	 * Whether the memories are hashed on the join keys.
+	 */
+	private final boolean indexed;
+
+	/**
+	 * The number of tuples and objects in the memories.
+	 */
+	private int leftSize, rightSize;
 
 	/**
 	 * The rule base used to check the validity of the property of the
@@ -69,12 +111,6 @@ public class JoinReteNode extends ReteNode {
 	 */
 	private final Object[] ARRAY;
 
-	/**
-	 * Iterator array, defined as an attribute for efficiency purposes
-	 * only.
-	 */
-	private final Iterator[] its;
-
 	/**
 	 * Class constructor.
 	 *
@@ -92,24 +128,22 @@ public class JoinReteNode extends ReteNode {
 		if (numberInputs < 2) {
 			throw new IllegalArgumentException("Join nodes must have at least 2 inputs.");
 		}
-		waitingObjects = new List[numberInputs];
-		for (int i = 0; i < numberInputs; i++) {
-			waitingObjects[i] = new ArrayList();
-		}
+		pending = new Object[numberInputs - 1];
 		ARRAY = new Object[ruleBase.getNumberOfDeclarations()[ruleIndex]];
-		its = new Iterator[numberInputs - 1];
 		this.ruleBase = ruleBase;
 		this.ruleIndex = ruleIndex;
 		this.declIndex = declIndex;
+		this.indexed = ruleBase.hasJoinKey(ruleIndex, declIndex);
 	}
 	/**
 	 * Remove all objects that may be stored in this node.
 	 */
 	public void flush() {
-		int numberInputs = getNumberInputs();
-		for (int i = 0; i < numberInputs; i++) {
-			waitingObjects[i] = new ArrayList();
-		}
+		leftMemory.clear();
+		rightMemory.clear();
+		occurrences.clear();
+		leftSize = 0;
+		rightSize = 0;
 	}
 	/**
 	 * Informs this node that an object has arrived.
@@ -120,76 +154,164 @@ public class JoinReteNode extends ReteNode {
 	 */
 	public void newObject(Object obj, int input) {
 		final int numberInputs = getNumberInputs();
-		waitingObjects[input].add(obj);
 		if (input == numberInputs - 1) {
-			for (int i = 0; i < waitingObjects[0].size(); i++) {
-				for (int j = 0; j < input; j++) {
-					ARRAY[j] = waitingObjects[j].get(i);
-				}
+			Object key = rightKey(obj);
+			add(rightMemory, key, new Object[] { obj });
+			rightSize++;
+			Bucket bucket = (Bucket) leftMemory.get(key);
+			if (bucket == null) {
+				return;
+			}
+			for (Entry e = bucket.first; e != null; e = e.next) {
+				System.arraycopy(e.objects, 0, ARRAY, 0, input);
 				ARRAY[input] = obj;
-				ruleBase.setObjects(ruleIndex, ARRAY);
-				boolean condOk;
-				try {
-					condOk = ruleBase.checkCondForDeclaration(ruleIndex, numberInputs - 1);
-				} catch (Exception e) {
-					condOk = false;
-				}
-				if (condOk) {
-					for (int j = 0; j < numberInputs; j++) {
-						propagate(ARRAY[j], j);
-					}
-				}
+				join();
+			}
+		} else {
+			pending[input] = obj;
+			if (input < numberInputs - 2) {
+				return;
+			}
+			// The tuple is complete
+			Object[] tuple = (Object[]) pending.clone();
+			Object key = leftKey(tuple);
+			add(leftMemory, key, tuple);
+			leftSize++;
+			Bucket bucket = (Bucket) rightMemory.get(key);
+			if (bucket == null) {
+				return;
 			}
-		} else if (input == numberInputs - 2) {
 			int aux = numberInputs - 1;
-			int column = waitingObjects[0].size() - 1;
-			for (int j = 0; j < aux; j++) {
-				ARRAY[j] = waitingObjects[j].get(column);
+			for (Entry e = bucket.first; e != null; e = e.next) {
+				System.arraycopy(tuple, 0, ARRAY, 0, aux);
+				ARRAY[aux] = e.objects[0];
+				join();
 			}
-			for (Iterator i = waitingObjects[aux].iterator(); i.hasNext(); ) {
-				ARRAY[aux] = i.next();
-				ruleBase.setObjects(ruleIndex, ARRAY);
-				boolean condOk;
-				try {
-					condOk = ruleBase.checkCondForDeclaration(ruleIndex, numberInputs - 1);
-				} catch (Exception e) {
-					condOk = false;
-				}
-				if (condOk) {
-					for (int j = 0; j < numberInputs; j++) {
-						propagate(ARRAY[j], j);
-					}
-				}
+		}
+	}
+	/**
+	 * Checks the join condition on the objects in ARRAY, propagating
+	 * them if it's satisfied.
+	 */
+	private void join() {
+		final int numberInputs = getNumberInputs();
+		ruleBase.setObjects(ruleIndex, ARRAY);
+		boolean condOk;
+		try {
+			condOk = ruleBase.checkCondForDeclaration(ruleIndex, numberInputs - 1);
+		} catch (Exception e) {
+			condOk = false;
+		}
+		if (condOk) {
+			for (int j = 0; j < numberInputs; j++) {
+				propagate(ARRAY[j], j);
+			}
+		}
+	}
+	/**
+	 * Returns the join key of a tuple of the left memory.
+	 */
+	private Object leftKey(Object[] tuple) {
+		if (!indexed) {
+			return NO_KEY;
+		}
+		Object key = ruleBase.getLeftJoinKey(ruleIndex, declIndex, tuple);
+		return (key == null) ? NO_KEY : key;
+	}
+	/**
+	 * Returns the join key of an object of the right memory.
+	 */
+	private Object rightKey(Object obj) {
+		if (!indexed) {
+			return NO_KEY;
+		}
+		Object key = ruleBase.getRightJoinKey(ruleIndex, declIndex, obj);
+		return (key == null) ? NO_KEY : key;
+	}
+	/**
+	 * Appends an entry to the bucket of the given key, and records
+	 * the entry for each of its objects.
+	 */
+	private void add(Map memory, Object key, Object[] objects) {
+		Bucket bucket = (Bucket) memory.get(key);
+		if (bucket == null) {
+			bucket = new Bucket(memory, key);
+			memory.put(key, bucket);
+		}
+		Entry e = new Entry(objects, bucket);
+		bucket.append(e);
+		for (int i = 0; i < objects.length; i++) {
+			Occurrences occ = (Occurrences) occurrences.get(objects[i]);
+			if (occ == null) {
+				occ = new Occurrences();
+				occurrences.put(objects[i], occ);
 			}
+			occ.entries.add(e);
 		}
 	}
 	/**
-	 * Remove the given object from the memory of this node.
+	 * Remove the given object from the memory of this node. The object
+	 * is looked up by identity; its entries are unlinked without
+	 * scanning the memories.
 	 *
 	 * @param obj the object to be removed.
 	 */
 	public void remove(Object obj) {
-		final int numberInputs = getNumberInputs();
-		List l = waitingObjects[numberInputs - 1];
-		l.remove(obj);
-		for (int i = 0; i < numberInputs - 1; i++) {
-			its[i] = waitingObjects[i].iterator();
+		Occurrences occ = (Occurrences) occurrences.remove(obj);
+		if (occ == null) {
+			return;
 		}
-		for (; its[0].hasNext(); ) {
-			boolean toBeRemoved = false;
-			for (int i = 0; i < numberInputs - 1; i++) {
-				ARRAY[i] = its[i].next();
-				if (obj.equals(ARRAY[i])) {
-					toBeRemoved = true;
-				}
+		for (Iterator i = occ.entries.iterator(); i.hasNext(); ) {
+			Entry e = (Entry) i.next();
+			if (e.bucket == null) {
+				continue; // already removed
+			}
+			Bucket bucket = e.bucket;
+			bucket.unlink(e);
+			if (bucket.first == null) {
+				bucket.memory.remove(bucket.key);
+			}
+			if (bucket.memory == leftMemory) {
+				leftSize--;
+			} else {
+				rightSize--;
 			}
-			if (toBeRemoved) {
-				for (int i = 0; i < numberInputs - 1; i++) {
-					its[i].remove();
+			// The other objects of the entry keep a dead reference to it
+			for (int j = 0; j < e.objects.length; j++) {
+				Object other = e.objects[j];
+				if (other != obj) {
+					Occurrences o = (Occurrences) occurrences.get(other);
+					if (o != null) {
+						o.entryRemoved();
+					}
 				}
 			}
 		}
 	}
+	/**
+	 * Returns the number of tuples waiting at the first inputs.
+	 *
+	 * @return the size of the left memory.
+	 */
+	public int getLeftMemorySize() {
+		return leftSize;
+	}
+	/**
+	 * Returns the number of objects waiting at the last input.
+	 *
+	 * @return the size of the right memory.
+	 */
+	public int getRightMemorySize() {
+		return rightSize;
+	}
+	/**
+	 * Returns whether the memories of this node are hashed on join keys.
+	 *
+	 * @return <code>true</code> if the memories are indexed.
+	 */
+	public boolean isIndexed() {
+		return indexed;
+	}
 	/**
 	 * Returns a string representation of this object. Useful for
 	 * debugging.
@@ -199,4 +321,79 @@ public class JoinReteNode extends ReteNode {
 	public String toString() {
 		return ("JoinReteNode[ruleIndex="+ruleIndex+",declIndex="+declIndex+"]");
 	}
+
+	/**
+	 * A tuple of the left memory, or an object of the right memory,
+	 * linked in the bucket of its key.
+	 */
+	private static final class Entry {
+		final Object[] objects;
+		Bucket bucket; // null once removed
+		Entry prev, next;
+
+		Entry(Object[] objects, Bucket bucket) {
+			this.objects = objects;
+			this.bucket = bucket;
+		}
+	}
+
+	/**
+	 * The entries of a memory with the same join key, in arrival order.
+	 */
+	private static final class Bucket {
+		final Map memory;
+		final Object key;
+		Entry first, last;
+
+		Bucket(Map memory, Object key) {
+			this.memory = memory;
+			this.key = key;
+		}
+
+		void append(Entry e) {
+			e.prev = last;
+			if (last == null) {
+				first = e;
+			} else {
+				last.next = e;
+			}
+			last = e;
+		}
+
+		void unlink(Entry e) {
+			if (e.prev == null) {
+				first = e.next;
+			} else {
+				e.prev.next = e.next;
+			}
+			if (e.next == null) {
+				last = e.prev;
+			} else {
+				e.next.prev = e.prev;
+			}
+			// e.next is kept, a join loop may be standing on e
+			e.prev = null;
+			e.bucket = null;
+		}
+	}
+
+	/**
+	 * The entries an object appears in. Entries removed through another
+	 * object are skipped, and dropped once they are the majority.
+	 */
+	private static final class Occurrences {
+		final ArrayList entries = new ArrayList(2);
+		int dead;
+
+		void entryRemoved() {
+			if (++dead > 8 && dead * 2 > entries.size()) {
+				for (Iterator i = entries.iterator(); i.hasNext(); ) {
+					if (((Entry) i.next()).bucket == null) {
+						i.remove();
+					}
+				}
+				dead = 0;
+			}
+		}
+	}
 }
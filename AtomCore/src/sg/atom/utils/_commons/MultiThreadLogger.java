@@ -99,6 +99,19 @@ public class MultiThreadLogger {
 
     }
 
+    /**
+     * Logs the given message, with log number, and the stack trace of the
+     * given exception as an error (SEVERE log level).
+     *
+     * @param fmt the text/format to log in
+     * ({@link String#format(String, Object...)}), with the exception as
+     * argument
+     * @param t the exception to log
+     */
+    public void error(String fmt, Throwable t) {
+        logger.logp(Level.SEVERE, srcClass.getName(), "", formatLogMessage(fmt, t), t);
+    }
+
     /**
      * Logs the given message, with log number, as debug message (FINE log
      * level).
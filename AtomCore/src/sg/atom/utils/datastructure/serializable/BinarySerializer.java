@@ -0,0 +1,787 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.datastructure.serializable;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import sg.atom.utils.datastructure.serializable.serializer.IntSerializer;
+import sg.atom.utils.datastructure.serializable.serializer.LongSerializer;
+
+/**
+ * A compact binary {@link Serializer} for object graphs of Serializable
+ * classes, much smaller and faster than Java serialization.
+ *
+ * <p>Each class is written field by field from its {@link ClassSchema},
+ * computed once per class: no stream descriptors nor block data. Integers,
+ * lengths and handles are varints, floating point numbers use the fixed
+ * width encodings of the {@link IntSerializer} and {@link LongSerializer}.
+ * Strings, boxed primitives, enums, arrays and the common
+ * <code>java.util</code> lists, sets and maps have their own encoding.
+ * Shared and cyclic references are written once and then referred to by
+ * handle.</p>
+ *
+ * <p>A class is written by name, with a fingerprint of its fields, the first
+ * time it appears in a serialized graph. Classes registered with the
+ * constructor are written as their index instead: the serializers reading the
+ * bytes must be created with the same classes in the same order.</p>
+ *
+ * <p>Objects of classes which customize their serialization, or whose fields
+ * can not be accessed, are written with Java serialization, as separate
+ * graphs: references from inside such an object to objects of the enclosing
+ * graph are copied rather than shared.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class BinarySerializer implements Serializer {
+
+    private static final long serialVersionUID = 1L;
+    /**
+     * A serializer without registered classes.
+     */
+    public static final BinarySerializer INSTANCE = new BinarySerializer();
+    // value tags
+    static final int NULL = 0;
+    static final int HANDLE = 1;
+    static final int STRING = 2;
+    static final int INTEGER = 3;
+    static final int LONG = 4;
+    static final int SHORT = 5;
+    static final int BYTE = 6;
+    static final int CHARACTER = 7;
+    static final int TRUE = 8;
+    static final int FALSE = 9;
+    static final int FLOAT = 10;
+    static final int DOUBLE = 11;
+    static final int ENUM = 12;
+    static final int ARRAY = 13;
+    static final int OBJECT = 14;
+    static final int JAVA = 15;
+    static final int ARRAY_LIST = 16;
+    static final int LINKED_LIST = 17;
+    static final int HASH_SET = 18;
+    static final int LINKED_HASH_SET = 19;
+    static final int HASH_MAP = 20;
+    static final int LINKED_HASH_MAP = 21;
+    private final Class<?>[] registered;
+    private transient Map<Class<?>, Integer> classIds;
+    private transient ClassLoader loader;
+    private transient ConcurrentHashMap<Class<?>, ClassSchema> schemas;
+    private transient ConcurrentHashMap<String, Class<?>> classes;
+
+    /**
+     * Creates a serializer.
+     *
+     * @param registered the classes written by index rather than by name,
+     * the same on all the serializers reading the bytes
+     */
+    public BinarySerializer(Class<?>... registered) {
+        this.registered = registered.clone();
+        init();
+    }
+
+    private void init() {
+        classIds = new HashMap<Class<?>, Integer>();
+        for (int i = 0; i < registered.length; i++) {
+            if (classIds.put(registered[i], i) != null) {
+                throw new IllegalArgumentException(registered[i] + " registered twice");
+            }
+        }
+        loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = BinarySerializer.class.getClassLoader();
+        }
+        schemas = new ConcurrentHashMap<Class<?>, ClassSchema>();
+        classes = new ConcurrentHashMap<String, Class<?>>();
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        init();
+        return this;
+    }
+
+    @Override
+    public byte[] serialize(Object obj) throws IOException {
+        Writer w = new Writer();
+        w.writeObject(obj);
+        byte[] bytes = new byte[w.pos];
+        System.arraycopy(w.buf, 0, bytes, 0, w.pos);
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] serialized) throws IOException {
+        Reader r = new Reader(serialized);
+        Object obj = r.readObject();
+        if (r.pos != serialized.length) {
+            throw new StreamCorruptedException((serialized.length - r.pos) + " bytes after the object");
+        }
+        return obj;
+    }
+
+    ClassSchema schemaOf(Class<?> c) {
+        ClassSchema schema = schemas.get(c);
+        if (schema == null) {
+            schema = ClassSchema.create(c);
+            schemas.put(c, schema);
+        }
+        return schema;
+    }
+
+    Class<?> classForName(String name) throws IOException {
+        Class<?> c = classes.get(name);
+        if (c == null) {
+            try {
+                c = Class.forName(name, false, loader);
+            } catch (ClassNotFoundException e) {
+                IOException ioe = new InvalidClassException(name, "class not found");
+                ioe.initCause(e);
+                throw ioe;
+            }
+            classes.put(name, c);
+        }
+        return c;
+    }
+
+    /**
+     * Writes one object graph.
+     */
+    final class Writer {
+
+        byte[] buf = new byte[256];
+        int pos;
+        private IdentityHashMap<Object, Integer> handles;
+        private HashMap<Class<?>, Integer> streamClasses;
+
+        void writeObject(Object obj) throws IOException {
+            if (obj == null) {
+                writeByte(NULL);
+                return;
+            }
+            Class<?> c = obj.getClass();
+            if (c == String.class) {
+                writeByte(STRING);
+                writeString((String) obj);
+            } else if (c == Integer.class) {
+                writeByte(INTEGER);
+                writeVarInt(zigZag(((Integer) obj).intValue()));
+            } else if (c == Long.class) {
+                writeByte(LONG);
+                writeVarLong(zigZag(((Long) obj).longValue()));
+            } else if (c == Boolean.class) {
+                writeByte(((Boolean) obj).booleanValue() ? TRUE : FALSE);
+            } else if (c == Double.class) {
+                writeByte(DOUBLE);
+                writeDouble(((Double) obj).doubleValue());
+            } else if (c == Float.class) {
+                writeByte(FLOAT);
+                writeFloat(((Float) obj).floatValue());
+            } else if (c == Short.class) {
+                writeByte(SHORT);
+                writeVarInt(zigZag(((Short) obj).shortValue()));
+            } else if (c == Byte.class) {
+                writeByte(BYTE);
+                writeByte(((Byte) obj).byteValue());
+            } else if (c == Character.class) {
+                writeByte(CHARACTER);
+                writeVarInt(((Character) obj).charValue());
+            } else if (obj instanceof Enum) {
+                writeByte(ENUM);
+                writeClass(((Enum<?>) obj).getDeclaringClass(), 0);
+                writeVarInt(((Enum<?>) obj).ordinal());
+            } else if (!writeHandle(obj)) {
+                if (c.isArray()) {
+                    writeByte(ARRAY);
+                    writeClass(c, 0);
+                    writeArray(obj, c.getComponentType());
+                } else if (c == ArrayList.class) {
+                    writeCollection(ARRAY_LIST, (Collection<?>) obj);
+                } else if (c == HashMap.class) {
+                    writeMap(HASH_MAP, (Map<?, ?>) obj);
+                } else if (c == HashSet.class) {
+                    writeCollection(HASH_SET, (Collection<?>) obj);
+                } else if (c == LinkedHashMap.class) {
+                    writeMap(LINKED_HASH_MAP, (Map<?, ?>) obj);
+                } else if (c == LinkedHashSet.class) {
+                    writeCollection(LINKED_HASH_SET, (Collection<?>) obj);
+                } else if (c == LinkedList.class) {
+                    writeCollection(LINKED_LIST, (Collection<?>) obj);
+                } else if (!(obj instanceof Serializable)) {
+                    throw new NotSerializableException(c.getName());
+                } else {
+                    ClassSchema schema = schemaOf(c);
+                    if (schema.custom) {
+                        writeByte(JAVA);
+                        byte[] bytes = Serialization.serialize(obj);
+                        writeVarInt(bytes.length);
+                        writeBytes(bytes, 0, bytes.length);
+                    } else {
+                        writeByte(OBJECT);
+                        writeClass(c, schema.fingerprint);
+                        writeFields(obj, schema);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes a handle if the object was already written, otherwise gives
+         * it the next handle.
+         */
+        private boolean writeHandle(Object obj) {
+            if (handles == null) {
+                handles = new IdentityHashMap<Object, Integer>();
+            }
+            Integer handle = handles.get(obj);
+            if (handle != null) {
+                writeByte(HANDLE);
+                writeVarInt(handle.intValue());
+                return true;
+            }
+            handles.put(obj, handles.size());
+            return false;
+        }
+
+        private void writeClass(Class<?> c, int fingerprint) {
+            Integer id = classIds.get(c);
+            if (id != null) {
+                writeVarInt(id.intValue() + 1);
+                return;
+            }
+            if (streamClasses == null) {
+                streamClasses = new HashMap<Class<?>, Integer>();
+            }
+            id = streamClasses.get(c);
+            if (id != null) {
+                writeVarInt(registered.length + id.intValue() + 1);
+                return;
+            }
+            streamClasses.put(c, streamClasses.size());
+            writeVarInt(0);
+            writeString(c.getName());
+            writeVarInt(fingerprint);
+        }
+
+        private void writeFields(Object obj, ClassSchema schema) throws IOException {
+            Field[] fields = schema.fields;
+            char[] kinds = schema.kinds;
+            try {
+                for (int i = 0; i < fields.length; i++) {
+                    Field f = fields[i];
+                    switch (kinds[i]) {
+                        case ClassSchema.INT:
+                            writeVarInt(zigZag(f.getInt(obj)));
+                            break;
+                        case ClassSchema.LONG:
+                            writeVarLong(zigZag(f.getLong(obj)));
+                            break;
+                        case ClassSchema.FLOAT:
+                            writeFloat(f.getFloat(obj));
+                            break;
+                        case ClassSchema.DOUBLE:
+                            writeDouble(f.getDouble(obj));
+                            break;
+                        case ClassSchema.BOOLEAN:
+                            writeByte(f.getBoolean(obj) ? 1 : 0);
+                            break;
+                        case ClassSchema.BYTE:
+                            writeByte(f.getByte(obj));
+                            break;
+                        case ClassSchema.SHORT:
+                            writeVarInt(zigZag(f.getShort(obj)));
+                            break;
+                        case ClassSchema.CHAR:
+                            writeVarInt(f.getChar(obj));
+                            break;
+                        default:
+                            writeObject(f.get(obj));
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Field of " + schema.type.getName() + " not accessible", e);
+            }
+        }
+
+        private void writeArray(Object array, Class<?> component) throws IOException {
+            int length = Array.getLength(array);
+            writeVarInt(length);
+            if (component == byte.class) {
+                writeBytes((byte[]) array, 0, length);
+            } else if (component == int.class) {
+                int[] a = (int[]) array;
+                for (int i = 0; i < length; i++) {
+                    writeVarInt(zigZag(a[i]));
+                }
+            } else if (component == long.class) {
+                long[] a = (long[]) array;
+                for (int i = 0; i < length; i++) {
+                    writeVarLong(zigZag(a[i]));
+                }
+            } else if (component == float.class) {
+                float[] a = (float[]) array;
+                for (int i = 0; i < length; i++) {
+                    writeFloat(a[i]);
+                }
+            } else if (component == double.class) {
+                double[] a = (double[]) array;
+                for (int i = 0; i < length; i++) {
+                    writeDouble(a[i]);
+                }
+            } else if (component == boolean.class) {
+                boolean[] a = (boolean[]) array;
+                for (int i = 0; i < length; i++) {
+                    writeByte(a[i] ? 1 : 0);
+                }
+            } else if (component == short.class) {
+                short[] a = (short[]) array;
+                for (int i = 0; i < length; i++) {
+                    writeVarInt(zigZag(a[i]));
+                }
+            } else if (component == char.class) {
+                char[] a = (char[]) array;
+                for (int i = 0; i < length; i++) {
+                    writeVarInt(a[i]);
+                }
+            } else {
+                Object[] a = (Object[]) array;
+                for (int i = 0; i < length; i++) {
+                    writeObject(a[i]);
+                }
+            }
+        }
+
+        private void writeCollection(int tag, Collection<?> collection) throws IOException {
+            writeByte(tag);
+            writeVarInt(collection.size());
+            for (Object element : collection) {
+                writeObject(element);
+            }
+        }
+
+        private void writeMap(int tag, Map<?, ?> map) throws IOException {
+            writeByte(tag);
+            writeVarInt(map.size());
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                writeObject(e.getKey());
+                writeObject(e.getValue());
+            }
+        }
+
+        private void writeString(String s) {
+            int length = s.length();
+            writeVarInt(length);
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                char ch = s.charAt(i);
+                if (ch < 0x80) {
+                    buf[pos++] = (byte) ch;
+                } else {
+                    writeVarInt(ch);
+                }
+            }
+        }
+
+        private void writeFloat(float value) {
+            ensure(4);
+            IntSerializer.serialize(buf, pos, Float.floatToRawIntBits(value));
+            pos += 4;
+        }
+
+        private void writeDouble(double value) {
+            ensure(8);
+            LongSerializer.serialize(buf, pos, Double.doubleToRawLongBits(value));
+            pos += 8;
+        }
+
+        private void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            buf[pos++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, pos, length);
+            pos += length;
+        }
+
+        private void ensure(int bytes) {
+            if (pos + bytes > buf.length) {
+                byte[] grown = new byte[Math.max(buf.length * 2, pos + bytes)];
+                System.arraycopy(buf, 0, grown, 0, pos);
+                buf = grown;
+            }
+        }
+    }
+
+    /**
+     * Reads one object graph.
+     */
+    final class Reader {
+
+        final byte[] buf;
+        int pos;
+        private final ArrayList<Object> handles = new ArrayList<Object>();
+        private ArrayList<Class<?>> streamClasses;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        Object readObject() throws IOException {
+            int tag = readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case HANDLE:
+                    int handle = readVarInt();
+                    if (handle >= handles.size()) {
+                        throw new StreamCorruptedException("Invalid handle " + handle);
+                    }
+                    return handles.get(handle);
+                case STRING:
+                    return readString();
+                case INTEGER:
+                    return Integer.valueOf(unZigZag(readVarInt()));
+                case LONG:
+                    return Long.valueOf(unZigZag(readVarLong()));
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case DOUBLE:
+                    return Double.valueOf(readDouble());
+                case FLOAT:
+                    return Float.valueOf(readFloat());
+                case SHORT:
+                    return Short.valueOf((short) unZigZag(readVarInt()));
+                case BYTE:
+                    return Byte.valueOf((byte) readByte());
+                case CHARACTER:
+                    return Character.valueOf((char) readVarInt());
+                case ENUM:
+                    return readEnum();
+                case ARRAY:
+                    return readArray(readClass(false).getComponentType());
+                case OBJECT:
+                    return readFields(schemaOf(readClass(true)));
+                case JAVA:
+                    return readJava();
+                case ARRAY_LIST:
+                    int size = readVarInt();
+                    return readElements(new ArrayList<Object>(size), size);
+                case LINKED_LIST:
+                    return readElements(new LinkedList<Object>(), readVarInt());
+                case HASH_SET:
+                    size = readVarInt();
+                    return readElements(new HashSet<Object>(capacity(size)), size);
+                case LINKED_HASH_SET:
+                    size = readVarInt();
+                    return readElements(new LinkedHashSet<Object>(capacity(size)), size);
+                case HASH_MAP:
+                    size = readVarInt();
+                    return readEntries(new HashMap<Object, Object>(capacity(size)), size);
+                case LINKED_HASH_MAP:
+                    size = readVarInt();
+                    return readEntries(new LinkedHashMap<Object, Object>(capacity(size)), size);
+                default:
+                    throw new StreamCorruptedException("Invalid tag " + tag);
+            }
+        }
+
+        private Class<?> readClass(boolean checkFields) throws IOException {
+            int id = readVarInt() - 1;
+            if (id >= 0) {
+                if (id < registered.length) {
+                    return registered[id];
+                }
+                id -= registered.length;
+                if (streamClasses == null || id >= streamClasses.size()) {
+                    throw new StreamCorruptedException("Invalid class id " + id);
+                }
+                return streamClasses.get(id);
+            }
+            Class<?> c = classForName(readString());
+            int fingerprint = readVarInt();
+            if (checkFields && fingerprint != schemaOf(c).fingerprint) {
+                throw new InvalidClassException(c.getName(), "serialized with other fields");
+            }
+            if (streamClasses == null) {
+                streamClasses = new ArrayList<Class<?>>();
+            }
+            streamClasses.add(c);
+            return c;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object readEnum() throws IOException {
+            Class c = readClass(false);
+            Object[] constants = c.getEnumConstants();
+            int ordinal = readVarInt();
+            if (constants == null || ordinal >= constants.length) {
+                throw new InvalidClassException(c.getName(), "no enum constant " + ordinal);
+            }
+            return constants[ordinal];
+        }
+
+        private Object readFields(ClassSchema schema) throws IOException {
+            if (schema.custom) {
+                throw new InvalidClassException(schema.type.getName(), "serialized with other fields");
+            }
+            Object obj = schema.newInstance();
+            handles.add(obj);
+            Field[] fields = schema.fields;
+            char[] kinds = schema.kinds;
+            try {
+                for (int i = 0; i < fields.length; i++) {
+                    Field f = fields[i];
+                    switch (kinds[i]) {
+                        case ClassSchema.INT:
+                            f.setInt(obj, unZigZag(readVarInt()));
+                            break;
+                        case ClassSchema.LONG:
+                            f.setLong(obj, unZigZag(readVarLong()));
+                            break;
+                        case ClassSchema.FLOAT:
+                            f.setFloat(obj, readFloat());
+                            break;
+                        case ClassSchema.DOUBLE:
+                            f.setDouble(obj, readDouble());
+                            break;
+                        case ClassSchema.BOOLEAN:
+                            f.setBoolean(obj, readByte() != 0);
+                            break;
+                        case ClassSchema.BYTE:
+                            f.setByte(obj, (byte) readByte());
+                            break;
+                        case ClassSchema.SHORT:
+                            f.setShort(obj, (short) unZigZag(readVarInt()));
+                            break;
+                        case ClassSchema.CHAR:
+                            f.setChar(obj, (char) readVarInt());
+                            break;
+                        default:
+                            f.set(obj, readObject());
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Field of " + schema.type.getName() + " not accessible", e);
+            } catch (IllegalArgumentException e) {
+                InvalidClassException ice = new InvalidClassException(schema.type.getName(), "field of another type");
+                ice.initCause(e);
+                throw ice;
+            }
+            return obj;
+        }
+
+        private Object readArray(Class<?> component) throws IOException {
+            int length = readVarInt();
+            Object array = Array.newInstance(component, length);
+            handles.add(array);
+            if (component == byte.class) {
+                need(length);
+                System.arraycopy(buf, pos, array, 0, length);
+                pos += length;
+            } else if (component == int.class) {
+                int[] a = (int[]) array;
+                for (int i = 0; i < length; i++) {
+                    a[i] = unZigZag(readVarInt());
+                }
+            } else if (component == long.class) {
+                long[] a = (long[]) array;
+                for (int i = 0; i < length; i++) {
+                    a[i] = unZigZag(readVarLong());
+                }
+            } else if (component == float.class) {
+                float[] a = (float[]) array;
+                for (int i = 0; i < length; i++) {
+                    a[i] = readFloat();
+                }
+            } else if (component == double.class) {
+                double[] a = (double[]) array;
+                for (int i = 0; i < length; i++) {
+                    a[i] = readDouble();
+                }
+            } else if (component == boolean.class) {
+                boolean[] a = (boolean[]) array;
+                for (int i = 0; i < length; i++) {
+                    a[i] = readByte() != 0;
+                }
+            } else if (component == short.class) {
+                short[] a = (short[]) array;
+                for (int i = 0; i < length; i++) {
+                    a[i] = (short) unZigZag(readVarInt());
+                }
+            } else if (component == char.class) {
+                char[] a = (char[]) array;
+                for (int i = 0; i < length; i++) {
+                    a[i] = (char) readVarInt();
+                }
+            } else {
+                Object[] a = (Object[]) array;
+                try {
+                    for (int i = 0; i < length; i++) {
+                        a[i] = readObject();
+                    }
+                } catch (ArrayStoreException e) {
+                    throw new StreamCorruptedException("Element of another type in " + component.getName() + "[]");
+                }
+            }
+            return array;
+        }
+
+        private Object readJava() throws IOException {
+            int length = readVarInt();
+            need(length);
+            byte[] bytes = new byte[length];
+            System.arraycopy(buf, pos, bytes, 0, length);
+            pos += length;
+            Object obj;
+            try {
+                obj = Serialization.deserialize(bytes);
+            } catch (ClassNotFoundException e) {
+                IOException ioe = new InvalidClassException(e.getMessage(), "class not found");
+                ioe.initCause(e);
+                throw ioe;
+            }
+            handles.add(obj);
+            return obj;
+        }
+
+        private Collection<Object> readElements(Collection<Object> collection, int size) throws IOException {
+            handles.add(collection);
+            for (int i = 0; i < size; i++) {
+                collection.add(readObject());
+            }
+            return collection;
+        }
+
+        private Map<Object, Object> readEntries(Map<Object, Object> map, int size) throws IOException {
+            handles.add(map);
+            for (int i = 0; i < size; i++) {
+                Object key = readObject();
+                map.put(key, readObject());
+            }
+            return map;
+        }
+
+        private String readString() throws IOException {
+            int length = readVarInt();
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                need(1);
+                byte b = buf[pos];
+                if (b >= 0) {
+                    chars[i] = (char) b;
+                    pos++;
+                } else {
+                    chars[i] = (char) readVarInt();
+                }
+            }
+            return new String(chars);
+        }
+
+        private float readFloat() throws IOException {
+            need(4);
+            float value = Float.intBitsToFloat(IntSerializer.deserialize(buf, pos).intValue());
+            pos += 4;
+            return value;
+        }
+
+        private double readDouble() throws IOException {
+            need(8);
+            double value = Double.longBitsToDouble(LongSerializer.deserialize(buf, pos).longValue());
+            pos += 8;
+            return value;
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        private int readByte() throws IOException {
+            need(1);
+            return buf[pos++] & 0xFF;
+        }
+
+        private void need(int bytes) throws IOException {
+            if (bytes < 0 || pos + bytes > buf.length) {
+                throw new StreamCorruptedException("Unexpected end of data");
+            }
+        }
+    }
+
+    private static int capacity(int size) {
+        return Math.max(16, (int) (size / .75f) + 1);
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
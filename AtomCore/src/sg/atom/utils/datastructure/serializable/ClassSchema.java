@@ -0,0 +1,239 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.datastructure.serializable;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The layout of a Serializable class for the {@link BinarySerializer}: its
+ * serialized fields, from the top superclass down and by name within a class,
+ * with their types, and the way to create instances without running their
+ * constructors, as Java serialization does.
+ *
+ * <p>Classes which customize their serialization (<code>writeObject</code>,
+ * <code>readObject</code>, <code>writeReplace</code>,
+ * <code>readResolve</code>, <code>serialPersistentFields</code> or
+ * {@link Externalizable}) are marked as custom and left to Java
+ * serialization.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+final class ClassSchema {
+
+    // field kinds, the descriptor letters of their types
+    static final char BOOLEAN = 'Z';
+    static final char BYTE = 'B';
+    static final char CHAR = 'C';
+    static final char SHORT = 'S';
+    static final char INT = 'I';
+    static final char LONG = 'J';
+    static final char FLOAT = 'F';
+    static final char DOUBLE = 'D';
+    static final char OBJECT = 'L';
+    final Class<?> type;
+    final Field[] fields;
+    final char[] kinds;
+    /**
+     * Hash of the field names and types, checked when a class is read by
+     * name.
+     */
+    final int fingerprint;
+    /**
+     * Whether the class customizes its serialization and must be written by
+     * Java serialization.
+     */
+    final boolean custom;
+    private final Constructor<?> constructor;
+
+    private ClassSchema(Class<?> type, Field[] fields, Constructor<?> constructor, boolean custom) {
+        this.type = type;
+        this.fields = fields;
+        this.constructor = constructor;
+        this.custom = custom;
+        kinds = new char[fields.length];
+        int hash = type.getName().hashCode();
+        for (int i = 0; i < fields.length; i++) {
+            Class<?> t = fields[i].getType();
+            kinds[i] = t.isPrimitive() ? kindOf(t) : OBJECT;
+            hash = hash * 31 + fields[i].getName().hashCode();
+            hash = hash * 31 + kinds[i];
+        }
+        fingerprint = hash;
+    }
+
+    static ClassSchema create(Class<?> type) {
+        boolean custom = Externalizable.class.isAssignableFrom(type)
+                || hasMethod(type, "writeReplace") || hasMethod(type, "readResolve")
+                || (type.getSuperclass() != null && type.getSuperclass().getName().equals("java.lang.Record"));
+        List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+        for (Class<?> c = type; c != null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+            custom |= declares(c, "writeObject", ObjectOutputStream.class)
+                    || declares(c, "readObject", ObjectInputStream.class)
+                    || declares(c, "readObjectNoData")
+                    || declaresField(c, "serialPersistentFields");
+        }
+
+        List<Field> fields = new ArrayList<Field>();
+        for (Class<?> c : hierarchy) {
+            Field[] declared = c.getDeclaredFields();
+            Arrays.sort(declared, BY_NAME);
+            for (Field f : declared) {
+                if ((f.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) == 0) {
+                    fields.add(f);
+                }
+            }
+        }
+
+        Constructor<?> constructor = null;
+        if (!custom) {
+            try {
+                for (Field f : fields) {
+                    f.setAccessible(true);
+                }
+                constructor = serializationConstructor(type);
+            } catch (RuntimeException e) {
+                // inaccessible fields or constructor: Java serialization knows better
+                constructor = null;
+            }
+            custom = constructor == null;
+        }
+        return new ClassSchema(type, fields.toArray(new Field[fields.size()]), constructor, custom);
+    }
+
+    /**
+     * Creates an instance without running the constructors of the
+     * Serializable classes.
+     */
+    Object newInstance() throws IOException {
+        try {
+            return constructor.newInstance();
+        } catch (Exception e) {
+            InvalidClassException ice = new InvalidClassException(type.getName(), "can not be instantiated");
+            ice.initCause(e);
+            throw ice;
+        }
+    }
+
+    private static char kindOf(Class<?> primitive) {
+        if (primitive == boolean.class) {
+            return BOOLEAN;
+        } else if (primitive == byte.class) {
+            return BYTE;
+        } else if (primitive == char.class) {
+            return CHAR;
+        } else if (primitive == short.class) {
+            return SHORT;
+        } else if (primitive == int.class) {
+            return INT;
+        } else if (primitive == long.class) {
+            return LONG;
+        } else if (primitive == float.class) {
+            return FLOAT;
+        } else {
+            return DOUBLE;
+        }
+    }
+
+    private static boolean hasMethod(Class<?> type, String name) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            if (declares(c, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean declares(Class<?> c, String name, Class<?>... parameters) {
+        try {
+            c.getDeclaredMethod(name, parameters);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static boolean declaresField(Class<?> c, String name) {
+        try {
+            c.getDeclaredField(name);
+            return true;
+        } catch (NoSuchFieldException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a constructor creating instances of the class by running only
+     * the no-argument constructor of its first non-Serializable superclass,
+     * or null if there is none.
+     */
+    private static Constructor<?> serializationConstructor(Class<?> type) {
+        if (Modifier.isAbstract(type.getModifiers()) || type.isInterface()) {
+            return null;
+        }
+        Class<?> base = type;
+        while (Serializable.class.isAssignableFrom(base)) {
+            base = base.getSuperclass();
+        }
+        Constructor<?> baseConstructor;
+        try {
+            baseConstructor = base.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        if (reflectionFactory != null) {
+            try {
+                Constructor<?> c = (Constructor<?>) newConstructorForSerialization.invoke(reflectionFactory, type, baseConstructor);
+                c.setAccessible(true);
+                return c;
+            } catch (Exception e) {
+                // try the no-argument constructor of the class
+            }
+        }
+        try {
+            Constructor<?> c = type.getDeclaredConstructor();
+            c.setAccessible(true);
+            return c;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+    private static final Comparator<Field> BY_NAME = new Comparator<Field>() {
+        @Override
+        public int compare(Field f1, Field f2) {
+            return f1.getName().compareTo(f2.getName());
+        }
+    };
+    private static final Object reflectionFactory;
+    private static final Method newConstructorForSerialization;
+
+    static {
+        Object factory = null;
+        Method method = null;
+        try {
+            Class<?> c = Class.forName("sun.reflect.ReflectionFactory");
+            factory = c.getMethod("getReflectionFactory").invoke(null);
+            method = c.getMethod("newConstructorForSerialization", Class.class, Constructor.class);
+        } catch (Exception e) {
+            // not a Sun/Oracle VM, fall back to no-argument constructors
+            factory = null;
+        }
+        reflectionFactory = factory;
+        newConstructorForSerialization = method;
+    }
+}
@@ -72,7 +72,16 @@ public class SerializableHelper {
         if (object == null) {
             return null;
         }
-        return null;
+        if (ImmutableHelper.isImmutable(object)) {
+            return object;
+        }
+
+        Copier cc = classCopiers.get(object.getClass());
+        if (cc == null) {
+            return defaultCopier.freeze(object);
+        } else {
+            return new Frozen(cc, cc.freeze(object));
+        }
     }
 
     /**
@@ -88,6 +97,27 @@ public class SerializableHelper {
         if (storageReference == null) {
             return null;
         }
-        return null;
+        if (storageReference instanceof byte[]) {
+            return defaultCopier.thaw(storageReference);
+        }
+        if (storageReference instanceof Frozen) {
+            Frozen frozen = (Frozen) storageReference;
+            return frozen.copier.thaw(frozen.reference);
+        }
+        return (Serializable) storageReference;
+    }
+
+    /**
+     * An object frozen by a class specific Copier.
+     */
+    private static final class Frozen {
+
+        final Copier copier;
+        final Object reference;
+
+        Frozen(Copier copier, Object reference) {
+            this.copier = copier;
+            this.reference = reference;
+        }
     }
 }
@@ -15,32 +15,57 @@
  */
 package sg.atom.utils.datastructure.serializable;
 
+import java.io.IOException;
 import java.io.Serializable;
+import sg.atom.utils._commons.exception.WrappedRuntimeException;
 
 /**
- * A Copier implementation to "copy" immutables (actually it does not copy, just
- * returns the reference).
+ * A Copier implementation which copies objects by serializing them, by
+ * default with the {@link BinarySerializer}. Frozen objects are the serialized
+ * bytes.
  */
 public class SerializingCopier implements Copier {
 
+    private final Serializer serializer;
+
+    public SerializingCopier() {
+        this(BinarySerializer.INSTANCE);
+    }
+
+    /**
+     * @param serializer the serializer writing the frozen objects
+     */
+    public SerializingCopier(Serializer serializer) {
+        this.serializer = serializer;
+    }
+
     /* (non-Javadoc)
      * @see sg.atom.utils.datastructure.serializable.Copier#copy(java.io.Serializable)
      */
+    @SuppressWarnings("unchecked")
     public <T extends Serializable> T copy(T object) {
-        return object;
+        return (T) thaw(freeze(object));
     }
 
     /* (non-Javadoc)
      * @see sg.atom.core.actor.internal.serializable.Copier#freeze(java.io.Serializable)
      */
     public Object freeze(Serializable object) {
-        return object;
+        try {
+            return serializer.serialize(object);
+        } catch (IOException e) {
+            throw new WrappedRuntimeException(e);
+        }
     }
 
     /* (non-Javadoc)
      * @see sg.atom.utils.datastructure.serializable.Copier#thaw(java.lang.Object)
      */
     public Serializable thaw(Object storageReference) {
-        return (Serializable) storageReference;
+        try {
+            return (Serializable) serializer.deserialize((byte[]) storageReference);
+        } catch (IOException e) {
+            throw new WrappedRuntimeException(e);
+        }
     }
 }
@@ -281,10 +281,24 @@ public abstract class AbstractBTree<K, V> implements BTree<K, V>
             }
         }
 
+        // Now that the lock is released, make the modification durable if needed
+        unlockedCommit();
+
         return existingValue;
     }
 
 
+    /**
+     * Called after a modification done outside a transaction, once the write
+     * lock has been released, to make it durable. Does nothing by default.
+     *
+     * @throws IOException If the modification can't be written
+     */
+    protected void unlockedCommit() throws IOException
+    {
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,131 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package sg.atom.utils.datastructure.tree.mvccbtree;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A bounded LRU cache of the deserialized pages, by offset of their first PageIO.
+ * It is used by the {@link RecordManager} to avoid reading and deserializing again
+ * the pages of the file. The RecordManager removes a page when its offset is freed
+ * or rewritten.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class PageCache
+{
+    /** The pages, the least recently used first */
+    private final LinkedHashMap<Long, Page<?, ?>> pages;
+
+    /** The maximum number of pages */
+    private int maxSize;
+
+
+    /**
+     * Creates a new PageCache
+     *
+     * @param maxSize The maximum number of pages, 0 to disable the cache
+     */
+    PageCache( int maxSize )
+    {
+        this.maxSize = maxSize;
+        pages = new LinkedHashMap<Long, Page<?, ?>>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Long, Page<?, ?>> eldest )
+            {
+                return size() > PageCache.this.maxSize;
+            }
+        };
+    }
+
+
+    /**
+     * @return The page stored at this offset, or null
+     */
+    synchronized Page<?, ?> get( long offset )
+    {
+        return pages.get( offset );
+    }
+
+
+    /**
+     * Add a page read at this offset
+     */
+    synchronized void put( long offset, Page<?, ?> page )
+    {
+        if ( maxSize > 0 )
+        {
+            pages.put( offset, page );
+        }
+    }
+
+
+    /**
+     * Forget the page stored at this offset
+     */
+    synchronized void remove( long offset )
+    {
+        pages.remove( offset );
+    }
+
+
+    synchronized void clear()
+    {
+        pages.clear();
+    }
+
+
+    synchronized int size()
+    {
+        return pages.size();
+    }
+
+
+    synchronized int getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    /**
+     * Change the maximum number of pages, removing the least recently used ones
+     * if needed
+     */
+    synchronized void setMaxSize( int maxSize )
+    {
+        this.maxSize = maxSize;
+
+        Iterator<Long> offsets = pages.keySet().iterator();
+
+        while ( ( pages.size() > maxSize ) && offsets.hasNext() )
+        {
+            offsets.next();
+            offsets.remove();
+        }
+    }
+}
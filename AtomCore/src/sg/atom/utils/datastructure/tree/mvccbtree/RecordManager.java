@@ -33,12 +33,17 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import sg.atom.utils.datastructure.tree.mvccbtree.exception.BTreeAlreadyManagedException;
 import sg.atom.utils.datastructure.tree.mvccbtree.exception.BTreeCreationException;
@@ -96,6 +101,14 @@ public class RecordManager
     public AtomicLong nbUpdateBTreeHeader = new AtomicLong( 0 );
     public AtomicLong nbUpdatePageIOs = new AtomicLong( 0 );
 
+    /** Some counters to track the disk accesses */
+    public AtomicLong nbPageCacheHits = new AtomicLong( 0 );
+    public AtomicLong nbPageCacheMisses = new AtomicLong( 0 );
+    public AtomicLong nbWrites = new AtomicLong( 0 );
+    public AtomicLong nbForces = new AtomicLong( 0 );
+    public AtomicLong nbGroupCommits = new AtomicLong( 0 );
+    public AtomicLong nbCommits = new AtomicLong( 0 );
+
     /** The offset of the end of the file */
     private long endOfFileOffset;
 
@@ -178,6 +191,59 @@ public class RecordManager
     private long bobCurrentRevision;
     private long bobOldRevision;
 
+    /** Sorts the PageIOs by offset */
+    private static final Comparator<PageIO> PAGE_OFFSET_COMPARATOR = new Comparator<PageIO>()
+    {
+        public int compare( PageIO pageIo1, PageIO pageIo2 )
+        {
+            long offset1 = pageIo1.getOffset();
+            long offset2 = pageIo2.getOffset();
+
+            return offset1 < offset2 ? -1 : ( offset1 == offset2 ? 0 : 1 );
+        }
+    };
+
+    /** The default number of deserialized pages kept in memory */
+    public static final int DEFAULT_PAGE_CACHE_SIZE = 1024;
+
+    /**
+     * The deserialized pages, by offset. A page stored at a given offset never changes
+     * until the offset is freed or rewritten, so it can be shared by all the revisions
+     * using it. Guarded by itself.
+     */
+    private final PageCache pageCache = new PageCache( DEFAULT_PAGE_CACHE_SIZE );
+
+    /** A flag set to true when the PageIOs are written by group commits */
+    private volatile boolean groupCommit;
+
+    /** The time the group commit leader waits for other commits, in nanoseconds */
+    private volatile long commitWindow;
+
+    /** The lock protecting the group commit state */
+    private final Object commitLock = new Object();
+
+    /** The PageIOs waiting for the next group commit, by offset. Guarded by commitLock */
+    private TreeMap<Long, PageIO> dirtyPageIOs = new TreeMap<Long, PageIO>();
+
+    /**
+     * The PageIOs being written by the group commit leader, by offset, until they
+     * are forced on disk, or null. Guarded by commitLock
+     */
+    private TreeMap<Long, PageIO> inFlightPageIOs;
+
+    /** The group commit the dirty PageIOs will be written by. Guarded by commitLock */
+    private long currentCommit = 1L;
+
+    /** The last written group commit. Guarded by commitLock */
+    private long writtenCommit;
+
+    /** The last failed group commit, and its error. Guarded by commitLock */
+    private long failedCommit;
+    private IOException commitError;
+
+    /** Tells if a leader is writing a group commit. Guarded by commitLock */
+    private boolean committing;
+
     /**
      * Create a Record manager which will either create the underlying file
      * or load an existing one. If a folder is provided, then we will create
@@ -609,16 +675,38 @@ public class RecordManager
     }
 
 
+    /**
+     * Read the page stored at the given offset. The page is taken from the page cache
+     * if it has already been read.
+     *
+     * @param btree The BTree the page belongs to
+     * @param offset The offset of the first PageIO of the page
+     * @return The deserialized page
+     */
+    @SuppressWarnings("unchecked")
     public <K, V> Page<K, V> deserialize( BTree<K, V> btree, long offset ) throws EndOfFileExceededException,
         IOException
     {
+        Page<K, V> page = ( Page<K, V> ) pageCache.get( offset );
+
+        if ( page != null )
+        {
+            nbPageCacheHits.incrementAndGet();
+
+            return page;
+        }
+
+        nbPageCacheMisses.incrementAndGet();
+
         PageIO[] rootPageIos = readPageIOs( offset, Long.MAX_VALUE );
 
-        Page<K, V> page = readPage( btree, rootPageIos );
+        page = readPage( btree, rootPageIos );
 
         ( ( AbstractPage<K, V> ) page ).setOffset( rootPageIos[0].getOffset() );
         ( ( AbstractPage<K, V> ) page ).setLastOffset( rootPageIos[rootPageIos.length - 1].getOffset() );
 
+        pageCache.put( offset, page );
+
         return page;
     }
 
@@ -1168,6 +1256,12 @@ public class RecordManager
 
             // Last, not least, update the number of managed BTrees in the header
             updateRecordManagerHeader();
+
+            if ( groupCommit )
+            {
+                // The pages are only queued : write them now
+                sync();
+            }
         }
 
         if ( LOG_CHECK.isDebugEnabled() )
@@ -1533,12 +1627,25 @@ public class RecordManager
         HEADER_BYTES[24] = ( byte ) ( bobCurrentRevision );
 
         // Write the header on disk
-        HEADER_BUFFER.put( HEADER_BYTES );
-        HEADER_BUFFER.flip();
-
         LOG.debug( "Update RM header, FF : {}", firstFreePage );
-        fileChannel.write( HEADER_BUFFER, 0 );
-        HEADER_BUFFER.clear();
+
+        if ( groupCommit )
+        {
+            // The header is written with the pages of the next group commit
+            PageIO headerPage = new PageIO( 0L );
+            headerPage.setData( ByteBuffer.wrap( HEADER_BYTES.clone() ) );
+
+            addDirtyPages( headerPage );
+        }
+        else
+        {
+            HEADER_BUFFER.put( HEADER_BYTES );
+            HEADER_BUFFER.flip();
+
+            fileChannel.write( HEADER_BUFFER, 0 );
+            HEADER_BUFFER.clear();
+            nbWrites.incrementAndGet();
+        }
 
         nbUpdateRMHeader.incrementAndGet();
     }
@@ -1596,7 +1703,11 @@ public class RecordManager
 
     /**
      * Write the pages in the disk, either at the end of the file, or at
-     * the position they were taken from.
+     * the position they were taken from. Contiguous pages are written with
+     * a single gathering write.<br/>
+     *
+     * When the group commit is enabled, the pages are only queued, and written
+     * by the next {@link #sync()}.
      *
      * @param pageIos The list of pages to write
      * @throws IOException If the write failed
@@ -1611,31 +1722,321 @@ public class RecordManager
             }
         }
 
+        // The pages previously stored at those offsets are not valid anymore
         for ( PageIO pageIo : pageIos )
         {
-            pageIo.getData().rewind();
+            pageCache.remove( pageIo.getOffset() );
+        }
+
+        if ( groupCommit )
+        {
+            addDirtyPages( pageIos );
+
+            return;
+        }
+
+        PageIO[] sorted = pageIos.clone();
+        Arrays.sort( sorted, PAGE_OFFSET_COMPARATOR );
+
+        writePageIOs( Arrays.asList( sorted ) );
+    }
+
+
+    /**
+     * Write some PageIOs sorted by offset. Each run of contiguous PageIOs is
+     * written with one gathering write.
+     */
+    private void writePageIOs( List<PageIO> pageIos ) throws IOException
+    {
+        int start = 0;
+
+        while ( start < pageIos.size() )
+        {
+            int end = start + 1;
 
-            if ( fileChannel.size() < ( pageIo.getOffset() + pageSize ) )
+            while ( ( end < pageIos.size() )
+                && ( pageIos.get( end ).getOffset() == pageIos.get( end - 1 ).getOffset() + pageSize ) )
             {
-                LOG.debug( "Adding a page at the end of the file" );
-                // This is a page we have to add to the file
-                fileChannel.write( pageIo.getData(), fileChannel.size() );
-                //fileChannel.force( false );
+                end++;
             }
-            else
+
+            ByteBuffer[] buffers = new ByteBuffer[end - start];
+            long remaining = 0L;
+
+            for ( int i = start; i < end; i++ )
+            {
+                // Don't move the position of the PageIO's own buffer
+                ByteBuffer data = pageIos.get( i ).getData().duplicate();
+                data.rewind();
+                buffers[i - start] = data;
+                remaining += data.remaining();
+            }
+
+            long position = pageIos.get( start ).getOffset();
+
+            LOG.debug( "Writing {} pages at position {}", end - start, position );
+
+            // The channel position is only used by the gathering writes, and
+            // never by the reads
+            synchronized ( fileChannel )
+            {
+                fileChannel.position( position );
+
+                while ( remaining > 0 )
+                {
+                    remaining -= fileChannel.write( buffers );
+                    nbWrites.incrementAndGet();
+                }
+            }
+
+            nbUpdatePageIOs.addAndGet( end - start );
+
+            start = end;
+        }
+    }
+
+
+    /**
+     * Queue some PageIOs for the next group commit. A PageIO replaces the one
+     * already queued at the same offset.
+     */
+    private void addDirtyPages( PageIO... pageIos )
+    {
+        synchronized ( commitLock )
+        {
+            for ( PageIO pageIo : pageIos )
+            {
+                dirtyPageIOs.put( pageIo.getOffset(), pageIo );
+            }
+        }
+    }
+
+
+    /**
+     * @return A copy of the PageIO queued for the next group commit at this offset, or
+     * being written by the current one, or null
+     */
+    private PageIO getDirtyPage( long offset )
+    {
+        synchronized ( commitLock )
+        {
+            PageIO dirtyPage = dirtyPageIOs.get( offset );
+
+            if ( ( dirtyPage == null ) && ( inFlightPageIOs != null ) )
+            {
+                // The page may not have reached the file yet
+                dirtyPage = inFlightPageIOs.get( offset );
+            }
+
+            if ( dirtyPage == null )
+            {
+                return null;
+            }
+
+            ByteBuffer data = ByteBuffer.allocate( pageSize );
+            ByteBuffer source = dirtyPage.getData().duplicate();
+            source.rewind();
+            data.put( source );
+            data.rewind();
+
+            PageIO copy = new PageIO( offset );
+            copy.setData( data );
+
+            return copy;
+        }
+    }
+
+
+    /**
+     * Make all the written pages durable. When the group commit is enabled, the
+     * pages queued by all the concurrent commits are written together, with one
+     * force of the file : the first thread waits for the commit window, then
+     * writes the queued pages while the other threads wait for it.
+     *
+     * @throws IOException If the pages can't be written
+     */
+    public void sync() throws IOException
+    {
+        nbCommits.incrementAndGet();
+
+        if ( !groupCommit )
+        {
+            fileChannel.force( false );
+            nbForces.incrementAndGet();
+
+            return;
+        }
+
+        long commit;
+
+        synchronized ( commitLock )
+        {
+            commit = currentCommit;
+
+            while ( committing && ( writtenCommit < commit ) )
+            {
+                try
+                {
+                    commitLock.wait();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+
+                    throw new IOException( "Interrupted while waiting for the group commit" );
+                }
+            }
+
+            if ( writtenCommit >= commit )
+            {
+                // Another thread wrote our pages
+                if ( failedCommit >= commit )
+                {
+                    throw new IOException( "The group commit failed : " + commitError.getMessage() );
+                }
+
+                return;
+            }
+
+            // We are the leader
+            committing = true;
+        }
+
+        writeGroupCommit();
+    }
+
+
+    /**
+     * Write the dirty PageIOs and force them on disk. Only called by the group
+     * commit leader.
+     */
+    private void writeGroupCommit() throws IOException
+    {
+        long window = commitWindow;
+
+        if ( window > 0 )
+        {
+            // Let the concurrent commits add their pages
+            LockSupport.parkNanos( window );
+        }
+
+        TreeMap<Long, PageIO> pages;
+        long commit;
+
+        synchronized ( commitLock )
+        {
+            pages = dirtyPageIOs;
+            dirtyPageIOs = new TreeMap<Long, PageIO>();
+            commit = currentCommit++;
+
+            // Keep the pages readable until they are on disk
+            inFlightPageIOs = pages;
+        }
+
+        IOException error = null;
+
+        try
+        {
+            if ( !pages.isEmpty() )
+            {
+                writePageIOs( new ArrayList<PageIO>( pages.values() ) );
+            }
+
+            fileChannel.force( false );
+            nbForces.incrementAndGet();
+            nbGroupCommits.incrementAndGet();
+        }
+        catch ( IOException ioe )
+        {
+            error = ioe;
+
+            throw ioe;
+        }
+        finally
+        {
+            synchronized ( commitLock )
             {
-                LOG.debug( "Writing a page at position {}", pageIo.getOffset() );
-                fileChannel.write( pageIo.getData(), pageIo.getOffset() );
-                //fileChannel.force( false );
+                writtenCommit = commit;
+                inFlightPageIOs = null;
+
+                if ( error != null )
+                {
+                    failedCommit = commit;
+                    commitError = error;
+                }
+
+                committing = false;
+                commitLock.notifyAll();
             }
+        }
+    }
+
+
+    /**
+     * Enable or disable the group commit. When enabled, the pages are written
+     * by the {@link #sync()} done at the end of each transaction, and of each
+     * operation done outside a transaction, which coalesces the pages of the
+     * concurrent commits into one write and one force.
+     *
+     * @param groupCommit true to enable the group commit
+     * @param window The time the first committing thread waits for the other ones
+     * @param unit The unit of the window
+     * @throws IOException If the pending pages can't be written when disabling it
+     */
+    public void setGroupCommit( boolean groupCommit, long window, TimeUnit unit ) throws IOException
+    {
+        this.commitWindow = unit.toNanos( window );
+
+        if ( this.groupCommit && !groupCommit )
+        {
+            // Write the pending pages first
+            sync();
+        }
+
+        this.groupCommit = groupCommit;
+    }
+
+
+    /**
+     * @return true if the pages are written by group commits
+     */
+    public boolean isGroupCommit()
+    {
+        return groupCommit;
+    }
 
-            nbUpdatePageIOs.incrementAndGet();
 
-            pageIo.getData().rewind();
+    /**
+     * @return The number of PageIOs waiting for the next group commit
+     */
+    public int getNbDirtyPageIOs()
+    {
+        synchronized ( commitLock )
+        {
+            return dirtyPageIOs.size();
         }
     }
 
 
+    /**
+     * Set the maximum number of deserialized pages kept in memory. 0 disables
+     * the page cache.
+     */
+    public void setPageCacheSize( int pageCacheSize )
+    {
+        pageCache.setMaxSize( pageCacheSize );
+    }
+
+
+    /**
+     * @return The maximum number of deserialized pages kept in memory
+     */
+    public int getPageCacheSize()
+    {
+        return pageCache.getMaxSize();
+    }
+
+
     /**
      * Compute the page in which we will store data given an offset, when
      * we have a list of pages.
@@ -2099,7 +2500,7 @@ public class RecordManager
      *
      * @return The fetched PageIO
      */
-    private PageIO fetchNewPage() throws IOException
+    private synchronized PageIO fetchNewPage() throws IOException
     {
         if ( firstFreePage == NO_PAGE )
         {
@@ -2153,6 +2554,17 @@ public class RecordManager
      */
     private PageIO fetchPage( long offset ) throws IOException, EndOfFileExceededException
     {
+        if ( groupCommit )
+        {
+            // The page may not have been written yet
+            PageIO dirtyPage = getDirtyPage( offset );
+
+            if ( dirtyPage != null )
+            {
+                return dirtyPage;
+            }
+        }
+
         if ( fileChannel.size() < offset + pageSize )
         {
             // Error : we are past the end of the file
@@ -2161,11 +2573,18 @@ public class RecordManager
         }
         else
         {
-            // Read the page
-            fileChannel.position( offset );
-
+            // Read the page. The read is positional, it does not move the
+            // channel position used by the gathering writes
             ByteBuffer data = ByteBuffer.allocate( pageSize );
-            fileChannel.read( data );
+
+            while ( data.hasRemaining() )
+            {
+                if ( fileChannel.read( data, offset + data.position() ) < 0 )
+                {
+                    break;
+                }
+            }
+
             data.rewind();
 
             PageIO readPage = new PageIO( offset );
@@ -2211,8 +2630,17 @@ public class RecordManager
 
         managedBTrees.clear();
 
+        // Write the pages of the pending group commit
+        if ( groupCommit )
+        {
+            sync();
+        }
+
         // Write the data
         fileChannel.force( true );
+        nbForces.incrementAndGet();
+
+        pageCache.clear();
 
         // And close the channel
         fileChannel.close();
@@ -2482,6 +2910,9 @@ public class RecordManager
 
                 long lastOffset = ( ( AbstractPage<K, V> ) page ).getLastOffset();
 
+                // The page can't be read anymore, its PageIOs will be reused
+                pageCache.remove( firstOffset );
+
                 // Update the pointers
                 if ( firstFreePage == NO_PAGE )
                 {
@@ -97,6 +97,21 @@ public  class WriteTransaction
         pendingPages.clear();
 
         writeLock.unlock();
+
+        // With the group commit, the pages of this transaction are written
+        // together with the ones of the concurrent transactions. The lock is
+        // released first, so that those transactions can join the same commit
+        if ( recordManager.isGroupCommit() )
+        {
+            try
+            {
+                recordManager.sync();
+            }
+            catch ( IOException e )
+            {
+                throw new BadTransactionStateException( "Cannot write the transaction : " + e.getMessage() );
+            }
+        }
     }
 
 
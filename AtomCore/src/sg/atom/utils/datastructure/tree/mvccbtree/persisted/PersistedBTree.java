@@ -334,13 +334,14 @@ public class PersistedBTree<K, V> extends AbstractBTree<K, V> implements Closeab
      */
     protected Tuple<K, V> delete( K key, V value, long revision ) throws IOException
     {
+        // If the key exists, the existing value will be replaced. We store it
+        // to return it to the caller.
+        Tuple<K, V> tuple = null;
+
         writeLock.lock();
 
         try
         {
-            // If the key exists, the existing value will be replaced. We store it
-            // to return it to the caller.
-            Tuple<K, V> tuple = null;
 
             // Try to delete the entry starting from the root page. Here, the root
             // page may be either a Node or a Leaf
@@ -398,15 +399,36 @@ public class PersistedBTree<K, V> extends AbstractBTree<K, V> implements Closeab
 
             // Store the created rootPage into the revision BTree, this will be stored in RecordManager only if revisions are set to keep
             recordManager.storeRootPage( this, rootPage );
-
-            // Return the value we have found if it was modified
-            return tuple;
         }
         finally
         {
             // See above
             writeLock.unlock();
         }
+
+        // Now that the lock is released, make the deletion durable if needed
+        unlockedCommit();
+
+        // Return the value we have found if it was modified
+        return tuple;
+    }
+
+
+    /**
+     * With the group commit, the pages of an operation done outside a transaction
+     * are only queued : write them now, unless a transaction will do it when
+     * committing, or an enclosing operation still holds the lock. This is done
+     * once the lock is released, so that the operations done concurrently on
+     * this BTree can join the same group commit.
+     */
+    protected void unlockedCommit() throws IOException
+    {
+        if ( ( recordManager != null ) && recordManager.isGroupCommit()
+            && ( ( writeTransaction == null ) || !writeTransaction.isStarted() )
+            && !writeLock.isHeldByCurrentThread() )
+        {
+            recordManager.sync();
+        }
     }
 
 
@@ -504,6 +526,9 @@ public class PersistedBTree<K, V> extends AbstractBTree<K, V> implements Closeab
 
             // Store the created rootPage into the revision BTree, this will be stored in RecordManager only if revisions are set to keep
             recordManager.storeRootPage( this, rootPage );
+
+            // With the group commit, the pages are only queued : they are written
+            // by unlockedCommit() once the lock is released
         }
 
         // Return the value we have found if it was modified
@@ -3,6 +3,7 @@ package sg.atom.utils.flow;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -53,7 +54,7 @@ public abstract class Component extends Thread {
         //  return value;
         //}
     }
-    StatusValues status;
+    volatile StatusValues status;
     //  static Network network;
     protected Class type;
     private boolean mustrun = false; // set by MustRun annotation
@@ -68,6 +69,11 @@ public abstract class Component extends Thread {
     InputPort curConn = null;
     OutputPort curOutPort = null;
     protected boolean ignorePacketCountError = false;
+    // set once run() went through its start-up, so that a pooled component
+    // resumed by its scheduler goes straight back to its input ports
+    private boolean started = false;
+    // the worker thread running this component, when the network is pooled
+    final AtomicReference<Thread> runner = new AtomicReference<Thread>();
 
     protected Component() {
         super();
@@ -273,14 +279,30 @@ public abstract class Component extends Thread {
     /**
      * This method is called from other parts of the system to activate this
      * Component if it needs to be. This will start its thread if needed, and if
-     * already started, will notify() it.
+     * already started, will notify() it. In a pooled network, the component is
+     * queued on the network's scheduler instead.
      */
     void activate() {
 
         if (isTerminated()) {
             return;
         }
-        if (!isAlive()) {
+        FlowScheduler scheduler = getScheduler();
+        if (scheduler != null) {
+            mother.traceLocks("act - lock " + getName());
+            goLock.lock();
+            try {
+                // a dormant pooled component holds no thread: queue it once
+                if (status == StatusValues.DORMANT || status == StatusValues.NOT_STARTED) {
+                    status = StatusValues.ACTIVE;
+                    scheduler.execute(this);
+                    mother.traceLocks("act - schedule " + getName());
+                }
+            } finally {
+                goLock.unlock();
+                mother.traceLocks("act - unlock " + getName());
+            }
+        } else if (!isAlive()) {
             setPriority(priority);
             start();
         } else {
@@ -538,6 +560,30 @@ public abstract class Component extends Thread {
         return status == StatusValues.ERROR;
     }
 
+    /**
+     * The scheduler running the components of the network, or null if each
+     * component runs in its own thread
+     */
+    FlowScheduler getScheduler() {
+        return network == null ? null : network.scheduler;
+    }
+
+    /**
+     * Called before this component waits on a connection, so that a pooled
+     * network can run other components meanwhile. Returns true if the
+     * scheduler was told, then endBlocking must be called.
+     */
+    boolean beginBlocking() {
+        FlowScheduler scheduler = getScheduler();
+        return scheduler != null && scheduler.beginBlocking();
+    }
+
+    void endBlocking(final boolean managed) {
+        if (managed) {
+            getScheduler().endBlocking();
+        }
+    }
+
     /**
      * Components call this method from their
      * <code>openPorts</code> method to open an InputPort, either a regular port
@@ -880,33 +926,47 @@ public abstract class Component extends Thread {
             }
 
             status = StatusValues.ACTIVE;
-            mother.traceFuncs(getName() + ": Started");
-
-            autoInput = inputPorts.get("*IN");
-            autoOutput = outputPorts.get("*OUT");
-            //  try {
-            //    goLock.lockInterruptibly();
-            //   mother.traceLocks("run - lock " + getName());
-            //  } catch (InterruptedException e) {
-            //   return;
-            //  }
-            //   try {
-
-            if (autoInput != null) {
-                Packet p = autoInput.receive();
-                if (p != null) {
-                    drop(p);
-                }
-                autoInput.close();
-            }
 
             InputStates ist = null;
-            if (selfStarting) {
-                autoStarting = true;
+            if (started) {
+                // pooled component resumed by its scheduler
+                mother.traceFuncs(getName() + ": Resumed");
+                ist = new InputStates(inputPorts);
+                if (ist.suspended) {
+                    return;
+                }
             } else {
+                started = true;
+                mother.traceFuncs(getName() + ": Started");
+
+                autoInput = inputPorts.get("*IN");
+                autoOutput = outputPorts.get("*OUT");
+                //  try {
+                //    goLock.lockInterruptibly();
+                //   mother.traceLocks("run - lock " + getName());
+                //  } catch (InterruptedException e) {
+                //   return;
+                //  }
+                //   try {
+
+                if (autoInput != null) {
+                    Packet p = autoInput.receive();
+                    if (p != null) {
+                        drop(p);
+                    }
+                    autoInput.close();
+                }
 
-                ist = new InputStates(inputPorts);
+                if (selfStarting) {
+                    autoStarting = true;
+                } else {
+
+                    ist = new InputStates(inputPorts);
+                    if (ist.suspended) {
+                        return;
+                    }
 
+                }
             }
             // ist will be non-null if !selfStarting
             while (autoStarting || !ist.allDrained || autoInput != null || ist.allDrained && mustrun || stackSize() > 0) {
@@ -958,6 +1018,10 @@ public abstract class Component extends Thread {
                     break;
                 }
                 ist = new InputStates(inputPorts);
+                if (ist.suspended) {
+                    // gives the worker back, activate() queues us again
+                    return;
+                }
 
                 if (ist.allDrained && stackSize() == 0) {
                     break;
@@ -1024,41 +1088,36 @@ public abstract class Component extends Thread {
         boolean allDrained;
         // true if any connected input port has data
         boolean hasData;
+        // true if a pooled component has nothing to do: run() must return
+        // and wait to be activated again
+        boolean suspended;
 
         // Get state of all ports
         private InputStates(final HashMap<String, InputPort> inports) throws InterruptedException {
 
+            boolean pooled = getScheduler() != null;
             try {
                 mother.traceLocks("ist - lock " + getName());
                 goLock.lockInterruptibly();
                 while (true) {
-                    allDrained = true;
-                    hasData = false;
-                    for (InputPort inp : inports.values()) {
-                        if (!(inp instanceof Connection)) {
-                            continue;
-                        }
-                        Connection c = (Connection) inp;
-                        //  synchronized (c) {
-                        //allDrained &= c.isDrained();
-                        allDrained = allDrained && c.usedSlots == 0 && c.senderCount == 0;
-                        //hasData |= !c.isEmpty();
-                        hasData = hasData || c.usedSlots > 0;
-                        //  } 
-                    } //for
-                    // if (hasData) {
-                    //  mother.traceFuncs("hasData " + getName());
-                    // }
-                    // if (allDrained) {
-                    //    mother.traceFuncs("allDrained " + getName());
-                    //  }
-                    if (hasData || allDrained) {
+                    if (readStates(inports)) {
                         break;
                     }
 
-                    //          try {
+                    // Senders publish their packets without our lock, then
+                    // look at our status: go dormant first, then check again
                     status = StatusValues.DORMANT;
+                    if (readStates(inports)) {
+                        status = StatusValues.ACTIVE;
+                        break;
+                    }
                     mother.traceFuncs(getName() + ": Dormant");
+                    if (pooled) {
+                        suspended = true;
+                        break;
+                    }
+
+                    //          try {
                     mother.traceLocks("ist - await " + getName());
                     canGo.await();
                     mother.traceLocks("ist - await ended" + getName());
@@ -1075,6 +1134,23 @@ public abstract class Component extends Thread {
             }
 
         } // while
+
+        // returns true if the component has something to do
+        private boolean readStates(final HashMap<String, InputPort> inports) {
+            allDrained = true;
+            hasData = false;
+            for (InputPort inp : inports.values()) {
+                if (!(inp instanceof Connection)) {
+                    continue;
+                }
+                Connection c = (Connection) inp;
+                //allDrained &= c.isDrained();
+                allDrained = allDrained && c.isDrained();
+                //hasData |= !c.isEmpty();
+                hasData = hasData || !c.isEmpty();
+            } //for
+            return hasData || allDrained;
+        }
     }
 
     /**
@@ -1085,6 +1161,11 @@ public abstract class Component extends Thread {
      */
     protected void terminate(final StatusValues newStatus) {
         status = newStatus;
-        interrupt();
+        Thread worker = runner.get();
+        if (worker != null) {
+            worker.interrupt();
+        } else {
+            interrupt();
+        }
     }
 }
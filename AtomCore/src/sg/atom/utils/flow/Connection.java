@@ -8,6 +8,9 @@ import java.math.BigInteger;
  * behind the scenes whenever two ports are connected. This class was founded on
  * Doug Lea's BoundedBufferVST class from his book _Concurrent Programming in
  * Java_, page 100.
+ *
+ * The buffer is now a lock-free single-producer / single-consumer ring; the
+ * senders of a connection fed by several output ports take turns on a lock.
  */
 final class Connection implements InputPort {
 
@@ -23,21 +26,33 @@ final class Connection implements InputPort {
     final static long serialVersionUID = 817911632652898426L;
     private final int capacity;
     //Packet packet = null;
-    // The packets currently in transit.
+    // The packets currently in transit. The array is a single-producer /
+    // single-consumer ring: only the receiver moves head, only the sender
+    // holding the send lock moves tail, so packets are handed over without
+    // locking. The monitor of the connection is only used to sleep when the
+    // ring is empty or full, and to close it.
     private final Packet[] array;
-    // Index into array where the next packet sent should go.
-    private int sendPtr = 0;
-    // Index into array where the next packet received should come from.
-    private int receivePtr = 0;
-    // Number of slots in array currently in use.
-    int usedSlots = 0;
+    // Sequence of the next packet sent (written by the sender).
+    private volatile long tail = 0;
+    // Sequence of the next packet received (written by the receiver).
+    private volatile long head = 0;
+    // Last tail seen by the receiver, and last head seen by the sender: they
+    // let each side take or put a run of packets without reading the other
+    // side's counter for each packet.
+    private long receiverTail = 0;
+    private long senderHead = 0;
+    // Set while the receiver or a sender sleeps on the monitor.
+    private volatile boolean receiverWaiting = false;
+    private volatile boolean senderWaiting = false;
+    // Number of times a side yields before sleeping on the monitor
+    private static final int SPINS = 16;
+    // Serializes the senders when more than one feeds this connection.
+    private final Object sendLock = new Object();
     // Number of senders who have called setSender() but are not closed.
-    int senderCount = 0;
+    volatile int senderCount = 0;
     // The unique receiver. We need to activate() it whenever
     // packets arrive, or if connection is closed and receiver is MustRun.
     Component receiver = null;
-    // The component who happens to be sending on a send()
-    private Component sender;
     // LinkedList<Component> senders = null;
     // The list of types (Class objects) that senders have declared.
     // Vector senderTypes;
@@ -70,8 +85,8 @@ final class Connection implements InputPort {
     /**
      * count = size
      */
-    synchronized int count() {
-        return usedSlots;
+    int count() {
+        return (int) (tail - head);
     }
 
     /**
@@ -102,8 +117,8 @@ final class Connection implements InputPort {
             return;
         }
         senderCount = 0; // set sender count to zero
-        if (usedSlots > 0) {
-            traceFuncs(usedSlots + " packets on input connection lost");
+        if (count() > 0) {
+            traceFuncs(count() + " packets on input connection lost");
         }
 
         notifyAll(); // wakes up any senders waiting for slots
@@ -156,36 +171,29 @@ final class Connection implements InputPort {
     /**
      * Returns true if this connection is closed (not necessarily drained).
      */
-    public synchronized boolean isClosed() {
+    public boolean isClosed() {
         return senderCount == 0;
     }
 
     /**
      * Returns true if this connection is drained (closed and empty).
      */
-    private synchronized boolean isDrained() {
+    boolean isDrained() {
         return isClosed() && isEmpty();
     }
 
     /**
      * Returns true if this connection is empty
      */
-    private synchronized boolean isEmpty() {
-        return usedSlots == 0;
-    }
-
-    /**
-     * Returns true if this connection is full.
-     */
-    private synchronized boolean isFull() {
-        return usedSlots == capacity;
+    boolean isEmpty() {
+        return head == tail;
     }
 
     /**
      * The receive function. See InputPort.receive.
      */
     @SuppressWarnings("unchecked")
-    public synchronized Packet receive() {
+    public Packet receive() {
 
         traceFuncs("Receiving:");
 
@@ -195,48 +203,24 @@ final class Connection implements InputPort {
             return null;
         }
         getReceiver().network.receives.getAndIncrement();
-        while (isEmpty()) {
 
-            getReceiver().status = Component.StatusValues.SUSP_RECV;
-            getReceiver().curConn = this;
-            getReceiver().mother.traceFuncs(getReceiver().getName() + ": Recv/susp");
-
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                // throw new ThreadDeath();
-                close();
-                FlowError.complain(getReceiver().getName() + ": Interrupted");
-                // unreachable
+        long h = head;
+        if (h == receiverTail) {
+            receiverTail = tail;
+            if (h == receiverTail && !awaitPacket()) {
                 return null;
-
             }
-
-            getReceiver().status = Component.StatusValues.ACTIVE;
-            getReceiver().mother.traceFuncs(getReceiver().getName() + ": Recv/resume ");
-
-            if (isDrained()) {
-                getReceiver().mother.traceFuncs(getName() + ": Receive drained ");
-                return null;
-            }
-
         }
 
-        if (isDrained()) {
-            traceFuncs(": Receive drained ");
-            return null;
-        }
-        //if (isFull()) {
-        if (usedSlots == capacity) {
-            notifyAll(); // notify components waiting to send
-        }
-        Packet packet = array[receivePtr];
-        array[receivePtr] = null;
-        if (capacity == (receivePtr = receivePtr + 1)) {
-            receivePtr = 0;
+        int slot = (int) (h % capacity);
+        Packet packet = array[slot];
+        array[slot] = null;
+        head = h + 1;
+        if (senderWaiting) {
+            synchronized (this) {
+                notifyAll(); // notify components waiting to send
+            }
         }
-        //notifyAll(); // only needed if it was full
-        usedSlots--;
 
         packet.setOwner(getReceiver());
 
@@ -268,6 +252,61 @@ final class Connection implements InputPort {
         return packet;
     }
 
+    /**
+     * Suspends the receiver until a packet arrives. Returns false if the
+     * connection was drained instead.
+     */
+    private boolean awaitPacket() {
+        // the sender is often about to publish: give it a chance first
+        for (int i = 0; i < SPINS; i++) {
+            Thread.yield();
+            receiverTail = tail;
+            if (head != receiverTail) {
+                return true;
+            }
+            if (isClosed()) {
+                break;
+            }
+        }
+
+        Component r = getReceiver();
+        r.status = Component.StatusValues.SUSP_RECV;
+        r.curConn = this;
+        r.mother.traceFuncs(r.getName() + ": Recv/susp");
+
+        boolean managed = r.beginBlocking();
+        try {
+            synchronized (this) {
+                receiverWaiting = true;
+                try {
+                    while (isEmpty() && !isClosed()) {
+                        wait();
+                    }
+                } finally {
+                    receiverWaiting = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            // throw new ThreadDeath();
+            close();
+            FlowError.complain(r.getName() + ": Interrupted");
+            // unreachable
+            return false;
+        } finally {
+            r.endBlocking(managed);
+        }
+
+        r.status = Component.StatusValues.ACTIVE;
+        r.mother.traceFuncs(r.getName() + ": Recv/resume ");
+
+        receiverTail = tail;
+        if (head == receiverTail) {
+            r.mother.traceFuncs(getName() + ": Receive drained ");
+            return false;
+        }
+        return true;
+    }
+
     private String getFullName() {
         String s = getName();
         Network m = getReceiver().mother;
@@ -284,82 +323,193 @@ final class Connection implements InputPort {
     /**
      * The send function. See OutputPort.send.
      */
-    @SuppressWarnings("unchecked")
-    synchronized boolean send(final Packet packet, final OutputPort op) {
+    boolean send(final Packet packet, final OutputPort op) {
 
-        sender = op.sender;
+        final Component sender = op.sender;
         sender.network.sends.getAndIncrement();
 
+        checkType(packet, op);
+
+        if (senderCount > 1) {
+            synchronized (sendLock) {
+                return put(packet, op);
+            }
+        }
+        return put(packet, op);
+    }
+
+    /**
+     * Sends several packets, handing over as many as the free slots allow at
+     * once. See OutputPort.send(Packet[]).
+     */
+    boolean send(final Packet[] packets, final OutputPort op) {
+
+        final Component sender = op.sender;
+        sender.network.sends.getAndAdd(packets.length);
+
+        for (Packet packet : packets) {
+            checkType(packet, op);
+        }
+
+        if (senderCount > 1) {
+            synchronized (sendLock) {
+                return putAll(packets, op);
+            }
+        }
+        return putAll(packets, op);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void checkType(final Packet packet, final OutputPort op) {
         Class c1 = op.type;
         Class c2 = packet.getContent().getClass();
         if (c1 != null && !c1.isAssignableFrom(c2)) {
             FlowError.complain(getName() + " trying to send packet containing " + c2.getSimpleName() + " - should be "
                     + c1.getSimpleName());
         }
+    }
 
+    private boolean put(final Packet packet, final OutputPort op) {
+        final Component sender = op.sender;
         if (isClosed()) {
             sender.mother.traceFuncs(sender.getName() + ": Send closed ");
             return false;
         }
-        //sender.currentConnection = this;
-        //sender.mother.traceFuncs("Sending: " + packet.toString());
-        while (isFull()) {
-            sender.curOutPort = op;
-            sender.status = Component.StatusValues.SUSP_SEND;
-            sender.mother.traceFuncs(sender.getName() + ": Send/susp ");
 
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                // throw new ThreadDeath();
-                indicateOneSenderClosed();
-                FlowError.complain(sender.getName() + ": interrupted");
-                // unreachable code
+        long t = tail;
+        if (t - senderHead == capacity && !awaitSlot(t, op)) {
+            return false;
+        }
+
+        packet.clearOwner();
+        array[(int) (t % capacity)] = packet;
+        tail = t + 1;
+
+        return delivered(op);
+    }
+
+    private boolean putAll(final Packet[] packets, final OutputPort op) {
+        final Component sender = op.sender;
+        int i = 0;
+        while (i < packets.length) {
+            if (isClosed()) {
+                sender.mother.traceFuncs(sender.getName() + ": Send closed ");
                 return false;
             }
 
-            sender = op.sender;
-            sender.status = Component.StatusValues.ACTIVE;
-            sender.mother.traceFuncs(sender.getName() + ": Send/resume");
+            long t = tail;
+            if (t - senderHead == capacity && !awaitSlot(t, op)) {
+                return false;
+            }
+
+            int n = (int) Math.min(capacity - (t - senderHead), packets.length - i);
+            for (int k = 0; k < n; k++) {
+                Packet packet = packets[i + k];
+                packet.clearOwner();
+                array[(int) ((t + k) % capacity)] = packet;
+            }
+            tail = t + n;
+            i += n;
+
+            if (!delivered(op)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Suspends the sender until the receiver frees a slot. Returns false if
+     * the connection was closed instead.
+     */
+    private boolean awaitSlot(final long t, final OutputPort op) {
+        senderHead = head;
+        if (t - senderHead < capacity) {
+            return true;
+        }
+
+        for (int i = 0; i < SPINS; i++) {
+            Thread.yield();
+            senderHead = head;
+            if (t - senderHead < capacity) {
+                return true;
+            }
         }
 
+        Component sender = op.sender;
+        sender.curOutPort = op;
+        sender.status = Component.StatusValues.SUSP_SEND;
+        sender.mother.traceFuncs(sender.getName() + ": Send/susp ");
+
+        boolean managed = sender.beginBlocking();
+        try {
+            synchronized (this) {
+                senderWaiting = true;
+                try {
+                    while (t - head == capacity && !isClosed()) {
+                        wait();
+                    }
+                } finally {
+                    senderWaiting = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            // throw new ThreadDeath();
+            indicateOneSenderClosed();
+            FlowError.complain(sender.getName() + ": interrupted");
+            // unreachable code
+            return false;
+        } finally {
+            sender.endBlocking(managed);
+        }
+
+        sender.status = Component.StatusValues.ACTIVE;
+        sender.mother.traceFuncs(sender.getName() + ": Send/resume");
+
         if (isClosed()) {
             sender.mother.traceFuncs(sender.getName() + ": Send/close");
             return false;
         }
-        sender.mother.traceLocks("send - lock " + getReceiver().getName());
-        try {
-            getReceiver().goLock.lockInterruptibly();
-            packet.clearOwner();
-            array[sendPtr] = packet;
-            if (capacity == (sendPtr = sendPtr + 1)) {
-                sendPtr = 0;
-            }
-            usedSlots++; // move this to here
-            if (getReceiver().getStatus() == Component.StatusValues.DORMANT
-                    || getReceiver().getStatus() == Component.StatusValues.NOT_STARTED) {
-                getReceiver().activate(); // start or wake up if necessary
-            } else {
+        senderHead = head;
+        return true;
+    }
+
+    /**
+     * Wakes up the receiver of the packets just published: notifies it if it
+     * waits in receive(), activates it if it is dormant or not started.
+     */
+    private boolean delivered(final OutputPort op) {
+        if (receiverWaiting) {
+            synchronized (this) {
                 notifyAll(); // notify receiver
-                // other components waiting to send to this connection may also get
-                // notified,
-                // but this is handled by while statement 
             }
+        }
 
-            op.sender.status = Component.StatusValues.ACTIVE;
-            // Component.network.GenTraceLine("Send OK: " + op.sender.getName());
-            sender.network.active = true;
-            sender = null;
-
-        } catch (InterruptedException ex) {
-            return false;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
-        } finally {
-            getReceiver().goLock.unlock();
-            getReceiver().mother.traceLocks("send - unlock " + getReceiver().getName());
+        // The receiver sets its status before checking its connections a last
+        // time, so either it sees the packets or we see it dormant
+        Component r = getReceiver();
+        Component.StatusValues st = r.getStatus();
+        if (st == Component.StatusValues.DORMANT || st == Component.StatusValues.NOT_STARTED) {
+            op.sender.mother.traceLocks("send - lock " + r.getName());
+            try {
+                r.goLock.lockInterruptibly();
+            } catch (InterruptedException ex) {
+                return false;
+            }
+            try {
+                st = r.getStatus();
+                if (st == Component.StatusValues.DORMANT || st == Component.StatusValues.NOT_STARTED) {
+                    r.activate(); // start or wake up if necessary
+                }
+            } finally {
+                r.goLock.unlock();
+                op.sender.mother.traceLocks("send - unlock " + r.getName());
+            }
         }
+
+        op.sender.status = Component.StatusValues.ACTIVE;
+        // Component.network.GenTraceLine("Send OK: " + op.sender.getName());
+        op.sender.network.active = true;
         return true;
     }
 
@@ -0,0 +1,247 @@
+package sg.atom.utils.flow;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the components of a pooled Network on a small set of worker threads,
+ * instead of one thread per component.
+ *
+ * A component is queued here each time it is activated. It runs on a worker
+ * until it has nothing left to receive, then it returns the worker and stays
+ * dormant, holding no thread, until a packet arrives. A component waiting
+ * inside <code>execute</code> (full output connection, empty input
+ * connection) still holds its worker; the scheduler then starts a
+ * compensating worker so that <code>parallelism</code> workers keep running,
+ * and retires it once the waits are over.
+ *
+ * The workers are made by a ThreadFactory, which may as well make virtual
+ * threads on a runtime which has them.
+ */
+public class FlowScheduler {
+
+    // Idle workers beyond this delay are retired
+    public static final long KEEP_ALIVE_MILLIS = 1000L;
+    private final int parallelism;
+    private final ThreadFactory threadFactory;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();
+    // components waiting for a worker, guarded by lock
+    private final ArrayDeque<Component> runQueue = new ArrayDeque<Component>();
+    // worker counts, guarded by lock
+    private int workers = 0;
+    private int idle = 0;
+    private int blocked = 0;
+    private int peakWorkers = 0;
+    private boolean shutdown = false;
+    // marks the threads of this scheduler
+    private final ThreadLocal<Boolean> worker = new ThreadLocal<Boolean>();
+    private final AtomicLong activations = new AtomicLong();
+    private final AtomicLong compensations = new AtomicLong();
+
+    /**
+     * Scheduler with one worker per available processor
+     */
+    public FlowScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public FlowScheduler(final int parallelism) {
+        this(parallelism, new WorkerThreadFactory());
+    }
+
+    public FlowScheduler(final int parallelism, final ThreadFactory threadFactory) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Queues an activated component.
+     */
+    void execute(final Component comp) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                FlowError.complain("Scheduler shut down, cannot run " + comp.getName());
+            }
+            runQueue.add(comp);
+            activations.incrementAndGet();
+            if (idle > 0) {
+                work.signal();
+            }
+            if (runQueue.size() > idle && workers - blocked < parallelism) {
+                addWorker();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a component before it waits on a connection. Returns false if
+     * the current thread is not a worker of this scheduler.
+     */
+    boolean beginBlocking() {
+        if (worker.get() == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            blocked++;
+            if (!runQueue.isEmpty() && idle == 0 && workers - blocked < parallelism) {
+                compensations.incrementAndGet();
+                addWorker();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    void endBlocking() {
+        lock.lock();
+        try {
+            blocked--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // called with lock held
+    private void addWorker() {
+        Thread t = threadFactory.newThread(new Worker());
+        workers++;
+        if (workers > peakWorkers) {
+            peakWorkers = workers;
+        }
+        t.start();
+    }
+
+    /**
+     * Retires the workers once the queued components have run.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            work.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Number of components queued since the creation of the scheduler
+     */
+    public long getActivations() {
+        return activations.get();
+    }
+
+    /**
+     * Number of workers started because the others were waiting
+     */
+    public long getCompensations() {
+        return compensations.get();
+    }
+
+    public int getWorkerCount() {
+        lock.lock();
+        try {
+            return workers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPeakWorkerCount() {
+        lock.lock();
+        try {
+            return peakWorkers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        public void run() {
+            worker.set(Boolean.TRUE);
+            Thread me = Thread.currentThread();
+            while (true) {
+                Component comp = take();
+                if (comp == null) {
+                    return;
+                }
+                comp.runner.set(me);
+                try {
+                    comp.run();
+                } catch (Throwable t) {
+                    // ThreadDeath of a failed component, already signalled
+                    // to its network
+                } finally {
+                    comp.runner.compareAndSet(me, null);
+                    // don't carry a terminate() to the next component
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        // returns null when the worker must retire
+        private Component take() {
+            lock.lock();
+            try {
+                while (true) {
+                    Component comp = runQueue.poll();
+                    if (comp != null) {
+                        return comp;
+                    }
+                    if (shutdown || workers - blocked > parallelism) {
+                        workers--;
+                        return null;
+                    }
+                    idle++;
+                    boolean signalled;
+                    try {
+                        signalled = work.await(KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        signalled = false;
+                    } finally {
+                        idle--;
+                    }
+                    if (!signalled && runQueue.isEmpty()) {
+                        workers--;
+                        return null;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Daemon workers named flow-worker-n
+     */
+    static class WorkerThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, "flow-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -86,6 +86,10 @@ public abstract class Network extends Component {
     File propertiesFile = null;
     HashMap<String, String> properties = new HashMap<String, String>();
     AtomicInteger sends, receives, creates, drops;
+    // runs the components when the network is pooled, null when each
+    // component runs in its own thread
+    volatile FlowScheduler scheduler = null;
+    private boolean ownScheduler = false;
 
     /**
      * Drive define method of network
@@ -497,6 +501,14 @@ public abstract class Network extends Component {
         if (p != null && p.equals("true")) {
             forceConsole = true;
         }
+        p = properties.get("workers"); // pooled execution, see setPooled
+        if (p != null && scheduler == null) {
+            try {
+                setPooled(Integer.parseInt(p.trim()));
+            } catch (NumberFormatException e) {
+                FlowError.complain("Invalid number of workers in properties: " + p);
+            }
+        }
 
         /**
          * During go() no ConcurrentModification error can occur, because the
@@ -521,6 +533,10 @@ public abstract class Network extends Component {
             // rethrow the exception for external error handling
             // in case of a deadlock: deadlock is the cause
             throw e;
+        } finally {
+            if (ownScheduler) {
+                scheduler.shutdown();
+            }
         }
 
         if (error != null) {
@@ -708,6 +724,8 @@ public abstract class Network extends Component {
         while (true) {
             boolean res = true;
             // GenTraceLine("Starting await");
+            // a subnet waits on a worker of a pooled network
+            boolean managed = beginBlocking();
             try {
                 if (deadlockTest) {
                     res = cdl.await(freq, TimeUnit.MILLISECONDS);
@@ -718,6 +736,8 @@ public abstract class Network extends Component {
             } catch (InterruptedException e) {
                 FlowError.complain("Network " + getName() + " interrupted");
                 break; // unreachable
+            } finally {
+                endBlocking(managed);
             }
             if (res) {
                 break;
@@ -1084,6 +1104,33 @@ public abstract class Network extends Component {
      }
      }
      */
+    /**
+     * Runs the components on a pool of workers instead of one thread each:
+     * see FlowScheduler. Must be called before go(); the pool is shut down
+     * when go() returns. Can also be set with a "workers" entry in the
+     * properties file.
+     *
+     * @param parallelism the number of workers running at the same time
+     */
+    public void setPooled(final int parallelism) {
+        setScheduler(new FlowScheduler(parallelism));
+        ownScheduler = true;
+    }
+
+    /**
+     * Runs the components on the given scheduler, which may be shared by
+     * several networks, or on one thread each if null. Must be called before
+     * go().
+     */
+    public void setScheduler(final FlowScheduler scheduler) {
+        this.scheduler = scheduler;
+        ownScheduler = false;
+    }
+
+    public FlowScheduler getScheduler() {
+        return scheduler;
+    }
+
     /**
      * @return the iPCounts
      */
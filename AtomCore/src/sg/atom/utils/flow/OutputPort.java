@@ -134,6 +134,36 @@ public class OutputPort {
     return;
   }
 
+  /**
+   * Send several packets to this Port, in order. The packets are handed over
+   * to the connection as many at a time as it has free slots, which saves the
+   * hand-off work done for each packet by send(Packet).
+   * 
+   * @param packets
+   *            packets to send
+   */
+  public void send(final Packet[] packets) {
+    for (Packet packet : packets) {
+      if (packet == null) {
+        FlowError.complain("Null packet reference in 'send' method call: " + getSender().getName());
+      }
+      if (cnxt != null && sender != packet.owner) {
+        FlowError.complain("Packet being sent not owned by current component: " + getSender().getName());
+      }
+    }
+    boolean res = false;
+    if (cnxt == null) {
+      res = optional;
+    } else {
+      traceFuncs("Sending " + packets.length + " packets");
+      res = cnxt.send(packets, this);
+    }
+    if (!res) {
+      FlowError.complain("Could not deliver packets to: " + getName());
+    }
+    traceFuncs("Sent OK");
+  }
+
   String getName() {
     return sender.getName() + "." + name;
   }
@@ -0,0 +1,114 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.io.compress;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Base of the compressors working on byte arrays at any offset. The
+ * ByteBuffer methods work in place on the arrays of heap buffers; direct and
+ * read-only buffers are copied through scratch arrays kept by the instance,
+ * so no call allocates once the arrays are large enough.
+ *
+ * <p>Like the compressors, an instance should be used by a single thread
+ * only.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public abstract class AbstractCompressor implements Compressor {
+
+    private byte[] inScratch;
+    private byte[] outScratch;
+
+    /**
+     * Compress a number of bytes.
+     *
+     * @param in the input data
+     * @param inPos the offset at the input array
+     * @param inLen the number of bytes to compress
+     * @param out the output area
+     * @param outPos the offset at the output array
+     * @return the end position
+     */
+    public abstract int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos);
+
+    @Override
+    public int compress(byte[] in, int inLen, byte[] out, int outPos) {
+        return compress(in, 0, inLen, out, outPos);
+    }
+
+    @Override
+    public int compress(ByteBuffer in, ByteBuffer out) {
+        int inLen = in.remaining();
+        if (inLen == 0) {
+            return 0;
+        }
+        int maxLen = getMaxCompressedLength(inLen);
+        if (out.remaining() < maxLen) {
+            throw new BufferOverflowException();
+        }
+        byte[] inArray;
+        int inPos;
+        if (in.hasArray()) {
+            inArray = in.array();
+            inPos = in.arrayOffset() + in.position();
+            in.position(in.limit());
+        } else {
+            inArray = inScratch = ensureSize(inScratch, inLen);
+            inPos = 0;
+            in.get(inArray, 0, inLen);
+        }
+        if (out.hasArray()) {
+            int outPos = out.arrayOffset() + out.position();
+            int len = compress(inArray, inPos, inLen, out.array(), outPos) - outPos;
+            out.position(out.position() + len);
+            return len;
+        }
+        byte[] outArray = outScratch = ensureSize(outScratch, maxLen);
+        int len = compress(inArray, inPos, inLen, outArray, 0);
+        out.put(outArray, 0, len);
+        return len;
+    }
+
+    @Override
+    public void expand(ByteBuffer in, ByteBuffer out, int outLen) {
+        if (outLen == 0) {
+            in.position(in.limit());
+            return;
+        }
+        if (out.remaining() < outLen) {
+            throw new BufferOverflowException();
+        }
+        int inLen = in.remaining();
+        if (inLen == 0) {
+            throw new BufferUnderflowException();
+        }
+        byte[] inArray;
+        int inPos;
+        if (in.hasArray()) {
+            inArray = in.array();
+            inPos = in.arrayOffset() + in.position();
+        } else {
+            inArray = inScratch = ensureSize(inScratch, inLen);
+            inPos = 0;
+            in.duplicate().get(inArray, 0, inLen);
+        }
+        if (out.hasArray()) {
+            expand(inArray, inPos, inLen, out.array(), out.arrayOffset() + out.position(), outLen);
+            out.position(out.position() + outLen);
+        } else {
+            byte[] outArray = outScratch = ensureSize(outScratch, outLen);
+            expand(inArray, inPos, inLen, outArray, 0, outLen);
+            out.put(outArray, 0, outLen);
+        }
+        in.position(in.limit());
+    }
+
+    private static byte[] ensureSize(byte[] buff, int len) {
+        return buff == null || buff.length < len ? new byte[len] : buff;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.io.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * An input stream to read a stream written by the
+ * {@link BlockCompressedOutputStream}. The data is automatically expanded and
+ * checked against the checksum of each block; corrupt and truncated streams
+ * throw an IOException.
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class BlockCompressedInputStream extends InputStream {
+
+    private final InputStream in;
+    private final Compressor compressor;
+    private final int blockSize;
+    private final byte[] header = new byte[12];
+    private final byte[] buffer;
+    private final byte[] inBuffer;
+    private final CRC32 crc = new CRC32();
+    private int pos;
+    private int bufferLength;
+    private boolean eof;
+
+    public BlockCompressedInputStream(InputStream in) throws IOException {
+        this.in = in;
+        readFully(header, 9);
+        if (readInt(0) != BlockCompressedOutputStream.MAGIC) {
+            throw new IOException("Not a BlockCompressedInputStream");
+        }
+        try {
+            compressor = BlockCompressedOutputStream.getCompressor(header[4]);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        blockSize = readInt(5);
+        if (blockSize <= 0) {
+            throw new IOException("Invalid block size " + blockSize);
+        }
+        buffer = new byte[blockSize];
+        inBuffer = compressor == null ? null : new byte[compressor.getMaxCompressedLength(blockSize)];
+    }
+
+    /**
+     * Gets the compression algorithm of the stream.
+     *
+     * @return one of the {@link Compressor} constants
+     */
+    public int getAlgorithm() {
+        return compressor == null ? Compressor.NO : compressor.getAlgorithm();
+    }
+
+    private void fillBuffer() throws IOException {
+        if (pos < bufferLength || eof) {
+            return;
+        }
+        pos = 0;
+        bufferLength = 0;
+        readFully(header, 4);
+        int len = readInt(0);
+        if (len == 0) {
+            eof = true;
+            return;
+        }
+        int checksum;
+        if (len < 0) {
+            len = -len;
+            checkLength(len, blockSize);
+            readFully(header, 4);
+            checksum = readInt(0);
+            readFully(buffer, len);
+        } else {
+            if (compressor == null) {
+                throw new IOException("Compressed block in an uncompressed stream");
+            }
+            checkLength(len, inBuffer.length);
+            readFully(header, 8);
+            int size = readInt(0);
+            checkLength(size, blockSize);
+            checksum = readInt(4);
+            readFully(inBuffer, len);
+            try {
+                compressor.expand(inBuffer, 0, len, buffer, 0, size);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt compressed block", e);
+            }
+            len = size;
+        }
+        crc.reset();
+        crc.update(buffer, 0, len);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Checksum mismatch in compressed block");
+        }
+        bufferLength = len;
+    }
+
+    private static void checkLength(int len, int max) throws IOException {
+        if (len <= 0 || len > max) {
+            throw new IOException("Invalid block length " + len);
+        }
+    }
+
+    private void readFully(byte[] buff, int len) throws IOException {
+        int off = 0;
+        while (len > 0) {
+            int l = in.read(buff, off, len);
+            if (l < 0) {
+                throw new EOFException("Truncated compressed stream");
+            }
+            len -= l;
+            off += l;
+        }
+    }
+
+    private int readInt(int off) {
+        return (header[off] << 24) + ((header[off + 1] & 255) << 16) + ((header[off + 2] & 255) << 8)
+                + (header[off + 3] & 255);
+    }
+
+    @Override
+    public int read() throws IOException {
+        fillBuffer();
+        if (pos >= bufferLength) {
+            return -1;
+        }
+        return buffer[pos++] & 255;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (len > 0) {
+            fillBuffer();
+            if (pos >= bufferLength) {
+                break;
+            }
+            int copy = Math.min(len, bufferLength - pos);
+            System.arraycopy(buffer, pos, b, off, copy);
+            pos += copy;
+            off += copy;
+            len -= copy;
+            read += copy;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public int available() {
+        return bufferLength - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
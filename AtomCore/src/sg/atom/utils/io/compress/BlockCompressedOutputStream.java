@@ -0,0 +1,264 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.io.compress;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import sg.atom.utils.io.compress.fastlz.CompressFastLZ;
+import sg.atom.utils.io.compress.lzf.CompressLZF;
+import sg.atom.utils.io.compress.quicklz.CompressQuickLZ;
+
+/**
+ * An output stream compressing the data in blocks with one of the
+ * {@link Compressor} algorithms, read back by the
+ * {@link BlockCompressedInputStream}.
+ *
+ * <p>The stream starts with a header (magic number, algorithm, block size).
+ * Each block is written as its compressed length, its length, the CRC32 of
+ * its data and the compressed data; blocks which do not compress are stored
+ * as minus their length, the CRC32 and the data. A zero length ends the
+ * stream, so that a truncated stream can be told from a complete one.</p>
+ *
+ * <p>Given an executor, the blocks are compressed in parallel, up to the
+ * given number at a time, and written in order; large inputs such as save
+ * files then compress at the speed of several cores.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+
+    /**
+     * The header of a block compressed stream.
+     */
+    static final int MAGIC = ('A' << 24) | ('T' << 16) | ('B' << 8) | 'C';
+    /**
+     * The default block size (64 KB).
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private final OutputStream out;
+    private final int algorithm;
+    private final int blockSize;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+    private final ArrayDeque<Block> free = new ArrayDeque<Block>();
+    private final byte[] header = new byte[12];
+    private Block current;
+    private boolean closed;
+
+    public BlockCompressedOutputStream(OutputStream out, int algorithm) throws IOException {
+        this(out, algorithm, DEFAULT_BLOCK_SIZE, null, 1);
+    }
+
+    /**
+     * @param out the stream to write the compressed data to
+     * @param algorithm the algorithm, one of the {@link Compressor} constants
+     * @param blockSize the size of the blocks compressed at once
+     * @param executor the executor compressing the blocks, or null to
+     * compress them on the writing thread
+     * @param parallelism the maximum number of blocks compressed at a time by
+     * the executor
+     */
+    public BlockCompressedOutputStream(OutputStream out, int algorithm, int blockSize, ExecutorService executor,
+            int parallelism) throws IOException {
+        if (blockSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("blockSize " + blockSize + ", parallelism " + parallelism);
+        }
+        getCompressor(algorithm);
+        this.out = out;
+        this.algorithm = algorithm;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        writeInt(header, 0, MAGIC);
+        header[4] = (byte) algorithm;
+        writeInt(header, 5, blockSize);
+        out.write(header, 0, 9);
+        current = obtain();
+    }
+
+    /**
+     * Creates a compressor for an algorithm.
+     *
+     * @param algorithm one of the {@link Compressor} constants
+     * @return the compressor, or null if no compression is used
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public static Compressor getCompressor(int algorithm) {
+        switch (algorithm) {
+            case Compressor.NO:
+                return null;
+            case Compressor.LZF:
+                return new CompressLZF();
+            case Compressor.FASTLZ:
+                return new CompressFastLZ();
+            case Compressor.QUICKLZ:
+                return new CompressQuickLZ();
+            default:
+                throw new IllegalArgumentException("Unsupported compression algorithm: " + algorithm);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        current.data[current.length++] = (byte) b;
+        if (current.length == blockSize) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] buff, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int copy = Math.min(blockSize - current.length, len);
+            System.arraycopy(buff, off, current.data, current.length, copy);
+            current.length += copy;
+            if (current.length == blockSize) {
+                submit();
+            }
+            off += copy;
+            len -= copy;
+        }
+    }
+
+    /**
+     * Compresses and writes the data written so far, as a possibly shorter
+     * block.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (current.length > 0) {
+            submit();
+        }
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            writeInt(header, 0, 0);
+            out.write(header, 0, 4);
+        } finally {
+            closed = true;
+            for (Future<Block> f : pending) {
+                f.cancel(false);
+            }
+            pending.clear();
+            out.close();
+        }
+    }
+
+    private void submit() throws IOException {
+        Block block = current;
+        current = null;
+        if (executor == null) {
+            block.call();
+            write(block);
+        } else {
+            pending.add(executor.submit(block));
+            while (pending.size() > parallelism) {
+                writeNext();
+            }
+        }
+        current = obtain();
+    }
+
+    private void writeNext() throws IOException {
+        Block block;
+        try {
+            block = pending.peek().get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+        pending.poll();
+        write(block);
+    }
+
+    private void write(Block block) throws IOException {
+        if (block.stored) {
+            writeInt(header, 0, -block.length);
+            writeInt(header, 4, block.checksum);
+            out.write(header, 0, 8);
+            out.write(block.data, 0, block.length);
+        } else {
+            writeInt(header, 0, block.compressedLength);
+            writeInt(header, 4, block.length);
+            writeInt(header, 8, block.checksum);
+            out.write(header, 0, 12);
+            out.write(block.compressed, 0, block.compressedLength);
+        }
+        block.length = 0;
+        free.add(block);
+    }
+
+    private Block obtain() {
+        Block block = free.poll();
+        return block != null ? block : new Block(getCompressor(algorithm), blockSize);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    static void writeInt(byte[] buff, int pos, int x) {
+        buff[pos] = (byte) (x >> 24);
+        buff[pos + 1] = (byte) (x >> 16);
+        buff[pos + 2] = (byte) (x >> 8);
+        buff[pos + 3] = (byte) x;
+    }
+
+    /**
+     * A block of data with its compressor and output area, reused from block
+     * to block.
+     */
+    private static final class Block implements Callable<Block> {
+
+        final Compressor compressor;
+        final byte[] data;
+        final byte[] compressed;
+        final CRC32 crc = new CRC32();
+        int length;
+        int compressedLength;
+        int checksum;
+        boolean stored;
+
+        Block(Compressor compressor, int blockSize) {
+            this.compressor = compressor;
+            data = new byte[blockSize];
+            compressed = compressor == null ? null : new byte[compressor.getMaxCompressedLength(blockSize)];
+        }
+
+        @Override
+        public Block call() {
+            crc.reset();
+            crc.update(data, 0, length);
+            checksum = (int) crc.getValue();
+            compressedLength = compressor == null ? length : compressor.compress(data, length, compressed, 0);
+            stored = compressedLength >= length;
+            return this;
+        }
+    }
+}
@@ -6,6 +6,8 @@
  */
 package sg.atom.utils.io.compress;
 
+import java.nio.ByteBuffer;
+
 /**
  * Each data compression algorithm must implement this interface.
  */
@@ -23,6 +25,14 @@ public interface Compressor {
      * The DEFLATE compression algorithm is used.
      */
     int DEFLATE = 2;
+    /**
+     * The FastLZ compression algorithm is used.
+     */
+    int FASTLZ = 3;
+    /**
+     * The QuickLZ compression algorithm is used.
+     */
+    int QUICKLZ = 4;
 
     /**
      * Get the compression algorithm type.
@@ -55,6 +65,37 @@ public interface Compressor {
     void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos,
             int outLen);
 
+    /**
+     * Get the largest size the given number of bytes can be compressed to.
+     *
+     * @param inLen the number of bytes to compress
+     * @return the size of the output area needed
+     */
+    int getMaxCompressedLength(int inLen);
+
+    /**
+     * Compress the remaining bytes of a buffer into another buffer. The
+     * position of the input buffer is moved to its limit, the position of the
+     * output buffer after the compressed data.
+     *
+     * @param in the input data
+     * @param out the output area, with at least
+     * {@link #getMaxCompressedLength(int)} bytes remaining
+     * @return the number of compressed bytes
+     */
+    int compress(ByteBuffer in, ByteBuffer out);
+
+    /**
+     * Expand the remaining compressed bytes of a buffer into another buffer.
+     * The position of the input buffer is moved to its limit, the position
+     * of the output buffer after the uncompressed data.
+     *
+     * @param in the compressed data
+     * @param out the output area
+     * @param outLen the size of the uncompressed data
+     */
+    void expand(ByteBuffer in, ByteBuffer out, int outLen);
+
     /**
      * Set the compression options. This may include settings for higher
      * performance but less compression.
@@ -0,0 +1,75 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.io.compress.fastlz;
+
+import java.io.IOException;
+import java.util.StringTokenizer;
+import sg.atom.utils.io.compress.AbstractCompressor;
+import sg.atom.utils.io.compress.Compressor;
+import sg.atom.utils.io.compress.fastlz.JFastLZ.JFastLZLevel;
+
+/**
+ * The FastLZ algorithm behind the {@link Compressor} interface. The level is
+ * stored in the compressed data; by default level 1 is used for less than 64
+ * KB and level 2 (better for long runs and far matches) for more, as in
+ * {@link JFastLZ}. Set the options to "level 1" or "level 2" to force one.
+ *
+ * <p>Each instance should be used by a single thread only.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class CompressFastLZ extends AbstractCompressor {
+
+    private final JFastLZ fastLZ = new JFastLZ();
+    private JFastLZLevel level;
+
+    @Override
+    public int getAlgorithm() {
+        return Compressor.FASTLZ;
+    }
+
+    @Override
+    public void setOptions(String options) {
+        level = null;
+        StringTokenizer tokenizer = new StringTokenizer(options);
+        while (tokenizer.hasMoreElements()) {
+            String option = tokenizer.nextToken();
+            if ("level".equals(option) || "l".equals(option)) {
+                level = JFastLZLevel.evaluateLevel(Integer.parseInt(tokenizer.nextToken()));
+                if (level == null) {
+                    throw new IllegalArgumentException("Unsupported FastLZ level in " + options);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getMaxCompressedLength(int inLen) {
+        // 5% larger and at least 66 bytes, as FastLZ requires
+        return Math.max(66, inLen + inLen / 16 + 1);
+    }
+
+    @Override
+    public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos) {
+        JFastLZLevel l = level;
+        if (l == null) {
+            l = inLen < 1024 * 64 ? JFastLZLevel.One : JFastLZLevel.Two;
+        }
+        try {
+            return outPos + fastLZ.fastlzCompress(l, in, inPos, inLen, out, outPos, out.length - outPos);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen) {
+        int len = fastLZ.fastlzDecompress(in, inPos, inLen, out, outPos, outLen);
+        if (len != outLen) {
+            throw new IllegalArgumentException("Corrupt FastLZ data: expanded to " + len
+                    + " bytes instead of " + outLen);
+        }
+    }
+}
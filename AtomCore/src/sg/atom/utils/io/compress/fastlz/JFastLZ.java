@@ -57,6 +57,10 @@ public class JFastLZ {
     private static final int HASH_MASK = (HASH_SIZE - 1);
     private static final int MAX_COPY = 32;
     private static final int MAX_LEN = 264;  /* 256 + 8 */
+    /**
+     * Hash table for matching byte sequences (reused for performance).
+     */
+    private int[] cachedHashTable;
 
     //#define HASH_FUNCTION(v,p) { v = FASTLZ_READU16(p); v ^= FASTLZ_READU16(p+1)^(v>>(16-HASH_LOG));v &= HASH_MASK; }
 
@@ -181,7 +185,11 @@ public class JFastLZ {
         int op = 0;
 
         // const flzuint8* htab[HASH_SIZE];
-        int[] htab = new int[HASH_SIZE];
+        // reused between calls, initialized below
+        if (cachedHashTable == null) {
+            cachedHashTable = new int[HASH_SIZE];
+        }
+        int[] htab = cachedHashTable;
         // const flzuint8** hslot;
         int hslot = 0;
         // flzuint32 hval;
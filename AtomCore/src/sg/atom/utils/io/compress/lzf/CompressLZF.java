@@ -26,6 +26,7 @@ package sg.atom.utils.io.compress.lzf;
  *
  */
 import java.nio.ByteBuffer;
+import sg.atom.utils.io.compress.AbstractCompressor;
 import sg.atom.utils.io.compress.Compressor;
 
 /**
@@ -49,7 +50,7 @@ import sg.atom.utils.io.compress.Compressor;
  * control byte combined with the next byte form the offset for the
  * back-reference. </p>
  */
-public final class CompressLZF implements Compressor {
+public final class CompressLZF extends AbstractCompressor {
 
     /**
      * The number of entries in the hash table. The size is a trade-off between
@@ -117,16 +118,17 @@ public final class CompressLZF implements Compressor {
     }
 
     @Override
-    public int compress(byte[] in, int inLen, byte[] out, int outPos) {
-        int inPos = 0;
+    public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos) {
+        int inStart = inPos;
+        int inEnd = inPos + inLen;
         if (cachedHashTable == null) {
             cachedHashTable = new int[HASH_SIZE];
         }
         int[] hashTab = cachedHashTable;
         int literals = 0;
         outPos++;
-        int future = first(in, 0);
-        while (inPos < inLen - 4) {
+        int future = inLen < 2 ? 0 : first(in, inPos);
+        while (inPos < inEnd - 4) {
             byte p2 = in[inPos + 2];
             // next
             future = (future << 8) + (p2 & 255);
@@ -140,13 +142,13 @@ public final class CompressLZF implements Compressor {
             //       && (((in[ref] & 255) << 8) | (in[ref + 1] & 255)) ==
             //           ((future >> 8) & 0xffff)) {
             if (ref < inPos
-                    && ref > 0
+                    && ref > inStart
                     && (off = inPos - ref - 1) < MAX_OFF
                     && in[ref + 2] == p2
                     && in[ref + 1] == (byte) (future >> 8)
                     && in[ref] == (byte) (future >> 16)) {
                 // match
-                int maxLen = inLen - inPos - 2;
+                int maxLen = inEnd - inPos - 2;
                 if (maxLen > MAX_REF) {
                     maxLen = MAX_REF;
                 }
@@ -200,7 +202,7 @@ public final class CompressLZF implements Compressor {
             }
         }
         // write the remaining few bytes as literals
-        while (inPos < inLen) {
+        while (inPos < inEnd) {
             out[outPos++] = in[inPos++];
             literals++;
             if (literals == MAX_LITERAL) {
@@ -333,6 +335,7 @@ public final class CompressLZF implements Compressor {
         if (inPos < 0 || outPos < 0 || outLen < 0) {
             throw new IllegalArgumentException();
         }
+        int outEnd = outPos + outLen;
         do {
             int ctrl = in[inPos++] & 255;
             if (ctrl < MAX_LITERAL) {
@@ -375,7 +378,7 @@ public final class CompressLZF implements Compressor {
                     out[outPos++] = out[ctrl++];
                 }
             }
-        } while (outPos < outLen);
+        } while (outPos < outEnd);
     }
 
     /**
@@ -429,4 +432,10 @@ public final class CompressLZF implements Compressor {
     public int getAlgorithm() {
         return Compressor.LZF;
     }
+
+    @Override
+    public int getMaxCompressedLength(int inLen) {
+        // one control byte per literal run of 32 bytes
+        return inLen + inLen / MAX_LITERAL + 2;
+    }
 }
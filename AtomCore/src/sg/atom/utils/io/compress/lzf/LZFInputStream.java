@@ -30,9 +30,7 @@ public class LZFInputStream extends InputStream {
     }
 
     private static byte[] ensureSize(byte[] buff, int len) {
-        //FIXME: Atomix changed!
-        //return buff == null || buff.length < len ? DataUtils.newBytes(len) : buff;
-        return null;
+        return buff == null || buff.length < len ? new byte[len] : buff;
     }
 
     private void fillBuffer() throws IOException {
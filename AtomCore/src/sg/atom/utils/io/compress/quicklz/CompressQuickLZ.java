@@ -0,0 +1,58 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.io.compress.quicklz;
+
+import sg.atom.utils.io.compress.AbstractCompressor;
+import sg.atom.utils.io.compress.Compressor;
+
+/**
+ * The QuickLZ algorithm (level 1) behind the {@link Compressor} interface.
+ * The compressed data starts with the QuickLZ header, so it can also be
+ * expanded by {@link QuickLZ#decompress(byte[])}.
+ *
+ * <p>Each instance should be used by a single thread only.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class CompressQuickLZ extends AbstractCompressor {
+
+    private static final int HASH_VALUES = 4096;
+    /**
+     * Hash tables for matching byte sequences (reused for performance).
+     */
+    private final int[] hashTable = new int[HASH_VALUES];
+    private final int[] cacheTable = new int[HASH_VALUES];
+    private final byte[] hashCounter = new byte[HASH_VALUES];
+
+    @Override
+    public int getAlgorithm() {
+        return Compressor.QUICKLZ;
+    }
+
+    @Override
+    public void setOptions(String options) {
+        // only level 1 is ported
+    }
+
+    @Override
+    public int getMaxCompressedLength(int inLen) {
+        return QuickLZ.maxCompressedLength(inLen);
+    }
+
+    @Override
+    public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos) {
+        return outPos + QuickLZ.compress(in, inPos, inLen, out, outPos, hashTable, cacheTable, hashCounter);
+    }
+
+    @Override
+    public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen) {
+        long size = QuickLZ.sizeDecompressed(in, inPos);
+        if (size != outLen || QuickLZ.sizeCompressed(in, inPos) != inLen) {
+            throw new IllegalArgumentException("Corrupt QuickLZ data: " + inLen + " bytes expanding to "
+                    + outLen + " with a header for " + QuickLZ.sizeCompressed(in, inPos) + " expanding to " + size);
+        }
+        QuickLZ.decompress(in, inPos, out, outPos, hashTable);
+    }
+}
@@ -15,6 +15,8 @@
  */
 package sg.atom.utils.io.compress.quicklz;
 
+import java.util.Arrays;
+
 public final class QuickLZ {
 
     // The port is compatible with the C version with following settings:
@@ -34,60 +36,95 @@ public final class QuickLZ {
     final private static int DEFAULT_HEADERLEN = 9;
 
     static int headerLen(byte[] source) {
-        return ((source[0] & 2) == 2) ? 9 : 3;
+        return headerLen(source, 0);
+    }
+
+    static int headerLen(byte[] source, int offset) {
+        return ((source[offset] & 2) == 2) ? 9 : 3;
     }
 
     static public long sizeDecompressed(byte[] source) {
-        if (headerLen(source) == 9) {
-            return fastread(source, 5, 4);
+        return sizeDecompressed(source, 0);
+    }
+
+    static public long sizeDecompressed(byte[] source, int offset) {
+        if (headerLen(source, offset) == 9) {
+            return fastread(source, offset + 5, 4);
         } else {
-            return fastread(source, 2, 1);
+            return fastread(source, offset + 2, 1);
         }
     }
 
     static public long sizeCompressed(byte[] source) {
-        if (headerLen(source) == 9) {
-            return fastread(source, 1, 4);
+        return sizeCompressed(source, 0);
+    }
+
+    static public long sizeCompressed(byte[] source, int offset) {
+        if (headerLen(source, offset) == 9) {
+            return fastread(source, offset + 1, 4);
         } else {
-            return fastread(source, 1, 1);
+            return fastread(source, offset + 1, 1);
         }
     }
 
+    /**
+     * The largest size the given number of bytes can be compressed to.
+     */
+    static public int maxCompressedLength(int length) {
+        return length + 400;
+    }
+
     public static byte[] compress(byte[] source) {
+        if (source.length == 0) {
+            return new byte[0];
+        }
+        byte[] destination = new byte[maxCompressedLength(source.length)];
+        int length = compress(source, 0, source.length, destination, 0,
+                new int[HASH_VALUES], new int[HASH_VALUES], new byte[HASH_VALUES]);
+        byte[] d2 = new byte[length];
+        System.arraycopy(destination, 0, d2, 0, length);
+        return d2;
+    }
+
+    /**
+     * Compresses the bytes of an array into another array, with
+     * {@link #maxCompressedLength(int)} bytes at the offset, using the given
+     * hash tables of 4096 entries which can be reused from call to call.
+     *
+     * @return the compressed length
+     */
+    public static int compress(byte[] source, int srcOff, int srcLen, byte[] destination, int dstOff,
+            int[] hashtable, int[] cachetable, byte[] hash_counter) {
         int src = 0;
         int headerlen = DEFAULT_HEADERLEN;
         int dst = headerlen + CWORD_LEN;
         long cword_val = 0x80000000L;
         int cword_ptr = headerlen;
-        byte[] destination = new byte[source.length + 400];
-        int[] hashtable = new int[HASH_VALUES];
-        int[] cachetable = new int[HASH_VALUES];
-        byte[] hash_counter = new byte[HASH_VALUES];
-        byte[] d2;
         int fetch = 0;
-        int last_matchstart = (source.length - UNCONDITIONAL_MATCHLEN
+        int last_matchstart = (srcLen - UNCONDITIONAL_MATCHLEN
                 - UNCOMPRESSED_END - 1);
 
-        if (source.length == 0) {
-            return new byte[0];
+        if (srcLen == 0) {
+            return 0;
         }
+        // entries of the other tables are only read once counted
+        Arrays.fill(hash_counter, (byte) 0);
 
         if (src <= last_matchstart) {
-            fetch = (int) fastread(source, src, 3);
+            fetch = (int) fastread(source, srcOff + src, 3);
         }
 
         while (src <= last_matchstart) {
             if ((cword_val & 1) == 1) {
-                if (src > 3 * (source.length >> 2) && dst > src - (src >> 5)) {
-                    d2 = new byte[source.length + DEFAULT_HEADERLEN];
-                    d2[0] = 2 | 0;
-                    fastwrite(d2, 1, source.length + headerlen, 4);
-                    fastwrite(d2, 5, source.length, 4);
-                    System.arraycopy(source, 0, d2, headerlen, source.length);
-                    return d2;
+                if (src > 3 * (srcLen >> 2) && dst > src - (src >> 5)) {
+                    destination[dstOff] = 2 | 0;
+                    fastwrite(destination, dstOff + 1, srcLen + headerlen, 4);
+                    fastwrite(destination, dstOff + 5, srcLen, 4);
+                    System.arraycopy(source, srcOff, destination, dstOff + headerlen, srcLen);
+                    return srcLen + headerlen;
                 }
 
-                fastwrite(destination, cword_ptr, (cword_val >>> 1) | 0x80000000L, 4);
+                fastwrite(destination, dstOff + cword_ptr, (cword_val >>> 1) | 0x80000000L, 4);
                 cword_ptr = dst;
                 dst += CWORD_LEN;
                 cword_val = 0x80000000L;
@@ -102,24 +139,24 @@ public final class QuickLZ {
 
             if (cache == 0 && src - o > MINOFFSET && hash_counter[hash] != 0) {
                 cword_val = ((cword_val >>> 1) | 0x80000000L);
-                if (source[o + 3] != source[src + 3]) {
+                if (source[srcOff + o + 3] != source[srcOff + src + 3]) {
                     int f = 3 - 2 | (hash << 4);
-                    destination[dst + 0] = (byte) (f >>> 0 * 8);
-                    destination[dst + 1] = (byte) (f >>> 1 * 8);
+                    destination[dstOff + dst + 0] = (byte) (f >>> 0 * 8);
+                    destination[dstOff + dst + 1] = (byte) (f >>> 1 * 8);
                     src += 3;
                     dst += 2;
                 } else {
                     int old_src = src;
-                    int remaining = ((source.length - UNCOMPRESSED_END - src + 1 - 1) > 255
+                    int remaining = ((srcLen - UNCOMPRESSED_END - src + 1 - 1) > 255
                             ? 255
-                            : (source.length - UNCOMPRESSED_END - src + 1 - 1));
+                            : (srcLen - UNCOMPRESSED_END - src + 1 - 1));
 
                     src += 4;
-                    if (source[o + src - old_src] == source[src]) {
+                    if (source[srcOff + o + src - old_src] == source[srcOff + src]) {
                         src++;
-                        if (source[o + src - old_src] == source[src]) {
+                        if (source[srcOff + o + src - old_src] == source[srcOff + src]) {
                             src++;
-                            while (source[o + (src - old_src)] == source[src]
+                            while (source[srcOff + o + (src - old_src)] == source[srcOff + src]
                                     && (src - old_src) < remaining) {
                                 src++;
                             }
@@ -132,37 +169,37 @@ public final class QuickLZ {
                     if (matchlen < 18) {
                         int f = hash | (matchlen - 2);
                         // Neither Java nor C# wants to inline fastwriteN
-                        destination[dst + 0] = (byte) (f >>> 0 * 8);
-                        destination[dst + 1] = (byte) (f >>> 1 * 8);
+                        destination[dstOff + dst + 0] = (byte) (f >>> 0 * 8);
+                        destination[dstOff + dst + 1] = (byte) (f >>> 1 * 8);
                         dst += 2;
                     } else {
                         int f = hash | (matchlen << 16);
-                        fastwrite(destination, dst, f, 3);
+                        fastwrite(destination, dstOff + dst, f, 3);
                         dst += 3;
                     }
                 }
-                fetch = (int) fastread(source, src, 3);
+                fetch = (int) fastread(source, srcOff + src, 3);
             } else {
                 hash_counter[hash] = 1;
-                destination[dst] = source[src];
+                destination[dstOff + dst] = source[srcOff + src];
                 cword_val = (cword_val >>> 1);
                 src++;
                 dst++;
                 fetch = ((fetch >>> 8) & 0xffff)
-                        | ((((int) source[src + 2]) & 0xff) << 16);
+                        | ((((int) source[srcOff + src + 2]) & 0xff) << 16);
             }
         }
 
-        while (src <= source.length - 1) {
+        while (src <= srcLen - 1) {
             if ((cword_val & 1) == 1) {
-                fastwrite(destination, cword_ptr,
+                fastwrite(destination, dstOff + cword_ptr,
                         (long) ((cword_val >>> 1) | 0x80000000L), 4);
                 cword_ptr = dst;
                 dst += CWORD_LEN;
                 cword_val = 0x80000000L;
             }
 
-            destination[dst] = source[src];
+            destination[dstOff + dst] = source[srcOff + src];
             src++;
             dst++;
             cword_val = (cword_val >>> 1);
@@ -170,14 +207,12 @@ public final class QuickLZ {
         while ((cword_val & 1) != 1) {
             cword_val = (cword_val >>> 1);
         }
-        fastwrite(destination, cword_ptr, (long) ((cword_val >>> 1) | 0x80000000L),
+        fastwrite(destination, dstOff + cword_ptr, (long) ((cword_val >>> 1) | 0x80000000L),
                 CWORD_LEN);
-        destination[0] = 2 | 1;
-        fastwrite(destination, 1, (long) dst, 4);
-        fastwrite(destination, 5, (long) source.length, 4);
-        d2 = new byte[dst];
-        System.arraycopy(destination, 0, d2, 0, dst);
-        return d2;
+        destination[dstOff] = 2 | 1;
+        fastwrite(destination, dstOff + 1, (long) dst, 4);
+        fastwrite(destination, dstOff + 5, (long) srcLen, 4);
+        return dst;
     }
 
     static long fastread(byte[] a, int i, int numbytes) {
@@ -227,31 +262,41 @@ public final class QuickLZ {
     }
 
     static public byte[] decompress(byte[] source) {
-        int size = (int) sizeDecompressed(source);
+        byte[] destination = new byte[(int) sizeDecompressed(source)];
+        decompress(source, 0, destination, 0, new int[HASH_VALUES]);
+        return destination;
+    }
 
-        int src = headerLen(source);
+    /**
+     * Decompresses the compressed bytes at the offset of an array into
+     * another array, with {@link #sizeDecompressed(byte[], int)} bytes at the
+     * offset, using the given hash table of 4096 entries which can be reused
+     * from call to call.
+     *
+     * @return the decompressed length
+     */
+    static public int decompress(byte[] source, int srcOff, byte[] destination, int dstOff, int[] hashtable) {
+        int size = (int) sizeDecompressed(source, srcOff);
+
+        int src = headerLen(source, srcOff);
         int dst = 0;
         long cword_val = 1;
-        byte[] destination = new byte[size];
-        int[] hashtable = new int[4096];
-        byte[] hash_counter = new byte[4096];
         int last_matchstart = size - UNCONDITIONAL_MATCHLEN - UNCOMPRESSED_END - 1;
         int last_hashed = -1;
         int hash;
         int fetch = 0;
 
-        if ((source[0] & 1) != 1) {
-            byte[] d2 = new byte[size];
-            System.arraycopy(source, headerLen(source), d2, 0, size);
-            return d2;
+        if ((source[srcOff] & 1) != 1) {
+            System.arraycopy(source, srcOff + src, destination, dstOff, size);
+            return size;
         }
 
         for (;;) {
             if (cword_val == 1) {
-                cword_val = fastread(source, src, 4);
+                cword_val = fastread(source, srcOff + src, 4);
                 src += 4;
                 if (dst <= last_matchstart) {
-                    fetch = (int) fastread(source, src, 3);
+                    fetch = (int) fastread(source, srcOff + src, 3);
                 }
             }
 
@@ -261,53 +306,52 @@ public final class QuickLZ {
 
                 cword_val = cword_val >>> 1;
                 hash = (fetch >>> 4) & 0xfff;
-                offset2 = hashtable[hash];
+                offset2 = dstOff + hashtable[hash];
 
                 if ((fetch & 0xf) != 0) {
                     matchlen = (fetch & 0xf) + 2;
                     src += 2;
                 } else {
-                    matchlen = ((int) source[src + 2]) & 0xff;
+                    matchlen = ((int) source[srcOff + src + 2]) & 0xff;
                     src += 3;
                 }
 
-                destination[dst + 0] = destination[offset2 + 0];
-                destination[dst + 1] = destination[offset2 + 1];
-                destination[dst + 2] = destination[offset2 + 2];
+                int d = dstOff + dst;
+                destination[d + 0] = destination[offset2 + 0];
+                destination[d + 1] = destination[offset2 + 1];
+                destination[d + 2] = destination[offset2 + 2];
 
                 for (int i = 3; i < matchlen; i += 1) {
-                    destination[dst + i] = destination[offset2 + i];
+                    destination[d + i] = destination[offset2 + i];
                 }
                 dst += matchlen;
 
-                fetch = (int) fastread(destination, last_hashed + 1, 3);
+                fetch = (int) fastread(destination, dstOff + last_hashed + 1, 3);
                 // destination[last_hashed + 1] | (destination[last_hashed + 2] << 8) |
                 // (destination[last_hashed + 3] << 16);
                 while (last_hashed < dst - matchlen) {
                     last_hashed++;
                     hash = ((fetch >>> 12) ^ fetch) & (HASH_VALUES - 1);
                     hashtable[hash] = last_hashed;
-                    hash_counter[hash] = 1;
                     fetch = fetch >>> 8 & 0xffff
-                            | (((int) destination[last_hashed + 3]) & 0xff) << 16;
+                            | (((int) destination[dstOff + last_hashed + 3]) & 0xff) << 16;
                 }
                 last_hashed = dst - 1;
-                fetch = (int) fastread(source, src, 3);
+                fetch = (int) fastread(source, srcOff + src, 3);
             } else {
                 if (dst <= last_matchstart) {
-                    destination[dst] = source[src];
+                    destination[dstOff + dst] = source[srcOff + src];
                     dst += 1;
                     src += 1;
                     cword_val = cword_val >>> 1;
 
                     while (last_hashed < dst - 3) {
                         last_hashed++;
-                        int fetch2 = (int) fastread(destination, last_hashed, 3);
+                        int fetch2 = (int) fastread(destination, dstOff + last_hashed, 3);
                         hash = ((fetch2 >>> 12) ^ fetch2) & (HASH_VALUES - 1);
                         hashtable[hash] = last_hashed;
-                        hash_counter[hash] = 1;
                     }
-                    fetch = fetch >> 8 & 0xffff | (((int) source[src + 2]) & 0xff) << 16;
+                    fetch = fetch >> 8 & 0xffff | (((int) source[srcOff + src + 2]) & 0xff) << 16;
                 } else {
                     while (dst <= size - 1) {
                         if (cword_val == 1) {
@@ -315,15 +359,12 @@ public final class QuickLZ {
                             cword_val = 0x80000000L;
                         }
 
-                        destination[dst] = source[src];
+                        destination[dstOff + dst] = source[srcOff + src];
                         dst++;
                         src++;
                         cword_val = cword_val >>> 1;
                     }
-
-                    byte[] d2 = new byte[size];
-                    System.arraycopy(destination, 0, d2, 0, size);
-                    return d2;
+                    return size;
                 }
             }
         }
@@ -4,11 +4,12 @@ import java.nio.*;
 
 /**
  * 동일한 크기가 아니라도 capacity가 큰 bytebuffer를 반환할 수 있다. 
+ * @see SizeClassPool
  * @author mulova
  *
  */
 public class ByteBufferPool extends NioBufferPool<ByteBuffer> {
-	private static ByteBufferPool singleton;
+	private static volatile ByteBufferPool singleton;
 
 	public ByteBufferPool(int modulus) {
 		super(modulus);
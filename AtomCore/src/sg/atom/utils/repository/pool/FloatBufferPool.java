@@ -5,12 +5,13 @@ import java.nio.*;
 /**
  * FloatBufferPool
  *
+ * @see SizeClassPool
  * @author mulova
  *
  */
 public class FloatBufferPool extends NioBufferPool<FloatBuffer> {
 
-    private static FloatBufferPool singleton;
+    private static volatile FloatBufferPool singleton;
 
     public FloatBufferPool(int modulus) {
         super(modulus);
@@ -0,0 +1,507 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.repository.pool;
+
+import com.jme3.util.BufferUtils;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe pool of buffers or arrays in power of two size classes.
+ *
+ * <p>{@link #obtain(int)} returns an item of capacity the next power of two of
+ * the requested size (at least {@link #MIN_CLASS_SIZE}), {@link #release}
+ * gives it back. Each thread keeps two small magazines of items per size
+ * class, so most obtain/release pairs touch no shared state. Full magazines
+ * are exchanged with a lock-free depot shared by the threads (one Treiber
+ * stack per size class).</p>
+ *
+ * <p>The depot keeps at most <code>maxRetainedBytes</code>; magazines beyond
+ * it are discarded, direct buffers being freed at once instead of waiting for
+ * the GC. The magazines of a thread hold at most
+ * {@link #MAGAZINE_BYTES} per size class on top of that. Items larger than the
+ * largest size class are neither pooled nor retained.</p>
+ *
+ * <p>Replaces {@link ByteBufferPool} and {@link FloatBufferPool}, whose
+ * counters are not thread-safe and which allocate a key per call.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public abstract class SizeClassPool<T> {
+
+    public static final int MIN_CLASS_SHIFT = 4;
+    public static final int MIN_CLASS_SIZE = 1 << MIN_CLASS_SHIFT;
+    public static final int DEFAULT_MAX_CLASS_SHIFT = 24;
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 64L * 1024 * 1024;
+    /**
+     * Items per magazine for the small size classes.
+     */
+    public static final int MAGAZINE_SIZE = 16;
+    /**
+     * Bytes per magazine, the magazines of the big size classes hold fewer
+     * items.
+     */
+    public static final int MAGAZINE_BYTES = 1024 * 1024;
+    private final int elementBytes;
+    private final int classes;
+    private final long maxRetainedBytes;
+    private final AtomicReferenceArray<Node> depot;
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong discards = new AtomicLong();
+    // statistics of the dead threads
+    private final AtomicLong deadHits = new AtomicLong();
+    private final AtomicLong deadReleases = new AtomicLong();
+    private final CopyOnWriteArrayList<ThreadCache> caches = new CopyOnWriteArrayList<ThreadCache>();
+    private final ThreadLocal<ThreadCache> cache = new ThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+            ThreadCache c = new ThreadCache();
+            sweep();
+            caches.add(c);
+            return c;
+        }
+    };
+
+    /**
+     * @param elementBytes size of an element of the items, in bytes
+     * @param maxClassShift log2 of the largest pooled capacity
+     * @param maxRetainedBytes bytes kept by the shared depot
+     */
+    protected SizeClassPool(int elementBytes, int maxClassShift, long maxRetainedBytes) {
+        if (maxClassShift < MIN_CLASS_SHIFT || maxClassShift > 30) {
+            throw new IllegalArgumentException("Largest size class must be in [2^" + MIN_CLASS_SHIFT + ", 2^30]");
+        }
+        this.elementBytes = elementBytes;
+        this.classes = maxClassShift - MIN_CLASS_SHIFT + 1;
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.depot = new AtomicReferenceArray<Node>(classes);
+    }
+
+    /**
+     * Allocate an item of the given capacity, in elements.
+     */
+    protected abstract T allocate(int capacity);
+
+    /**
+     * Capacity of an item, in elements.
+     */
+    protected abstract int capacityOf(T item);
+
+    /**
+     * Prepare an item for a request of <code>size</code> elements.
+     */
+    protected void reset(T item, int size) {
+    }
+
+    /**
+     * Free an item which is dropped by the pool.
+     */
+    protected void destroy(T item) {
+    }
+
+    /**
+     * Size class of a request, or -1 if it is too large to be pooled.
+     */
+    private int classOf(int size) {
+        int shift = size <= MIN_CLASS_SIZE ? MIN_CLASS_SHIFT : 32 - Integer.numberOfLeadingZeros(size - 1);
+        int index = shift - MIN_CLASS_SHIFT;
+        return index < classes ? index : -1;
+    }
+
+    private int magazineSize(int sizeClass) {
+        long itemBytes = (long) elementBytes << (sizeClass + MIN_CLASS_SHIFT);
+        return (int) Math.max(1, Math.min(MAGAZINE_SIZE, MAGAZINE_BYTES / itemBytes));
+    }
+
+    /**
+     * An item able to hold <code>size</code> elements.
+     */
+    public T obtain(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size " + size);
+        }
+        int sizeClass = classOf(size);
+        if (sizeClass < 0) {
+            misses.incrementAndGet();
+            T item = allocate(size);
+            reset(item, size);
+            return item;
+        }
+        ThreadCache c = cache.get();
+        T item = c.pop(sizeClass);
+        if (item == null) {
+            misses.incrementAndGet();
+            item = allocate(1 << (sizeClass + MIN_CLASS_SHIFT));
+        } else {
+            c.hits++;
+        }
+        reset(item, size);
+        return item;
+    }
+
+    /**
+     * Give back an item obtained from this pool. The item must not be used
+     * afterwards.
+     */
+    public void release(T item) {
+        if (item == null) {
+            return;
+        }
+        int capacity = capacityOf(item);
+        int sizeClass = classOf(capacity);
+        if (sizeClass < 0 || capacity != 1 << (sizeClass + MIN_CLASS_SHIFT)) {
+            discards.incrementAndGet();
+            destroy(item);
+            return;
+        }
+        ThreadCache c = cache.get();
+        c.releases++;
+        c.push(sizeClass, item);
+    }
+
+    /**
+     * Drop the items of the depot, of the magazines of the calling thread and
+     * of the dead threads.
+     */
+    public void trim() {
+        cache.get().clear();
+        sweep();
+        for (int i = 0; i < classes; i++) {
+            Node node = depot.getAndSet(i, null);
+            for (; node != null; node = node.next) {
+                retainedBytes.addAndGet(-node.bytes);
+                drop(node.magazine);
+            }
+        }
+    }
+
+    private void sweep() {
+        for (ThreadCache c : caches) {
+            if (c.owner.get() == null || !c.owner.get().isAlive()) {
+                if (caches.remove(c)) {
+                    deadHits.addAndGet(c.hits);
+                    deadReleases.addAndGet(c.releases);
+                    c.flush();
+                }
+            }
+        }
+    }
+
+    private void drop(Magazine m) {
+        for (int i = 0; i < m.size; i++) {
+            @SuppressWarnings("unchecked")
+            T item = (T) m.items[i];
+            m.items[i] = null;
+            discards.incrementAndGet();
+            destroy(item);
+        }
+        m.size = 0;
+    }
+
+    /**
+     * Push a magazine in the depot, or drop it when the depot is full.
+     */
+    private void deposit(int sizeClass, Magazine m) {
+        long bytes = ((long) elementBytes << (sizeClass + MIN_CLASS_SHIFT)) * m.size;
+        if (retainedBytes.addAndGet(bytes) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-bytes);
+            drop(m);
+            return;
+        }
+        Node node = new Node(m, bytes);
+        Node head;
+        do {
+            head = depot.get(sizeClass);
+            node.next = head;
+        } while (!depot.compareAndSet(sizeClass, head, node));
+    }
+
+    private Magazine withdraw(int sizeClass) {
+        Node head;
+        do {
+            head = depot.get(sizeClass);
+            if (head == null) {
+                return null;
+            }
+        } while (!depot.compareAndSet(sizeClass, head, head.next));
+        retainedBytes.addAndGet(-head.bytes);
+        return head.magazine;
+    }
+
+    /* Statistics, approximate while other threads use the pool */
+    public long getHitCount() {
+        long hits = deadHits.get();
+        for (ThreadCache c : caches) {
+            hits += c.hits;
+        }
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getReleaseCount() {
+        long releases = deadReleases.get();
+        for (ThreadCache c : caches) {
+            releases += c.releases;
+        }
+        return releases;
+    }
+
+    /**
+     * Items dropped: too large, depot full or trimmed.
+     */
+    public long getDiscardCount() {
+        return discards.get();
+    }
+
+    /**
+     * Bytes held by the shared depot.
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    public long getMaxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+
+    public int getMaxPooledSize() {
+        return 1 << (classes - 1 + MIN_CLASS_SHIFT);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", discards=" + getDiscardCount() + ", retained=" + getRetainedBytes() + "]";
+    }
+
+    private static final class Magazine {
+
+        final Object[] items;
+        int size;
+
+        Magazine(int capacity) {
+            items = new Object[capacity];
+        }
+    }
+
+    private static final class Node {
+
+        final Magazine magazine;
+        final long bytes;
+        Node next;
+
+        Node(Magazine magazine, long bytes) {
+            this.magazine = magazine;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The magazines of a thread: a loaded one and the previous one per size
+     * class, as in Bonwick's magazine allocator.
+     */
+    private final class ThreadCache {
+
+        final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+        final Magazine[] loaded = new Magazine[classes];
+        final Magazine[] previous = new Magazine[classes];
+        // written by the owner only
+        volatile long hits, releases;
+
+        @SuppressWarnings("unchecked")
+        T pop(int sizeClass) {
+            Magazine m = loaded[sizeClass];
+            if (m == null || m.size == 0) {
+                Magazine p = previous[sizeClass];
+                if (p != null && p.size > 0) {
+                    previous[sizeClass] = m;
+                    loaded[sizeClass] = m = p;
+                } else {
+                    Magazine full = withdraw(sizeClass);
+                    if (full == null) {
+                        return null;
+                    }
+                    previous[sizeClass] = m;
+                    loaded[sizeClass] = m = full;
+                }
+            }
+            T item = (T) m.items[--m.size];
+            m.items[m.size] = null;
+            return item;
+        }
+
+        void push(int sizeClass, T item) {
+            Magazine m = loaded[sizeClass];
+            if (m == null) {
+                loaded[sizeClass] = m = new Magazine(magazineSize(sizeClass));
+            }
+            if (m.size == m.items.length) {
+                Magazine p = previous[sizeClass];
+                if (p != null && p.size < p.items.length) {
+                    previous[sizeClass] = m;
+                    loaded[sizeClass] = m = p;
+                } else {
+                    if (p != null) {
+                        deposit(sizeClass, p);
+                    }
+                    previous[sizeClass] = m;
+                    loaded[sizeClass] = m = new Magazine(m.items.length);
+                }
+            }
+            m.items[m.size++] = item;
+        }
+
+        /**
+         * Hand the magazines to the depot, when the thread is dead.
+         */
+        void flush() {
+            for (int i = 0; i < classes; i++) {
+                if (loaded[i] != null && loaded[i].size > 0) {
+                    deposit(i, loaded[i]);
+                }
+                if (previous[i] != null && previous[i].size > 0) {
+                    deposit(i, previous[i]);
+                }
+                loaded[i] = previous[i] = null;
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < classes; i++) {
+                if (loaded[i] != null) {
+                    drop(loaded[i]);
+                }
+                if (previous[i] != null) {
+                    drop(previous[i]);
+                }
+            }
+        }
+    }
+
+    /* Pools of the common types */
+    /**
+     * Pool of ByteBuffers, direct ones in native order. The buffers are
+     * cleared with their limit at the requested size.
+     */
+    public static SizeClassPool<ByteBuffer> byteBuffers(final boolean direct, long maxRetainedBytes) {
+        return new SizeClassPool<ByteBuffer>(1, DEFAULT_MAX_CLASS_SHIFT, maxRetainedBytes) {
+            @Override
+            protected ByteBuffer allocate(int capacity) {
+                return direct ? ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder())
+                        : ByteBuffer.allocate(capacity);
+            }
+
+            @Override
+            protected int capacityOf(ByteBuffer item) {
+                return item.capacity();
+            }
+
+            @Override
+            protected void reset(ByteBuffer item, int size) {
+                item.clear();
+                item.limit(size);
+            }
+
+            @Override
+            protected void destroy(ByteBuffer item) {
+                if (item.isDirect()) {
+                    BufferUtils.destroyDirectBuffer(item);
+                }
+            }
+        };
+    }
+
+    /**
+     * Pool of FloatBuffers, direct ones in native order. The buffers are
+     * cleared with their limit at the requested size.
+     */
+    public static SizeClassPool<FloatBuffer> floatBuffers(final boolean direct, long maxRetainedBytes) {
+        return new SizeClassPool<FloatBuffer>(4, DEFAULT_MAX_CLASS_SHIFT - 2, maxRetainedBytes) {
+            @Override
+            protected FloatBuffer allocate(int capacity) {
+                return direct ? ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asFloatBuffer()
+                        : FloatBuffer.allocate(capacity);
+            }
+
+            @Override
+            protected int capacityOf(FloatBuffer item) {
+                return item.capacity();
+            }
+
+            @Override
+            protected void reset(FloatBuffer item, int size) {
+                item.clear();
+                item.limit(size);
+            }
+
+            @Override
+            protected void destroy(FloatBuffer item) {
+                if (item.isDirect()) {
+                    BufferUtils.destroyDirectBuffer(item);
+                }
+            }
+        };
+    }
+
+    /**
+     * Pool of byte arrays. The arrays are not cleared.
+     */
+    public static SizeClassPool<byte[]> byteArrays(long maxRetainedBytes) {
+        return new SizeClassPool<byte[]>(1, DEFAULT_MAX_CLASS_SHIFT, maxRetainedBytes) {
+            @Override
+            protected byte[] allocate(int capacity) {
+                return new byte[capacity];
+            }
+
+            @Override
+            protected int capacityOf(byte[] item) {
+                return item.length;
+            }
+        };
+    }
+
+    /**
+     * Pool of int arrays. The arrays are not cleared.
+     */
+    public static SizeClassPool<int[]> intArrays(long maxRetainedBytes) {
+        return new SizeClassPool<int[]>(4, DEFAULT_MAX_CLASS_SHIFT - 2, maxRetainedBytes) {
+            @Override
+            protected int[] allocate(int capacity) {
+                return new int[capacity];
+            }
+
+            @Override
+            protected int capacityOf(int[] item) {
+                return item.length;
+            }
+        };
+    }
+
+    /**
+     * Pool of float arrays. The arrays are not cleared.
+     */
+    public static SizeClassPool<float[]> floatArrays(long maxRetainedBytes) {
+        return new SizeClassPool<float[]>(4, DEFAULT_MAX_CLASS_SHIFT - 2, maxRetainedBytes) {
+            @Override
+            protected float[] allocate(int capacity) {
+                return new float[capacity];
+            }
+
+            @Override
+            protected int capacityOf(float[] item) {
+                return item.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,499 @@
+package sg.atom.utils.repository.space.extensions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import sg.atom.utils.repository.space.Field;
+import sg.atom.utils.repository.space.Tuple;
+import sg.atom.utils.repository.space.interfaces.IField;
+import sg.atom.utils.repository.space.interfaces.ITuple;
+import sg.atom.utils.repository.space.interfaces.ITupleSpace;
+import sg.atom.utils.repository.space.interfaces.TupleSpaceError;
+import sg.atom.utils.repository.space.interfaces.TupleSpaceException;
+
+/**
+ * This tuplespace implementation hashes the tuples on their arity and on the
+ * type and value of their first N actual fields. Compare to
+ * {@link FastTupleSpace} which walk one list of all tuples for every
+ * operation:
+ *
+ * <ul>
+ *
+ * <li>A template made of plain {@link Tuple} and {@link Field} with its first N
+ * fields actual only look into one bucket (plus the overflow bucket of its
+ * arity, holding the tuples which can't be keyed).</li>
+ *
+ * <li>A plain {@link Tuple} template with formals in the key fields scan the
+ * buckets of its arity only. Any other template (custom tuple or field
+ * classes, which may change the matching rules) scan every bucket.</li>
+ *
+ * <li>Buckets are guarded by a fixed array of striped locks, so operations on
+ * different keys rarely contend.</li>
+ *
+ * <li>Blocking <code>in</code>/<code>rd</code> register a waiter indexed the
+ * same way. A write only wakes up the waiters whose template matches the new
+ * tuple, instead of a <code>notifyAll</code> on the whole space.</li>
+ *
+ * </ul>
+ *
+ * The tuple returned among multiple matches is not specified.
+ *
+ * @author alan
+ */
+public class IndexedTupleSpace implements ITupleSpace {
+
+    public static final int DEFAULT_INDEXED_FIELDS = 1;
+    public static final int DEFAULT_LOCK_STRIPES = 64;
+    private final String name;
+    private final int indexedFields;
+    private final ReentrantLock[] stripes;
+    // arity -> buckets of that arity
+    private final ConcurrentHashMap<Integer, ArityIndex> arities = new ConcurrentHashMap<Integer, ArityIndex>();
+    // waiters
+    private final ConcurrentHashMap<Key, ConcurrentLinkedQueue<Waiter>> keyedWaiters = new ConcurrentHashMap<Key, ConcurrentLinkedQueue<Waiter>>();
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Waiter>> arityWaiters = new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Waiter>>();
+    private final ConcurrentLinkedQueue<Waiter> anyWaiters = new ConcurrentLinkedQueue<Waiter>();
+
+    /**
+     * default constructor
+     *
+     */
+    public IndexedTupleSpace() {
+        this("AnonymousIndexedTupleSpace");
+    }
+
+    /**
+     * constructor with a name for the tuple space
+     *
+     * @param name
+     */
+    public IndexedTupleSpace(String name) {
+        this(name, DEFAULT_INDEXED_FIELDS, DEFAULT_LOCK_STRIPES);
+    }
+
+    /**
+     * @param name name of the tuple space
+     * @param indexedFields number of leading fields used in the hash key
+     * @param lockStripes number of locks shared by the buckets
+     */
+    public IndexedTupleSpace(String name, int indexedFields, int lockStripes) {
+        if (indexedFields < 0 || lockStripes <= 0) {
+            throw new IllegalArgumentException("Invalid index configuration " + indexedFields + "/" + lockStripes);
+        }
+        this.name = name;
+        this.indexedFields = indexedFields;
+        this.stripes = new ReentrantLock[lockStripes];
+        for (int i = 0; i < lockStripes; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    /////////////// Index //////////////////////////////////////////////////////
+    /**
+     * Hash key of a tuple or template: arity plus type and value of the
+     * leading fields.
+     */
+    private static final class Key {
+
+        final int arity;
+        final Object[] parts;
+        final int hash;
+
+        Key(int arity, Object[] parts) {
+            this.arity = arity;
+            this.parts = parts;
+            this.hash = 31 * arity + Arrays.hashCode(parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return arity == other.arity && hash == other.hash && Arrays.equals(parts, other.parts);
+        }
+    }
+
+    private final class Bucket {
+
+        final Key key;
+        final ReentrantLock lock;
+        final ArrayList<ITuple> tuples = new ArrayList<ITuple>(4);
+        // set under lock when the bucket is unlinked from its arity index
+        boolean dead;
+
+        Bucket(Key key) {
+            this.key = key;
+            this.lock = stripes[(key == null ? 0 : key.hash & 0x7FFFFFFF) % stripes.length];
+        }
+    }
+
+    private final class ArityIndex {
+
+        final int arity;
+        final ConcurrentHashMap<Key, Bucket> buckets = new ConcurrentHashMap<Key, Bucket>();
+        // tuples whose leading fields can't be hashed, never unlinked
+        final Bucket overflow;
+
+        ArityIndex(int arity) {
+            this.arity = arity;
+            this.overflow = new Bucket(null);
+        }
+    }
+
+    /**
+     * Compute the key of a tuple: null if one of the leading fields is not a
+     * plain actual Field.
+     */
+    private Key keyOf(ITuple tuple) {
+        int arity = tuple.length();
+        int depth = Math.min(indexedFields, arity);
+        Object[] parts = new Object[depth * 2];
+        for (int i = 0; i < depth; i++) {
+            IField field = tuple.get(i);
+            if (field.getClass() != Field.class || ((Field) field).isFormal()) {
+                return null;
+            }
+            parts[2 * i] = field.getType();
+            parts[2 * i + 1] = ((Field) field).getValue();
+        }
+        return new Key(arity, parts);
+    }
+
+    /**
+     * Only plain tuples keep the "same arity" rule of matching.
+     */
+    private static boolean isArityBound(ITuple template) {
+        return template.getClass() == Tuple.class && template.length() > 0;
+    }
+
+    private ArityIndex arityIndex(int arity, boolean create) {
+        Integer boxed = Integer.valueOf(arity);
+        ArityIndex index = arities.get(boxed);
+        if (index == null && create) {
+            ArityIndex created = new ArityIndex(arity);
+            index = arities.putIfAbsent(boxed, created);
+            if (index == null) {
+                index = created;
+            }
+        }
+        return index;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    /////////////// Storage ////////////////////////////////////////////////////
+    protected void insertTuple(ITuple tuple) {
+        if (tuple.length() == 0) {
+            throw new IllegalArgumentException(
+                    "Tuples with no fields can be used only as templates.");
+        }
+        ITuple clone = (ITuple) tuple.clone();
+        Key key = keyOf(clone);
+        ArityIndex index = arityIndex(clone.length(), true);
+        while (true) {
+            Bucket bucket;
+            if (key == null) {
+                bucket = index.overflow;
+            } else {
+                bucket = index.buckets.get(key);
+                if (bucket == null) {
+                    Bucket created = new Bucket(key);
+                    bucket = index.buckets.putIfAbsent(key, created);
+                    if (bucket == null) {
+                        bucket = created;
+                    }
+                }
+            }
+            bucket.lock.lock();
+            try {
+                if (bucket.dead) {
+                    continue;
+                }
+                bucket.tuples.add(clone);
+            } finally {
+                bucket.lock.unlock();
+            }
+            break;
+        }
+        wakeWaiters(clone, key);
+    }
+
+    /**
+     * Look in one bucket for a tuple matching the template.
+     *
+     * @param results when not null, collect all matches instead of the first
+     * @return the first match or null
+     */
+    private ITuple lookupBucket(Bucket bucket, ArityIndex index, ITuple template, boolean isRead, List<ITuple> results) {
+        ITuple found = null;
+        bucket.lock.lock();
+        try {
+            ArrayList<ITuple> tuples = bucket.tuples;
+            for (int i = 0; i < tuples.size(); i++) {
+                ITuple tuple = tuples.get(i);
+                if (!template.matches(tuple)) {
+                    continue;
+                }
+                if (isRead) {
+                    found = (ITuple) tuple.clone();
+                } else {
+                    found = tuple;
+                    // swap-remove
+                    int last = tuples.size() - 1;
+                    tuples.set(i, tuples.get(last));
+                    tuples.remove(last);
+                    i--;
+                }
+                if (results == null) {
+                    break;
+                }
+                results.add(found);
+            }
+            if (!isRead && bucket.key != null && tuples.isEmpty()) {
+                bucket.dead = true;
+                index.buckets.remove(bucket.key, bucket);
+            }
+        } finally {
+            bucket.lock.unlock();
+        }
+        return found;
+    }
+
+    private ITuple lookupArity(ArityIndex index, ITuple template, boolean isRead, List<ITuple> results) {
+        ITuple found = lookupBucket(index.overflow, index, template, isRead, results);
+        if (found != null && results == null) {
+            return found;
+        }
+        for (Bucket bucket : index.buckets.values()) {
+            found = lookupBucket(bucket, index, template, isRead, results);
+            if (found != null && results == null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param results when not null, collect all matches
+     * @return the first match, or null
+     */
+    protected ITuple lookup(ITuple template, boolean isRead, List<ITuple> results) {
+        if (isArityBound(template)) {
+            ArityIndex index = arityIndex(template.length(), false);
+            if (index == null) {
+                return null;
+            }
+            Key key = keyOf(template);
+            if (key == null) {
+                return lookupArity(index, template, isRead, results);
+            }
+            ITuple found = null;
+            Bucket bucket = index.buckets.get(key);
+            if (bucket != null) {
+                found = lookupBucket(bucket, index, template, isRead, results);
+            }
+            if (found == null || results != null) {
+                ITuple overflow = lookupBucket(index.overflow, index, template, isRead, results);
+                if (found == null) {
+                    found = overflow;
+                }
+            }
+            return found;
+        }
+        ITuple found = null;
+        for (ArityIndex index : arities.values()) {
+            ITuple match = lookupArity(index, template, isRead, results);
+            if (match != null) {
+                found = match;
+                if (results == null) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    /////////////// Waiters ////////////////////////////////////////////////////
+    private static final class Waiter {
+
+        final ITuple template;
+        final Thread thread;
+        volatile boolean signalled;
+
+        Waiter(ITuple template) {
+            this.template = template;
+            this.thread = Thread.currentThread();
+        }
+    }
+
+    private ConcurrentLinkedQueue<Waiter> waitersFor(ITuple template, boolean create) {
+        if (!isArityBound(template)) {
+            return anyWaiters;
+        }
+        Key key = keyOf(template);
+        if (key == null) {
+            Integer arity = Integer.valueOf(template.length());
+            ConcurrentLinkedQueue<Waiter> queue = arityWaiters.get(arity);
+            if (queue == null && create) {
+                ConcurrentLinkedQueue<Waiter> created = new ConcurrentLinkedQueue<Waiter>();
+                queue = arityWaiters.putIfAbsent(arity, created);
+                if (queue == null) {
+                    queue = created;
+                }
+            }
+            return queue;
+        }
+        ConcurrentLinkedQueue<Waiter> queue = keyedWaiters.get(key);
+        if (queue == null && create) {
+            ConcurrentLinkedQueue<Waiter> created = new ConcurrentLinkedQueue<Waiter>();
+            queue = keyedWaiters.putIfAbsent(key, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return queue;
+    }
+
+    private void wakeWaiters(ITuple tuple, Key key) {
+        if (key != null) {
+            wakeMatching(keyedWaiters.get(key), tuple);
+        } else {
+            // an unkeyed tuple may match any keyed template of its arity
+            for (ConcurrentLinkedQueue<Waiter> queue : keyedWaiters.values()) {
+                wakeMatching(queue, tuple);
+            }
+        }
+        wakeMatching(arityWaiters.get(Integer.valueOf(tuple.length())), tuple);
+        wakeMatching(anyWaiters, tuple);
+    }
+
+    private static void wakeMatching(ConcurrentLinkedQueue<Waiter> queue, ITuple tuple) {
+        if (queue == null) {
+            return;
+        }
+        for (Iterator<Waiter> it = queue.iterator(); it.hasNext();) {
+            Waiter waiter = it.next();
+            if (!waiter.signalled && waiter.template.matches(tuple)) {
+                waiter.signalled = true;
+                LockSupport.unpark(waiter.thread);
+            }
+        }
+    }
+
+    protected ITuple blockingInput(ITuple template, boolean isRead) {
+        ITuple result = lookup(template, isRead, null);
+        if (result != null) {
+            return result;
+        }
+        ConcurrentLinkedQueue<Waiter> queue = waitersFor(template, true);
+        Waiter waiter = new Waiter(template);
+        queue.add(waiter);
+        try {
+            while (true) {
+                // registered before looking up: a concurrent write either is
+                // found here or signal the waiter
+                waiter.signalled = false;
+                result = lookup(template, isRead, null);
+                if (result != null) {
+                    return result;
+                }
+                while (!waiter.signalled) {
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        throw new TupleSpaceError("Internal Error. Halting...");
+                    }
+                }
+            }
+        } finally {
+            queue.remove(waiter);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    ///////////// high level methods ///////////////////////////////////////////
+    public String getName() {
+        return name;
+    }
+
+    public void out(ITuple tuple) throws TupleSpaceException {
+        insertTuple(tuple);
+    }
+
+    public void outg(ITuple[] tuples) throws TupleSpaceException {
+        for (ITuple tuple : tuples) {
+            insertTuple(tuple);
+        }
+    }
+
+    public ITuple in(ITuple template) throws TupleSpaceException {
+        return blockingInput(template, false);
+    }
+
+    public ITuple inp(ITuple template) throws TupleSpaceException {
+        return lookup(template, false, null);
+    }
+
+    public ITuple[] ing(ITuple template) throws TupleSpaceException {
+        return toArray(template, false);
+    }
+
+    public ITuple rd(ITuple template) throws TupleSpaceException {
+        return blockingInput(template, true);
+    }
+
+    public ITuple rdp(ITuple template) throws TupleSpaceException {
+        return lookup(template, true, null);
+    }
+
+    public ITuple[] rdg(ITuple template) throws TupleSpaceException {
+        return toArray(template, true);
+    }
+
+    public int count(ITuple template) throws TupleSpaceException {
+        List<ITuple> results = new ArrayList<ITuple>();
+        lookup(template, true, results);
+        return results.size();
+    }
+
+    private ITuple[] toArray(ITuple template, boolean isRead) {
+        List<ITuple> results = new ArrayList<ITuple>();
+        lookup(template, isRead, results);
+        if (results.isEmpty()) {
+            return null;
+        }
+        return results.toArray(new ITuple[results.size()]);
+    }
+
+    /**
+     * warning: not thread safe! only present for test purposes
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (ArityIndex index : arities.values()) {
+            for (ITuple tuple : index.overflow.tuples) {
+                result.append(tuple).append('\n');
+            }
+            for (Bucket bucket : index.buckets.values()) {
+                for (ITuple tuple : bucket.tuples) {
+                    result.append(tuple).append('\n');
+                }
+            }
+        }
+        return result.toString();
+    }
+}
@@ -7,12 +7,22 @@ package sg.atom.world.lod;
 import com.google.common.base.Converter;
 import com.google.common.collect.BiMap;
 import com.google.common.reflect.TypeToken;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
 import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
+import com.jme3.scene.SceneGraphVisitorAdapter;
 import com.jme3.scene.Spatial;
 import com.jme3.scene.control.LodControl;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 import sg.atom.core.AbstractManager;
 import sg.atom.stage.StageManager;
 import sg.atom.utils.proxy.IPresenter;
@@ -48,7 +58,13 @@ import sg.atom.world.WorldManager;
  *
  * <p>Common tweaker: hierachical and probability are support
  *
- * <p>Error metrics:
+ * <p>Error metrics: each frame, {@link #update(float)} run a
+ * {@link LODSelector} over the registered spatials: projected screen-space
+ * error with hysteresis, recomputed only for the spatials whose distance
+ * bucket changed, then a total triangle budget. The distance phase run in
+ * parallel on the executor, if one is set. The new levels are applied with
+ * {@link #tweakLOD(Spatial, int)}, and the figures of the frame are in
+ * {@link #getFrameStats()}.
  *
  * <p>Detail metrics:
  *
@@ -70,6 +86,14 @@ public class DefaultLODManager extends AbstractManager<Spatial> implements World
     protected BiMap<Converter, IPresenter> converters;
     protected BiMap<DetailTweaker, IPresenter> tweakers;
     protected BiMap<IProjection, TypeToken> projections;
+    // Selection
+    protected Camera camera;
+    protected LODSelector selector = new LODSelector();
+    protected ArrayList<Spatial> lodSpatials = new ArrayList<Spatial>();
+    protected IdentityHashMap<Spatial, Integer> lodIndices = new IdentityHashMap<Spatial, Integer>();
+    protected ExecutorService executor;
+    protected int parallelRangeSize = 512;
+    protected LifeCyclePhase currentPhase = LifeCyclePhase.PhaseNull;
 
     public DefaultLODManager(StageManager stageManager, WorldManager worldManager) {
         this.stageManager = stageManager;
@@ -93,15 +117,94 @@ public class DefaultLODManager extends AbstractManager<Spatial> implements World
         spatial.setUserData(LODEntropy.keyword, DetailMetrics.measure(spatial));
         LodControl lodControl = spatial.getControl(LodControl.class);
         //lodControl.
+        if (lodControl == null) {
+            register(spatial, null);
+        }
     }
+
+    /**
+     * Let the manager select the LOD of the spatial, from the LOD levels of
+     * its meshes. The spatial should not have a LodControl.
+     *
+     * @param geometricErrors error of each level in world units, or null to
+     * estimate them from the triangle counts and the bounding radius
+     */
+    public void register(Spatial spatial, float[] geometricErrors) {
+        if (lodIndices.containsKey(spatial)) {
+            return;
+        }
+        final int[] counts = new int[LODSelector.DEFAULT_MAX_LEVELS];
+        final int[] levels = {1};
+        spatial.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geom) {
+                Mesh mesh = geom.getMesh();
+                int n = Math.min(Math.max(mesh.getNumLodLevels(), 1), counts.length);
+                levels[0] = Math.max(levels[0], n);
+                for (int l = 0; l < counts.length; l++) {
+                    // geometries with less levels stay at their coarsest one
+                    int ml = Math.min(l, n - 1);
+                    counts[l] += mesh.getNumLodLevels() > 0
+                            ? mesh.getLodLevel(ml).getNumElements() : mesh.getTriangleCount();
+                }
+            }
+        });
+        int n = levels[0];
+        int[] triangles = new int[n];
+        System.arraycopy(counts, 0, triangles, 0, n);
+        float radius = boundRadius(spatial.getWorldBound());
+        float[] errors = new float[n];
+        for (int l = 0; l < n; l++) {
+            errors[l] = geometricErrors != null && l < geometricErrors.length
+                    ? geometricErrors[l] : ErrorMetrics.estimateGeometricError(radius, triangles[0], triangles[l]);
+        }
+        Vector3f pos = spatial.getWorldTranslation();
+        int index = selector.add(pos.x, pos.y, pos.z, errors, triangles);
+        lodSpatials.add(spatial);
+        lodIndices.put(spatial, index);
+    }
+
+    public void unregister(Spatial spatial) {
+        Integer index = lodIndices.remove(spatial);
+        if (index == null) {
+            return;
+        }
+        int moved = selector.remove(index);
+        Spatial last = lodSpatials.remove(lodSpatials.size() - 1);
+        if (moved >= 0) {
+            lodSpatials.set(index, last);
+            lodIndices.put(last, index);
+        }
+    }
+
+    private static float boundRadius(BoundingVolume bound) {
+        if (bound instanceof BoundingSphere) {
+            return ((BoundingSphere) bound).getRadius();
+        } else if (bound instanceof BoundingBox) {
+            BoundingBox box = (BoundingBox) bound;
+            return new Vector3f(box.getXExtent(), box.getYExtent(), box.getZExtent()).length();
+        }
+        return 1;
+    }
+
     @Override
     public void tweakLOD(Object lodObject, int level) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        if (lodObject instanceof Spatial) {
+            tweakLOD((Spatial) lodObject, level);
+        }
     }
-    
+
     @Override
-    public void tweakLOD(Spatial spatial, int level) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    public void tweakLOD(Spatial spatial, final int level) {
+        spatial.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geom) {
+                int levels = geom.getMesh().getNumLodLevels();
+                if (levels > 0) {
+                    geom.setLodLevel(Math.min(level, levels - 1));
+                }
+            }
+        });
     }
 
     @Override
@@ -111,6 +214,30 @@ public class DefaultLODManager extends AbstractManager<Spatial> implements World
         //
     }
 
+    public LODSelector getSelector() {
+        return selector;
+    }
+
+    public LODSelector.FrameStats getFrameStats() {
+        return selector.getStats();
+    }
+
+    public void setCamera(Camera camera) {
+        this.camera = camera;
+    }
+
+    /**
+     * Executor of the parallel distance phase, null to select on the update
+     * thread.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void setParallelRangeSize(int parallelRangeSize) {
+        this.parallelRangeSize = parallelRangeSize;
+    }
+
     @Override
     public Transform getCursor() {
         throw new UnsupportedOperationException("Not supported yet.");
@@ -118,7 +245,7 @@ public class DefaultLODManager extends AbstractManager<Spatial> implements World
 
     @Override
     public Camera getCamera() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return camera;
     }
 //Cycle-------------------------------------------------------------------------
 
@@ -139,7 +266,27 @@ public class DefaultLODManager extends AbstractManager<Spatial> implements World
 
     @Override
     public void update(float tpf) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        if (camera == null || lodSpatials.isEmpty()) {
+            return;
+        }
+        currentPhase = LifeCyclePhase.PhaseUpdate;
+        for (int i = 0, n = lodSpatials.size(); i < n; i++) {
+            Vector3f pos = lodSpatials.get(i).getWorldTranslation();
+            selector.setPosition(i, pos.x, pos.y, pos.z);
+        }
+        Vector3f loc = camera.getLocation();
+        selector.setCamera(loc.x, loc.y, loc.z, ErrorMetrics.projectionFactor(camera));
+        try {
+            selector.select(executor, parallelRangeSize);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        int[] changed = selector.getChanged();
+        for (int k = 0, n = selector.getChangedCount(); k < n; k++) {
+            int i = changed[k];
+            tweakLOD(lodSpatials.get(i), selector.getLevel(i));
+        }
     }
 
     @Override
@@ -149,7 +296,7 @@ public class DefaultLODManager extends AbstractManager<Spatial> implements World
 
     @Override
     public LifeCyclePhase getCurrentPhase() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return currentPhase;
     }
 
     @Override
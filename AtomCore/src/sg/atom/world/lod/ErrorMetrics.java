@@ -4,10 +4,46 @@
  */
 package sg.atom.world.lod;
 
+import com.jme3.renderer.Camera;
+
 /**
+ * Screen-space error metrics: the size in pixels of a geometric error (world
+ * units) seen from a perspective camera.
  *
  * @author cuong.nguyenmanh2
  */
 public class ErrorMetrics {
-    
+
+    /**
+     * Pixels per world unit at distance 1, for a perspective camera:
+     * viewportHeight / (2 * tan(fovY / 2)).
+     */
+    public static float projectionFactor(Camera cam) {
+        return projectionFactor(cam.getHeight(), cam.getFrustumNear(), cam.getFrustumTop());
+    }
+
+    public static float projectionFactor(int viewportHeight, float frustumNear, float frustumTop) {
+        return viewportHeight * frustumNear / (2f * frustumTop);
+    }
+
+    /**
+     * Projected size in pixels of a geometric error at a distance.
+     */
+    public static float screenSpaceError(float geometricError, float distance, float projectionFactor) {
+        if (distance <= 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return geometricError * projectionFactor / distance;
+    }
+
+    /**
+     * Rough geometric error of a simplified level, when the modeler did not
+     * give one: the fraction of removed triangles times the bounding radius.
+     */
+    public static float estimateGeometricError(float boundRadius, int fullTriangles, int levelTriangles) {
+        if (fullTriangles <= 0 || levelTriangles >= fullTriangles) {
+            return 0;
+        }
+        return boundRadius * (1f - (float) levelTriangles / fullTriangles);
+    }
 }
@@ -0,0 +1,442 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.world.lod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Screen-space error LOD selection over flat arrays of objects.
+ *
+ * <p>Each object has a position, and per level (0 is the finest) a
+ * geometric error and a triangle count. A frame of {@link #select} do:</p>
+ *
+ * <ol>
+ *
+ * <li>For every object, the camera distance and its bucket (a fraction of
+ * octave of the distance). Only the objects whose bucket changed, or which are
+ * dirty, get their level recomputed: the coarsest level whose projected error
+ * at the bucket distance is under the maximum error. Switching level need to
+ * pass the threshold by the hysteresis ratio, so objects don't pop at the
+ * boundary. This phase is split into ranges and run on the executor, if any.
+ * </li>
+ *
+ * <li>If the selected levels exceed the triangle budget, objects are coarsened
+ * one level at a time in order of smallest projected error, until the budget
+ * is met or nothing can be coarsened.</li>
+ *
+ * <li>The objects whose final level changed are listed in
+ * {@link #getChanged()}.</li>
+ *
+ * </ol>
+ *
+ * <p>Not thread safe, the executor is only used inside select.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public class LODSelector {
+
+    /**
+     * Figures of the last frame.
+     */
+    public static class FrameStats {
+
+        public int objects;
+        public int recomputed;
+        public int changed;
+        public int budgetCoarsened;
+        public long fullTriangles;
+        public long selectedTriangles;
+        public long selectionNanos;
+
+        public long getTrianglesSaved() {
+            return fullTriangles - selectedTriangles;
+        }
+
+        @Override
+        public String toString() {
+            return "objects=" + objects + " recomputed=" + recomputed + " changed=" + changed
+                    + " budgetCoarsened=" + budgetCoarsened + " triangles=" + selectedTriangles
+                    + "/" + fullTriangles + " saved=" + getTrianglesSaved()
+                    + " time=" + selectionNanos / 1000 + "us";
+        }
+    }
+    public static final int DEFAULT_MAX_LEVELS = 8;
+    private static final int NO_BUCKET = Integer.MIN_VALUE;
+    private final int maxLevels;
+    private int size;
+    // per object
+    private float[] x, y, z;
+    private int[] levelCount;
+    private int[] bucket;
+    private float[] distance;
+    private int[] desired;
+    private int[] level;
+    private boolean[] dirty;
+    // per object and level, stride maxLevels
+    private float[] errors;
+    private int[] triangles;
+    // camera and settings
+    private float camX, camY, camZ;
+    private float projectionFactor = 1;
+    private float maxError = 2;
+    private float hysteresis = 0.1f;
+    private int bucketsPerOctave = 4;
+    private long triangleBudget = Long.MAX_VALUE;
+    // results
+    private int[] changed = new int[64];
+    private int changedCount;
+    private long[] sortKeys = new long[64];
+    private final FrameStats stats = new FrameStats();
+
+    public LODSelector() {
+        this(DEFAULT_MAX_LEVELS, 64);
+    }
+
+    public LODSelector(int maxLevels, int initialCapacity) {
+        this.maxLevels = maxLevels;
+        allocate(Math.max(initialCapacity, 16));
+    }
+
+    private void allocate(int capacity) {
+        x = grow(x, capacity);
+        y = grow(y, capacity);
+        z = grow(z, capacity);
+        distance = grow(distance, capacity);
+        levelCount = grow(levelCount, capacity);
+        bucket = grow(bucket, capacity);
+        desired = grow(desired, capacity);
+        level = grow(level, capacity);
+        dirty = dirty == null ? new boolean[capacity] : Arrays.copyOf(dirty, capacity);
+        errors = grow(errors, capacity * maxLevels);
+        triangles = grow(triangles, capacity * maxLevels);
+    }
+
+    private static float[] grow(float[] a, int capacity) {
+        return a == null ? new float[capacity] : Arrays.copyOf(a, capacity);
+    }
+
+    private static int[] grow(int[] a, int capacity) {
+        return a == null ? new int[capacity] : Arrays.copyOf(a, capacity);
+    }
+
+    /* Objects */
+    /**
+     * Add an object, at its finest level.
+     *
+     * @param geometricErrors error of each level in world units, non
+     * decreasing
+     * @param levelTriangles triangle count of each level
+     * @return index of the object
+     */
+    public int add(float px, float py, float pz, float[] geometricErrors, int[] levelTriangles) {
+        int levels = Math.min(Math.min(geometricErrors.length, levelTriangles.length), maxLevels);
+        if (levels == 0) {
+            throw new IllegalArgumentException("No level");
+        }
+        if (size == x.length) {
+            allocate(size << 1);
+        }
+        int i = size++;
+        x[i] = px;
+        y[i] = py;
+        z[i] = pz;
+        levelCount[i] = levels;
+        System.arraycopy(geometricErrors, 0, errors, i * maxLevels, levels);
+        System.arraycopy(levelTriangles, 0, triangles, i * maxLevels, levels);
+        bucket[i] = NO_BUCKET;
+        desired[i] = 0;
+        level[i] = 0;
+        dirty[i] = true;
+        return i;
+    }
+
+    /**
+     * Remove an object by moving the last one in its place.
+     *
+     * @return the former index of the moved object, or -1 if none moved
+     */
+    public int remove(int i) {
+        int last = --size;
+        if (i == last) {
+            return -1;
+        }
+        x[i] = x[last];
+        y[i] = y[last];
+        z[i] = z[last];
+        distance[i] = distance[last];
+        levelCount[i] = levelCount[last];
+        bucket[i] = bucket[last];
+        desired[i] = desired[last];
+        level[i] = level[last];
+        dirty[i] = dirty[last];
+        System.arraycopy(errors, last * maxLevels, errors, i * maxLevels, maxLevels);
+        System.arraycopy(triangles, last * maxLevels, triangles, i * maxLevels, maxLevels);
+        return last;
+    }
+
+    public void setPosition(int i, float px, float py, float pz) {
+        x[i] = px;
+        y[i] = py;
+        z[i] = pz;
+    }
+
+    public void markDirty(int i) {
+        dirty[i] = true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getLevel(int i) {
+        return level[i];
+    }
+
+    public int getLevelCount(int i) {
+        return levelCount[i];
+    }
+
+    /* Settings */
+    /**
+     * @param projectionFactor see {@link ErrorMetrics#projectionFactor}
+     */
+    public void setCamera(float cx, float cy, float cz, float projectionFactor) {
+        camX = cx;
+        camY = cy;
+        camZ = cz;
+        if (projectionFactor != this.projectionFactor) {
+            this.projectionFactor = projectionFactor;
+            markAllDirty();
+        }
+    }
+
+    /**
+     * Maximum projected error in pixels.
+     */
+    public void setMaxError(float maxError) {
+        this.maxError = maxError;
+        markAllDirty();
+    }
+
+    public float getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * Ratio by which the error must pass the threshold to switch level.
+     */
+    public void setHysteresis(float hysteresis) {
+        this.hysteresis = hysteresis;
+        markAllDirty();
+    }
+
+    /**
+     * Number of distance buckets per doubling of the distance.
+     */
+    public void setBucketsPerOctave(int bucketsPerOctave) {
+        this.bucketsPerOctave = bucketsPerOctave;
+        markAllDirty();
+    }
+
+    /**
+     * Maximum total triangles of the selected levels, or Long.MAX_VALUE.
+     */
+    public void setTriangleBudget(long triangleBudget) {
+        this.triangleBudget = triangleBudget;
+    }
+
+    public long getTriangleBudget() {
+        return triangleBudget;
+    }
+
+    private void markAllDirty() {
+        Arrays.fill(dirty, 0, size, true);
+    }
+
+    /* Selection */
+    /**
+     * Select the levels of the frame.
+     *
+     * @param executor run the distance phase in parallel, may be null
+     * @param rangeSize objects per parallel task
+     * @return the number of objects whose level changed
+     */
+    public int select(ExecutorService executor, int rangeSize) throws InterruptedException {
+        long start = System.nanoTime();
+        int recomputed;
+        if (executor == null || size <= rangeSize) {
+            recomputed = selectDesired(0, size);
+        } else {
+            recomputed = selectDesiredParallel(executor, rangeSize);
+        }
+        stats.objects = size;
+        stats.recomputed = recomputed;
+        stats.budgetCoarsened = applyBudget();
+        collectChanged();
+        stats.changed = changedCount;
+        stats.selectionNanos = System.nanoTime() - start;
+        return changedCount;
+    }
+
+    /**
+     * Indices of the objects whose level changed in the last select, valid up
+     * to {@link #getChangedCount()}.
+     */
+    public int[] getChanged() {
+        return changed;
+    }
+
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    public FrameStats getStats() {
+        return stats;
+    }
+
+    private int selectDesired(int from, int to) {
+        int recomputed = 0;
+        float log2 = (float) Math.log(2);
+        for (int i = from; i < to; i++) {
+            float dx = x[i] - camX;
+            float dy = y[i] - camY;
+            float dz = z[i] - camZ;
+            float d = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            distance[i] = d;
+            int b = (int) Math.floor(Math.log(Math.max(d, 1e-3f)) / log2 * bucketsPerOctave);
+            if (b == bucket[i] && !dirty[i]) {
+                continue;
+            }
+            bucket[i] = b;
+            dirty[i] = false;
+            // the level only depends on the bucket, use its near bound
+            float bucketDistance = (float) Math.pow(2, (double) b / bucketsPerOctave);
+            desired[i] = desiredLevel(i, bucketDistance);
+            recomputed++;
+        }
+        return recomputed;
+    }
+
+    private int desiredLevel(int i, float d) {
+        int base = i * maxLevels;
+        int n = levelCount[i];
+        int current = desired[i];
+        int candidate = 0;
+        while (candidate + 1 < n && ErrorMetrics.screenSpaceError(errors[base + candidate + 1], d, projectionFactor) <= maxError) {
+            candidate++;
+        }
+        if (candidate > current) {
+            // coarsen only when clearly under the threshold
+            float limit = maxError * (1 - hysteresis);
+            while (candidate > current && ErrorMetrics.screenSpaceError(errors[base + candidate], d, projectionFactor) > limit) {
+                candidate--;
+            }
+        } else if (candidate < current) {
+            // refine only when clearly over the threshold
+            if (ErrorMetrics.screenSpaceError(errors[base + current], d, projectionFactor) <= maxError * (1 + hysteresis)) {
+                candidate = current;
+            }
+        }
+        return candidate;
+    }
+
+    private int selectDesiredParallel(ExecutorService executor, int rangeSize) throws InterruptedException {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int start = 0; start < size; start += rangeSize) {
+            final int from = start;
+            final int to = Math.min(start + rangeSize, size);
+            tasks.add(new Callable<Integer>() {
+                public Integer call() {
+                    return selectDesired(from, to);
+                }
+            });
+        }
+        int recomputed = 0;
+        for (Future<Integer> future : executor.invokeAll(tasks)) {
+            try {
+                recomputed += future.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return recomputed;
+    }
+
+    /**
+     * Start from the desired levels in the changed scratch array, and coarsen
+     * the objects of smallest error until the triangle budget is met.
+     *
+     * @return the number of single level coarsening done
+     */
+    private int applyBudget() {
+        if (changed.length < size) {
+            changed = new int[x.length];
+        }
+        int[] finalLevel = changed;
+        long full = 0;
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            finalLevel[i] = desired[i];
+            full += triangles[i * maxLevels];
+            total += triangles[i * maxLevels + desired[i]];
+        }
+        stats.fullTriangles = full;
+        int coarsened = 0;
+        for (int pass = 0; pass < maxLevels && total > triangleBudget; pass++) {
+            if (sortKeys.length < size) {
+                sortKeys = new long[x.length];
+            }
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int next = finalLevel[i] + 1;
+                if (next < levelCount[i]) {
+                    float e = ErrorMetrics.screenSpaceError(errors[i * maxLevels + next], distance[i], projectionFactor);
+                    // positive floats sort as their bits
+                    sortKeys[count++] = ((long) Float.floatToIntBits(Math.max(e, 0f)) << 32) | i;
+                }
+            }
+            if (count == 0) {
+                break;
+            }
+            Arrays.sort(sortKeys, 0, count);
+            for (int k = 0; k < count && total > triangleBudget; k++) {
+                int i = (int) sortKeys[k];
+                int base = i * maxLevels;
+                total -= triangles[base + finalLevel[i]] - triangles[base + finalLevel[i] + 1];
+                finalLevel[i]++;
+                coarsened++;
+            }
+        }
+        stats.selectedTriangles = total;
+        return coarsened;
+    }
+
+    /**
+     * Move the final levels in place and list the changed objects.
+     */
+    private void collectChanged() {
+        int[] finalLevel = changed;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int l = finalLevel[i];
+            if (l != level[i]) {
+                level[i] = l;
+                // the list is written behind the reading position
+                finalLevel[count++] = i;
+            }
+        }
+        changedCount = count;
+    }
+}
@@ -5,8 +5,10 @@
 package sg.atom.world.spatial;
 
 import com.jme3.scene.Spatial;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import sg.atom.core.timing.TimeProvider;
+import sg.atom.core.timing.TimingWheel;
 
 /**
  * A simple but useful delayed attach/ detachment system. That's it, it's not a
@@ -17,9 +19,20 @@ import sg.atom.core.timing.TimeProvider;
  * <p>Work together with StageManager to make character and actor, entities
  * work.</p>
  *
- * <p>FIXME: Use guava Cache instead of HashMap. Use forwardingCache to search
- * in SceneGraphUtils mainCache. So if the Spatial relation already changed in
- * another thread, it will not cause any exception.
+ * <p>Spawns and expires are kept in two {@link TimingWheel}s, so scheduling
+ * and cancelling are O(1) and a frame only touch the due entries. Time is
+ * either given as tpf to {@link #checkSpawns(float)} and
+ * {@link #checkExpires(float)}, or read from the {@link TimeProvider} by
+ * {@link #update()}.</p>
+ *
+ * <p>The due attach and detach of a frame are collected in one batch. If a
+ * render executor is set (for example a wrapper of Application.enqueue), the
+ * batch is handed to it as a single task, otherwise it is applied
+ * immediately. Batches are recycled.</p>
+ *
+ * <p>FIXME: Use forwardingCache to search in SceneGraphUtils mainCache. So if
+ * the Spatial relation already changed in another thread, it will not cause
+ * any exception.
  *
  * <p>FIXME: Going to extends AlignedScheduler for better alignment and
  * coordnation with other scheduler and concurrent controls.
@@ -28,56 +41,233 @@ import sg.atom.core.timing.TimeProvider;
  */
 public class SpatialScheduler {
 
-    protected HashMap<SpatialInfo, Float> spawns = new HashMap<SpatialInfo, Float>();
-    protected HashMap<Spatial, Float> expires = new HashMap<Spatial, Float>();
+    public static final float DEFAULT_TICK = 0.01f;
+    protected final float tickDuration;
+    protected TimeProvider timeProvider;
+    protected Executor renderExecutor;
+    protected TimingWheel<SpatialInfo> spawns;
+    protected TimingWheel<Spatial> expires;
+    // own clocks when driven by tpf, in seconds
+    protected double spawnTime;
+    protected double expireTime;
+    protected Batch currentBatch;
+    protected final ConcurrentLinkedQueue<Batch> freeBatches = new ConcurrentLinkedQueue<Batch>();
+    private final TimingWheel.ExpiryHandler<SpatialInfo> spawnHandler = new TimingWheel.ExpiryHandler<SpatialInfo>() {
+        public void expired(SpatialInfo info, long handle) {
+            batch().add(info, null);
+        }
+    };
+    private final TimingWheel.ExpiryHandler<Spatial> expireHandler = new TimingWheel.ExpiryHandler<Spatial>() {
+        public void expired(Spatial sp, long handle) {
+            batch().add(null, sp);
+        }
+    };
 
     public SpatialScheduler() {
+        this(null, DEFAULT_TICK);
     }
 
     public SpatialScheduler(TimeProvider timeProvider) {
+        this(timeProvider, DEFAULT_TICK);
     }
 
-    public void checkSpawns(float tpf) {
-        // Update particle expires
-        for (SpatialInfo sp : spawns.keySet()) {
-            float floatValue = spawns.get(sp).floatValue();
-            if (floatValue > 0) {
-                floatValue -= tpf;
-                spawns.put(sp, new Float(floatValue));
-            } else {
-                //sp.addToParent();
-                //System.out.println("Detach particle");
-            }
+    /**
+     *
+     * @param timeProvider time source of {@link #update()}, may be null
+     * @param tickDuration resolution of the schedule, in seconds
+     */
+    public SpatialScheduler(TimeProvider timeProvider, float tickDuration) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be positive " + tickDuration);
         }
+        this.timeProvider = timeProvider;
+        this.tickDuration = tickDuration;
+        double now = timeProvider != null ? timeProvider.getTimeInSeconds() : 0;
+        spawnTime = now;
+        expireTime = now;
+        spawns = new TimingWheel<SpatialInfo>(256, toTick(now));
+        expires = new TimingWheel<Spatial>(256, toTick(now));
+    }
+
+    /**
+     * Advance both schedules to the time of the TimeProvider and hand the due
+     * operations over.
+     */
+    public void update() {
+        if (timeProvider == null) {
+            throw new IllegalStateException("No TimeProvider");
+        }
+        double now = timeProvider.getTimeInSeconds();
+        spawnTime = now;
+        expireTime = now;
+        spawns.advance(toTick(now), spawnHandler);
+        expires.advance(toTick(now), expireHandler);
+        flush();
+    }
+
+    public void checkSpawns(float tpf) {
+        spawnTime += tpf;
+        spawns.advance(toTick(spawnTime), spawnHandler);
+        flush();
     }
 
-    public void setSpawns(Spatial sp, float lifeTime) {
-        spawns.put(createDummySpatialInfo(sp), new Float(lifeTime));
+    /**
+     * Attach the spatial after lifeTime seconds to the parent it has now, so it
+     * can be detached until then. A detached spatial has no parent to attach
+     * to: use {@link #setSpawns(SpatialInfo, float)} with the parent instead.
+     *
+     * @return handle to cancel the spawn
+     * @throws IllegalArgumentException if the spatial has no parent
+     */
+    public long setSpawns(Spatial sp, float lifeTime) {
+        return setSpawns(createDummySpatialInfo(sp), lifeTime);
     }
 
-    public void setSpawns(SpatialInfo sp, float lifeTime) {
-        spawns.put(sp, new Float(lifeTime));
+    /**
+     * Attach the spatial of the info to the parent of the info after lifeTime
+     * seconds.
+     *
+     * @return handle to cancel the spawn
+     */
+    public long setSpawns(SpatialInfo sp, float lifeTime) {
+        return spawns.schedule(sp, toTick(spawnTime + lifeTime));
+    }
+
+    public boolean cancelSpawn(long handle) {
+        return spawns.cancel(handle);
     }
 
     private SpatialInfo createDummySpatialInfo(Spatial sp) {
-        return new SpatialInfo();
+        if (sp.getParent() == null) {
+            throw new IllegalArgumentException("Spatial " + sp + " has no parent to be attached to");
+        }
+        SpatialInfo info = new SpatialInfo();
+        info.setSpatial(sp);
+        info.setParent(sp.getParent());
+        return info;
     }
 
     public void checkExpires(float tpf) {
-        // Update particle expires
-        for (Spatial sp : expires.keySet()) {
-            float floatValue = expires.get(sp).floatValue();
-            if (floatValue > 0) {
-                floatValue -= tpf;
-                expires.put(sp, new Float(floatValue));
-            } else {
-                sp.removeFromParent();
-                //System.out.println("Detach particle");
+        expireTime += tpf;
+        expires.advance(toTick(expireTime), expireHandler);
+        flush();
+    }
+
+    /**
+     * Detach the spatial from its parent after lifeTime seconds.
+     *
+     * @return handle to cancel the expire
+     */
+    public long setExpire(Spatial sp, float lifeTime) {
+        return expires.schedule(sp, toTick(expireTime + lifeTime));
+    }
+
+    public boolean cancelExpire(long handle) {
+        return expires.cancel(handle);
+    }
+
+    public int getPendingSpawns() {
+        return spawns.size();
+    }
+
+    public int getPendingExpires() {
+        return expires.size();
+    }
+
+    public void setTimeProvider(TimeProvider timeProvider) {
+        this.timeProvider = timeProvider;
+    }
+
+    public TimeProvider getTimeProvider() {
+        return timeProvider;
+    }
+
+    /**
+     * Set the executor running the batches of attach and detach, usually on
+     * the render thread. With null, batches are applied on the calling thread.
+     */
+    public void setRenderExecutor(Executor renderExecutor) {
+        this.renderExecutor = renderExecutor;
+    }
+
+    public Executor getRenderExecutor() {
+        return renderExecutor;
+    }
+
+    protected long toTick(double seconds) {
+        return (long) Math.floor(seconds / tickDuration);
+    }
+
+    protected Batch batch() {
+        if (currentBatch == null) {
+            currentBatch = freeBatches.poll();
+            if (currentBatch == null) {
+                currentBatch = new Batch();
             }
         }
+        return currentBatch;
     }
 
-    public void setExpire(Spatial sp, float lifeTime) {
-        expires.put(sp, new Float(lifeTime));
+    /**
+     * Hand the batch of the frame over, if any.
+     */
+    protected void flush() {
+        Batch batch = currentBatch;
+        if (batch == null) {
+            return;
+        }
+        currentBatch = null;
+        if (renderExecutor != null) {
+            renderExecutor.execute(batch);
+        } else {
+            batch.run();
+        }
+    }
+
+    /**
+     * Due attach (SpatialInfo) and detach (Spatial) operations of one frame.
+     */
+    protected class Batch implements Runnable {
+
+        private SpatialInfo[] attach = new SpatialInfo[16];
+        private Spatial[] detach = new Spatial[16];
+        private int attachCount;
+        private int detachCount;
+
+        void add(SpatialInfo info, Spatial sp) {
+            if (info != null) {
+                if (attachCount == attach.length) {
+                    SpatialInfo[] grown = new SpatialInfo[attachCount << 1];
+                    System.arraycopy(attach, 0, grown, 0, attachCount);
+                    attach = grown;
+                }
+                attach[attachCount++] = info;
+            } else {
+                if (detachCount == detach.length) {
+                    Spatial[] grown = new Spatial[detachCount << 1];
+                    System.arraycopy(detach, 0, grown, 0, detachCount);
+                    detach = grown;
+                }
+                detach[detachCount++] = sp;
+            }
+        }
+
+        public void run() {
+            for (int i = 0; i < attachCount; i++) {
+                SpatialInfo info = attach[i];
+                attach[i] = null;
+                if (info.getParent() != null && info.getSpatial() != null) {
+                    info.getParent().attachChild(info.getSpatial());
+                    info.setAttached(true);
+                }
+            }
+            for (int i = 0; i < detachCount; i++) {
+                detach[i].removeFromParent();
+                detach[i] = null;
+            }
+            attachCount = 0;
+            detachCount = 0;
+            freeBatches.offer(this);
+        }
     }
 }
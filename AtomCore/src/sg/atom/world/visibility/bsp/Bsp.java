@@ -120,6 +120,10 @@ public class Bsp {
      */
     public static int dfsCounter = 0;
     public transient int dfsValue = 0;
+    /**
+     * Flattened tree for the visibility queries. Only set in the root node.
+     */
+    private transient volatile BspVisibility visibility;
     // static temporary storage fields for portal generation
     public static Vector dividers;
     public static Vector nodes;
@@ -153,20 +157,48 @@ public class Bsp {
     }
 
     /**
-     * Determines visibility in the tree using portals and a DFS search.
+     * Determines visibility in the tree using portals and a DFS search. This
+     * node is the leaf of the start point. The query runs on the visibility of
+     * the tree, with the traversal state of the calling thread, so it can be
+     * called from several threads at once.
      *
      * @param startPoint The "starting" position.
      * @param endPoint The "end" position.
      * @return A value indicating if the points are visible from each other.
      */
-    public synchronized boolean canSee(Vec3d startPoint, Vec3d endPoint) {
-        Bsp startLeaf = this;
-        Bsp endLeaf = root.locateLeafBrute(endPoint);
-        Ray ray = new Ray(startPoint, endPoint);
-        // A constant from the hat
-        ray.extend(10.0f);
-        prepareDFS();
-        return Pvs.canSee(ray, startLeaf, endLeaf);
+    public boolean canSee(Vec3d startPoint, Vec3d endPoint) {
+        BspVisibility v = root.getVisibility();
+        return v.query().canSee(v.getLeafIndex(this), startPoint, endPoint);
+    }
+
+    /**
+     * Returns the visibility of the whole tree, built on first use from the
+     * leafs, portals and PVS of the tree.
+     *
+     * @return The visibility of the tree.
+     */
+    public BspVisibility getVisibility() {
+        if (root != this) {
+            return root.getVisibility();
+        }
+        BspVisibility v = visibility;
+        if (v == null) {
+            synchronized (this) {
+                v = visibility;
+                if (v == null) {
+                    v = new BspVisibility(this);
+                    visibility = v;
+                }
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Drops the visibility of the tree, after its portals or PVS changed.
+     */
+    public void invalidateVisibility() {
+        root.visibility = null;
     }
 
     /**
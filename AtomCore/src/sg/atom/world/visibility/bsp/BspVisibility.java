@@ -0,0 +1,309 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.world.visibility.bsp;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import sg.atom.world.geometry.Plane;
+import sg.atom.world.geometry.Triangle;
+import sg.atom.world.geometry.algebra.Vec3d;
+
+/**
+ * Read-only, flattened copy of a {@link Bsp} tree for line of sight queries
+ * from many threads.
+ *
+ * <p>The dividing planes, the portals between the leafs and their triangles
+ * are copied into arrays. Leafs are numbered from 0 in depth-first order. The
+ * PVS computed by {@link Pvs#traceVisibility(Bsp)} becomes a leaf-to-leaf
+ * bitset: two leafs outside each other's PVS are rejected without tracing.
+ * The traversal state of a query lives in a {@link VisibilityQuery}, one per
+ * thread, so queries don't lock nor touch the tree.</p>
+ *
+ * <p>The tree must not be modified after the visibility is built; see
+ * {@link Bsp#getVisibility()} and {@link Bsp#invalidateVisibility()}.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class BspVisibility {
+
+    /**
+     * Queries per batch slice, below it a batch is not split.
+     */
+    public static final int MIN_SLICE = 256;
+    // inner node n: plane (a, b, c, d) at planes[4n], children as below
+    final float[] planes;
+    // child >= 0: inner node, child < 0: leaf ~child
+    final int[] front, back;
+    // ~0 when the root is a leaf
+    final int rootChild;
+    final Bsp[] leafs;
+    private final IdentityHashMap<Bsp, Integer> leafIndex;
+    // portals of leaf l: [portalStart[l], portalStart[l + 1])
+    final int[] portalStart, portalTarget;
+    // triangles of portal p: [triStart[p], triStart[p + 1])
+    final int[] triStart;
+    // triangle t: a, b - a, c - a at tris[9t]
+    final float[] tris;
+    // PVS row of leaf l: pvs[l * words, (l + 1) * words), null without PVS
+    private final long[] pvs;
+    private final int words;
+    private final ThreadLocal<VisibilityQuery> queries = new ThreadLocal<VisibilityQuery>() {
+        @Override
+        protected VisibilityQuery initialValue() {
+            return new VisibilityQuery(BspVisibility.this);
+        }
+    };
+
+    public BspVisibility(Bsp tree) {
+        this(tree, true);
+    }
+
+    /**
+     * @param usePvs reject leafs outside the PVS, when the tree has one
+     */
+    public BspVisibility(Bsp tree, boolean usePvs) {
+        List<Bsp> inner = new ArrayList<Bsp>();
+        List<Bsp> leafList = new ArrayList<Bsp>();
+        collect(tree, inner, leafList);
+        leafs = leafList.toArray(new Bsp[leafList.size()]);
+        leafIndex = new IdentityHashMap<Bsp, Integer>();
+        for (int l = 0; l < leafs.length; l++) {
+            leafIndex.put(leafs[l], l);
+        }
+
+        IdentityHashMap<Bsp, Integer> innerIndex = new IdentityHashMap<Bsp, Integer>();
+        for (int n = 0; n < inner.size(); n++) {
+            innerIndex.put(inner.get(n), n);
+        }
+        planes = new float[4 * inner.size()];
+        front = new int[inner.size()];
+        back = new int[inner.size()];
+        for (int n = 0; n < inner.size(); n++) {
+            Bsp node = inner.get(n);
+            Plane divider = node.getDivider();
+            Vec3d normal = divider.getNormal();
+            planes[4 * n] = normal.c[0];
+            planes[4 * n + 1] = normal.c[1];
+            planes[4 * n + 2] = normal.c[2];
+            planes[4 * n + 3] = divider.getConstant();
+            front[n] = childOf(node.getRightChild(), innerIndex);
+            back[n] = childOf(node.getLeftChild(), innerIndex);
+        }
+        rootChild = childOf(tree, innerIndex);
+
+        portalStart = new int[leafs.length + 1];
+        int nbPortals = 0, nbTris = 0;
+        for (int l = 0; l < leafs.length; l++) {
+            portalStart[l] = nbPortals;
+            for (Object o : leafs[l].portals) {
+                nbPortals++;
+                nbTris += ((Portal) o).portalSet.length;
+            }
+        }
+        portalStart[leafs.length] = nbPortals;
+        portalTarget = new int[nbPortals];
+        triStart = new int[nbPortals + 1];
+        tris = new float[9 * nbTris];
+        int p = 0, t = 0;
+        for (int l = 0; l < leafs.length; l++) {
+            for (Object o : leafs[l].portals) {
+                Portal portal = (Portal) o;
+                Integer target = leafIndex.get((Bsp) portal.target);
+                if (target == null) {
+                    throw new IllegalArgumentException("Portal of leaf " + l + " leads out of the tree");
+                }
+                portalTarget[p] = target;
+                triStart[p] = t;
+                for (Triangle tri : portal.portalSet) {
+                    Vec3d a = tri.a.pos, b = tri.b.pos, c = tri.c.pos;
+                    for (int k = 0; k < 3; k++) {
+                        tris[9 * t + k] = a.c[k];
+                        tris[9 * t + 3 + k] = b.c[k] - a.c[k];
+                        tris[9 * t + 6 + k] = c.c[k] - a.c[k];
+                    }
+                    t++;
+                }
+                p++;
+            }
+        }
+        triStart[nbPortals] = t;
+
+        words = (leafs.length + 63) >>> 6;
+        pvs = usePvs ? createPvs() : null;
+    }
+
+    private static void collect(Bsp node, List<Bsp> inner, List<Bsp> leafList) {
+        if (node.isLeaf()) {
+            leafList.add(node);
+        } else {
+            inner.add(node);
+            collect(node.getLeftChild(), inner, leafList);
+            collect(node.getRightChild(), inner, leafList);
+        }
+    }
+
+    private int childOf(Bsp child, IdentityHashMap<Bsp, Integer> innerIndex) {
+        Integer n = innerIndex.get(child);
+        return n != null ? n : ~leafIndex.get(child);
+    }
+
+    /**
+     * Bitset from the PVS lists of the leafs, null if they are not computed.
+     */
+    private long[] createPvs() {
+        long[] bits = new long[leafs.length * words];
+        boolean computed = false;
+        for (int l = 0; l < leafs.length; l++) {
+            LinkedList visible = leafs[l].getPvs();
+            for (Object o : visible) {
+                Integer other = leafIndex.get((Bsp) o);
+                if (other != null) {
+                    bits[l * words + (other >>> 6)] |= 1L << other;
+                    computed = true;
+                }
+            }
+        }
+        return computed ? bits : null;
+    }
+
+    public int getLeafCount() {
+        return leafs.length;
+    }
+
+    public Bsp getLeaf(int index) {
+        return leafs[index];
+    }
+
+    /**
+     * Index of a leaf of the tree, or -1.
+     */
+    public int getLeafIndex(Bsp leaf) {
+        Integer index = leafIndex.get(leaf);
+        return index != null ? index : -1;
+    }
+
+    public boolean hasPvs() {
+        return pvs != null;
+    }
+
+    /**
+     * Index of the leaf containing a point, descending the dividing planes
+     * from the root as {@link Bsp#locateLeafBrute(Vec3d)}.
+     */
+    public int locateLeaf(Vec3d pos) {
+        return locateLeaf(pos.c[0], pos.c[1], pos.c[2]);
+    }
+
+    public int locateLeaf(float x, float y, float z) {
+        int child = rootChild;
+        final float epsilon = Bsp.EPSILON;
+        while (child >= 0) {
+            int i = 4 * child;
+            float side = planes[i] * x + planes[i + 1] * y + planes[i + 2] * z - planes[i + 3];
+            child = side < -epsilon ? back[child] : front[child];
+        }
+        return ~child;
+    }
+
+    /**
+     * False if leaf <code>to</code> is outside the PVS of leaf
+     * <code>from</code>; always true without PVS.
+     */
+    public boolean isPotentiallyVisible(int from, int to) {
+        return pvs == null || (pvs[from * words + (to >>> 6)] & (1L << to)) != 0;
+    }
+
+    /**
+     * A new query context, for use by one thread at a time.
+     */
+    public VisibilityQuery newQuery() {
+        return new VisibilityQuery(this);
+    }
+
+    /**
+     * The query context of the calling thread.
+     */
+    public VisibilityQuery query() {
+        return queries.get();
+    }
+
+    public boolean canSee(Vec3d startPoint, Vec3d endPoint) {
+        return queries.get().canSee(startPoint, endPoint);
+    }
+
+    /**
+     * Batch line of sight: <code>result[i] = canSee(from[i], to[i])</code>
+     * for i in [0, count). The batch is split in slices over the executor,
+     * the calling thread running one of them.
+     */
+    public void canSee(final Vec3d[] from, final Vec3d[] to, final boolean[] result,
+            int count, Executor executor, int parallelism) {
+        int nbSlices = Math.min(parallelism, count / MIN_SLICE);
+        if (executor == null || nbSlices <= 1) {
+            canSee(from, to, result, 0, count);
+            return;
+        }
+        final int perSlice = (count + nbSlices - 1) / nbSlices;
+        final CountDownLatch done = new CountDownLatch(nbSlices - 1);
+        final Throwable[] failures = new Throwable[nbSlices];
+        for (int s = 1; s < nbSlices; s++) {
+            final int slice = s;
+            final int start = s * perSlice;
+            final int end = Math.min(count, start + perSlice);
+            Runnable task = new Runnable() {
+                public void run() {
+                    try {
+                        canSee(from, to, result, start, end);
+                    } catch (Throwable ex) {
+                        failures[slice] = ex;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                task.run();
+            }
+        }
+        try {
+            canSee(from, to, result, 0, Math.min(count, perSlice));
+        } catch (RuntimeException ex) {
+            failures[0] = ex;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (Throwable failure : failures) {
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+    }
+
+    private void canSee(Vec3d[] from, Vec3d[] to, boolean[] result, int start, int end) {
+        VisibilityQuery query = queries.get();
+        for (int i = start; i < end; i++) {
+            result[i] = query.canSee(from[i], to[i]);
+        }
+    }
+}
@@ -384,6 +384,8 @@ public class Pvs {
 
             System.out.print("\r" + (int) (100f * (float) ++numProcessed / (float) totalNodes) + "% done");
         }
+        // The visibility bitset is rebuilt from the new PVS
+        tree.invalidateVisibility();
     }
 
     /**
@@ -0,0 +1,171 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.world.visibility.bsp;
+
+import java.util.Arrays;
+import sg.atom.world.geometry.Ray;
+import sg.atom.world.geometry.algebra.Vec3d;
+
+/**
+ * Traversal state of line of sight queries in a {@link BspVisibility}: the
+ * visited marks of the leafs, the DFS stack and the ray. A query does not
+ * allocate; it must be used by one thread at a time.
+ *
+ * <p>The test is the one of {@link Pvs#canSee(Ray, Bsp, Bsp)}: the ray between
+ * the points, extended by 10 times its length at both ends, must cross a chain
+ * of portals from the start leaf to the end leaf.</p>
+ *
+ * @author cuong.nguyenmanh2
+ */
+public final class VisibilityQuery {
+
+    /**
+     * Extension of the ray at both ends, in ray lengths, as Bsp.canSee.
+     */
+    public static final float EXTEND = 10.0f;
+    private final BspVisibility visibility;
+    // leaf l is visited by the current query when visited[l] == stamp
+    private final int[] visited;
+    private int stamp;
+    private final int[] stackLeaf, stackPortal;
+    private float sx, sy, sz, dx, dy, dz;
+    private long queries, rejected;
+
+    VisibilityQuery(BspVisibility visibility) {
+        this.visibility = visibility;
+        int leafs = visibility.getLeafCount();
+        visited = new int[leafs];
+        stackLeaf = new int[leafs];
+        stackPortal = new int[leafs];
+    }
+
+    public BspVisibility getVisibility() {
+        return visibility;
+    }
+
+    public boolean canSee(Vec3d startPoint, Vec3d endPoint) {
+        return canSee(visibility.locateLeaf(startPoint), startPoint, endPoint);
+    }
+
+    /**
+     * @param startLeaf index of the leaf containing the start point
+     */
+    public boolean canSee(int startLeaf, Vec3d startPoint, Vec3d endPoint) {
+        return canSee(startLeaf, visibility.locateLeaf(endPoint), startPoint, endPoint);
+    }
+
+    public boolean canSee(int startLeaf, int endLeaf, Vec3d startPoint, Vec3d endPoint) {
+        queries++;
+        if (startLeaf == endLeaf) {
+            return true;
+        }
+        if (!visibility.isPotentiallyVisible(startLeaf, endLeaf)) {
+            rejected++;
+            return false;
+        }
+        float[] s = startPoint.c, e = endPoint.c;
+        dx = e[0] - s[0];
+        dy = e[1] - s[1];
+        dz = e[2] - s[2];
+        sx = s[0] - dx * EXTEND;
+        sy = s[1] - dy * EXTEND;
+        sz = s[2] - dz * EXTEND;
+        float scale = 1 + 2 * EXTEND;
+        dx *= scale;
+        dy *= scale;
+        dz *= scale;
+        return trace(startLeaf, endLeaf);
+    }
+
+    private boolean trace(int startLeaf, int endLeaf) {
+        if (++stamp == 0) {
+            Arrays.fill(visited, 0);
+            stamp = 1;
+        }
+        final int[] portalStart = visibility.portalStart;
+        final int[] portalTarget = visibility.portalTarget;
+        visited[startLeaf] = stamp;
+        int top = 0;
+        stackLeaf[0] = startLeaf;
+        stackPortal[0] = portalStart[startLeaf];
+        while (top >= 0) {
+            int leaf = stackLeaf[top];
+            int p = stackPortal[top];
+            if (p == portalStart[leaf + 1]) {
+                top--;
+                continue;
+            }
+            stackPortal[top] = p + 1;
+            int target = portalTarget[p];
+            if (visited[target] == stamp || !crossesPortal(p)) {
+                continue;
+            }
+            if (target == endLeaf) {
+                return true;
+            }
+            visited[target] = stamp;
+            top++;
+            stackLeaf[top] = target;
+            stackPortal[top] = portalStart[target];
+        }
+        return false;
+    }
+
+    /**
+     * The ray intersects one of the triangles of the portal, as
+     * {@link Ray#intersects(sg.atom.world.geometry.Triangle)}.
+     */
+    private boolean crossesPortal(int portal) {
+        final float[] tris = visibility.tris;
+        final float epsilon = Ray.EPSILON;
+        for (int t = visibility.triStart[portal], end = visibility.triStart[portal + 1]; t < end; t++) {
+            int i = 9 * t;
+            float e1x = tris[i + 3], e1y = tris[i + 4], e1z = tris[i + 5];
+            float e2x = tris[i + 6], e2y = tris[i + 7], e2z = tris[i + 8];
+            // pvec = dir x edge2
+            float px = dy * e2z - dz * e2y;
+            float py = dz * e2x - dx * e2z;
+            float pz = dx * e2y - dy * e2x;
+            float det = e1x * px + e1y * py + e1z * pz;
+            if (det > -epsilon && det < epsilon) {
+                continue;
+            }
+            float invDet = 1 / det;
+            float tx = sx - tris[i], ty = sy - tris[i + 1], tz = sz - tris[i + 2];
+            float u = (tx * px + ty * py + tz * pz) * invDet;
+            if (u < 0 || u > 1) {
+                continue;
+            }
+            // qvec = tvec x edge1
+            float qx = ty * e1z - tz * e1y;
+            float qy = tz * e1x - tx * e1z;
+            float qz = tx * e1y - ty * e1x;
+            float v = (dx * qx + dy * qy + dz * qz) * invDet;
+            if (v < 0 || u + v > 1) {
+                continue;
+            }
+            float d = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+            if (d < 0 || d > 1.0) {
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Number of queries run by this context.
+     */
+    public long getQueryCount() {
+        return queries;
+    }
+
+    /**
+     * Number of queries answered by the PVS alone.
+     */
+    public long getPvsRejectCount() {
+        return rejected;
+    }
+}
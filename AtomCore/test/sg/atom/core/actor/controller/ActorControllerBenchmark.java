@@ -0,0 +1,165 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.core.actor.controller;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import sg.atom.core.actor.Actor;
+import sg.atom.core.actor.internal.ActorProxy;
+import sg.atom.core.actor.internal.ActorState;
+import sg.atom.core.actor.internal.SingleThreadedActorState;
+import sg.atom.utils.concurrent.AsyncResult;
+import sg.atom.utils.concurrent.ThreadUsage;
+import sg.atom.utils.event.message.MessageCaller;
+
+/**
+ * Tokens passed around a ring of single-threaded actors, each hop a message
+ * queued from the worker that runs the previous one: messages per second and
+ * queueing latency percentiles of ControllerImplementation and
+ * WorkStealingController. Each run checks that every hop was delivered once,
+ * to the actor the serial ring gives, and that no actor ran two hops at once.
+ *
+ * Run with: java sg.atom.core.actor.controller.ActorControllerBenchmark [actors] [tokens] [hops]
+ *
+ * @author atomix
+ */
+public class ActorControllerBenchmark {
+
+    /**
+     * Minimal actor, its proxy being itself.
+     */
+    static final class RingActor extends Actor implements ActorProxy {
+
+        ActorState state;
+        RingActor next;
+        final AtomicBoolean running = new AtomicBoolean();
+        final AtomicInteger received = new AtomicInteger();
+
+        public ActorState getState__ACTORPROXYMETHOD() {
+            return state;
+        }
+    }
+
+    /**
+     * The message: record the latency of the hop and pass the token on.
+     */
+    static final class Hop extends MessageCaller<Void> {
+
+        final long[] latencies;
+        final AtomicInteger recorded = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done;
+
+        Hop(int messages, int tokens) {
+            latencies = new long[messages];
+            done = new CountDownLatch(tokens);
+        }
+
+        @Override
+        public AsyncResult<Void> invoke(Actor instance, Object[] arguments) {
+            long sentAt = (Long) arguments[0];
+            int hopsLeft = (Integer) arguments[1];
+            int i = recorded.getAndIncrement();
+            if (i < latencies.length) {
+                latencies[i] = System.nanoTime() - sentAt;
+            }
+            RingActor actor = (RingActor) instance;
+            if (!actor.running.compareAndSet(false, true)) {
+                overlaps.incrementAndGet();
+            }
+            actor.received.incrementAndGet();
+            actor.running.set(false);
+            if (hopsLeft > 0) {
+                actor.next.state.queueMessage(this, ThreadUsage.CpuBound, new Object[]{System.nanoTime(), hopsLeft - 1});
+            } else {
+                done.countDown();
+            }
+            return instance.noResult();
+        }
+
+        @Override
+        public String getMessageName() {
+            return "hop";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nbActors = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int tokens = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int hops = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int cpus = Runtime.getRuntime().availableProcessors();
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            ControllerImplementation classic = new ControllerImplementation(null, Executors.defaultThreadFactory(),
+                    Math.max(32, cpus * 3 + 6), cpus * 3 / 2 + 2, false);
+            run("ControllerImplementation", classic, nbActors, tokens, hops);
+            classic.shutdown();
+
+            WorkStealingController stealing = new WorkStealingController(null, Executors.defaultThreadFactory(),
+                    cpus, Math.max(32, cpus * 3 + 6), WorkStealingController.DEFAULT_THROUGHPUT, false);
+            run("WorkStealingController", stealing, nbActors, tokens, hops);
+            System.out.printf("    steals %d, visits %d%n", stealing.getStealCount(), stealing.getVisitCount());
+            stealing.shutdown();
+        }
+    }
+
+    static void run(String name, Controller controller, int nbActors, int tokens, int hops) throws InterruptedException {
+        RingActor[] ring = new RingActor[nbActors];
+        for (int i = 0; i < nbActors; i++) {
+            ring[i] = new RingActor();
+            ring[i].state = new SingleThreadedActorState(controller, ring[i]);
+        }
+        for (int i = 0; i < nbActors; i++) {
+            ring[i].next = ring[(i + 1) % nbActors];
+        }
+        int messages = tokens * (hops + 1);
+        Hop hop = new Hop(messages, tokens);
+
+        long start = System.nanoTime();
+        for (int t = 0; t < tokens; t++) {
+            ring[t * nbActors / tokens].state.queueMessage(hop, ThreadUsage.CpuBound, new Object[]{System.nanoTime(), hops});
+        }
+        if (!hop.done.await(5, TimeUnit.MINUTES)) {
+            throw new IllegalStateException(name + ": " + hop.done.getCount() + " tokens of " + tokens
+                    + " still moving after 5 minutes");
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (hop.recorded.get() != messages || hop.overlaps.get() != 0) {
+            throw new IllegalStateException(name + ": " + hop.recorded.get() + " hops of " + messages
+                    + ", " + hop.overlaps.get() + " run concurrently on the same actor");
+        }
+        int[] expected = new int[nbActors];
+        for (int t = 0; t < tokens; t++) {
+            for (int h = 0, a = t * nbActors / tokens; h <= hops; h++, a = (a + 1) % nbActors) {
+                expected[a]++;
+            }
+        }
+        for (int i = 0; i < nbActors; i++) {
+            if (ring[i].received.get() != expected[i]) {
+                throw new IllegalStateException(name + ": actor " + i + " received " + ring[i].received.get()
+                        + " hops, expected " + expected[i]);
+            }
+        }
+
+        long[] latencies = Arrays.copyOf(hop.latencies, Math.min(messages, hop.recorded.get()));
+        Arrays.sort(latencies);
+        System.out.printf("  %-26s %9d msgs %9.2f ms %12.0f msgs/s   p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us%n",
+                name, messages, elapsed / 1e6, messages * 1e9 / elapsed,
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999));
+    }
+
+    static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e3;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.core.actor.internal.codegenerator;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.security.CodeSource;
+import java.util.concurrent.Executors;
+import sg.atom.core.actor.Actor;
+import sg.atom.core.actor.controller.Controller;
+import sg.atom.core.actor.controller.WorkStealingController;
+import sg.atom.core.actor.internal.ActorProxy;
+import sg.atom.core.annotations.AgentBean;
+import sg.atom.core.annotations.Message;
+import sg.atom.core.annotations.Prop;
+import sg.atom.utils.concurrent.AsyncResult;
+
+/**
+ * Cold start of an agent: the factory of each sample actor and bean class
+ * looked up for the first time and one instance created, with the classes
+ * generated by ASM or precompiled by {@link ProxyPrecompiler}. Each factory
+ * must come from the mode being timed, and each instance must answer a
+ * message or keep a property as the sample class says. Each mode must run in
+ * a fresh JVM:
+ *
+ * Run with: java sg.atom.core.actor.internal.codegenerator.ProxyStartupBenchmark
+ * then: java sg.atom.core.actor.internal.codegenerator.ProxyStartupBenchmark precompile [dir]
+ * then again with [dir] on the class path.
+ *
+ * @author atomix
+ */
+public class ProxyStartupBenchmark {
+
+    public static class Inventory extends Actor {
+
+        @Message
+        public AsyncResult<Integer> add(String item, int count) {
+            return result(count);
+        }
+
+        @Message
+        public AsyncResult<Integer> remove(String item, int count) {
+            return result(-count);
+        }
+
+        @Message
+        public AsyncResult<Boolean> contains(String item) {
+            return result(Boolean.FALSE);
+        }
+    }
+
+    public static class Chat extends Actor {
+
+        @Message
+        public AsyncResult<Void> say(String from, String text) {
+            return noResult();
+        }
+
+        @Message
+        public AsyncResult<String> last() {
+            return result("");
+        }
+    }
+
+    public static class Movement extends Actor {
+
+        @Message
+        public AsyncResult<Void> moveTo(float x, float y, float z) {
+            return noResult();
+        }
+
+        @Message
+        public AsyncResult<Float> distance(float x, float y, float z) {
+            return result(0f);
+        }
+
+        @Message
+        public AsyncResult<Void> stop() {
+            return noResult();
+        }
+    }
+
+    public static class Combat extends Actor {
+
+        @Message
+        public AsyncResult<Integer> attack(long target, int damage) {
+            return result(damage);
+        }
+
+        @Message
+        public AsyncResult<Integer> heal(long target, int amount) {
+            return result(amount);
+        }
+
+        @Message
+        public AsyncResult<Boolean> isAlive(long target) {
+            return result(Boolean.TRUE);
+        }
+
+        @Message
+        public AsyncResult<Void> respawn(long target) {
+            return noResult();
+        }
+    }
+
+    public static class Quest extends Actor {
+
+        @Message
+        public AsyncResult<Void> accept(int quest) {
+            return noResult();
+        }
+
+        @Message
+        public AsyncResult<Boolean> complete(int quest, double reward) {
+            return result(Boolean.TRUE);
+        }
+    }
+
+    public static class Trade extends Actor {
+
+        @Message
+        public AsyncResult<Boolean> offer(String item, long price) {
+            return result(Boolean.TRUE);
+        }
+
+        @Message
+        public AsyncResult<Long> bid(String item) {
+            return result(0L);
+        }
+    }
+
+    @AgentBean(threadSafe = false)
+    public static abstract class Position {
+
+        @Prop
+        public abstract float getX();
+
+        public abstract void setX(float x);
+
+        @Prop
+        public abstract float getY();
+
+        public abstract void setY(float y);
+
+        @Prop
+        public abstract float getZ();
+
+        public abstract void setZ(float z);
+    }
+
+    @AgentBean(threadSafe = true)
+    public static abstract class PlayerInfo {
+
+        @Prop
+        public abstract String getName();
+
+        @Prop
+        public abstract int getLevel();
+
+        public abstract void setLevel(int level);
+    }
+
+    @AgentBean(threadSafe = false)
+    public static abstract class ItemInfo {
+
+        @Prop
+        public abstract String getName();
+
+        @Prop
+        public abstract long getPrice();
+
+        @Prop
+        public abstract double getWeight();
+    }
+
+    @AgentBean(threadSafe = true)
+    public static abstract class ServerInfo {
+
+        @Prop
+        public abstract String getHost();
+
+        @Prop
+        public abstract int getPort();
+
+        @Prop
+        public abstract int getMaxPlayers();
+    }
+
+    static final Class<?>[] SAMPLES = {
+        Inventory.class, Chat.class, Movement.class, Combat.class, Quest.class, Trade.class,
+        Position.class, PlayerInfo.class, ItemInfo.class, ServerInfo.class
+    };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("precompile")) {
+            File directory = new File(args.length > 1 ? args[1] : "precompiled");
+            ProxyPrecompiler precompiler = new ProxyPrecompiler(directory, ProxyStartupBenchmark.class.getClassLoader());
+            for (Class<?> c : SAMPLES) {
+                precompiler.add(c);
+            }
+            long start = System.nanoTime();
+            precompiler.precompile(true);
+            System.out.printf("Precompiled %d classes into %s in %.1f ms%n", SAMPLES.length, directory, (System.nanoTime() - start) / 1e6);
+            return;
+        }
+
+        boolean precompiled = ProxyStartupBenchmark.class.getClassLoader()
+                .getResource(Inventory.class.getName().replace('.', '/') + "__BEANFACTORY.class") != null;
+        Controller controller = new WorkStealingController(null, Executors.defaultThreadFactory(), 1, 1,
+                WorkStealingController.DEFAULT_THROUGHPUT, false);
+        long total = 0;
+        Object[] instances = new Object[SAMPLES.length];
+        for (int i = 0; i < SAMPLES.length; i++) {
+            Class<?> c = SAMPLES[i];
+            long start = System.nanoTime();
+            instances[i] = BeanCreator.getInstance().getFactory(c).createNewInstance(controller, null);
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            System.out.printf("  %-12s %8.2f ms%n", c.getSimpleName(), elapsed / 1e6);
+        }
+        for (int i = 0; i < SAMPLES.length; i++) {
+            // classes defined from the class path have a location, generated ones none
+            CodeSource source = BeanCreator.getInstance().getFactory(SAMPLES[i]).getClass().getProtectionDomain().getCodeSource();
+            if ((source != null && source.getLocation() != null) != precompiled) {
+                throw new IllegalStateException("The factory of " + SAMPLES[i].getSimpleName() + " was "
+                        + (precompiled ? "generated" : "precompiled"));
+            }
+            check(SAMPLES[i], instances[i]);
+        }
+        controller.shutdown();
+        System.out.printf("%s: %d classes %8.2f ms, %.2f ms per class, JVM up %d ms%n",
+                precompiled ? "Precompiled" : "ASM at run time", SAMPLES.length, total / 1e6,
+                total / 1e6 / SAMPLES.length, ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+
+    static void check(Class<?> c, Object instance) {
+        if (!c.isInstance(instance) || Actor.class.isAssignableFrom(c) != (instance instanceof ActorProxy)) {
+            throw new IllegalStateException("Created " + instance.getClass().getName() + " for " + c.getName());
+        }
+        Object value, expected;
+        if (instance instanceof Inventory) {
+            value = ((Inventory) instance).remove("sword", 3).get();
+            expected = -3;
+        } else if (instance instanceof Chat) {
+            value = ((Chat) instance).last().get();
+            expected = "";
+        } else if (instance instanceof Movement) {
+            value = ((Movement) instance).distance(1, 2, 3).get();
+            expected = 0f;
+        } else if (instance instanceof Combat) {
+            value = ((Combat) instance).attack(1L, 7).get();
+            expected = 7;
+        } else if (instance instanceof Quest) {
+            value = ((Quest) instance).complete(1, 2.5).get();
+            expected = Boolean.TRUE;
+        } else if (instance instanceof Trade) {
+            value = ((Trade) instance).bid("sword").get();
+            expected = 0L;
+        } else if (instance instanceof Position) {
+            ((Position) instance).setY(1.5f);
+            value = ((Position) instance).getY();
+            expected = 1.5f;
+        } else if (instance instanceof PlayerInfo) {
+            ((PlayerInfo) instance).setLevel(7);
+            value = ((PlayerInfo) instance).getLevel();
+            expected = 7;
+        } else if (instance instanceof ItemInfo) {
+            value = ((ItemInfo) instance).getPrice();
+            expected = 0L;
+        } else {
+            value = ((ServerInfo) instance).getPort();
+            expected = 0;
+        }
+        if (!expected.equals(value)) {
+            throw new IllegalStateException(c.getSimpleName() + " gave " + value + ", expected " + expected);
+        }
+    }
+}
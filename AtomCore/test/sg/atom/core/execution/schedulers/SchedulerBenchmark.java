@@ -0,0 +1,113 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.core.execution.schedulers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fan-out benchmark of the schedulers: each root task (AI, physics job)
+ * submit a tree of small subtasks from inside the workers. Every run checks
+ * that each task ran exactly once, against the checksum of the tree computed
+ * on the calling thread.
+ *
+ * Run with: java sg.atom.core.execution.schedulers.SchedulerBenchmark
+ * [workers] [roots] [depth] [fanout]
+ *
+ * @author atomix
+ */
+public class SchedulerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int roots = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int fanout = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            run("ThreadPoolExecutor", Executors.newFixedThreadPool(workers), roots, depth, fanout);
+            run("WorkStealingScheduler", new WorkStealingScheduler(workers, false), roots, depth, fanout);
+            run("AffinityWorkStealingScheduler", new AffinityWorkStealingScheduler(workers), roots, depth, fanout);
+        }
+    }
+
+    static void run(String name, final ExecutorService executor, int roots, final int depth, final int fanout) throws InterruptedException {
+        int perRoot = 0;
+        for (int d = 0, n = 1; d <= depth; d++, n *= fanout) {
+            perRoot += n;
+        }
+        final CountDownLatch done = new CountDownLatch(roots * perRoot);
+        AtomicLong checksum = new AtomicLong();
+        AtomicLong executed = new AtomicLong();
+        long start = System.nanoTime();
+        for (int i = 0; i < roots; i++) {
+            executor.execute(new FanOutTask(executor, done, checksum, executed, depth, fanout));
+        }
+        if (!done.await(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException(name + ": " + done.getCount() + " tasks never ran");
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(name + " did not terminate");
+        }
+        long tasks = (long) roots * perRoot;
+        long expected = 0;
+        for (int d = depth, n = roots; d >= 0; d--, n *= fanout) {
+            expected += n * work(d);
+        }
+        if (executed.get() != tasks || checksum.get() != expected) {
+            throw new IllegalStateException(name + " ran " + executed.get() + " tasks of " + tasks
+                    + (checksum.get() != expected ? ", checksum mismatch" : ""));
+        }
+        System.out.printf("  %-30s %8d tasks %8.2f ms %10.0f tasks/s%n", name, tasks, elapsed / 1e6, tasks * 1e9 / elapsed);
+    }
+
+    static class FanOutTask implements Runnable {
+
+        final ExecutorService executor;
+        final CountDownLatch done;
+        final AtomicLong checksum;
+        final AtomicLong executed;
+        final int depth;
+        final int fanout;
+
+        FanOutTask(ExecutorService executor, CountDownLatch done, AtomicLong checksum, AtomicLong executed,
+                int depth, int fanout) {
+            this.executor = executor;
+            this.done = done;
+            this.checksum = checksum;
+            this.executed = executed;
+            this.depth = depth;
+            this.fanout = fanout;
+        }
+
+        public void run() {
+            if (depth > 0) {
+                for (int i = 0; i < fanout; i++) {
+                    executor.execute(new FanOutTask(executor, done, checksum, executed, depth - 1, fanout));
+                }
+            }
+            checksum.addAndGet(work(depth));
+            executed.incrementAndGet();
+            done.countDown();
+        }
+    }
+
+    /**
+     * The work of a task at the given depth.
+     */
+    static long work(int depth) {
+        long x = depth;
+        for (int i = 0; i < 200; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.fx.particle.generation;
+
+import com.jme3.effect.Particle;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector3f;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An explosion of particles updated frame after frame: as Particle objects the
+ * way AtomParticleEmitter does, then in ParticleColumns, serial and split over
+ * a thread pool, with the positions written into a direct FloatBuffer. The
+ * positions written after the last frame must be the same for the three.
+ *
+ * Run with: java sg.atom.fx.particle.generation.ParticleColumnsBenchmark [particles] [threads]
+ *
+ * @author atomix
+ */
+public class ParticleColumnsBenchmark {
+
+    static final int FRAMES = 60;
+    static final float TPF = 1f / 60;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Vector3f gravity = new Vector3f(0, 9.8f, 0);
+        ColorRGBA startColor = new ColorRGBA(1, 0.8f, 0.2f, 1);
+        ColorRGBA endColor = new ColorRGBA(0.2f, 0.2f, 0.2f, 0);
+        FloatBuffer positions = ByteBuffer.allocateDirect(count * 12).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            Particle[] particles = explode(count);
+            // the emitter swaps its particles as they die and spawn
+            Random random = new Random(round);
+            for (int i = count - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                Particle p = particles[i];
+                particles[i] = particles[j];
+                particles[j] = p;
+            }
+            float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+            long start = System.nanoTime();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                for (Particle p : particles) {
+                    if (p.life > 0) {
+                        p.life -= TPF;
+                        if (p.life > 0) {
+                            update(p, gravity, startColor, endColor, bounds);
+                        }
+                    }
+                }
+                positions.clear();
+                for (Particle p : particles) {
+                    if (p.life > 0) {
+                        positions.put(p.position.x).put(p.position.y).put(p.position.z);
+                    }
+                }
+            }
+            report("Particle objects", count, System.nanoTime() - start);
+            float[][] expected = sorted(positions, positions.position() / 3);
+
+            ParticleColumns columns = fill(explode(count), gravity, startColor, endColor);
+            start = System.nanoTime();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                columns.update(TPF);
+                columns.writePositions(positions);
+            }
+            report("columns", count, System.nanoTime() - start);
+            check("columns", expected, positions, columns.size());
+
+            columns = fill(explode(count), gravity, startColor, endColor);
+            start = System.nanoTime();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                columns.update(TPF, pool, threads);
+                columns.writePositions(positions);
+            }
+            report("columns x" + threads, count, System.nanoTime() - start);
+            check("columns x" + threads, expected, positions, columns.size());
+            System.out.println("  alive after " + FRAMES + " frames: " + columns.size());
+        }
+        pool.shutdown();
+    }
+
+    static Particle[] explode(int count) {
+        Random random = new Random(7);
+        Particle[] particles = new Particle[count];
+        for (int i = 0; i < count; i++) {
+            Particle p = new Particle();
+            p.velocity.set(random.nextFloat() * 20 - 10, random.nextFloat() * 20, random.nextFloat() * 20 - 10);
+            p.startlife = 0.5f + random.nextFloat();
+            p.life = p.startlife;
+            p.size = 0.2f;
+            particles[i] = p;
+        }
+        return particles;
+    }
+
+    static ParticleColumns fill(Particle[] particles, Vector3f gravity, ColorRGBA startColor, ColorRGBA endColor) {
+        ParticleColumns columns = new ParticleColumns(particles.length);
+        columns.configure(gravity, startColor, endColor, 0.2f, 2f, 1, 1, true);
+        for (Particle p : particles) {
+            columns.add(p);
+        }
+        return columns;
+    }
+
+    /**
+     * AtomParticleEmitter.updateParticle.
+     */
+    static void update(Particle p, Vector3f gravity, ColorRGBA startColor, ColorRGBA endColor, float[] bounds) {
+        p.velocity.x -= gravity.x * TPF;
+        p.velocity.y -= gravity.y * TPF;
+        p.velocity.z -= gravity.z * TPF;
+        p.position.x += p.velocity.x * TPF;
+        p.position.y += p.velocity.y * TPF;
+        p.position.z += p.velocity.z * TPF;
+        float b = (p.startlife - p.life) / p.startlife;
+        p.color.interpolate(startColor, endColor, b);
+        p.size = (1 - b) * 0.2f + b * 2f;
+        p.angle += p.rotateSpeed * TPF;
+        p.imageIndex = (int) b;
+        bounds[0] = Math.min(bounds[0], p.position.x - p.size);
+        bounds[1] = Math.min(bounds[1], p.position.y - p.size);
+        bounds[2] = Math.min(bounds[2], p.position.z - p.size);
+        bounds[3] = Math.max(bounds[3], p.position.x + p.size);
+        bounds[4] = Math.max(bounds[4], p.position.y + p.size);
+        bounds[5] = Math.max(bounds[5], p.position.z + p.size);
+    }
+
+    /**
+     * The positions of the first particles written in the buffer, sorted: the
+     * emitter and the columns do not keep the particles in the same order.
+     */
+    static float[][] sorted(FloatBuffer positions, int count) {
+        float[][] particles = new float[count][];
+        for (int i = 0; i < particles.length; i++) {
+            particles[i] = new float[]{positions.get(3 * i), positions.get(3 * i + 1), positions.get(3 * i + 2)};
+        }
+        Arrays.sort(particles, new Comparator<float[]>() {
+            public int compare(float[] a, float[] b) {
+                for (int k = 0; k < 3; k++) {
+                    int c = Float.compare(a[k], b[k]);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return 0;
+            }
+        });
+        return particles;
+    }
+
+    static void check(String name, float[][] expected, FloatBuffer positions, int count) {
+        float[][] actual = sorted(positions, count);
+        if (actual.length != expected.length) {
+            throw new IllegalStateException(name + ": " + actual.length + " particles alive, expected " + expected.length);
+        }
+        for (int i = 0; i < actual.length; i++) {
+            if (!Arrays.equals(actual[i], expected[i])) {
+                throw new IllegalStateException(name + ": particle at " + Arrays.toString(actual[i])
+                        + ", expected " + Arrays.toString(expected[i]));
+            }
+        }
+    }
+
+    static void report(String name, int count, long elapsed) {
+        System.out.printf("  %-18s %8d particles %9.2f ms %8.2f ms/frame%n", name, count, elapsed / 1e6, elapsed / 1e6 / FRAMES);
+    }
+}
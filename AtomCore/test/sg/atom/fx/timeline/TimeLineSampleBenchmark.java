@@ -0,0 +1,183 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.fx.timeline;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A cinematic of vector and float tracks played frame by frame: keyframe
+ * objects searched from the start and interpolated into new values, then the
+ * compiled tracks sampled all at once into one array. Every track of the
+ * compiled time line is then checked against the keyframe objects, frame by
+ * frame and at random times, the quaternions against a slerp in double.
+ *
+ * Run with: java sg.atom.fx.timeline.TimeLineSampleBenchmark [tracks] [keys]
+ *
+ * @author atomix
+ */
+public class TimeLineSampleBenchmark {
+
+    static final float FPS = 60;
+    static volatile float sink;
+
+    public static void main(String[] args) {
+        int nbTracks = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int nbKeys = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Random random = new Random(3);
+
+        List<List<AtomKeyframe<Object>>> tracks = new ArrayList<List<AtomKeyframe<Object>>>();
+        CompiledTrack[] compiled = new CompiledTrack[nbTracks];
+        for (int i = 0; i < nbTracks; i++) {
+            List<AtomKeyframe<Object>> keys = new ArrayList<AtomKeyframe<Object>>();
+            float time = 0;
+            for (int k = 0; k < nbKeys; k++) {
+                Object value;
+                switch (i % 3) {
+                    case 0:
+                        value = new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat());
+                        break;
+                    case 1:
+                        value = random.nextFloat();
+                        break;
+                    default:
+                        value = new Quaternion(random.nextFloat(), random.nextFloat(), random.nextFloat(), 1).normalizeLocal();
+                }
+                keys.add(new AtomKeyframe<Object>(value, time));
+                time += 0.1f + random.nextFloat() * 0.4f;
+            }
+            tracks.add(keys);
+            compiled[i] = CompiledTrack.compile(keys);
+        }
+        CompiledTimeLine timeLine = new CompiledTimeLine(compiled);
+        float[] out = timeLine.newOutput();
+        int frames = (int) (timeLine.getEndTime() * FPS);
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            long start = System.nanoTime();
+            float sum = 0;
+            for (int f = 0; f < frames; f++) {
+                float time = f / FPS;
+                for (List<AtomKeyframe<Object>> keys : tracks) {
+                    sum += sampleObjects(keys, time);
+                }
+            }
+            sink += sum;
+            report("keyframe objects", frames, nbTracks, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int f = 0; f < frames; f++) {
+                timeLine.sampleAll(f / FPS, out);
+                sink += out[0];
+            }
+            report("compiled, sampleAll", frames, nbTracks, System.nanoTime() - start);
+
+            // scrubbing: random jumps use the binary search
+            start = System.nanoTime();
+            for (int f = 0; f < frames; f++) {
+                timeLine.sampleAll(random.nextFloat() * timeLine.getEndTime(), out);
+                sink += out[0];
+            }
+            report("compiled, scrubbing", frames, nbTracks, System.nanoTime() - start);
+        }
+
+        double error = 0;
+        for (int f = 0; f < frames + 1000; f++) {
+            float time = f < frames ? f / FPS : random.nextFloat() * timeLine.getEndTime();
+            timeLine.sampleAll(time, out);
+            for (int i = 0; i < nbTracks; i++) {
+                double[] expected = expected(tracks.get(i), time);
+                int o = timeLine.getOffset(i);
+                for (int k = 0; k < expected.length; k++) {
+                    double difference = Math.abs(expected[k] - out[o + k]);
+                    if (!(difference <= 1e-4)) {
+                        throw new IllegalStateException("track " + i + " at " + time + ": component " + k
+                                + " is " + out[o + k] + ", expected " + expected[k]);
+                    }
+                    error = Math.max(error, difference);
+                }
+            }
+        }
+        System.out.printf("Max difference objects / compiled: %.6f%n", error);
+    }
+
+    static void report(String name, int frames, int tracks, long elapsed) {
+        System.out.printf("  %-22s %6d frames x %4d tracks %9.2f ms %8.2f us/frame%n", name, frames, tracks, elapsed / 1e6, elapsed / 1e3 / frames);
+    }
+
+    /**
+     * One component of the value at <code>time</code>.
+     */
+    static float sampleObjects(List<AtomKeyframe<Object>> keys, float time) {
+        Object first = keys.get(0).getValue();
+        if (first instanceof Vector3f) {
+            return interpolate(keys, time).x;
+        }
+        int i = find(keys, time);
+        if (first instanceof Float) {
+            float a = (Float) keys.get(i).getValue(), b = (Float) keys.get(i + 1).getValue();
+            return a + (b - a) * fraction(keys, i, time);
+        }
+        Quaternion q = new Quaternion();
+        q.slerp((Quaternion) keys.get(i).getValue(), (Quaternion) keys.get(i + 1).getValue(), fraction(keys, i, time));
+        return q.getX();
+    }
+
+    static Vector3f interpolate(List<AtomKeyframe<Object>> keys, float time) {
+        int i = find(keys, time);
+        Vector3f a = (Vector3f) keys.get(i).getValue(), b = (Vector3f) keys.get(i + 1).getValue();
+        return new Vector3f().interpolateLocal(a, b, fraction(keys, i, time));
+    }
+
+    /**
+     * All the components of the value at <code>time</code>.
+     */
+    static double[] expected(List<AtomKeyframe<Object>> keys, float time) {
+        Object first = keys.get(0).getValue();
+        if (first instanceof Vector3f) {
+            Vector3f v = interpolate(keys, time);
+            return new double[]{v.x, v.y, v.z};
+        }
+        int i = find(keys, time);
+        double t = fraction(keys, i, time);
+        if (first instanceof Float) {
+            float a = (Float) keys.get(i).getValue(), b = (Float) keys.get(i + 1).getValue();
+            return new double[]{a + (b - a) * t};
+        }
+        Quaternion q0 = (Quaternion) keys.get(i).getValue(), q1 = (Quaternion) keys.get(i + 1).getValue();
+        double[] a = {q0.getX(), q0.getY(), q0.getZ(), q0.getW()};
+        double[] b = {q1.getX(), q1.getY(), q1.getZ(), q1.getW()};
+        double cos = a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+        double sign = cos < 0 ? -1 : 1;
+        double angle = Math.acos(Math.min(1, Math.abs(cos)));
+        double s0 = 1 - t, s1 = t;
+        if (angle > 1e-6) {
+            s0 = Math.sin((1 - t) * angle) / Math.sin(angle);
+            s1 = Math.sin(t * angle) / Math.sin(angle);
+        }
+        double[] q = new double[4];
+        for (int k = 0; k < 4; k++) {
+            q[k] = s0 * a[k] + s1 * sign * b[k];
+        }
+        return q;
+    }
+
+    static int find(List<AtomKeyframe<Object>> keys, float time) {
+        int i = 0;
+        while (i < keys.size() - 2 && keys.get(i + 1).getTime() <= time) {
+            i++;
+        }
+        return i;
+    }
+
+    static float fraction(List<AtomKeyframe<Object>> keys, int i, float time) {
+        float t0 = keys.get(i).getTime(), t1 = keys.get(i + 1).getTime();
+        return Math.max(0, Math.min(1, (time - t0) / (t1 - t0)));
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.logic.fuzzy;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import sg.atom.logic.fuzzy.compiled.BatchEvaluator;
+import sg.atom.logic.fuzzy.compiled.CompiledRuleSet;
+import sg.atom.logic.fuzzy.variables.Variable;
+import sg.atom.logic.fuzzy.variables.memberships.FuzzyMembership;
+
+/**
+ * NPC steering controller (distance, health -> speed) evaluated for a batch of
+ * agents: one agent at a time through the Variable maps and memberships, then
+ * compiled over columns, serial and split over a thread pool. The sampled
+ * outputs are checked against the centroid computed from the Variable maps,
+ * and the pooled outputs against the serial ones.
+ *
+ * Run with: java sg.atom.logic.fuzzy.FuzzyBatchBenchmark [agents] [threads]
+ *
+ * @author atomix
+ */
+public class FuzzyBatchBenchmark {
+
+    enum Range {
+
+        NEAR, MEDIUM, FAR
+    }
+
+    enum Level {
+
+        LOW, HIGH
+    }
+
+    enum Pace {
+
+        SLOW, NORMAL, FAST
+    }
+    static volatile double sink;
+    static final int RESOLUTION = 256;
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        int agents = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Variable<Range> distance = Variable.variable(Range.class, "distance", 0, 100);
+        distance.decrease(Range.NEAR, 10, 30).triangle(Range.MEDIUM, 20, 50, 80).increase(Range.FAR, 70, 90);
+        Variable<Level> health = Variable.variable(Level.class, "health", 0, 1);
+        health.decrease(Level.LOW, 0.2, 0.6).increase(Level.HIGH, 0.4, 0.8);
+        Variable<Pace> speed = Variable.variable(Pace.class, "speed", 0, 10);
+        speed.decrease(Pace.SLOW, 1, 4).triangle(Pace.NORMAL, 3, 5, 7).increase(Pace.FAST, 6, 9);
+
+        CompiledRuleSet.Builder builder = CompiledRuleSet.builder().input(distance).input(health).output(speed);
+        builder.rule().is("distance", Range.NEAR).is("health", Level.LOW).then("speed", Pace.FAST)
+                .rule().is("distance", Range.NEAR).is("health", Level.HIGH).then("speed", Pace.NORMAL)
+                .rule().is("distance", Range.MEDIUM).then("speed", Pace.NORMAL)
+                .rule().is("distance", Range.FAR).or().is("health", Level.LOW, 2).then("speed", Pace.SLOW);
+        CompiledRuleSet lookup = builder.build();
+        CompiledRuleSet sampled = builder.defuzzification(CompiledRuleSet.Defuzzification.SAMPLED).build();
+
+        Random random = new Random(42);
+        double[][] in = new double[2][agents];
+        for (int i = 0; i < agents; i++) {
+            in[0][i] = random.nextDouble() * 100;
+            in[1][i] = random.nextDouble();
+        }
+        double[][] out = new double[1][agents];
+        double[][] pooled = new double[1][agents];
+        double[][] exact = new double[1][agents];
+
+        BatchEvaluator serial = new BatchEvaluator(lookup, 1);
+        BatchEvaluator sampledSerial = new BatchEvaluator(sampled, 1);
+        BatchEvaluator parallel = new BatchEvaluator(lookup, threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            long start = System.nanoTime();
+            double sum = 0;
+            for (int i = 0; i < agents; i++) {
+                sum += perAgent(distance, health, speed, in[0][i], in[1][i]);
+            }
+            sink += sum;
+            report("per agent (maps)", agents, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            sampledSerial.evaluate(in, exact, agents);
+            report("compiled, sampled", agents, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            serial.evaluate(in, out, agents);
+            report("compiled, lookup", agents, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            parallel.evaluate(in, pooled, agents, pool);
+            report("compiled, lookup x" + threads, agents, System.nanoTime() - start);
+        }
+        pool.shutdown();
+
+        double[] x = new double[RESOLUTION];
+        double[][] mu = new double[Pace.values().length][RESOLUTION];
+        for (int s = 0; s < RESOLUTION; s++) {
+            x[s] = speed.min() + s * (speed.max() - speed.min()) / (RESOLUTION - 1);
+            Map<Pace, Double> degrees = speed.fuzzy(x[s]);
+            for (Pace p : Pace.values()) {
+                mu[p.ordinal()][s] = degrees.get(p);
+            }
+        }
+        double error = 0;
+        for (int i = 0; i < agents; i++) {
+            double expected = sampled(confidences(distance, health, in[0][i], in[1][i]), x, mu);
+            if (Math.abs(exact[0][i] - expected) > 1e-9) {
+                throw new IllegalStateException("agent " + i + ": sampled " + exact[0][i] + ", expected " + expected);
+            }
+            if (pooled[0][i] != out[0][i]) {
+                throw new IllegalStateException("agent " + i + ": pooled " + pooled[0][i] + ", serial " + out[0][i]);
+            }
+            error = Math.max(error, Math.abs(out[0][i] - exact[0][i]));
+        }
+        System.out.printf("Max difference lookup / sampled: %.3f%n", error);
+    }
+
+    static void report(String name, int agents, long elapsed) {
+        System.out.printf("  %-24s %8d agents %9.2f ms %12.0f agents/s%n", name, agents, elapsed / 1e6, agents * 1e9 / elapsed);
+    }
+
+    /**
+     * The same controller on the object model: maps of boxed degrees, and the
+     * memberships unfuzzy averaged by confidence.
+     */
+    static double perAgent(Variable<Range> distance, Variable<Level> health, Variable<Pace> speed, double d, double h) {
+        double[] confidences = confidences(distance, health, d, h);
+        double x = 0, w = 0;
+        Pace[] paces = Pace.values();
+        for (int t = 0; t < paces.length; t++) {
+            if (confidences[t] > 0) {
+                x += ((FuzzyMembership) speed.membership(paces[t])).unfuzzy(confidences[t]) * confidences[t];
+                w += confidences[t];
+            }
+        }
+        return w > 0 ? x / w : 5;
+    }
+
+    /**
+     * The confidences of slow, normal and fast from the Variable maps.
+     */
+    static double[] confidences(Variable<Range> distance, Variable<Level> health, double d, double h) {
+        Map<Range, Double> dm = distance.fuzzy(d);
+        Map<Level, Double> hm = health.fuzzy(h);
+        double fast = Math.min(dm.get(Range.NEAR), hm.get(Level.LOW));
+        double normal = Math.max(Math.min(dm.get(Range.NEAR), hm.get(Level.HIGH)), dm.get(Range.MEDIUM));
+        double low = hm.get(Level.LOW);
+        double slow = Math.max(dm.get(Range.FAR), low * low);
+        return new double[]{slow, normal, fast};
+    }
+
+    /**
+     * Center of gravity of the max aggregation of the clipped terms, sampled
+     * at x where term t has the degrees mu[t].
+     */
+    static double sampled(double[] confidences, double[] x, double[][] mu) {
+        double a = 0, m = 0;
+        for (int s = 0; s < x.length; s++) {
+            double y = 0;
+            for (int t = 0; t < confidences.length; t++) {
+                if (confidences[t] > 0) {
+                    y = Math.max(y, Math.min(confidences[t], mu[t][s]));
+                }
+            }
+            a += y;
+            m += y * x[s];
+        }
+        return a > 0 ? m / a : (x[0] + x[x.length - 1]) / 2;
+    }
+}
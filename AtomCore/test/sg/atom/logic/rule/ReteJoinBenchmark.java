@@ -0,0 +1,252 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.logic.rule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import sg.atom.logic.rule.conflict.AbstractConflictSet;
+import sg.atom.logic.rule.conflict.ConflictSetElement;
+import sg.atom.logic.rule.conflict.NoMoreElementsException;
+
+/**
+ * Assert and retract benchmark of the Rete join nodes, with a rule joining
+ * orders to their customer (o.customer == c.id), with and without join keys
+ * given by the rule base. Every run checks that each order matched its own
+ * customer once, and that the retracted facts left the join memories by
+ * asserting them again.
+ *
+ * Run with: java sg.atom.logic.rule.ReteJoinBenchmark [maxFacts]
+ *
+ * @author atomix
+ */
+public class ReteJoinBenchmark {
+
+    public static void main(String[] args) {
+        int maxFacts = args.length > 0 ? Integer.parseInt(args[0]) : 16000;
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + round);
+            for (int facts = 1000; facts <= maxFacts; facts *= 2) {
+                run(facts, false);
+                run(facts, true);
+            }
+        }
+    }
+
+    static void run(int facts, boolean indexed) {
+        int customers = facts / 4;
+        List objs = new ArrayList(facts);
+        for (int i = 0; i < customers; i++) {
+            objs.add(new Customer(i));
+        }
+        for (int i = customers; i < facts; i++) {
+            objs.add(new Order(i, i % customers));
+        }
+        Collections.shuffle(objs, new Random(facts));
+
+        CountingConflictSet conflictSet = new CountingConflictSet();
+        OrderKnowledgeBase.nextIndexed = indexed;
+        OrderKnowledgeBase kb = new OrderKnowledgeBase(conflictSet);
+        long start = System.nanoTime();
+        kb.getRuleBase().assertObjects(objs);
+        long asserted = System.nanoTime();
+        for (int i = 0; i < objs.size(); i += 2) {
+            kb.retract(objs.get(i));
+        }
+        long retracted = System.nanoTime();
+        long matches = conflictSet.inserted;
+        if (matches != facts - customers) {
+            throw new IllegalStateException(facts + " facts gave " + matches + " matches, not " + (facts - customers));
+        }
+
+        // Asserting the retracted half again must match only the pairs
+        // that lost a fact, or the join memories kept retracted objects
+        List again = new ArrayList();
+        boolean[] customerRetracted = new boolean[customers];
+        for (int i = 0; i < objs.size(); i += 2) {
+            Object obj = objs.get(i);
+            again.add(obj);
+            if (obj instanceof Customer) {
+                customerRetracted[((Customer) obj).id] = true;
+            }
+        }
+        long expected = 0;
+        for (int i = 0; i < objs.size(); i++) {
+            Object obj = objs.get(i);
+            if (obj instanceof Order && (i % 2 == 0 || customerRetracted[((Order) obj).customer])) {
+                expected++;
+            }
+        }
+        conflictSet.inserted = 0;
+        kb.getRuleBase().assertObjects(again);
+        if (conflictSet.inserted != expected) {
+            throw new IllegalStateException("reasserting " + again.size() + " facts gave "
+                    + conflictSet.inserted + " matches, not " + expected);
+        }
+        System.out.printf("  %-8s %7d facts %8d matches  assert %9.2f ms  retract %9.2f ms%n",
+                indexed ? "hashed" : "scan", facts, matches,
+                (asserted - start) / 1e6, (retracted - asserted) / 1e6);
+    }
+
+    public static class Customer {
+
+        final int id;
+
+        Customer(int id) {
+            this.id = id;
+        }
+    }
+
+    public static class Order {
+
+        final int id;
+        final int customer;
+
+        Order(int id, int customer) {
+            this.id = id;
+            this.customer = customer;
+        }
+    }
+
+    static class OrderKnowledgeBase extends AbstractKnowledgeBase {
+
+        // read by createRuleBase, called from the super constructor
+        static boolean nextIndexed;
+
+        OrderKnowledgeBase(CountingConflictSet conflictSet) {
+            super(conflictSet);
+        }
+
+        protected AbstractRuleBase createRuleBase() {
+            return new OrderRuleBase(this, nextIndexed);
+        }
+    }
+
+    /**
+     * What the rule compiler would generate for:
+     * rule match { declarations Customer c; Order o; conditions o.customer == c.id; }
+     */
+    static class OrderRuleBase extends AbstractRuleBase {
+
+        final boolean indexed;
+        Customer c;
+        Order o;
+
+        OrderRuleBase(AbstractKnowledgeBase kb, boolean indexed) {
+            super(kb);
+            this.indexed = indexed;
+        }
+
+        public boolean hasJoinKey(int ruleIndex, int declIndex) {
+            return indexed;
+        }
+
+        public Object getLeftJoinKey(int ruleIndex, int declIndex, Object[] left) {
+            return Integer.valueOf(((Customer) left[0]).id);
+        }
+
+        public Object getRightJoinKey(int ruleIndex, int declIndex, Object right) {
+            return Integer.valueOf(((Order) right).customer);
+        }
+
+        public boolean checkConditionsOnlyOf(int ruleIndex, int declIndex) {
+            return true;
+        }
+
+        public boolean checkCondForDeclaration(int ruleIndex, int declIndex) {
+            return declIndex < 1 || o.customer == c.id;
+        }
+
+        public boolean checkCondition(int ruleIndex, int condIndex) {
+            return o.customer == c.id;
+        }
+
+        public Class getDeclaredClass(int ruleIndex, int declarationIndex) {
+            return declarationIndex == 0 ? Customer.class : Order.class;
+        }
+
+        public String getDeclaredClassName(int ruleIndex, int declarationIndex) {
+            return getDeclaredClass(ruleIndex, declarationIndex).getName();
+        }
+
+        public String[] getDeclaredIdentifiers(int ruleIndex) {
+            return new String[]{"c", "o"};
+        }
+
+        public int[] getNumberOfDeclarations() {
+            return new int[]{2};
+        }
+
+        public int[] getNumberOfConditions() {
+            return new int[]{1};
+        }
+
+        public int getNumberOfRules() {
+            return 1;
+        }
+
+        public Object getObject(int ruleIndex, int declarationIndex) {
+            return declarationIndex == 0 ? (Object) c : o;
+        }
+
+        public Object[] getObjects(int ruleIndex) {
+            return new Object[]{c, o};
+        }
+
+        public String[] getRuleNames() {
+            return new String[]{"match"};
+        }
+
+        protected void internalFireRule(int ruleIndex) {
+        }
+
+        public void setObject(int ruleIndex, int declarationIndex, Object value) {
+            if (declarationIndex == 0) {
+                c = (Customer) value;
+            } else {
+                o = (Order) value;
+            }
+        }
+
+        public void setObjects(int ruleIndex, Object[] objects) {
+            c = (Customer) objects[0];
+            o = (Order) objects[1];
+        }
+    }
+
+    /**
+     * Only counts the activations, so that the join nodes are what is timed,
+     * and checks that each pairs an order with its customer.
+     */
+    static class CountingConflictSet extends AbstractConflictSet {
+
+        long inserted;
+
+        public void flush() {
+        }
+
+        public void insertElement(ConflictSetElement element) {
+            Object[] objects = element.getObjects();
+            if (((Order) objects[1]).customer != ((Customer) objects[0]).id) {
+                throw new IllegalStateException("order " + ((Order) objects[1]).id
+                        + " matched customer " + ((Customer) objects[0]).id);
+            }
+            inserted++;
+        }
+
+        public boolean isEmpty() {
+            return true;
+        }
+
+        public ConflictSetElement nextElement() throws NoMoreElementsException {
+            throw new NoMoreElementsException();
+        }
+
+        public void removeElementsWith(Object obj) {
+        }
+    }
+}
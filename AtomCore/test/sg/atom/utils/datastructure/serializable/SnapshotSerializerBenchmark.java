@@ -0,0 +1,175 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.datastructure.serializable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshots of player entities (an inventory list, a stats map, a guild shared
+ * by the players and a cycle between the guild and its leader) serialized and
+ * deserialized with the {@link DefaultSerializer} (Java serialization) and the
+ * {@link BinarySerializer}, unregistered and with the entity classes
+ * registered. Checks that every snapshot reads back equal to its entity, and
+ * that the last bytes and copy of the timed loops are the same as the first.
+ *
+ * Run with: java sg.atom.utils.datastructure.serializable.SnapshotSerializerBenchmark [players] [ops]
+ *
+ * @author atomix
+ */
+public class SnapshotSerializerBenchmark {
+
+    static volatile Object sink;
+
+    enum Slot {
+
+        HEAD, CHEST, HANDS, FEET
+    }
+
+    static class Item implements Serializable {
+
+        int id;
+        short count;
+        float durability;
+        Slot slot;
+        String name;
+
+        boolean same(Item o) {
+            return id == o.id && count == o.count && durability == o.durability && slot == o.slot
+                    && name.equals(o.name);
+        }
+    }
+
+    static class Guild implements Serializable {
+
+        String name;
+        Player leader;
+        long founded;
+    }
+
+    static class Player implements Serializable {
+
+        long id;
+        String name;
+        double x, y, z;
+        int level;
+        boolean online;
+        int[] skills;
+        List<Item> inventory = new ArrayList<Item>();
+        Map<String, Integer> stats = new HashMap<String, Integer>();
+        Guild guild;
+        transient Object session = new Object();
+
+        boolean same(Player o) {
+            if (id != o.id || !name.equals(o.name) || x != o.x || y != o.y || z != o.z || level != o.level
+                    || online != o.online || !Arrays.equals(skills, o.skills) || !stats.equals(o.stats)
+                    || inventory.size() != o.inventory.size() || !guild.name.equals(o.guild.name)
+                    || guild.founded != o.guild.founded || o.session != null) {
+                return false;
+            }
+            for (int i = 0; i < inventory.size(); i++) {
+                if (!inventory.get(i).same(o.inventory.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        Guild guild = new Guild();
+        guild.name = "Night's Watch";
+        guild.founded = 1400000000000L;
+        ArrayList<Player> snapshot = new ArrayList<Player>();
+        for (int p = 0; p < players; p++) {
+            Player player = new Player();
+            player.id = 1000 + p;
+            player.name = "player" + p;
+            player.x = p * 1.5;
+            player.y = 64;
+            player.z = -p * 0.25;
+            player.level = p % 60;
+            player.online = p % 3 != 0;
+            player.skills = new int[]{p, p * 2, p * 3, 0, 0, 7};
+            for (int i = 0; i < 12; i++) {
+                Item it = new Item();
+                it.id = 5000 + i * 7;
+                it.count = (short) (i % 20 + 1);
+                it.durability = i / 12f;
+                it.slot = Slot.values()[i % 4];
+                it.name = "item" + it.id;
+                player.inventory.add(it);
+            }
+            player.stats.put("strength", p % 20);
+            player.stats.put("agility", p % 17);
+            player.stats.put("kills", p * 31);
+            player.guild = guild;
+            snapshot.add(player);
+        }
+        guild.leader = snapshot.get(0);
+
+        Serializer[] serializers = {DefaultSerializer.INSTANCE, new BinarySerializer(),
+            new BinarySerializer(Player.class, Item.class, Guild.class, Slot.class)};
+        String[] names = {"java", "binary", "registered"};
+
+        System.out.println("players=" + players + " ops=" + ops);
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            for (int s = 0; s < serializers.length; s++) {
+                Serializer serializer = serializers[s];
+                byte[] bytes = serializer.serialize(snapshot);
+                check(snapshot, serializer.deserialize(bytes));
+
+                System.gc();
+                long start = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    sink = serializer.serialize(snapshot);
+                }
+                long write = System.nanoTime() - start;
+                if (!Arrays.equals((byte[]) sink, bytes)) {
+                    throw new IllegalStateException(names[s] + " wrote other bytes for the same snapshot");
+                }
+                start = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    sink = serializer.deserialize(bytes);
+                }
+                long read = System.nanoTime() - start;
+                check(snapshot, sink);
+                System.out.printf("  %-10s %6d bytes  serialize %9.0f ops/s  deserialize %9.0f ops/s%n",
+                        names[s], bytes.length, ops * 1e9 / write, ops * 1e9 / read);
+            }
+        }
+
+        Copier copier = new SerializingCopier();
+        check(snapshot, copier.copy(snapshot));
+        check(snapshot, copier.thaw(copier.freeze(snapshot)));
+        System.out.println("SerializingCopier copies equal");
+    }
+
+    @SuppressWarnings("unchecked")
+    static void check(ArrayList<Player> expected, Object read) {
+        List<Player> copy = (List<Player>) read;
+        if (copy == expected || copy.size() != expected.size()) {
+            throw new IllegalStateException("Read " + copy.size() + " players of " + expected.size());
+        }
+        Guild guild = copy.get(0).guild;
+        for (int i = 0; i < copy.size(); i++) {
+            Player p = copy.get(i);
+            if (!expected.get(i).same(p) || p.guild != guild) {
+                throw new IllegalStateException("Player " + i + " read with other values");
+            }
+        }
+        if (guild.leader != copy.get(0)) {
+            throw new IllegalStateException("Guild leader not shared");
+        }
+    }
+}
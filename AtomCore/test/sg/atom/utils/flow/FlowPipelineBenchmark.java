@@ -0,0 +1,193 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.flow;
+
+/**
+ * A pipeline of pass-through components between a generator and a sink, run
+ * with one thread per component and on a {@link FlowScheduler}: the time to
+ * move all the packets through, and the peak number of workers of the pooled
+ * runs. The sink checks that every packet arrived, in order.
+ *
+ * Run with: java sg.atom.utils.flow.FlowPipelineBenchmark [stages] [packets] [workers]
+ *
+ * @author atomix
+ */
+public class FlowPipelineBenchmark {
+
+    static int packets;
+    static boolean batch;
+    static volatile long received;
+    static volatile boolean ordered;
+
+    @OutPort("OUT")
+    public static class Generator extends Component {
+
+        OutputPort out;
+
+        @Override
+        protected void openPorts() {
+            out = openOutput("OUT");
+        }
+
+        @Override
+        protected void execute() {
+            if (batch) {
+                Packet[] run = new Packet[16];
+                for (int i = 0; i < packets; i += run.length) {
+                    int n = Math.min(run.length, packets - i);
+                    Packet[] b = n == run.length ? run : new Packet[n];
+                    for (int k = 0; k < n; k++) {
+                        b[k] = create(Integer.valueOf(i + k));
+                    }
+                    out.send(b);
+                }
+            } else {
+                for (int i = 0; i < packets; i++) {
+                    out.send(create(Integer.valueOf(i)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Loops on receive() until its input is closed.
+     */
+    @InPort("IN")
+    @OutPort("OUT")
+    public static class Pass extends Component {
+
+        InputPort in;
+        OutputPort out;
+
+        @Override
+        protected void openPorts() {
+            in = openInput("IN");
+            out = openOutput("OUT");
+        }
+
+        @Override
+        protected void execute() {
+            Packet p;
+            while ((p = in.receive()) != null) {
+                out.send(p);
+            }
+        }
+    }
+
+    /**
+     * Forwards one packet per activation, so it holds no worker while its
+     * input is empty.
+     */
+    @InPort("IN")
+    @OutPort("OUT")
+    public static class PassOne extends Component {
+
+        InputPort in;
+        OutputPort out;
+
+        @Override
+        protected void openPorts() {
+            in = openInput("IN");
+            out = openOutput("OUT");
+        }
+
+        @Override
+        protected void execute() {
+            Packet p = in.receive();
+            if (p != null) {
+                out.send(p);
+            }
+        }
+    }
+
+    @InPort("IN")
+    public static class Sink extends Component {
+
+        InputPort in;
+
+        @Override
+        protected void openPorts() {
+            in = openInput("IN");
+        }
+
+        @Override
+        protected void execute() {
+            Packet p;
+            long count = received;
+            boolean inOrder = ordered;
+            while ((p = in.receive()) != null) {
+                inOrder &= ((Integer) p.getContent()).intValue() == count;
+                count++;
+                drop(p);
+            }
+            received = count;
+            ordered = inOrder;
+        }
+    }
+
+    static class Pipeline extends Network {
+
+        final int stages;
+        final boolean looping;
+
+        Pipeline(int stages, boolean looping) {
+            this.stages = stages;
+            this.looping = looping;
+            runTimeReqd = false;
+        }
+
+        @Override
+        protected void define() {
+            component("G", Generator.class);
+            String previous = "G.OUT";
+            for (int i = 0; i < stages; i++) {
+                component("P" + i, looping ? Pass.class : PassOne.class);
+                connect(previous, "P" + i + ".IN");
+                previous = "P" + i + ".OUT";
+            }
+            component("S", Sink.class);
+            connect(previous, "S.IN");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int stages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        packets = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("stages=" + stages + " packets=" + packets + " workers=" + workers);
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + round);
+            run("threaded", stages, true, false, 0);
+            run("threaded batch", stages, true, true, 0);
+            run("pooled", stages, true, false, workers);
+            run("pooled one-shot", stages, false, false, workers);
+        }
+    }
+
+    static void run(String name, int stages, boolean looping, boolean batched, int workers) throws Exception {
+        received = 0;
+        ordered = true;
+        batch = batched;
+        Pipeline network = new Pipeline(stages, looping);
+        FlowScheduler scheduler = workers > 0 ? new FlowScheduler(workers) : null;
+        network.setScheduler(scheduler);
+
+        long start = System.nanoTime();
+        network.go();
+        long elapsed = System.nanoTime() - start;
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+
+        if (received != packets || !ordered) {
+            throw new IllegalStateException(name + ": " + received + " of " + packets + " packets received"
+                    + (ordered ? "" : ", out of order"));
+        }
+        System.out.printf("  %-16s %9.1f ms %12.0f packet hops/s%s%n", name, elapsed / 1e6,
+                (double) packets * (stages + 1) * 1e9 / elapsed,
+                scheduler != null ? "  peak workers " + scheduler.getPeakWorkerCount() : "");
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.io.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Ratio and speed of the LZF, FastLZ and QuickLZ {@link Compressor}s on game
+ * payloads: a text save file, a network snapshot of entity states, a terrain
+ * heightmap and already compressed (random) data. Each payload is compressed
+ * and expanded between heap and direct ByteBuffers, then written through the
+ * {@link BlockCompressedOutputStream} on the writing thread and on all cores,
+ * and read back through the {@link BlockCompressedInputStream}. Every round
+ * trip is checked.
+ *
+ * Run with: java sg.atom.utils.io.compress.CompressionBenchmark [payloadKB] [ops]
+ *
+ * @author atomix
+ */
+public class CompressionBenchmark {
+
+    static final int[] ALGORITHMS = {Compressor.LZF, Compressor.FASTLZ, Compressor.QUICKLZ};
+    static final String[] NAMES = {"lzf", "fastlz", "quicklz"};
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 1024) * 1024;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(cores);
+
+        String[] payloads = {"save file", "snapshot", "heightmap", "random"};
+        byte[][] data = {saveFile(size), snapshot(size), heightmap(size), random(size)};
+
+        System.out.println("payload=" + size / 1024 + " KB ops=" + ops + " cores=" + cores);
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            for (int p = 0; p < data.length; p++) {
+                for (int a = 0; a < ALGORITHMS.length; a++) {
+                    buffers(payloads[p], NAMES[a], BlockCompressedOutputStream.getCompressor(ALGORITHMS[a]), data[p],
+                            ops);
+                }
+            }
+            for (int a = 0; a < ALGORITHMS.length; a++) {
+                stream(NAMES[a], ALGORITHMS[a], data[0], ops, null, 1);
+                stream(NAMES[a], ALGORITHMS[a], data[0], ops, executor, cores * 2);
+            }
+        }
+        executor.shutdown();
+    }
+
+    static void buffers(String payload, String name, Compressor compressor, byte[] data, int ops) {
+        for (boolean direct : new boolean[]{false, true}) {
+            ByteBuffer in = allocate(data.length, direct);
+            in.put(data).flip();
+            ByteBuffer compressed = allocate(compressor.getMaxCompressedLength(data.length), direct);
+            ByteBuffer out = allocate(data.length, direct);
+
+            long start = System.nanoTime();
+            int len = 0;
+            for (int i = 0; i < ops; i++) {
+                in.rewind();
+                compressed.clear();
+                len = compressor.compress(in, compressed);
+            }
+            long compress = System.nanoTime() - start;
+            compressed.flip();
+            start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                compressed.rewind();
+                out.clear();
+                compressor.expand(compressed, out, data.length);
+            }
+            long expand = System.nanoTime() - start;
+
+            out.flip();
+            if (!out.equals(ByteBuffer.wrap(data))) {
+                throw new IllegalStateException(name + " changed the " + payload);
+            }
+            System.out.printf("  %-10s %-8s %-6s ratio %5.2f  compress %8.1f MB/s  expand %8.1f MB/s%n", payload,
+                    name, direct ? "direct" : "heap", (double) data.length / len, mb(data.length, ops, compress),
+                    mb(data.length, ops, expand));
+        }
+    }
+
+    static void stream(String name, int algorithm, byte[] data, int ops, ExecutorService executor, int parallelism)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length);
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            bytes.reset();
+            BlockCompressedOutputStream out = new BlockCompressedOutputStream(bytes, algorithm,
+                    BlockCompressedOutputStream.DEFAULT_BLOCK_SIZE, executor, parallelism);
+            out.write(data);
+            out.close();
+        }
+        long compress = System.nanoTime() - start;
+
+        byte[] compressed = bytes.toByteArray();
+        byte[] read = new byte[data.length];
+        start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            BlockCompressedInputStream in = new BlockCompressedInputStream(new ByteArrayInputStream(compressed));
+            int n = in.read(read, 0, read.length);
+            if (n != data.length || in.read() != -1) {
+                throw new IllegalStateException(name + " stream read " + n + " bytes of " + data.length);
+            }
+        }
+        long expand = System.nanoTime() - start;
+        if (!Arrays.equals(data, read)) {
+            throw new IllegalStateException(name + " stream changed the data");
+        }
+        System.out.printf("  %-10s %-8s %-6s ratio %5.2f  compress %8.1f MB/s  expand %8.1f MB/s%n", "stream",
+                name, executor == null ? "serial" : "x" + parallelism, (double) data.length / compressed.length,
+                mb(data.length, ops, compress), mb(data.length, ops, expand));
+
+        compressed[compressed.length / 2] ^= 1;
+        try {
+            BlockCompressedInputStream in = new BlockCompressedInputStream(new ByteArrayInputStream(compressed));
+            while (in.read(read, 0, read.length) > 0) {
+            }
+            throw new IllegalStateException(name + " stream read corrupt data");
+        } catch (IOException expected) {
+            // checksum or block mismatch
+        }
+    }
+
+    static ByteBuffer allocate(int size, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    static double mb(int size, int ops, long nanos) {
+        return (double) size * ops / nanos * 1e9 / (1 << 20);
+    }
+
+    /**
+     * A text save file: one line of key/value pairs per entity.
+     */
+    static byte[] saveFile(int size) {
+        Random random = new Random(42);
+        String[] kinds = {"orc", "goblin", "villager", "chest", "torch", "tree"};
+        StringBuilder sb = new StringBuilder(size + 200);
+        for (int id = 0; sb.length() < size; id++) {
+            sb.append("entity id=").append(id).append(" type=").append(kinds[random.nextInt(kinds.length)])
+                    .append(" pos=").append(random.nextInt(4096)).append(',').append(random.nextInt(256))
+                    .append(',').append(random.nextInt(4096)).append(" hp=").append(random.nextInt(100))
+                    .append(" flags=").append(random.nextBoolean() ? "active" : "sleeping").append('\n');
+        }
+        return Arrays.copyOf(sb.toString().getBytes(), size);
+    }
+
+    /**
+     * A network snapshot: entity id, quantized position and velocity and
+     * state of 1000 slowly moving entities, frame after frame.
+     */
+    static byte[] snapshot(int size) {
+        Random random = new Random(42);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        int[] pos = new int[3000];
+        for (int i = 0; i < pos.length; i++) {
+            pos[i] = random.nextInt(1 << 16);
+        }
+        while (buffer.remaining() >= 16) {
+            for (int e = 0; e < 1000 && buffer.remaining() >= 16; e++) {
+                buffer.putShort((short) e);
+                for (int c = 0; c < 3; c++) {
+                    int v = random.nextInt(5) - 2;
+                    pos[e * 3 + c] += v;
+                    buffer.putShort((short) pos[e * 3 + c]);
+                    buffer.put((byte) v);
+                }
+                buffer.put((byte) (e % 7 == 0 ? 1 : 0));
+                buffer.putShort((short) 0);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * A terrain heightmap of 16 bit samples: smooth hills with some noise.
+     */
+    static byte[] heightmap(int size) {
+        Random random = new Random(42);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        int width = 512;
+        for (int i = 0; buffer.remaining() >= 2; i++) {
+            int x = i % width;
+            int z = i / width;
+            double h = 2000 + 800 * Math.sin(x / 40.0) * Math.cos(z / 55.0) + 300 * Math.sin((x + z) / 13.0);
+            buffer.putShort((short) ((int) h / 4 * 4 + random.nextInt(3)));
+        }
+        return buffer.array();
+    }
+
+    static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.utils.repository.pool;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Direct ByteBuffers of random sizes obtained and released by several threads:
+ * allocated each time, from the keyed {@link ByteBufferPool} (synchronized)
+ * and from the size class pool. Each buffer must come rewound with its limit
+ * at the requested size, and keeps a stamp written by its holder until it is
+ * released, so a buffer handed out twice fails the run.
+ *
+ * Run with: java sg.atom.utils.repository.pool.BufferPoolBenchmark [ops] [threads]
+ *
+ * @author atomix
+ */
+public class BufferPoolBenchmark {
+
+    interface Source {
+
+        ByteBuffer obtain(int size);
+
+        void release(ByteBuffer buffer);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int ops = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        final ByteBufferPool keyed = new ByteBufferPool(256);
+        final SizeClassPool<ByteBuffer> sized = SizeClassPool.byteBuffers(true, 32L << 20);
+        Source allocate = new Source() {
+            public ByteBuffer obtain(int size) {
+                return ByteBuffer.allocateDirect(size);
+            }
+
+            public void release(ByteBuffer buffer) {
+            }
+        };
+        Source keyedSource = new Source() {
+            public ByteBuffer obtain(int size) {
+                synchronized (keyed) {
+                    return keyed.getByteBuffer(size);
+                }
+            }
+
+            public void release(ByteBuffer buffer) {
+                synchronized (keyed) {
+                    keyed.release(buffer);
+                }
+            }
+        };
+        Source sizedSource = new Source() {
+            public ByteBuffer obtain(int size) {
+                return sized.obtain(size);
+            }
+
+            public void release(ByteBuffer buffer) {
+                sized.release(buffer);
+            }
+        };
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            run("allocateDirect", allocate, ops, threads);
+            run("ByteBufferPool", keyedSource, ops, threads);
+            run("SizeClassPool", sizedSource, ops, threads);
+        }
+        System.out.println(sized);
+    }
+
+    static void run(String name, final Source source, final int ops, int threads) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    ByteBuffer[] held = new ByteBuffer[32];
+                    long[] stamps = new long[held.length];
+                    for (int i = 0; i < ops && failure.get() == null; i++) {
+                        int k = random.nextInt(held.length);
+                        if (held[k] != null) {
+                            check(held[k], stamps[k]);
+                            source.release(held[k]);
+                            held[k] = null;
+                        } else {
+                            int size = 64 + random.nextInt(16384);
+                            held[k] = source.obtain(size);
+                            if (!held[k].isDirect() || held[k].position() != 0 || held[k].limit() != size) {
+                                failure.compareAndSet(null, "got " + held[k] + " for " + size + " bytes");
+                            }
+                            stamps[k] = seed << 32 | i;
+                            held[k].putLong(0, stamps[k]);
+                        }
+                    }
+                    for (int k = 0; k < held.length; k++) {
+                        if (held[k] != null) {
+                            check(held[k], stamps[k]);
+                            source.release(held[k]);
+                        }
+                    }
+                }
+
+                void check(ByteBuffer buffer, long stamp) {
+                    if (buffer.getLong(0) != stamp) {
+                        failure.compareAndSet(null, "buffer " + buffer + " was also used by another holder");
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (failure.get() != null) {
+            throw new IllegalStateException(name + ": " + failure.get());
+        }
+        long total = (long) ops * threads;
+        System.out.printf("  %-16s %9d ops %9.2f ms %12.0f ops/s%n", name, total, elapsed / 1e6, total * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,660 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package sg.atom.db.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sg.atom.db.PersistenceException;
+
+import static sg.atom.db.jdbc.Log.log;
+
+/**
+ * A pool of connections to one database, with one user, either read-only or read-write. Used by
+ * the {@link PooledConnectionProvider}.
+ *
+ * <p> Borrowing and returning a connection does not take a lock: idle connections wait in a
+ * lock-free queue and a semaphore bounds the number of connections in use. A borrower only blocks
+ * when all the connections are in use, for at most the configured timeout.
+ *
+ * <p> The borrower gets a proxy of the pooled connection. Its <code>close()</code> returns the
+ * connection to the pool, and it keeps the statements prepared with
+ * <code>prepareStatement(String)</code> open when they are closed, to hand them out again for
+ * the same SQL. A connection idle for longer than the validation interval is checked before it
+ * is handed out; connections that fail validation or that the repository reports as failed are
+ * closed and replaced by new ones.
+ */
+public class ConnectionPool
+{
+    /** Opens the connections of a pool. */
+    public static interface Opener
+    {
+        /** Opens a new connection, configured for the pool. */
+        public Connection open ()
+            throws PersistenceException;
+    }
+
+    /** A snapshot of the pool metrics. */
+    public static class Stats
+    {
+        /** The connections open, in use and idle, and the maximum. */
+        public final int size, inUse, idle, maxSize;
+
+        /** The number of borrows, of borrows which had to wait and of borrows which timed out. */
+        public final long borrows, waits, timeouts;
+
+        /** The connections opened, and closed after a failure or a failed validation. */
+        public final long opened, discarded;
+
+        /** The mean and maximum time waited for a connection, over all borrows. */
+        public final double averageWaitMillis, maxWaitMillis;
+
+        /** The time the connections were in use, as a fraction of the time the pool existed
+         * multiplied by its maximum size. */
+        public final double utilization;
+
+        protected Stats (ConnectionPool pool)
+        {
+            maxSize = pool._maxSize;
+            size = pool._size.get();
+            idle = pool._idleCount.get();
+            inUse = maxSize - pool._permits.availablePermits();
+            borrows = pool._borrows.get();
+            waits = pool._waits.get();
+            timeouts = pool._timeouts.get();
+            opened = pool._opened.get();
+            discarded = pool._discarded.get();
+            averageWaitMillis = borrows == 0 ? 0 : pool._waitNanos.get() / 1e6 / borrows;
+            maxWaitMillis = pool._maxWaitNanos.get() / 1e6;
+            long age = Math.max(1, System.nanoTime() - pool._created);
+            utilization = pool._busyNanos.get() / ((double)age * maxSize);
+        }
+
+        @Override
+        public String toString ()
+        {
+            return String.format(
+                "[size=%d, inUse=%d, idle=%d, max=%d, borrows=%d, waits=%d, timeouts=%d, " +
+                "opened=%d, discarded=%d, avgWait=%.3fms, maxWait=%.3fms, utilization=%.1f%%]",
+                size, inUse, idle, maxSize, borrows, waits, timeouts, opened, discarded,
+                averageWaitMillis, maxWaitMillis, utilization * 100);
+        }
+    }
+
+    /**
+     * Creates a pool and opens its first <code>minSize</code> connections.
+     *
+     * @param name the name of the pool in the logs.
+     * @param opener opens the connections.
+     * @param minSize the connections opened with the pool.
+     * @param maxSize the maximum number of connections in use at once.
+     * @param timeoutMillis the longest a borrower waits for a connection.
+     * @param validateMillis how long a connection can stay idle before it is validated when
+     * borrowed, 0 to validate every time.
+     * @param validationQuery a query to validate the connections, or null to use
+     * <code>Connection.isValid</code>.
+     * @param statementCacheSize the prepared statements kept open per connection, 0 for none.
+     */
+    public ConnectionPool (String name, Opener opener, int minSize, int maxSize,
+                           long timeoutMillis, long validateMillis, String validationQuery,
+                           int statementCacheSize)
+        throws PersistenceException
+    {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException(
+                "Invalid pool size [name=" + name + ", min=" + minSize + ", max=" + maxSize + "]");
+        }
+        _name = name;
+        _opener = opener;
+        _maxSize = maxSize;
+        _timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        _validateNanos = TimeUnit.MILLISECONDS.toNanos(validateMillis);
+        _validationQuery = validationQuery;
+        _statementCacheSize = statementCacheSize;
+        _permits = new Semaphore(maxSize);
+        for (int ii = 0; ii < minSize; ii++) {
+            offerIdle(open());
+        }
+    }
+
+    /**
+     * Borrows a connection, waiting if they are all in use. The connection must be handed back
+     * with {@link #release} (or its <code>close()</code>), or {@link #discard} if it failed.
+     *
+     * @exception PersistenceException if no connection was returned in time, or a new one could
+     * not be opened.
+     */
+    public Connection borrow ()
+        throws PersistenceException
+    {
+        if (_shutdown) {
+            throw new PersistenceException("Connection pool shut down [name=" + _name + "].");
+        }
+        _borrows.incrementAndGet();
+        if (!_permits.tryAcquire()) {
+            _waits.incrementAndGet();
+            long start = System.nanoTime();
+            boolean acquired;
+            try {
+                acquired = _permits.tryAcquire(_timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException("Interrupted waiting for a connection [name=" +
+                                               _name + "].", ie);
+            }
+            long waited = System.nanoTime() - start;
+            _waitNanos.addAndGet(waited);
+            for (long max = _maxWaitNanos.get(); waited > max; max = _maxWaitNanos.get()) {
+                if (_maxWaitNanos.compareAndSet(max, waited)) {
+                    break;
+                }
+            }
+            if (!acquired) {
+                _timeouts.incrementAndGet();
+                throw new PersistenceException("Timed out waiting for a connection [name=" + _name +
+                                               ", timeout=" + (_timeoutNanos / 1000000) + "ms].");
+            }
+        }
+
+        try {
+            Pooled pooled;
+            while ((pooled = pollIdle()) != null) {
+                if (validate(pooled)) {
+                    break;
+                }
+                _discarded.incrementAndGet();
+                close(pooled);
+            }
+            if (pooled == null) {
+                pooled = open();
+            }
+            return pooled.lease();
+        } catch (PersistenceException pe) {
+            _permits.release();
+            throw pe;
+        } catch (RuntimeException re) {
+            _permits.release();
+            throw re;
+        }
+    }
+
+    /**
+     * Hands back a connection obtained from {@link #borrow}. Releasing it more than once has no
+     * effect.
+     */
+    public void release (Connection conn)
+    {
+        Lease lease = endLease(conn);
+        if (lease != null) {
+            Pooled pooled = lease.pooled;
+            if (_shutdown) {
+                close(pooled);
+            } else if (!pooled.reset()) {
+                _discarded.incrementAndGet();
+                close(pooled);
+            } else {
+                offerIdle(pooled);
+            }
+            _permits.release();
+        }
+    }
+
+    /**
+     * Closes a connection obtained from {@link #borrow} after a failure. A new connection will be
+     * opened in its place when needed.
+     */
+    public void discard (Connection conn)
+    {
+        Lease lease = endLease(conn);
+        if (lease != null) {
+            _discarded.incrementAndGet();
+            close(lease.pooled);
+            _permits.release();
+        }
+    }
+
+    public Stats getStats ()
+    {
+        return new Stats(this);
+    }
+
+    /**
+     * Closes the idle connections, and the connections in use when they are released.
+     */
+    public void shutdown ()
+    {
+        _shutdown = true;
+        Pooled pooled;
+        while ((pooled = pollIdle()) != null) {
+            close(pooled);
+        }
+    }
+
+    protected Pooled open ()
+        throws PersistenceException
+    {
+        Pooled pooled = new Pooled(this, _opener.open());
+        _size.incrementAndGet();
+        _opened.incrementAndGet();
+        return pooled;
+    }
+
+    protected void close (Pooled pooled)
+    {
+        _size.decrementAndGet();
+        pooled.close();
+    }
+
+    /**
+     * Ends the lease of a connection borrowed from this pool, returns null if it was already
+     * returned.
+     */
+    protected Lease endLease (Connection conn)
+    {
+        Lease lease = lease(conn);
+        if (lease == null || lease.pooled.pool != this) {
+            log.warning("Released a connection not borrowed from the pool", "pool", _name,
+                        "conn", conn);
+            return null;
+        }
+        if (!lease.end()) {
+            return null;
+        }
+        _busyNanos.addAndGet(System.nanoTime() - lease.start);
+        return lease;
+    }
+
+    protected Pooled pollIdle ()
+    {
+        Pooled pooled = _idle.poll();
+        if (pooled != null) {
+            _idleCount.decrementAndGet();
+        }
+        return pooled;
+    }
+
+    protected void offerIdle (Pooled pooled)
+    {
+        pooled.idleSince = System.nanoTime();
+        _idleCount.incrementAndGet();
+        _idle.offer(pooled);
+    }
+
+    protected boolean validate (Pooled pooled)
+    {
+        Connection conn = pooled.conn;
+        try {
+            if (conn.isClosed()) {
+                return false;
+            }
+            if (System.nanoTime() - pooled.idleSince < _validateNanos) {
+                return true;
+            }
+            if (_validationQuery != null) {
+                Statement stmt = conn.createStatement();
+                try {
+                    stmt.execute(_validationQuery);
+                } finally {
+                    stmt.close();
+                }
+                return true;
+            }
+            return conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException sqe) {
+            log.info("Pooled connection failed validation", "pool", _name, "error", sqe);
+            return false;
+        } catch (AbstractMethodError ame) {
+            // a JDBC 3 driver, without isValid(); it was not closed
+            return true;
+        }
+    }
+
+    /**
+     * Returns the pool the supplied connection was borrowed from, or null if it was not borrowed
+     * from a pool.
+     */
+    public static ConnectionPool poolOf (Connection conn)
+    {
+        Lease lease = lease(conn);
+        return lease == null ? null : lease.pooled.pool;
+    }
+
+    protected static Lease lease (Connection conn)
+    {
+        if (conn != null && Proxy.isProxyClass(conn.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(conn);
+            if (handler instanceof Lease) {
+                return (Lease)handler;
+            }
+        }
+        return null;
+    }
+
+    /** A pooled connection and its cached statements. */
+    protected static class Pooled
+    {
+        public final ConnectionPool pool;
+        public final Connection conn;
+        public final boolean autoCommit;
+        public long idleSince;
+
+        /** The cached statements by SQL, least recently used first. Only used by the borrower. */
+        public final LinkedHashMap<String, CachedStatement> statements;
+
+        /** Statements evicted from the cache while leased, closed when the connection is reset. */
+        public final List<CachedStatement> evicted = new ArrayList<CachedStatement>();
+
+        public Pooled (ConnectionPool pool, Connection conn)
+            throws PersistenceException
+        {
+            this.pool = pool;
+            this.conn = conn;
+            try {
+                this.autoCommit = conn.getAutoCommit();
+            } catch (SQLException sqe) {
+                closeQuietly(conn);
+                throw new PersistenceException("Failed to read auto-commit of new connection [pool=" +
+                                               pool._name + "].", sqe);
+            }
+            final int capacity = pool._statementCacheSize;
+            statements = capacity <= 0 ? null :
+                new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry (
+                    Map.Entry<String, CachedStatement> eldest) {
+                    if (size() <= capacity) {
+                        return false;
+                    }
+                    CachedStatement cached = eldest.getValue();
+                    if (cached.evict()) {
+                        evicted.add(cached);
+                    }
+                    return true;
+                }
+            };
+        }
+
+        public Connection lease ()
+        {
+            return (Connection)Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(), CONNECTION_INTERFACES, new Lease(this));
+        }
+
+        public PreparedStatement prepare (Connection proxy, String sql)
+            throws SQLException
+        {
+            if (statements == null) {
+                return conn.prepareStatement(sql);
+            }
+            CachedStatement cached = statements.get(sql);
+            if (cached == null) {
+                cached = new CachedStatement(conn.prepareStatement(sql));
+                statements.put(sql, cached);
+            } else if (cached.lease != null) {
+                // the same SQL twice at once: this one is not cached
+                return conn.prepareStatement(sql);
+            }
+            return cached.checkOut(proxy);
+        }
+
+        /**
+         * Prepares the connection for the next borrower, returns false if it can not be reused.
+         */
+        public boolean reset ()
+        {
+            try {
+                if (conn.isClosed()) {
+                    return false;
+                }
+                if (!conn.getAutoCommit()) {
+                    // work the borrower neither committed nor rolled back
+                    conn.rollback();
+                }
+                if (conn.getAutoCommit() != autoCommit) {
+                    conn.setAutoCommit(autoCommit);
+                }
+                if (statements != null) {
+                    // statements left open by the borrower
+                    for (CachedStatement cached : statements.values()) {
+                        cached.lease = null;
+                    }
+                    closeEvicted();
+                }
+                return true;
+            } catch (SQLException sqe) {
+                log.info("Failed to reset pooled connection", "pool", pool._name, "error", sqe);
+                return false;
+            }
+        }
+
+        public void close ()
+        {
+            if (statements != null) {
+                for (CachedStatement cached : statements.values()) {
+                    closeQuietly(cached.stmt);
+                }
+                statements.clear();
+                closeEvicted();
+            }
+            closeQuietly(conn);
+        }
+
+        protected void closeEvicted ()
+        {
+            for (CachedStatement cached : evicted) {
+                cached.lease = null;
+                closeQuietly(cached.stmt);
+            }
+            evicted.clear();
+        }
+    }
+
+    /** The connection handed to one borrower. */
+    protected static class Lease implements InvocationHandler
+    {
+        public final Pooled pooled;
+        public final long start = System.nanoTime();
+
+        public Lease (Pooled pooled)
+        {
+            this.pooled = pooled;
+        }
+
+        /** Ends the lease, returns false if it had already ended. */
+        public boolean end ()
+        {
+            return _ended.compareAndSet(0, 1);
+        }
+
+        public Object invoke (Object proxy, Method method, Object[] args)
+            throws Throwable
+        {
+            String name = method.getName();
+            if (args == null || args.length == 0) {
+                if (name.equals("close")) {
+                    pooled.pool.release((Connection)proxy);
+                    return null;
+                }
+                if (name.equals("isClosed")) {
+                    return _ended.get() != 0 || pooled.conn.isClosed();
+                }
+                if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                if (name.equals("toString")) {
+                    return "Pooled[" + pooled.conn + "]";
+                }
+            } else if (name.equals("equals") && args.length == 1) {
+                return proxy == args[0];
+            }
+            if (_ended.get() != 0) {
+                throw new SQLException("Connection returned to the pool [pool=" +
+                                       pooled.pool._name + "].");
+            }
+            if (name.equals("prepareStatement") && args.length == 1) {
+                return pooled.prepare((Connection)proxy, (String)args[0]);
+            }
+            return delegate(pooled.conn, method, args);
+        }
+
+        protected final AtomicInteger _ended = new AtomicInteger();
+    }
+
+    /** A prepared statement kept open between borrowers. */
+    protected static class CachedStatement
+    {
+        public final PreparedStatement stmt;
+
+        /** The borrower of the statement, null when it is idle. */
+        public StatementLease lease;
+        public boolean evicted;
+
+        public CachedStatement (PreparedStatement stmt)
+        {
+            this.stmt = stmt;
+        }
+
+        public PreparedStatement checkOut (Connection connection)
+            throws SQLException
+        {
+            stmt.clearParameters();
+            lease = new StatementLease(this, connection);
+            return (PreparedStatement)Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(), STATEMENT_INTERFACES, lease);
+        }
+
+        /**
+         * Called when the statement leaves the cache: closes it now, or when it or its connection
+         * is returned. Returns true if it is still leased.
+         */
+        public boolean evict ()
+        {
+            evicted = true;
+            if (lease == null) {
+                closeQuietly(stmt);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /** The cached statement handed to one borrower. */
+    protected static class StatementLease implements InvocationHandler
+    {
+        public final CachedStatement cached;
+        public final Connection connection;
+
+        public StatementLease (CachedStatement cached, Connection connection)
+        {
+            this.cached = cached;
+            this.connection = connection;
+        }
+
+        public Object invoke (Object proxy, Method method, Object[] args)
+            throws Throwable
+        {
+            String name = method.getName();
+            if (args == null || args.length == 0) {
+                if (name.equals("close")) {
+                    if (cached.lease == this) {
+                        cached.lease = null;
+                        if (cached.evicted) {
+                            cached.stmt.close();
+                        } else {
+                            cached.stmt.clearBatch();
+                        }
+                    }
+                    return null;
+                }
+                if (name.equals("isClosed")) {
+                    return cached.lease != this;
+                }
+                if (name.equals("getConnection")) {
+                    return connection;
+                }
+                if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                if (name.equals("toString")) {
+                    return "Cached[" + cached.stmt + "]";
+                }
+            } else if (name.equals("equals") && args.length == 1) {
+                return proxy == args[0];
+            }
+            if (cached.lease != this) {
+                throw new SQLException("Statement closed.");
+            }
+            return delegate(cached.stmt, method, args);
+        }
+    }
+
+    protected static Object delegate (Object target, Method method, Object[] args)
+        throws Throwable
+    {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ite) {
+            throw ite.getCause();
+        }
+    }
+
+    protected static void closeQuietly (Connection conn)
+    {
+        try {
+            conn.close();
+        } catch (SQLException sqe) {
+            log.warning("Error closing pooled connection", "error", sqe);
+        }
+    }
+
+    protected static void closeQuietly (Statement stmt)
+    {
+        try {
+            stmt.close();
+        } catch (SQLException sqe) {
+            log.warning("Error closing cached statement", "error", sqe);
+        }
+    }
+
+    protected final String _name;
+    protected final Opener _opener;
+    protected final int _maxSize;
+    protected final long _timeoutNanos, _validateNanos;
+    protected final String _validationQuery;
+    protected final int _statementCacheSize;
+
+    /** One permit per connection that may be borrowed. */
+    protected final Semaphore _permits;
+
+    /** The idle connections; the count avoids the linear {@link ConcurrentLinkedQueue#size}. */
+    protected final ConcurrentLinkedQueue<Pooled> _idle = new ConcurrentLinkedQueue<Pooled>();
+    protected final AtomicInteger _idleCount = new AtomicInteger();
+
+    protected final AtomicInteger _size = new AtomicInteger();
+    protected final AtomicLong _borrows = new AtomicLong(), _waits = new AtomicLong(),
+        _timeouts = new AtomicLong(), _opened = new AtomicLong(), _discarded = new AtomicLong(),
+        _waitNanos = new AtomicLong(), _maxWaitNanos = new AtomicLong(),
+        _busyNanos = new AtomicLong();
+    protected final long _created = System.nanoTime();
+    protected volatile boolean _shutdown;
+
+    protected static final Class<?>[] CONNECTION_INTERFACES = { Connection.class };
+    protected static final Class<?>[] STATEMENT_INTERFACES = { PreparedStatement.class };
+
+    /** The time given to <code>Connection.isValid</code>. */
+    protected static final int VALIDATION_TIMEOUT_SECONDS = 5;
+}
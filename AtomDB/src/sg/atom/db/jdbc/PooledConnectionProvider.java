@@ -0,0 +1,239 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package sg.atom.db.jdbc;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import sg.atom.db.PersistenceException;
+import sg.atom.db.util.PropertiesUtil;
+
+import static sg.atom.db.jdbc.Log.log;
+
+/**
+ * A connection provider configured like the {@link StaticConnectionProvider}, which hands each
+ * caller its own connection from a {@link ConnectionPool}. Concurrent repository operations thus
+ * run on separate connections instead of queueing on a single one.
+ *
+ * <p> Like the static provider, identifiers with the same username, URL and read-only flag share
+ * their connections: read-only and read-write connections come from separate pools. In addition
+ * to the static provider properties, each identifier (or the <code>default</code>) can configure
+ * its pool:
+ *
+ * <pre>
+ * IDENT.pool.min=[connections opened with the pool, default 1]
+ * IDENT.pool.max=[connections in use at once, default 8]
+ * IDENT.pool.timeout=[milliseconds to wait for a connection, default 30000]
+ * IDENT.pool.validate=[milliseconds a connection can be idle before it is validated, default 1000]
+ * IDENT.pool.validationQuery=[query validating a connection, default Connection.isValid()]
+ * IDENT.pool.statements=[prepared statements cached per connection, default 32]
+ * </pre>
+ *
+ * <p> The pool metrics are available through {@link #getStats}.
+ */
+public class PooledConnectionProvider extends StaticConnectionProvider
+{
+    /**
+     * Constructs a pooled connection provider which will load its configuration from a properties
+     * file accessible via the classpath of the running application and identified by the specified
+     * path.
+     *
+     * @exception IOException thrown if an error occurs locating or loading the specified
+     * properties file.
+     */
+    public PooledConnectionProvider (String propPath)
+        throws IOException
+    {
+        super(propPath);
+    }
+
+    /**
+     * Constructs a pooled connection provider which will fetch its configuration information from
+     * the specified properties object.
+     */
+    public PooledConnectionProvider (Properties props)
+    {
+        super(props);
+    }
+
+    @Override
+    public Connection getConnection (String ident, boolean readOnly)
+        throws PersistenceException
+    {
+        String mapkey = ident + ":" + readOnly;
+        ConnectionPool pool = _pools.get(mapkey);
+        if (pool == null) {
+            pool = createPool(ident, readOnly, mapkey);
+        }
+        return pool.borrow();
+    }
+
+    @Override
+    public void releaseConnection (String ident, boolean readOnly, Connection conn)
+    {
+        ConnectionPool pool = ConnectionPool.poolOf(conn);
+        if (pool == null) {
+            log.warning("Released a connection which is not pooled", "ident", ident, "conn", conn);
+            return;
+        }
+        pool.release(conn);
+    }
+
+    @Override
+    public void connectionFailed (
+        String ident, boolean readOnly, Connection conn, SQLException error)
+    {
+        ConnectionPool pool = ConnectionPool.poolOf(conn);
+        if (pool == null) {
+            log.warning("Unknown connection failed!?", "ident", ident, "conn", conn);
+            return;
+        }
+        pool.discard(conn);
+    }
+
+    /**
+     * Returns the metrics of the pool serving the supplied identifier, or null if no connection
+     * was requested for it yet.
+     */
+    public ConnectionPool.Stats getStats (String ident, boolean readOnly)
+    {
+        ConnectionPool pool = _pools.get(ident + ":" + readOnly);
+        return pool == null ? null : pool.getStats();
+    }
+
+    @Override
+    public void shutdown ()
+    {
+        synchronized (_keyPools) {
+            for (ConnectionPool pool : _keyPools.values()) {
+                pool.shutdown();
+            }
+            _keyPools.clear();
+            _pools.clear();
+        }
+        super.shutdown();
+    }
+
+    /**
+     * Creates the pool of an identifier, or maps it to the pool of another identifier using the
+     * same database, user and read-only flag.
+     */
+    protected ConnectionPool createPool (final String ident, final boolean readOnly, String mapkey)
+        throws PersistenceException
+    {
+        Properties props = PropertiesUtil.getSubProperties(_props, ident, DEFAULTS_KEY);
+
+        // get the JDBC configuration info
+        String err = "No driver class specified [ident=" + ident + "].";
+        final String driver = requireProp(props, "driver", err);
+        err = "No driver URL specified [ident=" + ident + "].";
+        final String url = requireProp(props, "url", err);
+        err = "No driver username specified [ident=" + ident + "].";
+        final String username = requireProp(props, "username", err);
+        final String password = props.getProperty("password", "");
+        final String autoCommit = props.getProperty("autocommit");
+
+        String key = username + "@" + url + ":" + readOnly;
+        synchronized (_keyPools) {
+            ConnectionPool pool = _pools.get(mapkey);
+            if (pool != null) {
+                return pool;
+            }
+            pool = _keyPools.get(key);
+            if (pool == null) {
+                log.debug("Creating pool " + key + " for " + ident + ".");
+                ConnectionPool.Opener opener = new ConnectionPool.Opener() {
+                    public Connection open ()
+                        throws PersistenceException
+                    {
+                        return openPooledConnection(
+                            ident, readOnly, driver, url, username, password, autoCommit);
+                    }
+                };
+                pool = new ConnectionPool(
+                    key, opener, getIntProp(props, "pool.min", DEFAULT_MIN_SIZE),
+                    getIntProp(props, "pool.max", DEFAULT_MAX_SIZE),
+                    getIntProp(props, "pool.timeout", DEFAULT_TIMEOUT_MILLIS),
+                    getIntProp(props, "pool.validate", DEFAULT_VALIDATE_MILLIS),
+                    props.getProperty("pool.validationQuery"),
+                    getIntProp(props, "pool.statements", DEFAULT_STATEMENT_CACHE_SIZE));
+                _keyPools.put(key, pool);
+            } else {
+                log.debug("Reusing pool " + key + " for " + ident + ".");
+            }
+            _pools.put(mapkey, pool);
+            return pool;
+        }
+    }
+
+    /**
+     * Opens a connection for a pool, with the auto-commit and read-only settings of the
+     * identifier.
+     */
+    protected Connection openPooledConnection (
+        String ident, boolean readOnly, String driver, String url, String username,
+        String password, String autoCommit)
+        throws PersistenceException
+    {
+        Connection conn = openConnection(driver, url, username, password);
+
+        // if we were requested to configure auto-commit, then do so
+        if (autoCommit != null) {
+            try {
+                conn.setAutoCommit(Boolean.valueOf(autoCommit));
+            } catch (SQLException sqe) {
+                closeConnection(ident, conn);
+                String err = "Failed to configure auto-commit [url=" + url +
+                    ", ident=" + ident + ", autoCommit=" + autoCommit + "].";
+                throw new PersistenceException(err, sqe);
+            }
+        }
+
+        // make the connection read-only to let the JDBC driver know that it can and should use
+        // the read-only mirror(s)
+        if (readOnly) {
+            try {
+                conn.setReadOnly(true);
+            } catch (SQLException sqe) {
+                closeConnection(ident, conn);
+                String err = "Failed to make connection read-only [url=" + url +
+                    ", ident=" + ident + "].";
+                throw new PersistenceException(err, sqe);
+            }
+        }
+        return conn;
+    }
+
+    protected static int getIntProp (Properties props, String name, int defval)
+        throws PersistenceException
+    {
+        String value = props.getProperty(name);
+        if (value == null) {
+            return defval;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException nfe) {
+            throw new PersistenceException("Invalid " + name + " value: " + value, nfe);
+        }
+    }
+
+    /** The pools by identifier and read-only flag, read without locking. */
+    protected ConcurrentHashMap<String, ConnectionPool> _pools =
+        new ConcurrentHashMap<String, ConnectionPool>();
+
+    /** The pools by username, URL and read-only flag. Synchronize on it to create pools. */
+    protected HashMap<String, ConnectionPool> _keyPools = new HashMap<String, ConnectionPool>();
+
+    protected static final int DEFAULT_MIN_SIZE = 1;
+    protected static final int DEFAULT_MAX_SIZE = 8;
+    protected static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+    protected static final int DEFAULT_VALIDATE_MILLIS = 1000;
+    protected static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+}
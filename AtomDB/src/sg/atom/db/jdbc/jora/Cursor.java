@@ -6,6 +6,13 @@
 package sg.atom.db.jdbc.jora;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.sql.*;
 
 import static sg.atom.db.jdbc.Log.log;
@@ -15,9 +22,67 @@ import static sg.atom.db.jdbc.Log.log;
  * As far as records can be retrived from several derived tables (polymorphic
  * form of select), this class can issue several requests to database. Cursor
  * also provides methods for updating/deleting current record.
+ *
+ * <P> Large results can be streamed: {@link #setFetchSize} sets how many rows
+ * the driver transfers per round trip, and {@link #setPrefetch} makes a
+ * background thread run the query and decode the rows into objects while the
+ * caller processes the previous ones. A cursor is also {@link Iterable}; its
+ * iterator closes the cursor when the rows are exhausted or fail, otherwise
+ * the cursor must be closed with {@link #close}:
+ *
+ * <pre>
+ * Cursor&lt;Item&gt; items = table.select(conn, "where OWNER = 42");
+ * items.setFetchSize(1000).setPrefetch(2000);
+ * try {
+ *     for (Item item : items) {
+ *         ...
+ *     }
+ * } finally {
+ *     items.close();
+ * }
+ * </pre>
  */
 public class Cursor<V>
+    implements Iterable<V>
 {
+    /**
+     * Sets the number of rows the driver should fetch from the database per
+     * round trip, overriding the fetch size of the table. Zero leaves it to
+     * the driver. Some drivers only stream with particular values, MySQL for
+     * instance with <code>Integer.MIN_VALUE</code>. Must be called before the
+     * first row is read.
+     *
+     * @return this cursor, for chaining.
+     */
+    public Cursor<V> setFetchSize (int rows)
+    {
+        requireNotStarted();
+        _fetchSize = rows;
+        return this;
+    }
+
+    /**
+     * Makes this cursor read its rows on a background thread: the query is
+     * run, and the rows converted to objects, up to <I>rows</I> rows ahead of
+     * the caller. The result set is forward-only and read-only, so {@link
+     * #update} and {@link #delete} are not available. The connection must not
+     * be used by anything else until the cursor is exhausted or closed. Must
+     * be called before the first row is read.
+     *
+     * @param rows the number of rows read ahead, zero to read the rows on the
+     * calling thread.
+     * @return this cursor, for chaining.
+     */
+    public Cursor<V> setPrefetch (int rows)
+    {
+        if (rows < 0) {
+            throw new IllegalArgumentException("Prefetch must not be negative: " + rows);
+        }
+        requireNotStarted();
+        _prefetch = rows;
+        return this;
+    }
+
     /**
      * A cursor is initially positioned before its first row; the first call to
      * next makes the first row the current row; the second call makes the
@@ -37,19 +102,12 @@ public class Cursor<V>
         if (_table == null) {
             return null;
         }
+        if (_prefetch > 0) {
+            return nextPrefetched();
+        }
 
         if (_result == null) {
-            if (_qbeObject != null) {
-                PreparedStatement qbeStmt = _conn.prepareStatement(_query);
-                _table.bindQueryVariables(qbeStmt, _qbeObject, _qbeMask);
-                _result = qbeStmt.executeQuery();
-                _stmt = qbeStmt;
-            } else {
-                if (_stmt == null) {
-                    _stmt = _conn.createStatement();
-                }
-                _result = _stmt.executeQuery(_query);
-            }
+            _result = executeQuery();
         }
         if (_result.next()) {
             return _currObject = _table.load(_result);
@@ -66,6 +124,47 @@ public class Cursor<V>
         return null;
     }
 
+    /**
+     * Returns an iterator over the remaining rows of this cursor. The
+     * iterator closes the cursor when it reaches the end of the rows, or when
+     * reading a row fails; the failure is then thrown as a {@link
+     * DataTransferError}.
+     */
+    public Iterator<V> iterator ()
+    {
+        return new Iterator<V>() {
+            public boolean hasNext () {
+                if (_next == null && !_end) {
+                    try {
+                        _next = Cursor.this.next();
+                    } catch (SQLException sqe) {
+                        _end = true;
+                        closeQuietly();
+                        throw new DataTransferError(sqe);
+                    }
+                    _end = (_next == null);
+                }
+                return _next != null;
+            }
+
+            public V next () {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                V next = _next;
+                _next = null;
+                return next;
+            }
+
+            public void remove () {
+                throw new UnsupportedOperationException();
+            }
+
+            protected V _next;
+            protected boolean _end;
+        };
+    }
+
     /**
      * Returns the first element matched by this cursor or null if no elements
      * were matched. Checks to ensure that no subsequent elements were matched
@@ -109,6 +208,9 @@ public class Cursor<V>
         if (_currObject == null) {
             throw new IllegalStateException("No current object");
         }
+        if (_prefetch > 0) {
+            throw new IllegalStateException("Prefetched rows are read-only");
+        }
         _table.updateVariables(_result, _currObject);
     }
 
@@ -132,6 +234,9 @@ public class Cursor<V>
         if (_currObject == null) {
             throw new IllegalStateException("No current object");
         }
+        if (_prefetch > 0) {
+            throw new IllegalStateException("Prefetched rows are read-only");
+        }
         _result.deleteRow();
     }
 
@@ -141,6 +246,17 @@ public class Cursor<V>
     public void close ()
         throws SQLException
     {
+        if (_prefetcher != null) {
+            Prefetcher prefetcher = _prefetcher;
+            _prefetcher = null;
+            _currObject = null;
+            _batch = null;
+            try {
+                prefetcher.close();
+            } finally {
+                _table = null;
+            }
+        }
         if (_result != null) {
             _result.close();
             _result = null;
@@ -187,11 +303,212 @@ public class Cursor<V>
         return toArrayList(Integer.MAX_VALUE);
     }
 
+    /**
+     * Runs the query of this cursor on a new statement.
+     */
+    protected ResultSet executeQuery ()
+        throws SQLException
+    {
+        Statement stmt;
+        ResultSet result;
+        if (_qbeObject != null) {
+            PreparedStatement qbeStmt = (_prefetch > 0) ?
+                _conn.prepareStatement(_query, ResultSet.TYPE_FORWARD_ONLY,
+                                       ResultSet.CONCUR_READ_ONLY) :
+                _conn.prepareStatement(_query);
+            stmt = qbeStmt;
+            try {
+                qbeStmt.setFetchSize(_fetchSize);
+                _table.bindQueryVariables(qbeStmt, _qbeObject, _qbeMask);
+                result = qbeStmt.executeQuery();
+            } catch (SQLException sqe) {
+                qbeStmt.close();
+                throw sqe;
+            }
+        } else {
+            stmt = (_prefetch > 0) ?
+                _conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                                      ResultSet.CONCUR_READ_ONLY) :
+                _conn.createStatement();
+            try {
+                stmt.setFetchSize(_fetchSize);
+                result = stmt.executeQuery(_query);
+            } catch (SQLException sqe) {
+                stmt.close();
+                throw sqe;
+            }
+        }
+        _stmt = stmt;
+        return result;
+    }
+
+    /**
+     * Returns the next row read by the background thread, starting it for
+     * the first row.
+     */
+    protected V nextPrefetched ()
+        throws SQLException
+    {
+        if (_batch != null && _batchPos < _batch.size()) {
+            return _currObject = _batch.get(_batchPos++);
+        }
+        if (_prefetcher == null) {
+            _prefetcher = new Prefetcher(_prefetch);
+            _prefetchers.execute(_prefetcher);
+        }
+
+        Object item;
+        try {
+            item = _prefetcher.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new SQLException("Interrupted while waiting for rows of: " + _query);
+        }
+        if (item == _prefetcher) {
+            Throwable failure = _prefetcher.failure;
+            close();
+            if (failure instanceof SQLException) {
+                throw (SQLException)failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException)failure;
+            } else if (failure instanceof Error) {
+                throw (Error)failure;
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked") List<V> batch = (List<V>)item;
+        _batch = batch;
+        _batchPos = 1;
+        return _currObject = batch.get(0);
+    }
+
+    protected void requireNotStarted ()
+    {
+        if (_result != null || _prefetcher != null || _table == null) {
+            throw new IllegalStateException("Cursor already started");
+        }
+    }
+
+    protected void closeQuietly ()
+    {
+        try {
+            close();
+        } catch (SQLException sqe) {
+            log.warning("Failed to close cursor", "query", _query, sqe);
+        }
+    }
+
+    /**
+     * Runs the query and converts the rows to objects on a background thread,
+     * handing them over in batches through a bounded queue. The prefetcher
+     * itself is queued last, once the rows are exhausted or failed.
+     */
+    protected class Prefetcher
+        implements Runnable
+    {
+        /** The failure of the query, read once the prefetcher is dequeued. */
+        public volatile Throwable failure;
+
+        public Prefetcher (int rows)
+        {
+            // two batches in the queue and one being filled
+            _batchSize = Math.max(1, rows / 2);
+            _queue = new ArrayBlockingQueue<Object>(2);
+        }
+
+        public Object take ()
+            throws InterruptedException
+        {
+            return _queue.take();
+        }
+
+        public void run ()
+        {
+            ResultSet result = null;
+            try {
+                result = executeQuery();
+                ArrayList<V> batch = new ArrayList<V>(_batchSize);
+                while (!_closed && result.next()) {
+                    batch.add(_table.load(result));
+                    if (batch.size() == _batchSize) {
+                        _queue.put(batch);
+                        batch = new ArrayList<V>(_batchSize);
+                    }
+                }
+                if (!batch.isEmpty() && !_closed) {
+                    _queue.put(batch);
+                }
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                try {
+                    if (result != null) {
+                        result.close();
+                    }
+                    if (_stmt != null) {
+                        _stmt.close();
+                    }
+                } catch (SQLException sqe) {
+                    if (failure == null) {
+                        failure = sqe;
+                    }
+                }
+                try {
+                    _queue.put(this);
+                } catch (InterruptedException ie) {
+                    // only close() is waiting for us now
+                }
+                _done.countDown();
+            }
+        }
+
+        /**
+         * Stops reading rows and waits until the result set and statement are
+         * closed.
+         */
+        public void close ()
+            throws SQLException
+        {
+            _closed = true;
+            boolean interrupted = false;
+            try {
+                do {
+                    // unblock the background thread if it waits for room
+                    _queue.clear();
+                    try {
+                        if (_done.await(10, TimeUnit.MILLISECONDS)) {
+                            break;
+                        }
+                    } catch (InterruptedException ie) {
+                        interrupted = true;
+                    }
+                } while (true);
+            } finally {
+                _queue.clear();
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            _stmt = null;
+            if (failure instanceof SQLException) {
+                throw (SQLException)failure;
+            }
+        }
+
+        protected final int _batchSize;
+        protected final BlockingQueue<Object> _queue;
+        protected final CountDownLatch _done = new CountDownLatch(1);
+        protected volatile boolean _closed;
+    }
+
     protected Cursor (Table<V> table, Connection conn, String query)
     {
         _table = table;
         _conn = conn;
         _query = query;
+        _fetchSize = table.getFetchSize();
     }
 
     protected Cursor (Table<V> table, Connection conn, V obj,
@@ -204,6 +521,7 @@ public class Cursor<V>
         _qbeMask = mask;
         _query = table.buildQueryList(obj, mask, like);
         _stmt = null;
+        _fetchSize = table.getFetchSize();
     }
 
     protected Table<V> _table;
@@ -214,5 +532,21 @@ public class Cursor<V>
     protected V _currObject, _qbeObject;
     protected FieldMask _qbeMask;
     protected boolean _like;
+
+    protected int _fetchSize;
+    protected int _prefetch;
+    protected Prefetcher _prefetcher;
+    protected List<V> _batch;
+    protected int _batchPos;
+
+    /** Runs the prefetchers of all cursors, on daemon threads created as needed. */
+    protected static final ExecutorService _prefetchers =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread (Runnable r) {
+                Thread thread = new Thread(r, "JORA cursor prefetcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 }
 
@@ -298,7 +298,6 @@ class FieldDescriptor
         case tFloat:
             float f = result.getFloat(column);
             field.set(obj, result.wasNull() ? null : Float.valueOf(f));
-            field.setFloat(obj, result.getFloat(column));
             break;
         case tDouble:
             double d = result.getDouble(column);
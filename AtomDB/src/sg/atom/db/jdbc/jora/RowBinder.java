@@ -0,0 +1,34 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package sg.atom.db.jdbc.jora;
+
+import java.sql.*;
+
+/**
+ * Moves the columns of a row between JDBC and the fields of a mapped class. A {@link Table}
+ * generates a subclass specialized for its row class, see {@link Table#setGeneratedBinding},
+ * which reads and writes the fields directly instead of going through reflection and boxing.
+ *
+ * <p> This class is public only so that the generated subclasses, defined in the package of the
+ * row class, can extend it.
+ */
+public abstract class RowBinder
+{
+    /**
+     * Creates an instance of the row class and loads the columns of the current row of the
+     * supplied result set into its fields, in the order of the table fields.
+     */
+    public abstract Object load (ResultSet result)
+        throws SQLException;
+
+    /**
+     * Binds the fields of the supplied row object to the parameters of the supplied statement,
+     * in the order of the table fields and starting with the first parameter. Null references are
+     * bound as SQL nulls.
+     */
+    public abstract void bind (PreparedStatement pstmt, Object obj)
+        throws SQLException;
+}
@@ -0,0 +1,283 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package sg.atom.db.jdbc.jora;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import static sg.atom.db.jdbc.Log.log;
+
+/**
+ * Generates with ASM the {@link RowBinder} of a row class. The generated binder creates the
+ * objects with <code>new</code> and reads and writes the fields with <code>getfield</code> and
+ * <code>putfield</code>, calling the typed <code>ResultSet</code> getters and
+ * <code>PreparedStatement</code> setters: primitive fields are never boxed.
+ *
+ * <p> Only flat classes can be generated for: a public class with a public no-argument
+ * constructor, whose mapped fields are public, not final, and of a primitive, wrapper,
+ * <code>BigDecimal</code>, <code>String</code>, <code>byte[]</code> or <code>java.sql</code>
+ * date and time type. Other classes are left to the reflective {@link FieldDescriptor} path.
+ */
+final class RowBinderGenerator
+{
+    /**
+     * Returns the generated binder of the supplied row class, or null if the class can not be
+     * bound by a generated binder.
+     */
+    static RowBinder generate (Class<?> rowClass, FieldDescriptor[] fields)
+    {
+        String reason = checkSupported(rowClass, fields);
+        if (reason != null) {
+            log.debug("Binding " + rowClass.getName() + " by reflection: " + reason + ".");
+            return null;
+        }
+
+        String name = rowClass.getName() + BINDER_SUFFIX;
+        try {
+            byte[] code = generateClass(name.replace('.', '/'), rowClass, fields);
+            BinderLoader loader = new BinderLoader(rowClass.getClassLoader());
+            return (RowBinder)loader.define(name, code).newInstance();
+        } catch (Exception e) {
+            log.warning("Failed to generate row binder", "class", rowClass.getName(), e);
+        } catch (LinkageError e) {
+            log.warning("Failed to generate row binder", "class", rowClass.getName(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns why the supplied row class can not have a generated binder, or null if it can.
+     */
+    protected static String checkSupported (Class<?> rowClass, FieldDescriptor[] fields)
+    {
+        int mods = rowClass.getModifiers();
+        if (!Modifier.isPublic(mods) || Modifier.isAbstract(mods) || rowClass.isInterface()) {
+            return "not a public concrete class";
+        }
+        if (rowClass.getEnclosingClass() != null && !Modifier.isStatic(mods)) {
+            return "inner class";
+        }
+        if (rowClass.getClassLoader() == null) {
+            return "system class";
+        }
+        try {
+            rowClass.getConstructor();
+        } catch (NoSuchMethodException nsme) {
+            return "no public no-argument constructor";
+        }
+        for (FieldDescriptor fd : fields) {
+            if (fd.inType > FieldDescriptor.tTimestamp) {
+                return "field " + fd.name + " is not a simple column";
+            }
+            Field f = fd.field;
+            int fmods = f.getModifiers();
+            if (!Modifier.isPublic(fmods) || Modifier.isFinal(fmods) ||
+                !Modifier.isPublic(f.getDeclaringClass().getModifiers())) {
+                return "field " + fd.name + " is not public";
+            }
+        }
+        return null;
+    }
+
+    protected static byte[] generateClass (
+        String binderName, Class<?> rowClass, FieldDescriptor[] fields)
+    {
+        String owner = Type.getInternalName(rowClass);
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL + Opcodes.ACC_SUPER +
+                 Opcodes.ACC_SYNTHETIC, binderName, null, BINDER, null);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, BINDER, "<init>", "()V");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // load: 0 this, 1 result set, 2 row object, 3-4 column value
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "load",
+                            "(Ljava/sql/ResultSet;)Ljava/lang/Object;", null, SQL_EXCEPTION);
+        mv.visitCode();
+        mv.visitTypeInsn(Opcodes.NEW, owner);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, owner, "<init>", "()V");
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        for (int ii = 0; ii < fields.length; ii++) {
+            FieldDescriptor fd = fields[ii];
+            int type = fd.inType;
+            String vdesc = VALUE_DESCS[type];
+            String getter = "get" + JDBC_NAMES[type];
+            if (type >= FieldDescriptor.tByte && type <= FieldDescriptor.tBoolean) {
+                // read the primitive value, then box it unless the column was null
+                Type prim = Type.getType(vdesc);
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                push(mv, ii + 1);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, RESULT_SET, getter,
+                                   "(I)" + vdesc);
+                mv.visitVarInsn(prim.getOpcode(Opcodes.ISTORE), 3);
+                mv.visitVarInsn(Opcodes.ALOAD, 2);
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, RESULT_SET, "wasNull", "()Z");
+                Label box = new Label(), put = new Label();
+                mv.visitJumpInsn(Opcodes.IFEQ, box);
+                mv.visitInsn(Opcodes.ACONST_NULL);
+                mv.visitJumpInsn(Opcodes.GOTO, put);
+                mv.visitLabel(box);
+                mv.visitVarInsn(prim.getOpcode(Opcodes.ILOAD), 3);
+                String boxName = BOXES[type - FieldDescriptor.tByte];
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, boxName, "valueOf",
+                                   "(" + vdesc + ")L" + boxName + ";");
+                mv.visitLabel(put);
+            } else {
+                mv.visitVarInsn(Opcodes.ALOAD, 2);
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                push(mv, ii + 1);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, RESULT_SET, getter,
+                                   "(I)" + vdesc);
+            }
+            mv.visitFieldInsn(Opcodes.PUTFIELD, owner, fd.field.getName(),
+                              Type.getDescriptor(fd.field.getType()));
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // bind: 0 this, 1 statement, 2 object, 3 row object, 4 field value
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "bind",
+                            "(Ljava/sql/PreparedStatement;Ljava/lang/Object;)V", null,
+                            SQL_EXCEPTION);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+        mv.visitVarInsn(Opcodes.ASTORE, 3);
+        for (int ii = 0; ii < fields.length; ii++) {
+            FieldDescriptor fd = fields[ii];
+            int type = fd.outType;
+            String vdesc = VALUE_DESCS[type];
+            String setter = "set" + JDBC_NAMES[type];
+            String fdesc = Type.getDescriptor(fd.field.getType());
+            if (type <= FieldDescriptor.t_boolean) {
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                push(mv, ii + 1);
+                mv.visitVarInsn(Opcodes.ALOAD, 3);
+                mv.visitFieldInsn(Opcodes.GETFIELD, owner, fd.field.getName(), fdesc);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, PREPARED_STATEMENT, setter,
+                                   "(I" + vdesc + ")V");
+                continue;
+            }
+
+            // references are bound as nulls of the column type, wrappers are unboxed
+            Label set = new Label(), done = new Label();
+            mv.visitVarInsn(Opcodes.ALOAD, 3);
+            mv.visitFieldInsn(Opcodes.GETFIELD, owner, fd.field.getName(), fdesc);
+            mv.visitVarInsn(Opcodes.ASTORE, 4);
+            mv.visitVarInsn(Opcodes.ALOAD, 4);
+            mv.visitJumpInsn(Opcodes.IFNONNULL, set);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            push(mv, ii + 1);
+            push(mv, FieldDescriptor.sqlTypeMapping[type]);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, PREPARED_STATEMENT, "setNull",
+                               "(II)V");
+            mv.visitJumpInsn(Opcodes.GOTO, done);
+            mv.visitLabel(set);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            push(mv, ii + 1);
+            mv.visitVarInsn(Opcodes.ALOAD, 4);
+            if (type >= FieldDescriptor.tByte && type <= FieldDescriptor.tBoolean) {
+                int prim = type - FieldDescriptor.tByte;
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BOXES[prim],
+                                   PRIMITIVES[prim] + "Value", "()" + vdesc);
+            }
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, PREPARED_STATEMENT, setter,
+                               "(I" + vdesc + ")V");
+            mv.visitLabel(done);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    protected static void push (MethodVisitor mv, int value)
+    {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(Integer.valueOf(value));
+        }
+    }
+
+    /**
+     * Defines the binders in a child of the row class loader, which also sees {@link RowBinder}
+     * when the row class loader does not.
+     */
+    protected static class BinderLoader extends ClassLoader
+    {
+        public BinderLoader (ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        public Class<?> define (String name, byte[] code)
+        {
+            return defineClass(name, code, 0, code.length);
+        }
+
+        @Override
+        protected Class<?> loadClass (String name, boolean resolve)
+            throws ClassNotFoundException
+        {
+            if (name.equals(RowBinder.class.getName())) {
+                return RowBinder.class;
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    /** Appended to the row class name to name its binder. */
+    protected static final String BINDER_SUFFIX = "__JoraBinder";
+
+    protected static final String BINDER = Type.getInternalName(RowBinder.class);
+    protected static final String RESULT_SET = "java/sql/ResultSet";
+    protected static final String PREPARED_STATEMENT = "java/sql/PreparedStatement";
+    protected static final String[] SQL_EXCEPTION = { "java/sql/SQLException" };
+
+    // indexed by the FieldDescriptor type tags, up to tTimestamp
+    protected static final String[] JDBC_NAMES = {
+        "Byte", "Short", "Int", "Long", "Float", "Double", "Boolean",
+        "Byte", "Short", "Int", "Long", "Float", "Double", "Boolean",
+        "BigDecimal", "String", "Bytes", "Date", "Time", "Timestamp"
+    };
+    protected static final String[] VALUE_DESCS = {
+        "B", "S", "I", "J", "F", "D", "Z",
+        "B", "S", "I", "J", "F", "D", "Z",
+        "Ljava/math/BigDecimal;", "Ljava/lang/String;", "[B", "Ljava/sql/Date;",
+        "Ljava/sql/Time;", "Ljava/sql/Timestamp;"
+    };
+
+    // indexed by the wrapper type tags minus tByte
+    protected static final String[] BOXES = {
+        "java/lang/Byte", "java/lang/Short", "java/lang/Integer", "java/lang/Long",
+        "java/lang/Float", "java/lang/Double", "java/lang/Boolean"
+    };
+    protected static final String[] PRIMITIVES = {
+        "byte", "short", "int", "long", "float", "double", "boolean"
+    };
+}
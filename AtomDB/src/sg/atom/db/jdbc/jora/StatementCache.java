@@ -0,0 +1,164 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package sg.atom.db.jdbc.jora;
+
+import java.sql.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches idle prepared statements per connection and SQL string for a {@link Table}. Statements
+ * are checked out with {@link #acquire} and handed back with {@link #release}, so two threads
+ * never use the same statement at once, and no lock is held while a statement executes.
+ */
+class StatementCache
+{
+    /**
+     * Returns an idle statement for the supplied connection and SQL, preparing a new one if none
+     * is available.
+     */
+    public PreparedStatement acquire (Connection conn, String sql)
+        throws SQLException
+    {
+        if (!_enabled) {
+            return conn.prepareStatement(sql);
+        }
+        PreparedStatement stmt = getIdle(conn, sql).poll();
+        return (stmt != null) ? stmt : conn.prepareStatement(sql);
+    }
+
+    /**
+     * Hands back a statement obtained from {@link #acquire}. Statements which failed are closed
+     * rather than reused, as are statements beyond the per-SQL idle limit.
+     */
+    public void release (Connection conn, String sql, PreparedStatement stmt, boolean failed)
+    {
+        if (!failed && _enabled) {
+            ConcurrentLinkedQueue<PreparedStatement> idle = getIdle(conn, sql);
+            // size() is linear, but the queues are bounded and short
+            if (idle.size() < MAX_IDLE_PER_SQL) {
+                try {
+                    stmt.clearParameters();
+                    idle.offer(stmt);
+                    return;
+                } catch (SQLException sqe) {
+                    // fall through and close it
+                }
+            }
+        }
+        close(stmt);
+    }
+
+    /**
+     * Closes and forgets all the statements cached for the supplied connection.
+     */
+    public void clear (Connection conn)
+    {
+        Map<String, ConcurrentLinkedQueue<PreparedStatement>> bySql = _statements.remove(conn);
+        if (bySql != null) {
+            closeAll(bySql);
+        }
+    }
+
+    /**
+     * Closes and forgets all the cached statements.
+     */
+    public void clear ()
+    {
+        for (Iterator<Connection> iter = _statements.keySet().iterator(); iter.hasNext(); ) {
+            clear(iter.next());
+        }
+    }
+
+    public void setEnabled (boolean enabled)
+    {
+        _enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    public boolean isEnabled ()
+    {
+        return _enabled;
+    }
+
+    protected ConcurrentLinkedQueue<PreparedStatement> getIdle (Connection conn, String sql)
+    {
+        ConcurrentMap<String, ConcurrentLinkedQueue<PreparedStatement>> bySql =
+            _statements.get(conn);
+        if (bySql == null) {
+            // a new connection is the occasion to drop the ones which were closed since
+            sweep();
+            ConcurrentMap<String, ConcurrentLinkedQueue<PreparedStatement>> created =
+                new ConcurrentHashMap<String, ConcurrentLinkedQueue<PreparedStatement>>();
+            bySql = _statements.putIfAbsent(conn, created);
+            if (bySql == null) {
+                bySql = created;
+            }
+        }
+        ConcurrentLinkedQueue<PreparedStatement> idle = bySql.get(sql);
+        if (idle == null) {
+            ConcurrentLinkedQueue<PreparedStatement> created =
+                new ConcurrentLinkedQueue<PreparedStatement>();
+            idle = bySql.putIfAbsent(sql, created);
+            if (idle == null) {
+                idle = created;
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Forgets the statements of connections which have been closed.
+     */
+    protected void sweep ()
+    {
+        for (Iterator<Connection> iter = _statements.keySet().iterator(); iter.hasNext(); ) {
+            Connection conn = iter.next();
+            try {
+                if (!conn.isClosed()) {
+                    continue;
+                }
+            } catch (SQLException sqe) {
+                // treat it as closed
+            }
+            clear(conn);
+        }
+    }
+
+    protected static void closeAll (Map<String, ConcurrentLinkedQueue<PreparedStatement>> bySql)
+    {
+        for (ConcurrentLinkedQueue<PreparedStatement> idle : bySql.values()) {
+            PreparedStatement stmt;
+            while ((stmt = idle.poll()) != null) {
+                close(stmt);
+            }
+        }
+    }
+
+    protected static void close (PreparedStatement stmt)
+    {
+        try {
+            stmt.close();
+        } catch (SQLException sqe) {
+            // nothing to do about it
+        }
+    }
+
+    protected final ConcurrentMap<Connection,
+        ConcurrentMap<String, ConcurrentLinkedQueue<PreparedStatement>>> _statements =
+        new ConcurrentHashMap<Connection,
+            ConcurrentMap<String, ConcurrentLinkedQueue<PreparedStatement>>>();
+
+    protected volatile boolean _enabled = true;
+
+    /** The number of idle statements kept for one connection and SQL string. */
+    protected static final int MAX_IDLE_PER_SQL = 4;
+}
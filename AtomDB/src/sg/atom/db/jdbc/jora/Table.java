@@ -12,10 +12,21 @@ import java.lang.reflect.*;
 
 import sg.atom.db.util.StringUtil;
 
+import static sg.atom.db.jdbc.Log.log;
+
 /**
  * Used to establish mapping between corteges of database tables and java classes. this class is
  * responsible for constructing SQL statements for extracting, updating and deleting records of
  * the database table.
+ *
+ * <p> A table holds no lock while writing: any number of threads may insert,
+ * update and delete concurrently, each using its own connection. The write
+ * statements are prepared once per connection and cached, see {@link
+ * #setStatementCaching} and {@link #releaseStatements}.
+ *
+ * <p> The rows of a flat class, whose mapped fields are all public and of simple types, are
+ * loaded and bound by a {@link RowBinder} generated for the class, see {@link
+ * #setGeneratedBinding}. Other classes are bound field by field through reflection.
  */
 public class Table<T>
 {
@@ -203,44 +214,50 @@ public class Table<T>
      *
      * @param obj object specifying values of inserted record fields
      */
-    public synchronized void insert (Connection conn, T obj)
+    public void insert (Connection conn, T obj)
         throws SQLException
     {
-        StringBuilder sql = new StringBuilder(
-            "insert into " + name + " (" + listOfFields + ") values (?");
-        for (int i = 1; i < nColumns; i++) {
-            sql.append(",?");
+        PreparedStatement insertStmt = _stmts.acquire(conn, insertSql);
+        boolean failed = true;
+        try {
+            bindUpdateVariables(insertStmt, obj, null);
+            insertStmt.executeUpdate();
+            failed = false;
+        } finally {
+            _stmts.release(conn, insertSql, insertStmt, failed);
         }
-        sql.append(")");
-        PreparedStatement insertStmt = conn.prepareStatement(sql.toString());
-        bindUpdateVariables(insertStmt, obj, null);
-        insertStmt.executeUpdate();
-        insertStmt.close();
     }
 
     /**
      * Insert several new records in the table. Values of inserted records
-     * fields are taken from objects of specified array.
+     * fields are taken from objects of specified array. The records are sent
+     * to the database in batches of {@link #getBatchSize} records.
      *
      * @param objects array with objects specifying values of inserted record
      * fields
      */
-    public synchronized void insert (Connection conn, T[] objects)
+    public void insert (Connection conn, T[] objects)
         throws SQLException
     {
-        StringBuilder sql = new StringBuilder(
-            "insert into " + name + " (" + listOfFields + ") values (?");
-        for (int i = 1; i < nColumns; i++) {
-            sql.append(",?");
-        }
-        sql.append(")");
-        PreparedStatement insertStmt = conn.prepareStatement(sql.toString());
-        for (int i = 0; i < objects.length; i++) {
-            bindUpdateVariables(insertStmt, objects[i], null);
-            insertStmt.addBatch();
+        PreparedStatement insertStmt = _stmts.acquire(conn, insertSql);
+        boolean failed = true;
+        try {
+            int batchSize = _batchSize, pending = 0;
+            for (int i = 0; i < objects.length; i++) {
+                bindUpdateVariables(insertStmt, objects[i], null);
+                insertStmt.addBatch();
+                if (++pending == batchSize) {
+                    insertStmt.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                insertStmt.executeBatch();
+            }
+            failed = false;
+        } finally {
+            _stmts.release(conn, insertSql, insertStmt, failed);
         }
-        insertStmt.executeBatch();
-        insertStmt.close();
     }
 
     /**
@@ -281,61 +298,61 @@ public class Table<T>
      *
      * @return number of objects actually updated
      */
-    public synchronized int update (Connection conn, T obj, FieldMask mask)
+    public int update (Connection conn, T obj, FieldMask mask)
         throws SQLException
     {
-        int nUpdated = 0;
-        String sql = "update " + name + " set " +
-            (mask != null ? buildListOfAssignments(mask) : listOfAssignments) +
-            buildUpdateWhere();
-        PreparedStatement ustmt = conn.prepareStatement(sql);
-        int column = bindUpdateVariables(ustmt, obj, mask);
-        for (int i = 0; i < primaryKeys.length; i++) {
-            int fidx = primaryKeyIndices[i];
-            fields[fidx].bindVariable(ustmt, obj, column+i+1);
+        requirePrimaryKey();
+        String sql = (mask != null) ? "update " + name + " set " +
+            buildListOfAssignments(mask) + updateWhere : updateSql;
+        PreparedStatement ustmt = _stmts.acquire(conn, sql);
+        boolean failed = true;
+        try {
+            int column = bindUpdateVariables(ustmt, obj, mask);
+            bindPrimaryKey(ustmt, obj, column);
+            int nUpdated = ustmt.executeUpdate();
+            failed = false;
+            return nUpdated;
+        } finally {
+            _stmts.release(conn, sql, ustmt, failed);
         }
-        nUpdated = ustmt.executeUpdate();
-        ustmt.close();
-        return nUpdated;
     }
 
     /**
      * Update set of records in the table using table's primary key to locate
      * record in the table and values of fields of objects from specified array
-     * <I>objects</I> to alter record fields.
+     * <I>objects</I> to alter record fields. The updates are sent to the
+     * database in batches of {@link #getBatchSize} records.
      *
      * @param objects array of objects specifying primary keys and and new
      * values of updated record fields
      *
      * @return number of objects actually updated
      */
-    public synchronized int update (Connection conn, T[] objects)
+    public int update (Connection conn, T[] objects)
         throws SQLException
     {
-        if (primaryKeys == null) {
-            throw new IllegalStateException(
-                "No primary key for table " + name + ".");
-        }
-
-        int nUpdated = 0;
-        String sql = "update " + name + " set " + listOfAssignments +
-            buildUpdateWhere();
-        PreparedStatement updateStmt = conn.prepareStatement(sql);
-        for (int i = 0; i < objects.length; i++) {
-            int column = bindUpdateVariables(updateStmt, objects[i], null);
-            for (int j = 0; j < primaryKeys.length; j++) {
-                int fidx = primaryKeyIndices[j];
-                fields[fidx].bindVariable(
-                    updateStmt, objects[i], column+1+j);
+        requirePrimaryKey();
+        PreparedStatement updateStmt = _stmts.acquire(conn, updateSql);
+        boolean failed = true;
+        try {
+            int nUpdated = 0, batchSize = _batchSize, pending = 0;
+            for (int i = 0; i < objects.length; i++) {
+                int column = bindUpdateVariables(updateStmt, objects[i], null);
+                bindPrimaryKey(updateStmt, objects[i], column);
+                updateStmt.addBatch();
+                if (++pending == batchSize) {
+                    nUpdated += sum(updateStmt.executeBatch());
+                    pending = 0;
+                }
             }
-            updateStmt.addBatch();
-        }
-        int rc[] = updateStmt.executeBatch();
-        for (int k = 0; k < rc.length; k++) {
-            nUpdated += rc[k];
+            if (pending > 0) {
+                nUpdated += sum(updateStmt.executeBatch());
+            }
+            failed = false;
+            return nUpdated;
+        } finally {
+            _stmts.release(conn, updateSql, updateStmt, failed);
         }
-        updateStmt.close();
-        return nUpdated;
     }
 
     /**
@@ -343,62 +360,151 @@ public class Table<T>
      *
      * @param obj object containing value of primary key.
      */
-    public synchronized int delete (Connection conn, T obj)
+    public int delete (Connection conn, T obj)
         throws SQLException
     {
-        if (primaryKeys == null) {
-            throw new IllegalStateException(
-                "No primary key for table " + name + ".");
-        }
-        int nDeleted = 0;
-        StringBuilder sql = new StringBuilder(
-            "delete from " + name + " where " + primaryKeys[0] + " = ?");
-        for (int i = 1; i < primaryKeys.length; i++) {
-            sql.append(" and ").append(primaryKeys[i]).append(" = ?");
-        }
-        PreparedStatement deleteStmt = conn.prepareStatement(sql.toString());
-        for (int i = 0; i < primaryKeys.length; i++) {
-            fields[primaryKeyIndices[i]].bindVariable(deleteStmt, obj,i+1);
+        requirePrimaryKey();
+        PreparedStatement deleteStmt = _stmts.acquire(conn, deleteSql);
+        boolean failed = true;
+        try {
+            bindPrimaryKey(deleteStmt, obj, 0);
+            int nDeleted = deleteStmt.executeUpdate();
+            failed = false;
+            return nDeleted;
+        } finally {
+            _stmts.release(conn, deleteSql, deleteStmt, failed);
         }
-        nDeleted = deleteStmt.executeUpdate();
-        deleteStmt.close();
-        return nDeleted;
     }
 
     /**
-     * Delete records with specified primary keys from the table.
+     * Delete records with specified primary keys from the table. The deletes
+     * are sent to the database in batches of {@link #getBatchSize} records.
      *
      * @param objects array of objects containing values of primary key.
      *
      * @return number of objects actually deleted
      */
-    public synchronized int delete (Connection conn, T[] objects)
+    public int delete (Connection conn, T[] objects)
         throws SQLException
     {
-        if (primaryKeys == null) {
-            throw new IllegalStateException(
-                "No primary key for table " + name + ".");
-        }
-        int nDeleted = 0;
-        StringBuilder sql = new StringBuilder(
-            "delete from " + name + " where " + primaryKeys[0] + " = ?");
-        for (int i = 1; i < primaryKeys.length; i++) {
-            sql.append(" and ").append(primaryKeys[i]).append(" = ?");
-        }
-        PreparedStatement deleteStmt = conn.prepareStatement(sql.toString());
-        for (int i = 0; i < objects.length; i++) {
-            for (int j = 0; j < primaryKeys.length; j++) {
-                fields[primaryKeyIndices[j]].bindVariable(
-                    deleteStmt, objects[i], j+1);
+        requirePrimaryKey();
+        PreparedStatement deleteStmt = _stmts.acquire(conn, deleteSql);
+        boolean failed = true;
+        try {
+            int nDeleted = 0, batchSize = _batchSize, pending = 0;
+            for (int i = 0; i < objects.length; i++) {
+                bindPrimaryKey(deleteStmt, objects[i], 0);
+                deleteStmt.addBatch();
+                if (++pending == batchSize) {
+                    nDeleted += sum(deleteStmt.executeBatch());
+                    pending = 0;
+                }
             }
-            deleteStmt.addBatch();
+            if (pending > 0) {
+                nDeleted += sum(deleteStmt.executeBatch());
+            }
+            failed = false;
+            return nDeleted;
+        } finally {
+            _stmts.release(conn, deleteSql, deleteStmt, failed);
         }
-        int rc[] = deleteStmt.executeBatch();
-        for (int k = 0; k < rc.length; k++) {
-            nDeleted += rc[k];
+    }
+
+    /**
+     * Configures the number of records the array versions of insert, update
+     * and delete bind before sending them to the database with
+     * <code>executeBatch</code>. Defaults to {@link #DEFAULT_BATCH_SIZE}.
+     */
+    public void setBatchSize (int batchSize)
+    {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(
+                "Batch size must be positive: " + batchSize);
         }
-        deleteStmt.close();
-        return nDeleted;
+        _batchSize = batchSize;
+    }
+
+    /**
+     * Returns the number of records sent per <code>executeBatch</code>.
+     */
+    public int getBatchSize ()
+    {
+        return _batchSize;
+    }
+
+    /**
+     * Configures the number of rows the cursors of this table ask the driver
+     * to fetch per round trip, see {@link Statement#setFetchSize}. Zero, the
+     * default, leaves it to the driver. A cursor can override it with {@link
+     * Cursor#setFetchSize}.
+     */
+    public void setFetchSize (int fetchSize)
+    {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException(
+                "Fetch size must not be negative: " + fetchSize);
+        }
+        _fetchSize = fetchSize;
+    }
+
+    /**
+     * Returns the number of rows fetched per round trip by the cursors of
+     * this table, zero if it is left to the driver.
+     */
+    public int getFetchSize ()
+    {
+        return _fetchSize;
+    }
+
+    /**
+     * Enables or disables the caching of the insert, update and delete
+     * prepared statements. Statements are cached per connection and are never
+     * used by two threads at once, so each thread may use its own connection
+     * or share one. Disabling the cache closes the cached statements.
+     */
+    public void setStatementCaching (boolean enabled)
+    {
+        _stmts.setEnabled(enabled);
+    }
+
+    /**
+     * Returns whether write statements are cached per connection.
+     */
+    public boolean isStatementCaching ()
+    {
+        return _stmts.isEnabled();
+    }
+
+    /**
+     * Enables or disables the generated binder of the row class, which loads
+     * rows and binds inserted and updated values without reflection. It is
+     * enabled by default when the row class supports it, see {@link
+     * RowBinder}.
+     */
+    public void setGeneratedBinding (boolean enabled)
+    {
+        _binder = enabled ? _generatedBinder : null;
+    }
+
+    /**
+     * Returns whether rows are loaded and bound by a generated binder rather
+     * than by reflection.
+     */
+    public boolean isGeneratedBinding ()
+    {
+        return _binder != null;
+    }
+
+    /**
+     * Closes the statements cached for the supplied connection. This should
+     * be called before the connection is closed or returned to a pool which
+     * does not keep its statements open. Statements of connections which
+     * were closed are otherwise forgotten the next time a new connection is
+     * used with this table.
+     */
+    public void releaseStatements (Connection conn)
+    {
+        _stmts.clear(conn);
     }
 
     @Override
@@ -431,6 +537,7 @@ public class Table<T>
         nFields = buildFieldsList(fieldsVector, _rowClass, "");
         fields = fieldsVector.toArray(new FieldDescriptor[nFields]);
         fMask = new FieldMask(fields);
+        _binder = _generatedBinder = RowBinderGenerator.generate(_rowClass, fields);
 
         try {
             constructor = _rowClass.getDeclaredConstructor(new Class<?>[0]);
@@ -457,6 +564,20 @@ public class Table<T>
                 }
             }
         }
+
+        // the write statements are built once and shared by all callers
+        StringBuilder sql = new StringBuilder(
+            "insert into " + name + " (" + listOfFields + ") values (?");
+        for (int i = 1; i < nColumns; i++) {
+            sql.append(",?");
+        }
+        insertSql = sql.append(")").toString();
+        if (keys != null && keys.length > 0) {
+            updateWhere = buildUpdateWhere();
+            updateSql = "update " + name + " set " + listOfAssignments +
+                updateWhere;
+            deleteSql = "delete from " + name + updateWhere;
+        }
     }
 
     protected final String convertName (String name)
@@ -600,6 +721,11 @@ public class Table<T>
 
     protected final T load (ResultSet result) throws SQLException
     {
+        RowBinder binder = _binder;
+        if (binder != null) {
+            @SuppressWarnings("unchecked") T row = (T)binder.load(result);
+            return row;
+        }
         T obj;
         try {
             obj = constructor.newInstance(constructorArgs);
@@ -644,6 +770,17 @@ public class Table<T>
                                             FieldMask         mask)
         throws SQLException
     {
+        RowBinder binder = _binder;
+        if (mask == null && binder != null) {
+            try {
+                binder.bind(pstmt, obj);
+                return nColumns;
+            } catch (SQLException sqe) {
+                // the reflective path falls back to binding the value as a string
+                log.warning("Generated binder failed, binding by reflection", "table", name, sqe);
+                _binder = null;
+            }
+        }
         return bindUpdateVariables(pstmt, obj, 0, nFields, 0, mask);
     }
 
@@ -672,6 +809,32 @@ public class Table<T>
         return sql.toString();
     }
 
+    protected final void requirePrimaryKey ()
+    {
+        if (primaryKeys == null || primaryKeys.length == 0) {
+            throw new IllegalStateException(
+                "No primary key for table " + name + ".");
+        }
+    }
+
+    protected final void bindPrimaryKey (
+        PreparedStatement pstmt, T obj, int column)
+        throws SQLException
+    {
+        for (int i = 0; i < primaryKeys.length; i++) {
+            fields[primaryKeyIndices[i]].bindVariable(pstmt, obj, column+i+1);
+        }
+    }
+
+    protected static int sum (int[] rc)
+    {
+        int total = 0;
+        for (int k = 0; k < rc.length; k++) {
+            total += rc[k];
+        }
+        return total;
+    }
+
     protected final String buildQueryList(T qbe, FieldMask mask, boolean like)
     {
         StringBuilder buf = new StringBuilder();
@@ -894,6 +1057,25 @@ public class Table<T>
 
     protected Constructor<T> constructor;
 
+    // write statements, built by init()
+    protected String insertSql;
+    protected String updateSql;
+    protected String updateWhere;
+    protected String deleteSql;
+
+    /** The binder generated for the row class, null if the class does not support it. */
+    protected RowBinder _generatedBinder;
+
+    /** The generated binder while it is enabled, null to bind by reflection. */
+    protected volatile RowBinder _binder;
+
+    protected final StatementCache _stmts = new StatementCache();
+    protected volatile int _batchSize = DEFAULT_BATCH_SIZE;
+    protected volatile int _fetchSize;
+
+    /** The default number of records sent per <code>executeBatch</code>. */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
     protected static final Method setBypass = getSetBypass();
     protected static final Class<Serializable> serializableClass = Serializable.class;
     protected static final Object[] bypassFlag = { Boolean.TRUE };
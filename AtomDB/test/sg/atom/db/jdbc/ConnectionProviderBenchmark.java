@@ -0,0 +1,215 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.db.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import sg.atom.db.PersistenceException;
+
+/**
+ * Concurrent {@link SimpleRepository} callers against an in-memory HSQLDB
+ * database, served by the {@link StaticConnectionProvider} (one shared
+ * connection) and by the {@link PooledConnectionProvider}.
+ *
+ * <p>Each operation reads a row and updates it; a "latency" in microseconds is
+ * spent inside the operation, holding the connection, to model the round trip
+ * to a database server that an in-process database does not have. After each
+ * run the points of every row must be the adds made to it, and any failed
+ * operation fails the benchmark.</p>
+ *
+ * <p>Need the hsqldb jar in the classpath. Usage: ConnectionProviderBenchmark
+ * [threads] [opsPerThread] [latencyMicros] [poolSize]</p>
+ *
+ * @author atomix
+ */
+public class ConnectionProviderBenchmark {
+
+    static final int ROWS = 1000;
+
+    static class ScoreRepository extends SimpleRepository {
+
+        final long latencyNanos;
+
+        ScoreRepository(ConnectionProvider provider, long latencyNanos) {
+            super(provider, "scores");
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        protected void migrateSchema(Connection conn, DatabaseLiaison liaison) throws SQLException {
+            Statement stmt = conn.createStatement();
+            try {
+                stmt.execute("DROP TABLE SCORE IF EXISTS");
+                stmt.execute("CREATE TABLE SCORE (ID INTEGER PRIMARY KEY, POINTS BIGINT)");
+                for (int i = 0; i < ROWS; i++) {
+                    stmt.execute("INSERT INTO SCORE VALUES (" + i + ", 0)");
+                }
+            } finally {
+                stmt.close();
+            }
+        }
+
+        long read(final int id) throws PersistenceException {
+            return execute(new Operation<Long>() {
+                public Long invoke(Connection conn, DatabaseLiaison liaison) throws SQLException {
+                    PreparedStatement stmt = conn.prepareStatement("SELECT POINTS FROM SCORE WHERE ID = ?");
+                    try {
+                        stmt.setInt(1, id);
+                        ResultSet rs = stmt.executeQuery();
+                        long points = rs.next() ? rs.getLong(1) : -1;
+                        rs.close();
+                        pause(latencyNanos);
+                        return points;
+                    } finally {
+                        stmt.close();
+                    }
+                }
+            });
+        }
+
+        long[] points() throws PersistenceException {
+            return execute(new Operation<long[]>() {
+                public long[] invoke(Connection conn, DatabaseLiaison liaison) throws SQLException {
+                    Statement stmt = conn.createStatement();
+                    try {
+                        long[] points = new long[ROWS];
+                        ResultSet rs = stmt.executeQuery("SELECT ID, POINTS FROM SCORE");
+                        while (rs.next()) {
+                            points[rs.getInt(1)] += rs.getLong(2) + 1;
+                        }
+                        rs.close();
+                        return points;
+                    } finally {
+                        stmt.close();
+                    }
+                }
+            });
+        }
+
+        void add(final int id, final long points) throws PersistenceException {
+            executeUpdate(new Operation<Object>() {
+                public Object invoke(Connection conn, DatabaseLiaison liaison) throws SQLException {
+                    PreparedStatement stmt = conn.prepareStatement("UPDATE SCORE SET POINTS = POINTS + ? WHERE ID = ?");
+                    try {
+                        stmt.setLong(1, points);
+                        stmt.setInt(2, id);
+                        stmt.executeUpdate();
+                        pause(latencyNanos);
+                        return null;
+                    } finally {
+                        stmt.close();
+                    }
+                }
+            });
+        }
+    }
+
+    static void pause(long nanos) {
+        if (nanos > 0) {
+            long end = System.nanoTime() + nanos;
+            while (System.nanoTime() < end) {
+                Thread.yield();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int latency = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int poolSize = args.length > 3 ? Integer.parseInt(args[3]) : threads;
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            Properties props = properties("static" + round);
+            StaticConnectionProvider single = new StaticConnectionProvider(props);
+            run("StaticConnectionProvider", single, threads, ops, latency);
+            single.shutdown();
+
+            props = properties("pooled" + round);
+            props.setProperty("default.pool.max", String.valueOf(poolSize));
+            PooledConnectionProvider pooled = new PooledConnectionProvider(props);
+            run("PooledConnectionProvider", pooled, threads, ops, latency);
+            System.out.println("    read-only  " + pooled.getStats("scores", true));
+            System.out.println("    read-write " + pooled.getStats("scores", false));
+            pooled.shutdown();
+        }
+    }
+
+    static Properties properties(String dbname) {
+        Properties props = new Properties();
+        props.setProperty("default.driver", "org.hsqldb.jdbcDriver");
+        props.setProperty("default.username", "SA");
+        props.setProperty("default.password", "");
+        props.setProperty("default.url", "jdbc:hsqldb:mem:" + dbname);
+        return props;
+    }
+
+    static void run(String name, ConnectionProvider provider, final int threads, final int ops, int latency)
+            throws InterruptedException, PersistenceException {
+        final ScoreRepository repository = new ScoreRepository(provider, latency * 1000L);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong failures = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < ops; i++) {
+                            int id = (seed * 7919 + i * 31) % ROWS;
+                            if (i % 4 == 0) {
+                                repository.add(id, 1);
+                            } else if (repository.read(id) < 0) {
+                                throw new IllegalStateException("No row " + id);
+                            }
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        long total = (long) threads * ops;
+        if (failures.get() > 0) {
+            throw new IllegalStateException(name + ": " + failures.get() + " threads of " + threads + " failed");
+        }
+
+        // one for each row present, so that a missing row fails too
+        long[] expected = new long[ROWS];
+        for (int id = 0; id < ROWS; id++) {
+            expected[id] = 1;
+        }
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < ops; i += 4) {
+                expected[(t * 7919 + i * 31) % ROWS]++;
+            }
+        }
+        long[] points = repository.points();
+        for (int id = 0; id < ROWS; id++) {
+            if (points[id] != expected[id]) {
+                throw new IllegalStateException(name + ": row " + id + " has " + (points[id] - 1)
+                        + " points, expected " + (expected[id] - 1));
+            }
+        }
+        System.out.printf("  %-26s %2d threads %8d ops %9.2f ms %10.0f ops/s%n", name, threads, total,
+                elapsed / 1e6, total * 1e9 / elapsed);
+    }
+}
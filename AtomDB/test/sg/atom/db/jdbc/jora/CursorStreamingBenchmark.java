@@ -0,0 +1,214 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.db.jdbc.jora;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import sg.atom.db.jdbc.ColumnDefinition;
+import sg.atom.db.jdbc.liaison.HsqldbLiaison;
+
+/**
+ * Scan a large table with the JORA {@link Cursor}, reading the rows on the
+ * calling thread and prefetching them on a background thread, against an
+ * in-memory HSQLDB database created through the {@link HsqldbLiaison}.
+ *
+ * <p>An in-memory database answers a query at once, so the connection is
+ * wrapped to model a database server: every fetch of "fetchSize" rows (100
+ * when the driver chooses) costs a round trip of "roundTripMicros". The
+ * consumer blocks for "consumerMicros" every 1000 rows, to model sending the
+ * objects to a client; the prefetcher fetches and decodes the next rows
+ * meanwhile. Every run checks that each row was read once with the values
+ * inserted. The last run iterates with a for-each loop and stops early, then
+ * checks that closing the cursor stopped the prefetcher.</p>
+ *
+ * <p>Need the hsqldb jar in the classpath. Usage: CursorStreamingBenchmark
+ * [rows] [fetchSize] [prefetch] [roundTripMicros] [consumerMicros]</p>
+ *
+ * @author atomix
+ */
+public class CursorStreamingBenchmark {
+
+    public static class InventoryItem {
+
+        public long id;
+        public int owner;
+        public int item;
+        public short count;
+        public float durability;
+        public String label;
+    }
+    static final String URL = "jdbc:hsqldb:mem:cursorbench";
+    static final String TABLE = "INVENTORY_ITEM";
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int fetchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int prefetch = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        long roundTrip = (args.length > 3 ? Integer.parseInt(args[3]) : 500) * 1000L;
+        long pause = (args.length > 4 ? Integer.parseInt(args[4]) : 1000) * 1000L;
+
+        Class.forName("org.hsqldb.jdbcDriver");
+        Connection conn = DriverManager.getConnection(URL, "SA", "");
+        HsqldbLiaison liaison = new HsqldbLiaison();
+        liaison.dropTable(conn, TABLE);
+        liaison.createTableIfMissing(conn, TABLE,
+                Arrays.asList("ID", "OWNER", "ITEM", "COUNT", "DURABILITY", "LABEL"),
+                Arrays.asList(new ColumnDefinition("BIGINT"), new ColumnDefinition("INTEGER"),
+                new ColumnDefinition("INTEGER"), new ColumnDefinition("SMALLINT"), new ColumnDefinition("REAL"),
+                new ColumnDefinition("VARCHAR(32)")),
+                new ArrayList<List<String>>(), Arrays.asList("ID"));
+
+        Table<InventoryItem> table = new Table<InventoryItem>(InventoryItem.class, TABLE, "id");
+        InventoryItem[] items = new InventoryItem[rows];
+        for (int i = 0; i < rows; i++) {
+            items[i] = item(i);
+        }
+        table.insert(conn, items);
+        items = null;
+        conn = remote(conn, roundTrip);
+
+        System.out.println("rows=" + rows + " fetchSize=" + fetchSize + " prefetch=" + prefetch
+                + " roundTrip=" + roundTrip / 1000 + " us consumer=" + pause / 1000 + " us/1000 rows");
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            scan("caller thread", table.select(conn, ""), rows, pause);
+            scan("fetch size", table.select(conn, "").setFetchSize(fetchSize), rows, pause);
+            scan("prefetch", table.select(conn, "").setFetchSize(fetchSize).setPrefetch(prefetch), rows, pause);
+        }
+
+        Cursor<InventoryItem> cursor = table.select(conn, "").setFetchSize(fetchSize).setPrefetch(prefetch);
+        int read = 0;
+        try {
+            for (InventoryItem it : cursor) {
+                check("early close", it);
+                if (++read == 1000) {
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        Thread.sleep(100);
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            StackTraceElement[] stack = t.getStackTrace();
+            if (t.getName().startsWith("JORA") && stack.length > 0 && stack[0].getClassName().contains("hsqldb")) {
+                throw new IllegalStateException("Prefetcher still reading after close");
+            }
+        }
+        System.out.println("Early close after " + read + " rows: prefetcher stopped");
+        conn.close();
+    }
+
+    static InventoryItem item(int i) {
+        InventoryItem it = new InventoryItem();
+        it.id = i;
+        it.owner = i % 100;
+        it.item = i * 7 % 5000;
+        it.count = (short) (i % 99 + 1);
+        it.durability = (i % 1000) / 10f;
+        it.label = "item" + it.item;
+        return it;
+    }
+
+    static void check(String mode, InventoryItem it) {
+        InventoryItem e = item((int) it.id);
+        if (it.owner != e.owner || it.item != e.item || it.count != e.count || it.durability != e.durability
+                || !e.label.equals(it.label)) {
+            throw new IllegalStateException(mode + ": row " + it.id + " read with other values");
+        }
+    }
+
+    /**
+     * Wraps a connection so that executing a query and fetching each block of
+     * rows of its results costs a round trip.
+     */
+    static Connection remote(final Connection conn, final long roundTrip) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object value = forward(conn, method, args);
+                return value instanceof Statement ? remote((Statement) value, roundTrip) : value;
+            }
+        });
+    }
+
+    static Statement remote(final Statement stmt, final long roundTrip) {
+        Class<?> type = stmt instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        return (Statement) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{type},
+                new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object value = forward(stmt, method, args);
+                if (value instanceof ResultSet) {
+                    LockSupport.parkNanos(roundTrip);
+                    int fetch = stmt.getFetchSize() > 0 ? stmt.getFetchSize() : 100;
+                    return remote((ResultSet) value, roundTrip, fetch);
+                }
+                return value;
+            }
+        });
+    }
+
+    static ResultSet remote(final ResultSet result, final long roundTrip, final int fetch) {
+        return (ResultSet) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                new InvocationHandler() {
+            int row;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("next") && ++row % fetch == 0) {
+                    LockSupport.parkNanos(roundTrip);
+                }
+                return forward(result, method, args);
+            }
+        });
+    }
+
+    static Object forward(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    static void scan(String mode, Cursor<InventoryItem> cursor, int rows, long pause) throws Exception {
+        System.gc();
+        long start = System.nanoTime();
+        BitSet seen = new BitSet(rows);
+        int n = 0;
+        try {
+            InventoryItem it;
+            while ((it = cursor.next()) != null) {
+                if (it.id < 0 || it.id >= rows || seen.get((int) it.id)) {
+                    throw new IllegalStateException(mode + ": row " + it.id + " read twice or unknown");
+                }
+                seen.set((int) it.id);
+                check(mode, it);
+                if (++n % 1000 == 0 && pause > 0) {
+                    LockSupport.parkNanos(pause);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        long nanos = System.nanoTime() - start;
+        if (n != rows) {
+            throw new IllegalStateException(mode + " read " + n + " rows of " + rows);
+        }
+        System.out.printf("  %-14s %8d rows %9.2f ms %11.0f rows/s%n", mode, n, nanos / 1e6,
+                n * 1e9 / nanos);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.db.jdbc.jora;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import sg.atom.db.jdbc.ColumnDefinition;
+import sg.atom.db.jdbc.liaison.HsqldbLiaison;
+
+/**
+ * Load and insert the inventory rows of players with the JORA {@link Table},
+ * bound by the generated {@link RowBinder} and by reflection, against an
+ * in-memory HSQLDB database created through the {@link HsqldbLiaison}. The
+ * rows inserted in each mode are loaded back in both modes and compared with
+ * the objects inserted.
+ *
+ * <p>Need the hsqldb jar and asm in the classpath. Usage: RowBinderBenchmark
+ * [rows]</p>
+ *
+ * @author atomix
+ */
+public class RowBinderBenchmark {
+
+    public static class InventoryItem {
+
+        public long id;
+        public int owner;
+        public int item;
+        public short count;
+        public float durability;
+        public boolean equipped;
+        public Integer slot;
+        public Long expires;
+        public String label;
+    }
+    static final String URL = "jdbc:hsqldb:mem:binderbench";
+    static final String TABLE = "INVENTORY_ITEM";
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        Class.forName("org.hsqldb.jdbcDriver");
+        Connection conn = DriverManager.getConnection(URL, "SA", "");
+        HsqldbLiaison liaison = new HsqldbLiaison();
+        liaison.dropTable(conn, TABLE);
+        liaison.createTableIfMissing(conn, TABLE,
+                Arrays.asList("ID", "OWNER", "ITEM", "COUNT", "DURABILITY", "EQUIPPED", "SLOT", "EXPIRES", "LABEL"),
+                Arrays.asList(new ColumnDefinition("BIGINT"), new ColumnDefinition("INTEGER"),
+                new ColumnDefinition("INTEGER"), new ColumnDefinition("SMALLINT"), new ColumnDefinition("REAL"),
+                new ColumnDefinition("BOOLEAN"), new ColumnDefinition("INTEGER", true, false, null),
+                new ColumnDefinition("BIGINT", true, false, null), new ColumnDefinition("VARCHAR(32)", true, false, null)),
+                new ArrayList<List<String>>(), Arrays.asList("ID"));
+
+        Table<InventoryItem> table = new Table<InventoryItem>(InventoryItem.class, TABLE, "id");
+        if (!table.isGeneratedBinding()) {
+            throw new IllegalStateException("No generated binder for " + InventoryItem.class);
+        }
+        InventoryItem[] items = new InventoryItem[rows];
+        for (int i = 0; i < rows; i++) {
+            InventoryItem it = new InventoryItem();
+            it.id = i;
+            it.owner = i % 100;
+            it.item = i * 7 % 5000;
+            it.count = (short) (i % 99 + 1);
+            it.durability = (i % 1000) / 10f;
+            it.equipped = i % 5 == 0;
+            it.slot = it.equipped ? Integer.valueOf(i % 12) : null;
+            it.expires = i % 3 == 0 ? Long.valueOf(1400000000000L + i) : null;
+            it.label = i % 4 == 0 ? null : "item" + it.item;
+            items[i] = it;
+        }
+
+        System.out.println("rows=" + rows);
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            for (boolean generated : new boolean[]{false, true}) {
+                table.setGeneratedBinding(generated);
+                String mode = generated ? "generated" : "reflection";
+
+                Connection writer = DriverManager.getConnection(URL, "SA", "");
+                writer.createStatement().execute("DELETE FROM " + TABLE);
+                System.gc();
+                long start = System.nanoTime();
+                table.insert(writer, items);
+                report(mode, "insert", rows, System.nanoTime() - start);
+                table.releaseStatements(writer);
+                writer.close();
+
+                System.gc();
+                start = System.nanoTime();
+                ArrayList<InventoryItem> loaded = table.select(conn, "").toArrayList();
+                report(mode, "load", loaded.size(), System.nanoTime() - start);
+                check(items, loaded);
+
+                // the rows written in this mode must load the same in the other
+                table.setGeneratedBinding(!generated);
+                check(items, table.select(conn, "").toArrayList());
+            }
+        }
+        conn.close();
+    }
+
+    static void report(String mode, String op, int rows, long nanos) {
+        System.out.printf("  %-10s %-6s %8d rows %9.2f ms %11.0f rows/s%n", mode, op, rows, nanos / 1e6,
+                rows * 1e9 / nanos);
+    }
+
+    static void check(InventoryItem[] expected, ArrayList<InventoryItem> loaded) {
+        if (loaded.size() != expected.length) {
+            throw new IllegalStateException("Loaded " + loaded.size() + " rows of " + expected.length);
+        }
+        for (InventoryItem it : loaded) {
+            InventoryItem e = expected[(int) it.id];
+            if (it.owner != e.owner || it.item != e.item || it.count != e.count || it.durability != e.durability
+                    || it.equipped != e.equipped || !same(it.slot, e.slot) || !same(it.expires, e.expires)
+                    || !same(it.label, e.label)) {
+                throw new IllegalStateException("Row " + it.id + " loaded with other values");
+            }
+        }
+    }
+
+    static boolean same(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
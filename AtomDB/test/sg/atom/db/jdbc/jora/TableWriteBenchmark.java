@@ -0,0 +1,183 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sg.atom.db.jdbc.jora;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import sg.atom.db.jdbc.ColumnDefinition;
+import sg.atom.db.jdbc.liaison.HsqldbLiaison;
+
+/**
+ * Compare the JORA {@link Table} write path with and without its statement
+ * cache, against an in-memory HSQLDB database created through the
+ * {@link HsqldbLiaison}.
+ *
+ * <p>The "serialized" run reproduces the former behavior: writes synchronized
+ * on the table and one statement prepared per call. The "concurrent" run use
+ * the lock-free path with cached statements and batched array writes. Every
+ * writer thread has its own connection. Each writer checks its rows after
+ * the updates and after the deletes, so both runs must leave the same
+ * data.</p>
+ *
+ * <p>Need the hsqldb jar in the classpath. Usage: TableWriteBenchmark
+ * [threads] [rowsPerThread] [batchSize]</p>
+ *
+ * @author atomix
+ */
+public class TableWriteBenchmark {
+
+    public static class PlayerState {
+
+        public int id;
+        public String name;
+        public float x;
+        public float y;
+        public long score;
+    }
+    static final String URL = "jdbc:hsqldb:mem:jorabench";
+    static final String TABLE = "PLAYER_STATE";
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        Class.forName("org.hsqldb.jdbcDriver");
+        Connection admin = DriverManager.getConnection(URL, "SA", "");
+        HsqldbLiaison liaison = new HsqldbLiaison();
+        liaison.dropTable(admin, TABLE);
+        liaison.createTableIfMissing(admin, TABLE,
+                Arrays.asList("ID", "NAME", "X", "Y", "SCORE"),
+                Arrays.asList(new ColumnDefinition("INTEGER"), new ColumnDefinition("VARCHAR(64)"),
+                new ColumnDefinition("REAL"), new ColumnDefinition("REAL"), new ColumnDefinition("BIGINT")),
+                new ArrayList<List<String>>(), Arrays.asList("ID"));
+
+        Table<PlayerState> table = new Table<PlayerState>(PlayerState.class, TABLE, "id");
+        table.setBatchSize(batchSize);
+
+        System.out.println("threads=" + threads + " rows/thread=" + rows + " batch=" + batchSize);
+        for (int round = 0; round < 3; round++) {
+            // first round is warm up
+            report(round, "serialized", run(table, threads, rows, true));
+            report(round, "concurrent", run(table, threads, rows, false));
+        }
+        admin.close();
+    }
+
+    static void report(int round, String mode, long nanos) {
+        System.out.println((round == 0 ? "(warm up) " : "") + mode + ": " + nanos / 1000000 + " ms");
+    }
+
+    /**
+     * Each thread insert its rows one by one, update them by arrays of 100,
+     * then delete them by arrays of 100.
+     */
+    static long run(final Table<PlayerState> table, int threads, final int rows, final boolean serialized)
+            throws Exception {
+        table.setStatementCaching(!serialized);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final List<Exception> errors = new ArrayList<Exception>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * rows;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Connection conn = DriverManager.getConnection(URL, "SA", "");
+                        start.await();
+                        write(table, conn, base, rows, serialized);
+                        table.releaseStatements(conn);
+                        conn.close();
+                    } catch (Exception ex) {
+                        synchronized (errors) {
+                            errors.add(ex);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long time = System.nanoTime() - begin;
+        if (!errors.isEmpty()) {
+            throw errors.get(0);
+        }
+        return time;
+    }
+
+    static void write(Table<PlayerState> table, Connection conn, int base, int rows, boolean serialized)
+            throws SQLException {
+        PlayerState[] all = new PlayerState[rows];
+        for (int i = 0; i < rows; i++) {
+            PlayerState p = new PlayerState();
+            p.id = base + i;
+            p.name = "player" + p.id;
+            all[i] = p;
+            if (serialized) {
+                synchronized (table) {
+                    table.insert(conn, p);
+                }
+            } else {
+                table.insert(conn, p);
+            }
+        }
+        for (int i = 0; i < rows; i += 100) {
+            PlayerState[] slice = Arrays.copyOfRange(all, i, Math.min(i + 100, rows));
+            for (PlayerState p : slice) {
+                p.x += 1;
+                p.score += 10;
+            }
+            if (serialized) {
+                synchronized (table) {
+                    table.update(conn, slice);
+                }
+            } else {
+                table.update(conn, slice);
+            }
+        }
+        check(conn, base, rows, rows, 10L * rows, rows);
+        for (int i = 0; i < rows; i += 100) {
+            PlayerState[] slice = Arrays.copyOfRange(all, i, Math.min(i + 100, rows));
+            if (serialized) {
+                synchronized (table) {
+                    table.delete(conn, slice);
+                }
+            } else {
+                table.delete(conn, slice);
+            }
+        }
+        check(conn, base, rows, 0, 0, 0);
+    }
+
+    /**
+     * Checks the count, total score and total x of the rows of a writer.
+     */
+    static void check(Connection conn, int base, int rows, int count, long score, double x)
+            throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*), COALESCE(SUM(SCORE), 0), COALESCE(SUM(X), 0) FROM "
+                    + TABLE + " WHERE ID >= " + base + " AND ID < " + (base + rows));
+            rs.next();
+            if (rs.getInt(1) != count || rs.getLong(2) != score || rs.getDouble(3) != x) {
+                throw new IllegalStateException("Rows " + base + " to " + (base + rows) + ": " + rs.getInt(1)
+                        + " rows, score " + rs.getLong(2) + ", x " + rs.getDouble(3) + " instead of " + count
+                        + " rows, score " + score + ", x " + x);
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+}